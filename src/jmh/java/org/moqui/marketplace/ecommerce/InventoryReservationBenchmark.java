@@ -0,0 +1,177 @@
+package org.moqui.marketplace.ecommerce;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.*;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 并发下单库存扣减的压测
+ * 在H2内存库的 ECOMMERCE_PRODUCT 表上，8个线程各自以独立连接与事务反复购买1件商品，比较：
+ * conditionalDecrement（InventoryReservation 的条件扣减）、selectForUpdate（加锁读后写回）、
+ * checkThenWrite（原 create#Order 的无锁读取、内存判断后写回绝对值）。
+ *
+ * 每轮结束校验 初始库存 - 剩余库存 == 成功购买件数 且库存不为负；条件扣减与加锁读不满足时抛出异常，
+ * checkThenWrite 把丢失更新（超卖）的件数作为辅助计数 oversoldUnits 与吞吐量一起报告。
+ * hotProducts 控制争用程度，1 为全部线程抢同一商品。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class InventoryReservationBenchmark {
+    private static final String URL = "jdbc:h2:mem:inventory;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+    private static final long INITIAL_STOCK = 100_000_000L;
+    private static final InventoryReservation.Statements SQL = InventoryReservation.Statements.of(
+            "ECOMMERCE_PRODUCT", "ECOMMERCE_PRODUCT_ID", "STOCK_QUANTITY", "LAST_UPDATED_DATE");
+
+    @Param({"1", "16"})
+    public int hotProducts;
+
+    private final LongAdder sold = new LongAdder();
+    private final AtomicBoolean oversoldReported = new AtomicBoolean();
+    private Connection adminConnection;
+
+    @State(Scope.Thread)
+    public static class Session {
+        Connection connection;
+
+        @Setup(Level.Trial)
+        public void open() throws SQLException {
+            connection = DriverManager.getConnection(URL);
+            connection.setAutoCommit(false);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            connection.close();
+        }
+    }
+
+    /**
+     * checkThenWrite 的超卖件数；各线程的计数求和，只有一个线程在每轮结束（全部线程停止后）填入本轮结果
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Oversell {
+        public long oversoldUnits;
+
+        @TearDown(Level.Iteration)
+        public void report(InventoryReservationBenchmark benchmark) throws SQLException {
+            if (benchmark.oversoldReported.compareAndSet(false, true)) oversoldUnits = benchmark.oversold();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws SQLException {
+        if (adminConnection == null) adminConnection = DriverManager.getConnection(URL);
+        try (Statement statement = adminConnection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS ECOMMERCE_PRODUCT");
+            statement.execute("CREATE TABLE ECOMMERCE_PRODUCT (ECOMMERCE_PRODUCT_ID VARCHAR(40) PRIMARY KEY,"
+                    + " STOCK_QUANTITY BIGINT, LAST_UPDATED_DATE TIMESTAMP)");
+        }
+        try (PreparedStatement insert = adminConnection.prepareStatement(
+                "INSERT INTO ECOMMERCE_PRODUCT (ECOMMERCE_PRODUCT_ID, STOCK_QUANTITY) VALUES (?, ?)")) {
+            for (int i = 0; i < hotProducts; i++) {
+                insert.setString(1, productId(i));
+                insert.setLong(2, INITIAL_STOCK);
+                insert.executeUpdate();
+            }
+        }
+        sold.reset();
+        oversoldReported.set(false);
+    }
+
+    @TearDown(Level.Iteration)
+    public void verify(org.openjdk.jmh.infra.BenchmarkParams params) throws SQLException {
+        if (params.getBenchmark().endsWith("checkThenWrite")) return;
+        long oversold = oversold();
+        if (oversold != 0L || negativeProducts() != 0L) {
+            throw new IllegalStateException(params.getBenchmark() + " oversold " + oversold + " units");
+        }
+    }
+
+    /** 成功购买件数与实际减少的库存之差 */
+    long oversold() throws SQLException {
+        long remaining = 0L;
+        try (Statement statement = adminConnection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT SUM(STOCK_QUANTITY) FROM ECOMMERCE_PRODUCT")) {
+            if (rs.next()) remaining = rs.getLong(1);
+        }
+        return sold.sum() - (INITIAL_STOCK * hotProducts - remaining);
+    }
+
+    private long negativeProducts() throws SQLException {
+        try (Statement statement = adminConnection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM ECOMMERCE_PRODUCT WHERE STOCK_QUANTITY < 0")) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
+    }
+
+    @Benchmark
+    public boolean conditionalDecrement(Session session) throws SQLException {
+        InventoryReservation.Shortage shortage = InventoryReservation.reserve(session.connection, SQL,
+                Collections.singletonMap(randomProduct(), 1L), new Timestamp(System.currentTimeMillis()));
+        return finish(session.connection, shortage == null);
+    }
+
+    @Benchmark
+    public boolean selectForUpdate(Session session) throws SQLException {
+        String productId = randomProduct();
+        long stock = readStock(session.connection, productId, true);
+        boolean ok = stock >= 1L && writeStock(session.connection, productId, stock - 1L);
+        return finish(session.connection, ok);
+    }
+
+    @Benchmark
+    public boolean checkThenWrite(Session session, Oversell oversell) throws SQLException {
+        String productId = randomProduct();
+        long stock = readStock(session.connection, productId, false);
+        boolean ok = stock >= 1L && writeStock(session.connection, productId, stock - 1L);
+        return finish(session.connection, ok);
+    }
+
+    private boolean finish(Connection connection, boolean ok) throws SQLException {
+        if (ok) {
+            connection.commit();
+            sold.increment();
+        } else {
+            connection.rollback();
+        }
+        return ok;
+    }
+
+    private String randomProduct() {
+        return productId(ThreadLocalRandom.current().nextInt(hotProducts));
+    }
+
+    private static String productId(int index) {
+        return "P" + index;
+    }
+
+    private static long readStock(Connection connection, String productId, boolean forUpdate) throws SQLException {
+        String sql = "SELECT STOCK_QUANTITY FROM ECOMMERCE_PRODUCT WHERE ECOMMERCE_PRODUCT_ID = ?" + (forUpdate ? " FOR UPDATE" : "");
+        try (PreparedStatement select = connection.prepareStatement(sql)) {
+            select.setString(1, productId);
+            try (ResultSet rs = select.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        }
+    }
+
+    private static boolean writeStock(Connection connection, String productId, long stock) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE ECOMMERCE_PRODUCT SET STOCK_QUANTITY = ? WHERE ECOMMERCE_PRODUCT_ID = ?")) {
+            update.setLong(1, stock);
+            update.setString(2, productId);
+            return update.executeUpdate() == 1;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.moqui.marketplace.hivemind;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HiveMind 项目任务拉取的压测
+ * 本地桩服务器（JDK HttpServer）模拟 GET /projects/{id}/tasks，返回约 taskCount 条任务的JSON并带ETag，
+ * 请求带匹配的 If-None-Match 时返回304。8个线程反复拉取 projectCount 个项目的任务，比较：
+ * newClientPerCall（原 call#HiveMindApi 每次新建 HttpClient 并同步发送）、sharedClient（共享 HiveMindClient，不用缓存）、
+ * sharedClientConditional（共享 HiveMindClient 加条件请求缓存）。
+ *
+ * 任务列表不变时条件请求只传输304响应头；每次调用都校验得到200与完整的任务列表（304时来自缓存）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class HiveMindClientBenchmark {
+    @Param({"20"})
+    public int taskCount;
+
+    @Param({"16"})
+    public int projectCount;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String baseUrl;
+    private byte[] tasksBody;
+    private String etag;
+    private HiveMindClient sharedClient;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        StringBuilder json = new StringBuilder("{\"tasks\":[");
+        for (int i = 0; i < taskCount; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\":\"T").append(i).append("\",\"name\":\"现场搭建阶段").append(i)
+                    .append("\",\"status\":\"IN_PROGRESS\",\"assignee\":\"crew-").append(i % 5)
+                    .append("\",\"progress\":").append(i * 5 % 100)
+                    .append(",\"description\":\"按照设计图进行现场组装，完成后提交验收照片\"}");
+        }
+        json.append("]}");
+        tasksBody = json.toString().getBytes(StandardCharsets.UTF_8);
+        etag = "\"tasks-" + taskCount + "\"";
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 512);
+        serverExecutor = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverExecutor);
+        server.createContext("/api/projects/", exchange -> {
+            try {
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.getResponseHeaders().add("ETag", etag);
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.getResponseHeaders().add("ETag", etag);
+                exchange.sendResponseHeaders(200, tasksBody.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(tasksBody);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+        sharedClient = new HiveMindClient(HiveMindClient.Settings.defaults(baseUrl).token("benchmark-token")
+                .timeoutSeconds(10).retry(1, 0L).concurrency(64, 1024));
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    private String tasksUrl(Cursor cursor) {
+        cursor.next = (cursor.next + 1) % projectCount;
+        return baseUrl + "/projects/P" + cursor.next + "/tasks";
+    }
+
+    @Benchmark
+    public int newClientPerCall(Cursor cursor) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create(tasksUrl(cursor)))
+                .header("Accept", "application/json")
+                .header("Authorization", "Bearer benchmark-token")
+                .timeout(Duration.ofSeconds(10))
+                .GET().build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        return checked(response.statusCode(), response.body());
+    }
+
+    @Benchmark
+    public int sharedClient(Cursor cursor) {
+        HiveMindClient.Response response = sharedClient.send(sharedClient.request("GET", tasksUrl(cursor)).cacheable(false));
+        return checked(response.getStatusCode(), response.getBody());
+    }
+
+    @Benchmark
+    public int sharedClientConditional(Cursor cursor) {
+        HiveMindClient.Response response = sharedClient.send(sharedClient.request("GET", tasksUrl(cursor)));
+        return checked(response.getStatusCode(), response.getBody());
+    }
+
+    private int checked(int statusCode, String body) {
+        if (statusCode != 200 || body == null || body.length() < taskCount) {
+            throw new IllegalStateException("Unexpected stub response: HTTP " + statusCode);
+        }
+        return body.length();
+    }
+}
@@ -0,0 +1,426 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityListIterator;
+import org.moqui.entity.EntityValue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基准测试用的内存实体存储
+ * 只实现匹配引擎与商品推荐用到的查询能力：等值、IN、NOT_EQUAL、大小比较条件，selectField、distinct、orderBy、offset、limit，
+ * 以及 list / one / iterator / count。等值与IN条件按字段建立哈希索引，避免基准结果被全表扫描主导。
+ *
+ * EntityFind、EntityList、EntityListIterator、EntityValue 均为动态代理，不依赖 Moqui 运行时；
+ * 查询返回的值与存储共享，数据在基准准备阶段写入后只读。
+ */
+public final class InMemoryEntityStore {
+    // 代理方法 → 是否委托给 Map / List，以及委托目标上的对应方法（避免每次调用反射查找）
+    private static final Map<Method, Boolean> delegateMethods = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Map<Method, Method>> targetMethods = new ConcurrentHashMap<>();
+
+    private final Map<String, List<EntityValue>> rowsByEntity = new ConcurrentHashMap<>();
+    /** 实体 → 字段 → 字段值 → 记录，首次按该字段查询时构建 */
+    private final Map<String, Map<String, Map<Object, List<EntityValue>>>> indexes = new ConcurrentHashMap<>();
+    private final AtomicLong queryCount = new AtomicLong();
+
+    /** 新建实体值（未写入存储） */
+    EntityValue makeValue(String entityName) {
+        return newValue(entityName, new HashMap<>());
+    }
+
+    /** 写入一条记录 */
+    public EntityValue create(String entityName, Map<String, Object> fields) {
+        EntityValue value = newValue(entityName, new HashMap<>(fields));
+        insert(value);
+        return value;
+    }
+
+    void createBulk(List<EntityValue> values) {
+        for (EntityValue value : values) insert(value);
+    }
+
+    /** 已执行的查询次数（list / one / iterator / count 各计一次） */
+    long getQueryCount() {
+        return queryCount.get();
+    }
+
+    int size(String entityName) {
+        List<EntityValue> rows = rowsByEntity.get(entityName);
+        return rows != null ? rows.size() : 0;
+    }
+
+    EntityFind find(String entityName) {
+        return (EntityFind) Proxy.newProxyInstance(EntityFind.class.getClassLoader(), new Class<?>[]{EntityFind.class},
+                new FindHandler(entityName));
+    }
+
+    private void insert(EntityValue value) {
+        String entityName = value.getEntityName();
+        rowsByEntity.computeIfAbsent(entityName, k -> Collections.synchronizedList(new ArrayList<>())).add(value);
+        indexes.remove(entityName);
+    }
+
+    private List<EntityValue> rows(String entityName) {
+        List<EntityValue> rows = rowsByEntity.get(entityName);
+        return rows != null ? rows : Collections.emptyList();
+    }
+
+    private Map<Object, List<EntityValue>> index(String entityName, String fieldName) {
+        return indexes.computeIfAbsent(entityName, k -> new ConcurrentHashMap<>()).computeIfAbsent(fieldName, k -> {
+            Map<Object, List<EntityValue>> index = new HashMap<>();
+            synchronized (rows(entityName)) {
+                for (EntityValue row : rows(entityName)) {
+                    Object key = row.get(fieldName);
+                    if (key != null) index.computeIfAbsent(key, v -> new ArrayList<>(1)).add(row);
+                }
+            }
+            return index;
+        });
+    }
+
+    // ==================== 查询 ====================
+
+    private static final class Condition {
+        final String fieldName;
+        final String operator;
+        final Object value;
+
+        Condition(String fieldName, String operator, Object value) {
+            this.fieldName = fieldName;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        boolean matches(EntityValue row) {
+            Object fieldValue = row.get(fieldName);
+            switch (operator) {
+                case "EQUALS": return Objects.equals(fieldValue, value);
+                case "NOT_EQUAL": return !Objects.equals(fieldValue, value);
+                case "IN": return fieldValue != null && ((Collection<?>) value).contains(fieldValue);
+                case "NOT_IN": return fieldValue == null || !((Collection<?>) value).contains(fieldValue);
+                default:
+                    if (fieldValue == null || value == null) return false;
+                    int compared = compare(fieldValue, value);
+                    switch (operator) {
+                        case "LESS_THAN": return compared < 0;
+                        case "GREATER_THAN": return compared > 0;
+                        case "LESS_THAN_EQUAL_TO": return compared <= 0;
+                        case "GREATER_THAN_EQUAL_TO": return compared >= 0;
+                        default: throw new UnsupportedOperationException("Operator not supported: " + operator);
+                    }
+            }
+        }
+
+        boolean indexable() {
+            return "EQUALS".equals(operator) ? value != null : "IN".equals(operator);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return new BigDecimal(left.toString()).compareTo(new BigDecimal(right.toString()));
+        }
+        return ((Comparable) left).compareTo(right);
+    }
+
+    private final class FindHandler implements InvocationHandler {
+        private final String entityName;
+        private final List<Condition> conditions = new ArrayList<>();
+        private final List<String> selectFields = new ArrayList<>();
+        private final List<String> orderByFields = new ArrayList<>();
+        private boolean distinct = false;
+        private Integer offset;
+        private Integer limit;
+
+        FindHandler(String entityName) {
+            this.entityName = entityName;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "condition":
+                    if (args.length == 2 && args[0] instanceof String) {
+                        conditions.add(new Condition((String) args[0], "EQUALS", args[1]));
+                    } else if (args.length == 3) {
+                        conditions.add(new Condition((String) args[0], ((Enum<?>) args[1]).name(), args[2]));
+                    } else if (args.length == 1 && args[0] instanceof Map) {
+                        for (Map.Entry<?, ?> entry : ((Map<?, ?>) args[0]).entrySet()) {
+                            conditions.add(new Condition(entry.getKey().toString(), "EQUALS", entry.getValue()));
+                        }
+                    } else {
+                        throw new UnsupportedOperationException("Condition form not supported: " + Arrays.toString(args));
+                    }
+                    return proxy;
+                case "selectField":
+                    selectFields.add((String) args[0]);
+                    return proxy;
+                case "orderBy":
+                    orderByFields.add((String) args[0]);
+                    return proxy;
+                case "distinct":
+                    distinct = Boolean.TRUE.equals(args[0]);
+                    return proxy;
+                case "limit":
+                    limit = (Integer) args[0];
+                    return proxy;
+                case "offset":
+                    offset = (Integer) args[0];
+                    return proxy;
+                case "forUpdate":
+                case "useCache":
+                case "disableAuthz":
+                    return proxy;
+                case "list":
+                    return newList(execute());
+                case "one": {
+                    List<EntityValue> results = execute();
+                    return results.isEmpty() ? null : results.get(0);
+                }
+                case "iterator":
+                    return newIterator(execute());
+                case "count":
+                    return (long) execute().size();
+                case "toString":
+                    return "InMemoryFind[" + entityName + "]";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException("EntityFind." + method.getName() + " not supported in benchmark");
+            }
+        }
+
+        private List<EntityValue> execute() {
+            queryCount.incrementAndGet();
+            List<EntityValue> candidates = null;
+            Condition indexed = null;
+            for (Condition condition : conditions) {
+                if (!condition.indexable()) continue;
+                Map<Object, List<EntityValue>> index = index(entityName, condition.fieldName);
+                List<EntityValue> hits;
+                if ("IN".equals(condition.operator)) {
+                    hits = new ArrayList<>();
+                    for (Object key : (Collection<?>) condition.value) {
+                        List<EntityValue> keyHits = index.get(key);
+                        if (keyHits != null) hits.addAll(keyHits);
+                    }
+                } else {
+                    hits = index.getOrDefault(condition.value, Collections.emptyList());
+                }
+                if (candidates == null || hits.size() < candidates.size()) {
+                    candidates = hits;
+                    indexed = condition;
+                }
+            }
+            if (candidates == null) candidates = new ArrayList<>(rows(entityName));
+
+            List<EntityValue> results = new ArrayList<>();
+            for (EntityValue row : candidates) {
+                boolean matches = true;
+                for (Condition condition : conditions) {
+                    if (condition != indexed && !condition.matches(row)) {
+                        matches = false;
+                        break;
+                    }
+                }
+                if (matches) results.add(row);
+            }
+
+            if (distinct && !selectFields.isEmpty()) {
+                Map<List<Object>, EntityValue> unique = new LinkedHashMap<>();
+                for (EntityValue row : results) {
+                    List<Object> key = new ArrayList<>(selectFields.size());
+                    Map<String, Object> selected = new HashMap<>();
+                    for (String fieldName : selectFields) {
+                        key.add(row.get(fieldName));
+                        selected.put(fieldName, row.get(fieldName));
+                    }
+                    unique.putIfAbsent(key, newValue(entityName, selected));
+                }
+                results = new ArrayList<>(unique.values());
+            }
+            if (!orderByFields.isEmpty()) results.sort(this::compareRows);
+            if (offset != null && offset > 0) results = new ArrayList<>(results.subList(Math.min(offset, results.size()), results.size()));
+            if (limit != null && results.size() > limit) results = new ArrayList<>(results.subList(0, limit));
+            return results;
+        }
+
+        private int compareRows(EntityValue left, EntityValue right) {
+            for (String orderBy : orderByFields) {
+                boolean descending = orderBy.startsWith("-");
+                String fieldName = descending ? orderBy.substring(1) : orderBy;
+                Object leftValue = left.get(fieldName);
+                Object rightValue = right.get(fieldName);
+                int compared;
+                if (leftValue == null || rightValue == null) {
+                    compared = leftValue == null ? (rightValue == null ? 0 : -1) : 1;
+                } else {
+                    compared = compare(leftValue, rightValue);
+                }
+                if (compared != 0) return descending ? -compared : compared;
+            }
+            return 0;
+        }
+    }
+
+    // ==================== 代理对象 ====================
+
+    private EntityValue newValue(String entityName, Map<String, Object> fields) {
+        return (EntityValue) Proxy.newProxyInstance(EntityValue.class.getClassLoader(), new Class<?>[]{EntityValue.class},
+                new ValueHandler(entityName, fields));
+    }
+
+    private final class ValueHandler implements InvocationHandler {
+        private final String entityName;
+        private final Map<String, Object> fields;
+
+        ValueHandler(String entityName, Map<String, Object> fields) {
+            this.entityName = entityName;
+            this.fields = fields;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getEntityName":
+                    return entityName;
+                case "get":
+                    return fields.get(args[0]);
+                case "containsKey":
+                    return fields.containsKey(args[0]);
+                case "getString": {
+                    Object value = fields.get(args[0]);
+                    return value != null ? value.toString() : null;
+                }
+                case "getBigDecimal": {
+                    Object value = fields.get(args[0]);
+                    if (value == null || value instanceof BigDecimal) return value;
+                    return new BigDecimal(value.toString());
+                }
+                case "getTimestamp": {
+                    Object value = fields.get(args[0]);
+                    if (value == null || value instanceof Timestamp) return value;
+                    if (value instanceof Date) return new Timestamp(((Date) value).getTime());
+                    return Timestamp.valueOf(value.toString());
+                }
+                case "getLong": {
+                    Object value = fields.get(args[0]);
+                    if (value == null || value instanceof Long) return value;
+                    return value instanceof Number ? ((Number) value).longValue() : Long.valueOf(value.toString());
+                }
+                case "getDouble": {
+                    Object value = fields.get(args[0]);
+                    if (value == null || value instanceof Double) return value;
+                    return value instanceof Number ? ((Number) value).doubleValue() : Double.valueOf(value.toString());
+                }
+                case "getMap":
+                    return new HashMap<>(fields);
+                case "set":
+                    fields.put((String) args[0], args[1]);
+                    return proxy;
+                case "setAll": {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> values = (Map<String, Object>) args[0];
+                    fields.putAll(values);
+                    return proxy;
+                }
+                case "setSequencedIdPrimary":
+                    return proxy;
+                case "create":
+                case "createOrUpdate":
+                    insert((EntityValue) proxy);
+                    return proxy;
+                case "store":
+                case "update":
+                    return proxy;
+                case "delete":
+                    List<EntityValue> rows = rowsByEntity.get(entityName);
+                    if (rows != null) rows.remove(proxy);
+                    indexes.remove(entityName);
+                    return null;
+                case "toString":
+                    return entityName + fields;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    if (declaredBy(Map.class, method)) return invokeOn(fields, method, args);
+                    throw new UnsupportedOperationException("EntityValue." + method.getName() + " not supported in benchmark");
+            }
+        }
+    }
+
+    private EntityList newList(List<EntityValue> values) {
+        ArrayList<EntityValue> delegate = new ArrayList<>(values);
+        return (EntityList) Proxy.newProxyInstance(EntityList.class.getClassLoader(), new Class<?>[]{EntityList.class},
+                (proxy, method, args) -> {
+                    if (declaredBy(List.class, method)) return invokeOn(delegate, method, args);
+                    throw new UnsupportedOperationException("EntityList." + method.getName() + " not supported in benchmark");
+                });
+    }
+
+    /** 与 Moqui 的 EntityListIterator 一致：next() 到末尾时返回null */
+    private EntityListIterator newIterator(List<EntityValue> values) {
+        Iterator<EntityValue> delegate = values.iterator();
+        return (EntityListIterator) Proxy.newProxyInstance(EntityListIterator.class.getClassLoader(),
+                new Class<?>[]{EntityListIterator.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next": return delegate.hasNext() ? delegate.next() : null;
+                        case "hasNext": return delegate.hasNext();
+                        case "close": return null;
+                        case "getCompleteList": {
+                            List<EntityValue> rest = new ArrayList<>();
+                            delegate.forEachRemaining(rest::add);
+                            return newList(rest);
+                        }
+                        case "hashCode": return System.identityHashCode(proxy);
+                        case "equals": return proxy == args[0];
+                        case "toString": return "InMemoryEntityListIterator";
+                        default:
+                            throw new UnsupportedOperationException("EntityListIterator." + method.getName() + " not supported in benchmark");
+                    }
+                });
+    }
+
+    /** 方法是否属于 Map / List 接口（实体接口可能重新声明 get 等方法） */
+    private static boolean declaredBy(Class<?> collectionType, Method method) {
+        return delegateMethods.computeIfAbsent(method, m -> {
+            try {
+                collectionType.getMethod(m.getName(), m.getParameterTypes());
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        });
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        Method targetMethod = targetMethods.computeIfAbsent(target.getClass(), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(method, m -> {
+                    try {
+                        return target.getClass().getMethod(m.getName(), m.getParameterTypes());
+                    } catch (NoSuchMethodException e) {
+                        throw new UnsupportedOperationException(m.getName() + " not supported in benchmark", e);
+                    }
+                });
+        try {
+            return targetMethod.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ResourceFacade;
+import org.moqui.context.UserFacade;
+import org.moqui.entity.EntityFacade;
+import org.moqui.entity.EntityValue;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * 基准测试用的 ExecutionContext
+ * 只提供匹配引擎用到的 getEntity / getResource / getUser，实体访问落到 InMemoryEntityStore。
+ * component://moqui-marketplace/ 下的资源（matching-config.json）从组件目录读取，
+ * 组件目录取系统属性 marketplace.benchmark.component.dir，默认为当前工作目录。
+ */
+public final class InMemoryExecutionContext {
+    private static final String COMPONENT_PREFIX = "component://moqui-marketplace/";
+
+    private InMemoryExecutionContext() { }
+
+    public static ExecutionContext create(InMemoryEntityStore store) {
+        EntityFacade entity = (EntityFacade) Proxy.newProxyInstance(EntityFacade.class.getClassLoader(),
+                new Class<?>[]{EntityFacade.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "find": return store.find((String) args[0]);
+                        case "makeValue": return store.makeValue((String) args[0]);
+                        case "createBulk": {
+                            @SuppressWarnings("unchecked")
+                            List<EntityValue> values = (List<EntityValue>) args[0];
+                            store.createBulk(values);
+                            return null;
+                        }
+                        default: return unsupported(proxy, "EntityFacade", method.getName(), args);
+                    }
+                });
+
+        ResourceFacade resource = (ResourceFacade) Proxy.newProxyInstance(ResourceFacade.class.getClassLoader(),
+                new Class<?>[]{ResourceFacade.class}, (proxy, method, args) -> {
+                    if ("getLocationText".equals(method.getName())) return readLocation((String) args[0]);
+                    // getLocationReference 等不支持，MatchingConfig 按无修改时间处理
+                    return unsupported(proxy, "ResourceFacade", method.getName(), args);
+                });
+
+        UserFacade user = (UserFacade) Proxy.newProxyInstance(UserFacade.class.getClassLoader(),
+                new Class<?>[]{UserFacade.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getNowTimestamp": return new Timestamp(System.currentTimeMillis());
+                        case "getUserId": return "BENCHMARK";
+                        default: return unsupported(proxy, "UserFacade", method.getName(), args);
+                    }
+                });
+
+        return (ExecutionContext) Proxy.newProxyInstance(ExecutionContext.class.getClassLoader(),
+                new Class<?>[]{ExecutionContext.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getEntity": return entity;
+                        case "getResource": return resource;
+                        case "getUser": return user;
+                        case "destroy": return null;
+                        default: return unsupported(proxy, "ExecutionContext", method.getName(), args);
+                    }
+                });
+    }
+
+    private static String readLocation(String location) throws IOException {
+        if (location == null) return null;
+        Path path;
+        if (location.startsWith(COMPONENT_PREFIX)) {
+            String componentDir = System.getProperty("marketplace.benchmark.component.dir", ".");
+            path = Paths.get(componentDir, location.substring(COMPONENT_PREFIX.length()));
+        } else if (location.startsWith("file:")) {
+            path = Paths.get(location.substring("file:".length()));
+        } else {
+            path = Paths.get(location);
+        }
+        return Files.isRegularFile(path) ? new String(Files.readAllBytes(path), StandardCharsets.UTF_8) : null;
+    }
+
+    private static Object unsupported(Object proxy, String type, String methodName, Object[] args) {
+        switch (methodName) {
+            case "hashCode": return System.identityHashCode(proxy);
+            case "equals": return proxy == args[0];
+            case "toString": return "InMemory" + type;
+            default: throw new UnsupportedOperationException(type + "." + methodName + " not supported in benchmark");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 匹配引擎基准测试
+ * 在合成市场数据（SyntheticMarketplace）与内存实体存储上测量 calculateMatchScore、extractProjectProfile
+ * 与 findMatchesForListing，候选规模 1k / 10k / 100k。
+ *
+ * 运行：./gradlew :runtime:component:moqui-marketplace:jmh，结果（含 -prof gc 的每次操作分配量）
+ * 写入 build/reports/jmh/results.json；可用 -PjmhArgs="..." 追加 JMH 参数，如只运行某个方法或调整参数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// 未找到日志配置时把默认级别设为WARN，避免每次匹配的INFO日志计入耗时
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "-Dorg.apache.logging.log4j.level=WARN"})
+public class SmartMatchingEngineBenchmark {
+    private static final long SEED = 20240601L;
+    private static final int MAX_RESULTS = 20;
+
+    @Param({"1000", "10000", "100000"})
+    public int candidateCount;
+
+    private ExecutionContext ec;
+    private SmartMatchingEngine engine;
+    private EntityValue source;
+    private EntityValue[] candidates;
+    private ListingHydration candidateHydration;
+    private BigDecimal minScore;
+    private int cursor = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        resetStaticCaches();
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        SyntheticMarketplace market = SyntheticMarketplace.generate(store, candidateCount, SEED);
+        ec = InMemoryExecutionContext.create(store);
+        engine = new SmartMatchingEngine(ec);
+        minScore = SmartMatchingEngine.getConfiguredDefaultMinScore(ec);
+
+        source = market.getSource();
+        List<EntityValue> candidateList = market.getCandidates();
+        candidates = candidateList.toArray(new EntityValue[0]);
+        candidateHydration = ListingHydration.load(ec, candidateList);
+        // 内存索引在首次匹配时构建，不计入测量
+        MatchingIndexes.ensureLoaded(ec);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        resetStaticCaches();
+    }
+
+    private static void resetStaticCaches() {
+        MatchingIndexes.invalidateAll();
+        SmartMatchingEngine.clearCachedConfig();
+    }
+
+    private EntityValue nextCandidate() {
+        EntityValue candidate = candidates[cursor];
+        cursor = cursor + 1 < candidates.length ? cursor + 1 : 0;
+        return candidate;
+    }
+
+    /** 单个供需对的完整评分（含两条Listing的关联数据装载），依次轮换候选 */
+    @Benchmark
+    public Map<String, Object> calculateMatchScore() {
+        return engine.calculateMatchScore(source, nextCandidate());
+    }
+
+    /** 单条Listing的项目画像提取（关联数据已装载），依次轮换候选 */
+    @Benchmark
+    public Object extractProjectProfile() {
+        return engine.extractProjectProfile(nextCandidate(), candidateHydration);
+    }
+
+    /** 项目画像缓存已预热时的完整匹配 */
+    @Benchmark
+    public List<Map<String, Object>> findMatchesForListing() {
+        return engine.findMatchesForListing(SyntheticMarketplace.SOURCE_LISTING_ID, MAX_RESULTS, minScore);
+    }
+
+    /** 每次先清空项目画像缓存，测量全部候选重新提取画像时的完整匹配 */
+    @Benchmark
+    public List<Map<String, Object>> findMatchesForListingColdProfiles() {
+        ProjectProfileCache.invalidateAll();
+        return engine.findMatchesForListing(SyntheticMarketplace.SOURCE_LISTING_ID, MAX_RESULTS, minScore);
+    }
+}
@@ -0,0 +1,220 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.entity.EntityValue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * 基准测试用的合成市场数据
+ * 按固定种子生成中文供需信息、标签、坐标、用户画像与识别信息（ListingInsight），同一参数每次生成的内容相同；
+ * 时间字段按生成时刻的相对偏移生成。
+ *
+ * 源Listing为基准品类下的一条需求，该品类下的 candidateCount 条供应即其候选集；
+ * 另生成同品类的需求与其他品类的供需作为背景数据，使查询条件真正起到过滤作用。
+ */
+final class SyntheticMarketplace {
+    static final String SOURCE_LISTING_ID = "BENCH_SOURCE";
+    static final String BENCH_CATEGORY = "EXHIBITION_SETUP";
+
+    private static final String[] CATEGORIES = {BENCH_CATEGORY, "RENOVATION", "ENGINEERING"};
+    private static final String[][] SUB_CATEGORIES = {
+            {"BOOTH", "HALL", "ROADSHOW"}, {"OFFICE", "STORE", "HOME"}, {"STEEL", "MEP", "CIVIL"}};
+    private static final String[] TAG_IDS = {"ATTR_ORGANIC", "ATTR_GREEN", "ATTR_FRESH", "ATTR_FROZEN",
+            "ATTR_WHOLESALE", "ATTR_RETAIL", "TIME_TODAY", "TIME_TOMORROW", "TIME_PREORDER", "TIME_LONGTERM",
+            "DELIVERY_YES", "DELIVERY_PICKUP", "DELIVERY_BOTH"};
+
+    private static final String[] CITIES = {"上海", "北京", "广州", "深圳", "杭州", "成都", "武汉", "南京", "西安", "重庆"};
+    private static final double[][] CITY_COORDINATES = {{31.23, 121.47}, {39.90, 116.40}, {23.13, 113.26},
+            {22.54, 114.06}, {30.27, 120.15}, {30.57, 104.07}, {30.59, 114.31}, {32.06, 118.80},
+            {34.34, 108.94}, {29.56, 106.55}};
+    private static final String[] VENUES = {"国际会展中心", "新国际博览中心", "国家会展中心", "世博展览馆", "科技馆"};
+    private static final String[][] SERVICES = {
+            {"展台搭建", "特装展位设计", "巡展布展", "展厅改造"},
+            {"办公室装修", "店面翻新", "家装软装", "工装施工"},
+            {"钢结构安装", "机电工程", "消防弱电", "土建总包"}};
+    private static final String[] STYLES = {"现代简约", "科技感", "工业风", "中式", "北欧", "奢华"};
+    private static final String[] MATERIALS = {"桁架", "LED屏", "铝合金", "灯光音响", "地毯", "玻璃", "石材", "喷绘"};
+    private static final String[] DURATION_UNITS = {"天", "周", "月"};
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final SplittableRandom random;
+    private final long baseMillis = System.currentTimeMillis();
+    private final List<EntityValue> candidates = new ArrayList<>();
+    private final List<EntityValue> listings = new ArrayList<>();
+    private EntityValue source;
+
+    private SyntheticMarketplace(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * 生成数据并写入存储
+     *
+     * @param candidateCount 源Listing的候选数（基准品类下的ACTIVE供应数）
+     */
+    static SyntheticMarketplace generate(InMemoryEntityStore store, int candidateCount, long seed) {
+        SyntheticMarketplace market = new SyntheticMarketplace(seed);
+        int partyCount = Math.max(10, candidateCount / 5);
+        for (int i = 0; i < partyCount; i++) market.createProfile(store, partyId(i));
+
+        market.source = market.createListing(store, SOURCE_LISTING_ID, "DEMAND", 0, partyCount, "ACTIVE");
+        for (int i = 0; i < candidateCount; i++) {
+            market.candidates.add(market.createListing(store, listingId(i), "SUPPLY", 0, partyCount, "ACTIVE"));
+        }
+        // 背景数据：同品类需求、其他品类供需、少量已关闭的同品类供应
+        int backgroundCount = Math.max(10, candidateCount / 4);
+        for (int i = 0; i < backgroundCount; i++) {
+            int index = candidateCount + i;
+            int categoryIndex = i % CATEGORIES.length;
+            String listingType = i % 2 == 0 ? "DEMAND" : "SUPPLY";
+            String status = categoryIndex == 0 && i % 7 == 0 ? "CLOSED" : "ACTIVE";
+            if (categoryIndex == 0 && "SUPPLY".equals(listingType) && "ACTIVE".equals(status)) listingType = "DEMAND";
+            market.createListing(store, listingId(index), listingType, categoryIndex, partyCount, status);
+        }
+        return market;
+    }
+
+    EntityValue getSource() {
+        return source;
+    }
+
+    /** 源Listing的候选（基准品类下的ACTIVE供应），按生成顺序 */
+    List<EntityValue> getCandidates() {
+        return candidates;
+    }
+
+    /** 全部生成的Listing（含源与背景数据） */
+    List<EntityValue> getListings() {
+        return listings;
+    }
+
+    private static String listingId(int index) {
+        return String.format("BL%07d", index);
+    }
+
+    private static String partyId(int index) {
+        return String.format("BP%06d", index);
+    }
+
+    private void createProfile(InMemoryEntityStore store, String partyId) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("partyId", partyId);
+        fields.put("profileType", random.nextBoolean() ? "SUPPLIER" : "BUYER");
+        fields.put("creditScore", decimal(0.5 + random.nextDouble() * 0.5, 2));
+        fields.put("totalOrders", (long) random.nextInt(40));
+        StringBuilder preferred = new StringBuilder();
+        for (String category : CATEGORIES) {
+            if (random.nextInt(3) == 0) preferred.append(preferred.length() > 0 ? "," : "").append(category);
+        }
+        fields.put("preferredCategories", preferred.length() > 0 ? preferred.toString() : null);
+        fields.put("mainCategories", fields.get("preferredCategories"));
+        store.create("marketplace.profile.UserProfile", fields);
+    }
+
+    private EntityValue createListing(InMemoryEntityStore store, String listingId, String listingType, int categoryIndex,
+                                      int partyCount, String status) {
+        int cityIndex = random.nextInt(CITIES.length);
+        String city = CITIES[cityIndex];
+        String service = pick(SERVICES[categoryIndex]);
+        String style = pick(STYLES);
+        String material = pick(MATERIALS);
+        int area = 20 + random.nextInt(480);
+        int budgetWan = 2 + random.nextInt(98);
+        int duration = 3 + random.nextInt(27);
+        String durationUnit = pick(DURATION_UNITS);
+
+        String title;
+        String description;
+        if ("DEMAND".equals(listingType)) {
+            title = city + pick(VENUES) + service + "需求";
+            description = "项目位于" + city + "，需要" + service + "，面积约" + area + "平米，预算" + budgetWan + "万，工期"
+                    + duration + durationUnit + "，风格偏" + style + "，需使用" + material + "。";
+        } else {
+            title = "专业" + service + "团队承接" + city + "项目";
+            description = "多年" + service + "经验，擅长" + style + "风格，自有" + material + "等设备，可承接" + area
+                    + "平米以内项目，报价" + budgetWan + "万起，" + duration + durationUnit + "内完工。";
+        }
+
+        double priceMin = budgetWan * 10000.0 * (0.8 + random.nextDouble() * 0.4);
+        long createdMillis = baseMillis - (long) (random.nextDouble() * 30 * DAY_MILLIS);
+        Timestamp createdDate = new Timestamp(createdMillis);
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("listingId", listingId);
+        fields.put("listingType", listingType);
+        fields.put("publisherId", partyId(random.nextInt(partyCount)));
+        fields.put("publisherType", "SUPPLY".equals(listingType) ? "MERCHANT" : "CUSTOMER");
+        fields.put("title", title);
+        fields.put("description", description);
+        fields.put("category", CATEGORIES[categoryIndex]);
+        fields.put("subCategory", pick(SUB_CATEGORIES[categoryIndex]));
+        fields.put("quantity", BigDecimal.ONE);
+        fields.put("quantityUnit", "项");
+        fields.put("priceMin", decimal(priceMin, 2));
+        fields.put("priceMax", decimal(priceMin * (1.0 + random.nextDouble() * 0.5), 2));
+        fields.put("currencyUomId", "CNY");
+        fields.put("locationDesc", city);
+        fields.put("deliveryRange", decimal(5 + random.nextDouble() * 195, 1));
+        fields.put("status", status);
+        fields.put("createdDate", createdDate);
+        fields.put("lastUpdatedStamp", createdDate);
+
+        // 约5%的Listing无坐标
+        if (random.nextInt(20) != 0) {
+            String geoPointId = "BG" + listingId;
+            double[] center = CITY_COORDINATES[cityIndex];
+            Map<String, Object> geo = new HashMap<>();
+            geo.put("geoPointId", geoPointId);
+            geo.put("latitude", decimal(center[0] + (random.nextDouble() - 0.5), 6));
+            geo.put("longitude", decimal(center[1] + (random.nextDouble() - 0.5), 6));
+            store.create(ListingHydration.GEO_POINT_ENTITY, geo);
+            fields.put("geoPointId", geoPointId);
+        }
+
+        EntityValue listing = store.create("marketplace.listing.Listing", fields);
+        listings.add(listing);
+
+        int tagCount = 2 + random.nextInt(4);
+        Set<String> tagIds = new LinkedHashSet<>();
+        while (tagIds.size() < tagCount) tagIds.add(pick(TAG_IDS));
+        for (String tagId : tagIds) {
+            Map<String, Object> listingTag = new HashMap<>();
+            listingTag.put("listingId", listingId);
+            listingTag.put("tagId", tagId);
+            listingTag.put("weight", BigDecimal.ONE);
+            listingTag.put("source", "SYSTEM");
+            listingTag.put("createdDate", createdDate);
+            store.create("marketplace.listing.ListingTag", listingTag);
+        }
+
+        // 约60%的Listing带一条识别信息
+        if (random.nextInt(5) < 3) {
+            String metadataJson = "{\"projectType\":\"" + CATEGORIES[categoryIndex] + "\",\"estimatedArea\":" + area
+                    + ",\"budgetAmountCny\":" + budgetWan * 10000 + ",\"estimatedDurationDays\":" + duration
+                    + ",\"locationHints\":[\"" + city + "\"],\"styles\":[\"" + style + "\"],\"materials\":[\"" + material + "\"]}";
+            Map<String, Object> insight = new HashMap<>();
+            insight.put("listingId", listingId);
+            insight.put("insightSeqId", "01");
+            insight.put("insightType", random.nextBoolean() ? "VOICE" : "IMAGE");
+            insight.put("sourceType", "SYSTEM");
+            insight.put("confidence", decimal(0.6 + random.nextDouble() * 0.4, 2));
+            insight.put("summary", "识别到" + city + service + "，" + style + "风格，主要材料" + material);
+            insight.put("metadataJson", metadataJson);
+            insight.put("createdDate", createdDate);
+            store.create("marketplace.listing.ListingInsight", insight);
+        }
+        return listing;
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static BigDecimal decimal(double value, int scale) {
+        return BigDecimal.valueOf(value).setScale(scale, RoundingMode.HALF_UP);
+    }
+}
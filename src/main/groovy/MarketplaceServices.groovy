@@ -2,7 +2,9 @@ import org.moqui.context.ExecutionContext
 import org.moqui.entity.EntityValue
 import org.moqui.entity.EntityList
 import org.moqui.entity.EntityCondition
+import org.moqui.marketplace.matching.MatchingIndexes
 import org.moqui.marketplace.matching.SmartMatchingEngine
+import org.moqui.marketplace.stats.MerchantStatsEvents
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import java.sql.Timestamp
@@ -67,6 +69,8 @@ Map createListing() {
         imageUrls: imageUrls
     ])
     listing.create()
+    MatchingIndexes.refreshListing(ec, listingId)
+    MerchantStatsEvents.create().listingPublished(publisherId, category, listingType, ec.user.nowTimestamp).submitOnCommit(ec)
 
     // 自动提取标签（如果启用AI）
     Boolean enableTagExtraction = "true".equals(ec.factory.getToolFactory("ResourceFacade")
@@ -81,11 +85,11 @@ Map createListing() {
         logger.info("AI标签提取功能尚未实现")
     }
 
-    // 自动寻找匹配
+    // 自动寻找匹配：放入异步撮合队列，由后台工作线程处理
     try {
-        SmartMatchingEngine engine = new SmartMatchingEngine(ec)
-        List matches = engine.findMatchesForListing(listingId, 5, new BigDecimal("0.6"))
-        logger.info("Found ${matches.size()} potential matches for listing ${listingId}")
+        Map enqueueResult = ec.service.sync().name("marketplace.MatchingServices.enqueue#MatchWork")
+            .parameters([listingId: listingId, maxResults: 5, minScore: new BigDecimal("0.6")]).call()
+        logger.info("Queued matching for listing ${listingId}, queue depth ${enqueueResult?.queueDepth}")
 
         // 记录用户行为
         ec.service.sync().name("marketplace.MarketplaceServices.record#UserBehavior")
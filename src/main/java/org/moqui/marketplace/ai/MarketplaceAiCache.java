@@ -0,0 +1,242 @@
+package org.moqui.marketplace.ai;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * process#MarketplaceMessage 的会话上下文与意图分类缓存
+ * 会话上下文（最近几轮对话）按会话与商家缓存 context.ttl.seconds，本节点处理完的一轮对话直接追加到缓存，
+ * 不依赖异步写入的对话记录何时落库；意图分类结果按商家与规范化后的消息缓存，同一商家重复发送相同内容时不再调用分类服务。
+ */
+public final class MarketplaceAiCache {
+    private static final Logger logger = LoggerFactory.getLogger(MarketplaceAiCache.class);
+
+    public static final String CONTEXT_TTL_PROPERTY = "marketplace.ai.context.ttl.seconds";
+    public static final String INTENT_TTL_PROPERTY = "marketplace.ai.intent.ttl.seconds";
+    public static final String INTENT_MAX_ENTRIES_PROPERTY = "marketplace.ai.intent.cache.max.entries";
+
+    /** 上下文中保留的最近对话轮数，与原 buildMarketplaceContext 一致 */
+    static final int RECENT_EXCHANGES = 3;
+    private static final int DEFAULT_CONTEXT_TTL_SECONDS = 60;
+    private static final int DEFAULT_INTENT_TTL_SECONDS = 600;
+    private static final int DEFAULT_INTENT_MAX_ENTRIES = 2000;
+    /** 会话数超过该值时清理过期上下文 */
+    private static final int CONTEXT_PURGE_THRESHOLD = 10_000;
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s。！？!?.,，、~～…]+$");
+
+    private static final Map<String, SessionContext> contexts = new ConcurrentHashMap<>();
+    private static final Map<String, CachedIntent> intents = new LinkedHashMap<String, CachedIntent>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedIntent> eldest) {
+            return size() > getIntentMaxEntries();
+        }
+    };
+
+    private static final AtomicLong contextHits = new AtomicLong();
+    private static final AtomicLong contextMisses = new AtomicLong();
+    private static final AtomicLong intentHits = new AtomicLong();
+    private static final AtomicLong intentMisses = new AtomicLong();
+
+    private MarketplaceAiCache() { }
+
+    private static final class Exchange {
+        final String message;
+        final String response;
+
+        Exchange(String message, String response) {
+            this.message = message;
+            this.response = response;
+        }
+    }
+
+    /** 不可变的会话上下文，追加对话时整体替换 */
+    private static final class SessionContext {
+        final List<Exchange> exchanges;
+        final long expiresMillis;
+
+        SessionContext(List<Exchange> exchanges, long expiresMillis) {
+            this.exchanges = exchanges;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+
+    private static final class CachedIntent {
+        final String intent;
+        final Object extractedEntities;
+        final long expiresMillis;
+
+        CachedIntent(String intent, Object extractedEntities, long expiresMillis) {
+            this.intent = intent;
+            this.extractedEntities = extractedEntities;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+
+    // ==================== 会话上下文 ====================
+
+    /**
+     * 会话上下文文本：商家、会话与最近对话（新的在前）；缓存过期后从 McpDialogMessage 重新读取
+     */
+    public static String context(ExecutionContext ec, String sessionId, String merchantId) {
+        String key = contextKey(sessionId, merchantId);
+        long now = System.currentTimeMillis();
+        SessionContext cached = contexts.get(key);
+        if (cached != null && cached.expiresMillis > now) {
+            contextHits.incrementAndGet();
+            return render(sessionId, merchantId, cached.exchanges);
+        }
+        contextMisses.incrementAndGet();
+
+        List<Exchange> exchanges = new ArrayList<>(RECENT_EXCHANGES);
+        try {
+            for (EntityValue row : ec.getEntity().find("mcp.dialog.McpDialogMessage")
+                    .condition("sessionId", sessionId)
+                    .selectField("message").selectField("aiResponse")
+                    .orderBy("-processedDate")
+                    .limit(RECENT_EXCHANGES)
+                    .disableAuthz()
+                    .list()) {
+                exchanges.add(new Exchange(row.getString("message"), row.getString("aiResponse")));
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to get recent messages for session {}: {}", sessionId, e.getMessage());
+        }
+        if (contexts.size() > CONTEXT_PURGE_THRESHOLD) purgeExpiredContexts(now);
+        contexts.put(key, new SessionContext(Collections.unmodifiableList(exchanges), now + getContextTtlSeconds() * 1000L));
+        return render(sessionId, merchantId, exchanges);
+    }
+
+    /**
+     * 把本轮对话追加到已缓存的会话上下文（未缓存或已过期时不处理，下次从数据库读取）
+     */
+    public static void recordExchange(String sessionId, String merchantId, String message, String response) {
+        long now = System.currentTimeMillis();
+        contexts.computeIfPresent(contextKey(sessionId, merchantId), (key, cached) -> {
+            if (cached.expiresMillis <= now) return null;
+            List<Exchange> exchanges = new ArrayList<>(RECENT_EXCHANGES);
+            exchanges.add(new Exchange(message, response));
+            for (Exchange exchange : cached.exchanges) {
+                if (exchanges.size() >= RECENT_EXCHANGES) break;
+                exchanges.add(exchange);
+            }
+            return new SessionContext(Collections.unmodifiableList(exchanges), cached.expiresMillis);
+        });
+    }
+
+    private static String render(String sessionId, String merchantId, List<Exchange> exchanges) {
+        StringBuilder context = new StringBuilder();
+        context.append("商家ID: ").append(merchantId).append('\n');
+        context.append("会话ID: ").append(sessionId).append('\n');
+        if (!exchanges.isEmpty()) {
+            context.append("最近对话:\n");
+            for (Exchange exchange : exchanges) {
+                context.append("用户: ").append(exchange.message != null ? exchange.message : "").append('\n');
+                context.append("助手: ").append(exchange.response != null ? exchange.response : "").append('\n');
+            }
+        }
+        return context.toString();
+    }
+
+    private static void purgeExpiredContexts(long now) {
+        contexts.values().removeIf(cached -> cached.expiresMillis <= now);
+    }
+
+    private static String contextKey(String sessionId, String merchantId) {
+        return sessionId + "|" + merchantId;
+    }
+
+    // ==================== 意图分类 ====================
+
+    /**
+     * 规范化消息：去掉首尾空白与句末标点，连续空白合并为一个空格，英文转小写
+     */
+    public static String normalizeMessage(String message) {
+        if (message == null) return "";
+        String normalized = WHITESPACE.matcher(message.trim()).replaceAll(" ");
+        normalized = TRAILING_PUNCTUATION.matcher(normalized).replaceAll("");
+        return normalized.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 已缓存的意图分类结果（intent、extractedEntities），未命中时返回null
+     */
+    public static Map<String, Object> cachedIntent(String merchantId, String message) {
+        String key = intentKey(merchantId, message);
+        CachedIntent cached;
+        synchronized (intents) {
+            cached = intents.get(key);
+            if (cached != null && cached.expiresMillis <= System.currentTimeMillis()) {
+                intents.remove(key);
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            intentMisses.incrementAndGet();
+            return null;
+        }
+        intentHits.incrementAndGet();
+        Map<String, Object> result = new HashMap<>();
+        result.put("intent", cached.intent);
+        result.put("extractedEntities", cached.extractedEntities);
+        return result;
+    }
+
+    public static void cacheIntent(String merchantId, String message, String intent, Object extractedEntities) {
+        if (intent == null || intent.isEmpty()) return;
+        CachedIntent cached = new CachedIntent(intent, extractedEntities,
+                System.currentTimeMillis() + getIntentTtlSeconds() * 1000L);
+        synchronized (intents) {
+            intents.put(intentKey(merchantId, message), cached);
+        }
+    }
+
+    private static String intentKey(String merchantId, String message) {
+        return merchantId + "|" + normalizeMessage(message);
+    }
+
+    // ==================== 统计与配置 ====================
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("contextEntries", contexts.size());
+        stats.put("contextHits", contextHits.get());
+        stats.put("contextMisses", contextMisses.get());
+        synchronized (intents) {
+            stats.put("intentEntries", intents.size());
+        }
+        stats.put("intentHits", intentHits.get());
+        stats.put("intentMisses", intentMisses.get());
+        return stats;
+    }
+
+    public static int getContextTtlSeconds() {
+        return Math.max(0, intProperty(CONTEXT_TTL_PROPERTY, DEFAULT_CONTEXT_TTL_SECONDS));
+    }
+
+    public static int getIntentTtlSeconds() {
+        return Math.max(0, intProperty(INTENT_TTL_PROPERTY, DEFAULT_INTENT_TTL_SECONDS));
+    }
+
+    public static int getIntentMaxEntries() {
+        return Math.max(1, intProperty(INTENT_MAX_ENTRIES_PROPERTY, DEFAULT_INTENT_MAX_ENTRIES));
+    }
+
+    static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
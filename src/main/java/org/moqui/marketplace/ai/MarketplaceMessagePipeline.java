@@ -0,0 +1,359 @@
+package org.moqui.marketplace.ai;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.entity.EntityValue;
+import org.moqui.marketplace.stats.MerchantStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * process#MarketplaceMessage 文本消息的处理流水线
+ * 与意图无关的业务查询（商家近期发布、商家统计）在收到消息时就在虚拟线程上并行开始，与上下文构建、意图分类重叠；
+ * 上下文每条消息只构建一次（并按会话缓存），意图按商家与消息缓存（见 MarketplaceAiCache），对话记录异步写入。
+ * 每个阶段的耗时随服务结果返回（stageMillis），并累计到进程内统计供 get#MarketplaceMessagePipelineStats 输出。
+ *
+ * 设置 marketplace.ai.stub=true 时调用本组件内的本地替身服务（MarketplaceAiStubServices），不依赖 mcp 组件。
+ */
+public final class MarketplaceMessagePipeline {
+    private static final Logger logger = LoggerFactory.getLogger(MarketplaceMessagePipeline.class);
+
+    public static final String STUB_PROPERTY = "marketplace.ai.stub";
+    public static final String LOOKUP_TIMEOUT_PROPERTY = "marketplace.ai.lookup.timeout.seconds";
+
+    private static final String CLASSIFY_SERVICE = "mcp.ai.classify#Intent";
+    private static final String GENERATE_SERVICE = "mcp.ai.generate#Text";
+    private static final String DIALOG_SERVICE = "mcp.dialog.create#DialogMessage";
+    private static final String STUB_SERVICES = "marketplace.MarketplaceAiStubServices.";
+    private static final String MATCH_SERVICE = "marketplace.MatchingServices.find#MatchesForListing";
+
+    private static final String SYSTEM_PROMPT = "你是一个专业的农贸市场AI助手，帮助商家进行智能供需撮合。你需要保持礼貌、简洁，" +
+            "引导用户提供必要信息，并在可能的情况下调用平台服务完成供需发布、匹配、统计等任务。";
+    private static final int RECENT_LISTINGS = 5;
+    private static final int MAX_MATCHES = 5;
+    private static final int DEFAULT_LOOKUP_TIMEOUT_SECONDS = 10;
+
+    public static final List<String> STAGES = Collections.unmodifiableList(Arrays.asList(
+            "listings", "stats", "context", "classify", "matches", "business", "generate", "save", "total"));
+    private static final Map<String, StageStats> stageStats = new ConcurrentHashMap<>();
+
+    private final ExecutionContext ec;
+    private final Map<String, Long> stageMillis = new ConcurrentHashMap<>();
+
+    public MarketplaceMessagePipeline(ExecutionContext ec) {
+        this.ec = ec;
+    }
+
+    private static final class StageStats {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalMillis = new AtomicLong();
+        final AtomicLong maxMillis = new AtomicLong();
+
+        void record(long millis) {
+            count.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            maxMillis.accumulateAndGet(millis, Math::max);
+        }
+    }
+
+    /**
+     * 处理一条文本消息，返回 intent、extractedEntities、aiResponse、matches 与 listingId（各阶段耗时见 getStageMillis）；
+     * 意图分类或文本生成失败时抛出 IllegalStateException（消息与原实现一致）
+     */
+    public Map<String, Object> process(String sessionId, String merchantId, String message) {
+        long startMillis = System.currentTimeMillis();
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("marketplace-ai-", 0).factory());
+        try {
+            // 与意图无关的业务查询先行开始
+            Future<Object> listingsTask = submitLookup(executor, "listings", lookupEc -> recentListings(lookupEc, merchantId));
+            Future<Object> statsTask = submitLookup(executor, "stats", lookupEc -> MerchantStats.totals(lookupEc, merchantId, null));
+
+            String context = timed("context", () -> MarketplaceAiCache.context(ec, sessionId, merchantId));
+            Map<String, Object> intentResult = timed("classify", () -> classify(merchantId, message, context));
+            String intent = (String) intentResult.get("intent");
+
+            long businessStart = System.currentTimeMillis();
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> listings = (List<Map<String, Object>>) await(listingsTask, "listings");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> merchantStats = (Map<String, Object>) await(statsTask, "stats");
+            Map<String, Object> business = new LinkedHashMap<>();
+            business.put("listings", listings != null ? listings : Collections.emptyList());
+            business.put("merchantStats", merchantStats);
+            if (wantsMatches(intent)) {
+                String listingId = matchSourceListingId(listings);
+                if (listingId != null) {
+                    business.put("listingId", listingId);
+                    business.put("matches", timed("matches", () -> findMatches(listingId)));
+                }
+            }
+            record("business", System.currentTimeMillis() - businessStart);
+
+            String aiResponse = timed("generate", () -> generate(message, intent, business, context));
+
+            timed("save", () -> {
+                saveDialogAsync(sessionId, merchantId, message, aiResponse, intent);
+                return null;
+            });
+            MarketplaceAiCache.recordExchange(sessionId, merchantId, message, aiResponse);
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("intent", intent);
+            result.put("extractedEntities", intentResult.get("extractedEntities"));
+            result.put("aiResponse", aiResponse);
+            result.put("matches", business.get("matches"));
+            result.put("listingId", business.get("listingId"));
+            return result;
+        } finally {
+            executor.shutdown();
+            record("total", System.currentTimeMillis() - startMillis);
+        }
+    }
+
+    /** 本条消息各阶段耗时（毫秒），按 STAGES 顺序 */
+    public Map<String, Long> getStageMillis() {
+        Map<String, Long> ordered = new LinkedHashMap<>();
+        for (String stage : STAGES) {
+            Long millis = stageMillis.get(stage);
+            if (millis != null) ordered.put(stage, millis);
+        }
+        return ordered;
+    }
+
+    // ==================== 阶段 ====================
+
+    private Map<String, Object> classify(String merchantId, String message, String context) {
+        Map<String, Object> cached = MarketplaceAiCache.cachedIntent(merchantId, message);
+        if (cached != null) return cached;
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("userInput", message);
+        parameters.put("module", "marketplace");
+        parameters.put("context", context);
+        Map<String, Object> result = ec.getService().sync().name(serviceName(CLASSIFY_SERVICE, "classify#Intent"))
+                .parameters(parameters).call();
+        if (result == null || !Boolean.TRUE.equals(result.get("success"))) {
+            throw new IllegalStateException("意图分类失败: " + (result != null ? result.get("error") : ec.getMessage().getErrorsString()));
+        }
+        MarketplaceAiCache.cacheIntent(merchantId, message, (String) result.get("intent"), result.get("extractedEntities"));
+        return result;
+    }
+
+    private String generate(String message, String intent, Map<String, Object> business, String context) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("prompt", buildPrompt(message, intent, business));
+        parameters.put("systemPrompt", SYSTEM_PROMPT);
+        parameters.put("context", context);
+        parameters.put("module", "marketplace");
+        parameters.put("temperature", 0.2);
+        parameters.put("maxTokens", 1024);
+        Map<String, Object> result = ec.getService().sync().name(serviceName(GENERATE_SERVICE, "generate#Text"))
+                .parameters(parameters).call();
+        if (result == null || !Boolean.TRUE.equals(result.get("success"))) {
+            throw new IllegalStateException("文本生成失败: " + (result != null ? result.get("error") : ec.getMessage().getErrorsString()));
+        }
+        return (String) result.get("generatedText");
+    }
+
+    private void saveDialogAsync(String sessionId, String merchantId, String message, String aiResponse, String intent) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("sessionId", sessionId);
+        parameters.put("message", message);
+        parameters.put("aiResponse", aiResponse);
+        parameters.put("intent", intent);
+        parameters.put("module", "marketplace");
+        parameters.put("userId", merchantId);
+        try {
+            ec.getService().async().name(serviceName(DIALOG_SERVICE, "create#DialogMessage")).parameters(parameters).call();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to save marketplace dialog: {}", e.getMessage());
+        }
+    }
+
+    private static List<Map<String, Object>> recentListings(ExecutionContext lookupEc, String merchantId) {
+        List<Map<String, Object>> listings = new ArrayList<>(RECENT_LISTINGS);
+        for (EntityValue row : lookupEc.getEntity().find("marketplace.listing.Listing")
+                .condition("publisherId", merchantId)
+                .selectField("listingId").selectField("listingType").selectField("title")
+                .selectField("category").selectField("status").selectField("createdDate")
+                .orderBy("-createdDate")
+                .limit(RECENT_LISTINGS)
+                .disableAuthz()
+                .list()) {
+            Map<String, Object> listing = new LinkedHashMap<>();
+            listing.put("listingId", row.get("listingId"));
+            listing.put("listingType", row.get("listingType"));
+            listing.put("title", row.get("title"));
+            listing.put("category", row.get("category"));
+            listing.put("status", row.get("status"));
+            listing.put("createdDate", row.get("createdDate"));
+            listings.add(listing);
+        }
+        return listings;
+    }
+
+    private Object findMatches(String listingId) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("listingId", listingId);
+        parameters.put("maxResults", MAX_MATCHES);
+        Map<String, Object> result = ec.getService().sync().name(MATCH_SERVICE).parameters(parameters).disableAuthz().call();
+        if (ec.getMessage().hasError()) {
+            logger.warn("Failed to find matches for listing {}: {}", listingId, ec.getMessage().getErrorsString());
+            ec.getMessage().clearErrors();
+            return Collections.emptyList();
+        }
+        return result != null ? result.get("matches") : null;
+    }
+
+    /** 与撮合、查找相关的意图才为商家最近的在架信息查找匹配 */
+    static boolean wantsMatches(String intent) {
+        if (intent == null) return false;
+        String value = intent.toLowerCase(Locale.ROOT);
+        return value.contains("match") || value.contains("search") || value.contains("find") || value.contains("匹配");
+    }
+
+    private static String matchSourceListingId(List<Map<String, Object>> listings) {
+        if (listings == null) return null;
+        for (Map<String, Object> listing : listings) {
+            if ("ACTIVE".equals(listing.get("status"))) return (String) listing.get("listingId");
+        }
+        return null;
+    }
+
+    static String buildPrompt(String message, String intent, Map<String, Object> business) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("用户消息: ").append(message).append('\n');
+        prompt.append("识别意图: ").append(intent).append('\n');
+
+        Object listings = business.get("listings");
+        if (listings instanceof List && !((List<?>) listings).isEmpty()) {
+            prompt.append("商家近期发布:\n");
+            for (Object item : (List<?>) listings) {
+                Map<?, ?> listing = (Map<?, ?>) item;
+                prompt.append("- [").append(listing.get("listingType")).append("] ").append(listing.get("title"))
+                        .append("（").append(listing.get("category")).append("，").append(listing.get("status")).append("）\n");
+            }
+        }
+        Object stats = business.get("merchantStats");
+        if (stats instanceof Map) {
+            Map<?, ?> merchantStats = (Map<?, ?>) stats;
+            prompt.append("商家累计: 供应 ").append(merchantStats.get("supplyListings"))
+                    .append("，需求 ").append(merchantStats.get("demandListings"))
+                    .append("，撮合 ").append(merchantStats.get("matchesCreated"))
+                    .append("，成交 ").append(merchantStats.get("ordersCompleted")).append('\n');
+        }
+        Object matches = business.get("matches");
+        if (matches instanceof List && !((List<?>) matches).isEmpty()) {
+            prompt.append("匹配结果:\n");
+            for (Object item : (List<?>) matches) {
+                Map<?, ?> match = (Map<?, ?>) item;
+                Object candidate = match.get("candidate");
+                Object title = candidate instanceof Map ? ((Map<?, ?>) candidate).get("title") : null;
+                prompt.append("- ").append(title != null ? title : match.get("matchId"))
+                        .append("（匹配度 ").append(match.get("matchScore")).append("）\n");
+            }
+        }
+        prompt.append("请根据以上信息回复用户。");
+        return prompt.toString();
+    }
+
+    // ==================== 并行查询与计时 ====================
+
+    /**
+     * 在虚拟线程的独立 ExecutionContext 中执行查询，失败时记录日志并返回null（业务信息只用于丰富回复）
+     */
+    private Future<Object> submitLookup(ExecutorService executor, String stage, Function<ExecutionContext, Object> lookup) {
+        ExecutionContextFactory ecf = ec.getFactory();
+        String username = ec.getUser().getUsername();
+        return executor.submit(() -> {
+            long start = System.currentTimeMillis();
+            ExecutionContext lookupEc = ecf.getExecutionContext();
+            try {
+                if (username != null) lookupEc.getUser().internalLoginUser(username);
+                Object value = lookup.apply(lookupEc);
+                if (lookupEc.getMessage().hasError()) {
+                    logger.warn("Marketplace AI lookup {} failed: {}", stage, lookupEc.getMessage().getErrorsString());
+                    return null;
+                }
+                return value;
+            } catch (RuntimeException e) {
+                logger.warn("Marketplace AI lookup " + stage + " failed", e);
+                return null;
+            } finally {
+                lookupEc.destroy();
+                record(stage, System.currentTimeMillis() - start);
+            }
+        });
+    }
+
+    private static Object await(Future<Object> task, String stage) {
+        try {
+            return task.get(getLookupTimeoutSeconds(), TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            logger.warn("Marketplace AI lookup {} timed out", stage);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.cancel(true);
+            return null;
+        } catch (ExecutionException e) {
+            logger.warn("Marketplace AI lookup " + stage + " failed", e.getCause());
+            return null;
+        }
+    }
+
+    private <T> T timed(String stage, Supplier<T> body) {
+        long start = System.currentTimeMillis();
+        try {
+            return body.get();
+        } finally {
+            record(stage, System.currentTimeMillis() - start);
+        }
+    }
+
+    private void record(String stage, long millis) {
+        stageMillis.put(stage, millis);
+        stageStats.computeIfAbsent(stage, key -> new StageStats()).record(millis);
+    }
+
+    private static String serviceName(String defaultName, String stubVerbNoun) {
+        return isStubEnabled() ? STUB_SERVICES + stubVerbNoun : defaultName;
+    }
+
+    // ==================== 统计与配置 ====================
+
+    /** 各阶段累计调用数、平均与最大耗时，以及缓存命中统计 */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (String stage : STAGES) {
+            StageStats stats = stageStats.get(stage);
+            if (stats == null) continue;
+            long count = stats.count.get();
+            Map<String, Object> stageInfo = new LinkedHashMap<>();
+            stageInfo.put("count", count);
+            stageInfo.put("avgMillis", count > 0 ? stats.totalMillis.get() / count : 0L);
+            stageInfo.put("maxMillis", stats.maxMillis.get());
+            stages.put(stage, stageInfo);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("stubEnabled", isStubEnabled());
+        result.put("stages", stages);
+        result.put("cache", MarketplaceAiCache.snapshot());
+        return result;
+    }
+
+    public static boolean isStubEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(STUB_PROPERTY));
+    }
+
+    public static int getLookupTimeoutSeconds() {
+        return Math.max(1, MarketplaceAiCache.intProperty(LOOKUP_TIMEOUT_PROPERTY, DEFAULT_LOOKUP_TIMEOUT_SECONDS));
+    }
+}
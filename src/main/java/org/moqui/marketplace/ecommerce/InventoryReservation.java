@@ -0,0 +1,132 @@
+package org.moqui.marketplace.ecommerce;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.impl.entity.EntityDefinition;
+import org.moqui.impl.entity.EntityFacadeImpl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 下单时的库存预留
+ * 每个商品执行一条条件扣减 "UPDATE ... SET STOCK_QUANTITY = STOCK_QUANTITY - ? WHERE ... AND STOCK_QUANTITY >= ?"，
+ * 检查与扣减在数据库中原子完成，并发下单不会超卖；影响行数为0即库存不足，调用方记录错误使整个订单事务回滚。
+ *
+ * 商品按ID升序扣减，多商品订单之间的行锁顺序一致，避免死锁。
+ * 同一商品的并发扣减只由数据库行锁排队（持有到订单事务提交或回滚），JVM内不再另加锁：
+ * 在语句执行后就释放的进程内锁排不住提交前的行锁等待，反而让不相关的商品互相等待。
+ *
+ * 表名（含 schema、表前缀与 table-name 配置）与列名取自 EcommerceProduct 的实体定义，首次扣减时生成语句。
+ * 扣减直接执行SQL，不经过实体引擎：不会更新 Moqui 的实体缓存，也不触发 EcommerceProduct 上的 EECA 规则；
+ * 该实体目前两者都没有配置，今后增加时需要在这里显式清理缓存或调用相应服务。
+ */
+public final class InventoryReservation {
+    private static final String PRODUCT_ENTITY = "marketplace.ecommerce.EcommerceProduct";
+
+    private static volatile Statements statements;
+
+    private InventoryReservation() { }
+
+    /** 扣减与查询库存的SQL */
+    static final class Statements {
+        final String decrementSql;
+        final String stockSql;
+
+        private Statements(String table, String idColumn, String stockColumn, String updatedColumn) {
+            this.decrementSql = "UPDATE " + table + " SET " + stockColumn + " = " + stockColumn + " - ?, " + updatedColumn + " = ?"
+                    + " WHERE " + idColumn + " = ? AND " + stockColumn + " >= ?";
+            this.stockSql = "SELECT " + stockColumn + " FROM " + table + " WHERE " + idColumn + " = ?";
+        }
+
+        static Statements of(String table, String idColumn, String stockColumn, String updatedColumn) {
+            return new Statements(table, idColumn, stockColumn, updatedColumn);
+        }
+
+        static Statements of(EntityDefinition definition) {
+            return new Statements(definition.getFullTableName(), definition.getColumnName("ecommerceProductId"),
+                    definition.getColumnName("stockQuantity"), definition.getColumnName("lastUpdatedDate"));
+        }
+    }
+
+    private static Statements statements(ExecutionContext ec) {
+        Statements current = statements;
+        if (current == null) {
+            current = Statements.of(((EntityFacadeImpl) ec.getEntity()).getEntityDefinition(PRODUCT_ENTITY));
+            statements = current;
+        }
+        return current;
+    }
+
+    /** 库存不足的商品及扣减时的剩余库存 */
+    public static final class Shortage {
+        private final String productId;
+        private final long requested;
+        private final long available;
+
+        Shortage(String productId, long requested, long available) {
+            this.productId = productId;
+            this.requested = requested;
+            this.available = available;
+        }
+
+        public String getProductId() {
+            return productId;
+        }
+
+        public long getRequested() {
+            return requested;
+        }
+
+        public long getAvailable() {
+            return available;
+        }
+    }
+
+    /**
+     * 在当前事务中按商品扣减库存（quantities 为商品ID → 数量，同一商品多行应先合并）
+     *
+     * @return 全部扣减成功时返回null，否则返回第一个库存不足的商品（此前的扣减随事务回滚）
+     */
+    public static Shortage reserve(ExecutionContext ec, Map<String, Long> quantities) throws SQLException {
+        if (quantities == null || quantities.isEmpty()) return null;
+        String groupName = ec.getEntity().getEntityGroupName(PRODUCT_ENTITY);
+        try (Connection connection = ec.getEntity().getConnection(groupName)) {
+            return reserve(connection, statements(ec), quantities, ec.getUser().getNowTimestamp());
+        }
+    }
+
+    /**
+     * 在给定连接（由调用方管理事务）上扣减库存
+     */
+    static Shortage reserve(Connection connection, Statements sql, Map<String, Long> quantities, Timestamp now) throws SQLException {
+        try (PreparedStatement decrement = connection.prepareStatement(sql.decrementSql)) {
+            for (Map.Entry<String, Long> entry : new TreeMap<>(quantities).entrySet()) {
+                String productId = entry.getKey();
+                long quantity = entry.getValue() != null ? entry.getValue() : 0L;
+                if (quantity <= 0L) continue;
+
+                decrement.setLong(1, quantity);
+                decrement.setTimestamp(2, now);
+                decrement.setString(3, productId);
+                decrement.setLong(4, quantity);
+                int updated = decrement.executeUpdate();
+                if (updated == 0) return new Shortage(productId, quantity, currentStock(connection, sql, productId));
+            }
+        }
+        return null;
+    }
+
+    private static long currentStock(Connection connection, Statements sql, String productId) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement(sql.stockSql)) {
+            select.setString(1, productId);
+            try (ResultSet rs = select.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        }
+    }
+}
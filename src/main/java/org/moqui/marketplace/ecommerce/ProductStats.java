@@ -0,0 +1,597 @@
+package org.moqui.marketplace.ecommerce;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityConditionFactory;
+import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityListIterator;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 商品评价与销量汇总（EcommerceProductStats / EcommerceProductSalesDay）的增量维护与推荐读取
+ * 下单、新增评价提交后经 ProductStatsBuffer 按商品合并，flush 在独立事务内批量累加；
+ * get#ProductRecommendations 只读取汇总表并按 intentType、品类缓存Top-K结果，不再随订单与评价历史的增长全表扫描；
+ * 缓存未命中时按销量、平均评分两个有序列表分页读取，可能进入Top-K的商品读完即停止，不加载全部商品。
+ * 汇总表由 rebuild#ProductStats 建立：新装或升级后 InitProductStats 任务在几分钟内完成首次重建，之后每日重建。
+ *
+ * 评分规则与原脚本一致：评分分 = 平均评分/5，销量分 = 商品累计销量/全部商品最大累计销量，按意图加权。
+ */
+public final class ProductStats {
+    private static final Logger logger = LoggerFactory.getLogger(ProductStats.class);
+
+    /** 近期销量滚动窗口天数 */
+    public static final int RECENT_DAYS = 30;
+    /** 每次 IN 查询加锁的商品数 */
+    public static final int BATCH_SIZE = 500;
+    /** 每个缓存键保留的推荐数，与服务允许的 limit 上限一致 */
+    private static final int MAX_RECOMMENDATIONS = 20;
+    /** 推荐按销量、平均评分分页读取汇总时每页的商品数 */
+    private static final int RANK_PAGE_SIZE = 50;
+    private static final String REBUILD_ID = "PRODUCT_STATS";
+    /** 汇总表之外的途径（导入、实体自动服务）修改商品时的兜底过期时间 */
+    private static final long CACHE_TTL_MILLIS = 5 * 60_000L;
+    /** 另一节点同时插入同一汇总行时的重试次数 */
+    private static final int STORE_ATTEMPTS = 2;
+    private static final String STORE_SERVICE = "marketplace.EcommerceServices.store#ProductStatsDeltas";
+    private static final BigDecimal FIVE = new BigDecimal("5");
+
+    private static final Map<String, CachedRecommendations> recommendationCache = new ConcurrentHashMap<>();
+    /** 品类变化版本号：缓存结果的版本低于其品类（全品类结果对应 anyChangeVersion）的变化版本时视为过期 */
+    private static final AtomicLong changeVersion = new AtomicLong();
+    private static final Map<String, Long> categoryChangeVersion = new ConcurrentHashMap<>();
+    private static volatile long anyChangeVersion = 0L;
+    /** flush 与 rebuild 互斥，重建期间不会有已取走、未写入的增量 */
+    private static final ReentrantLock writeLock = new ReentrantLock();
+
+    private ProductStats() { }
+
+    private static final class CachedRecommendations {
+        final List<Map<String, Object>> recommendations;
+        final long expiresMillis;
+        final long version;
+
+        CachedRecommendations(List<Map<String, Object>> recommendations, long expiresMillis, long version) {
+            this.recommendations = recommendations;
+            this.expiresMillis = expiresMillis;
+            this.version = version;
+        }
+    }
+
+    // ==================== 增量维护 ====================
+
+    /**
+     * 取走缓冲中的全部增量，在独立事务中累加到汇总表；另一节点先插入了同一汇总行时重试，
+     * 仍失败（含提交失败）则放回缓冲等下次刷新。成功后只让涉及品类的推荐缓存过期。
+     *
+     * @return 更新的商品数
+     */
+    public static int flush(ExecutionContext ec) {
+        writeLock.lock();
+        try {
+            SortedMap<String, ProductStatsBuffer.Delta> deltas = ProductStatsBuffer.drain();
+            if (deltas.isEmpty()) return 0;
+            String errorText = null;
+            for (int attempt = 1; attempt <= STORE_ATTEMPTS; attempt++) {
+                errorText = null;
+                try {
+                    Map<String, Object> parameters = new HashMap<>();
+                    parameters.put("deltas", deltas);
+                    ec.getService().sync().name(STORE_SERVICE).parameters(parameters).requireNewTransaction(true).call();
+                    if (ec.getMessage().hasError()) errorText = ec.getMessage().getErrorsString();
+                } catch (RuntimeException e) {
+                    errorText = e.toString();
+                }
+                if (errorText == null) break;
+                ec.getMessage().clearErrors();
+            }
+            if (errorText != null) {
+                ProductStatsBuffer.restore(deltas);
+                logger.warn("Product stats flush of {} products failed, deltas restored: {}", deltas.size(), errorText);
+                return 0;
+            }
+            ProductStatsBuffer.recordFlushed(deltas.size());
+            invalidateCategories(productCategories(ec, deltas.keySet()));
+            return deltas.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 把一批增量累加到汇总行（store#ProductStatsDeltas，在独立事务中执行）
+     * 商品按ID升序分批 IN 查询加锁，缺少的行直接插入；并发插入导致的主键冲突使本事务回滚，由 flush 重试。
+     */
+    public static void storeDeltas(ExecutionContext ec, Map<String, ProductStatsBuffer.Delta> deltas) {
+        if (deltas == null || deltas.isEmpty()) return;
+        Timestamp now = ec.getUser().getNowTimestamp();
+        List<String> productIds = new ArrayList<>(new TreeSet<>(deltas.keySet()));
+        for (int from = 0; from < productIds.size(); from += BATCH_SIZE) {
+            List<String> batch = productIds.subList(from, Math.min(from + BATCH_SIZE, productIds.size()));
+
+            Map<String, EntityValue> statsById = new HashMap<>();
+            for (EntityValue stats : ec.getEntity().find("marketplace.ecommerce.EcommerceProductStats")
+                    .condition("ecommerceProductId", EntityCondition.IN, batch)
+                    .orderBy("ecommerceProductId")
+                    .forUpdate(true)
+                    .list()) {
+                statsById.put(stats.getString("ecommerceProductId"), stats);
+            }
+            SortedSet<Date> salesDates = new TreeSet<>();
+            for (String productId : batch) salesDates.addAll(deltas.get(productId).getSoldByDay().keySet());
+            Map<String, EntityValue> daysByKey = new HashMap<>();
+            if (!salesDates.isEmpty()) {
+                for (EntityValue day : ec.getEntity().find("marketplace.ecommerce.EcommerceProductSalesDay")
+                        .condition("ecommerceProductId", EntityCondition.IN, batch)
+                        .condition("salesDate", EntityCondition.IN, new ArrayList<>(salesDates))
+                        .orderBy("ecommerceProductId").orderBy("salesDate")
+                        .forUpdate(true)
+                        .list()) {
+                    daysByKey.put(day.getString("ecommerceProductId") + "|" + day.get("salesDate"), day);
+                }
+            }
+
+            for (String productId : batch) {
+                ProductStatsBuffer.Delta delta = deltas.get(productId);
+                EntityValue stats = statsById.get(productId);
+                boolean created = stats == null;
+                if (created) stats = newStats(ec, productId);
+                stats.set("soldQuantity", longValue(stats.get("soldQuantity")) + delta.getSoldQuantity());
+                stats.set("ratingSum", longValue(stats.get("ratingSum")) + delta.getRatingSum());
+                stats.set("ratingCount", longValue(stats.get("ratingCount")) + delta.getRatingCount());
+                stats.set("avgRating", averageRating(longValue(stats.get("ratingSum")), longValue(stats.get("ratingCount"))));
+                Timestamp lastSold = (Timestamp) stats.get("lastSoldDate");
+                if (delta.getLastSoldDate() != null && (lastSold == null || lastSold.before(delta.getLastSoldDate()))) {
+                    stats.set("lastSoldDate", delta.getLastSoldDate());
+                }
+                stats.set("lastUpdatedDate", now);
+                if (created) stats.create();
+                else stats.store();
+
+                for (Map.Entry<Date, Long> sold : delta.getSoldByDay().entrySet()) {
+                    EntityValue day = daysByKey.get(productId + "|" + sold.getKey());
+                    if (day == null) {
+                        day = ec.getEntity().makeValue("marketplace.ecommerce.EcommerceProductSalesDay");
+                        day.set("ecommerceProductId", productId);
+                        day.set("salesDate", sold.getKey());
+                        day.set("soldQuantity", sold.getValue());
+                        day.create();
+                    } else {
+                        day.set("soldQuantity", longValue(day.get("soldQuantity")) + sold.getValue());
+                        day.store();
+                    }
+                }
+            }
+        }
+    }
+
+    private static EntityValue newStats(ExecutionContext ec, String productId) {
+        EntityValue stats = ec.getEntity().makeValue("marketplace.ecommerce.EcommerceProductStats");
+        stats.set("ecommerceProductId", productId);
+        stats.set("ratingSum", 0L);
+        stats.set("ratingCount", 0L);
+        stats.set("soldQuantity", 0L);
+        stats.set("avgRating", BigDecimal.ZERO);
+        return stats;
+    }
+
+    private static Set<String> productCategories(ExecutionContext ec, Collection<String> productIds) {
+        Set<String> categories = new HashSet<>();
+        List<String> ids = new ArrayList<>(productIds);
+        for (int from = 0; from < ids.size(); from += BATCH_SIZE) {
+            for (EntityValue product : ec.getEntity().find("marketplace.ecommerce.EcommerceProduct")
+                    .condition("ecommerceProductId", EntityCondition.IN, ids.subList(from, Math.min(from + BATCH_SIZE, ids.size())))
+                    .selectField("productCategoryId")
+                    .list()) {
+                categories.add(product.getString("productCategoryId"));
+            }
+        }
+        return categories;
+    }
+
+    /**
+     * 从评价与订单明细全量重建汇总（由每日的 rebuild#ProductStats 任务或数据导入后手动执行）
+     * 以开始时刻为界：只读取不晚于该时刻创建的明细与评价，之后的事件留在缓冲中照常刷新，
+     * 不会与重建结果重复计数。开始时仍未提交的下单事务由下一次重建补齐。
+     *
+     * @param onlyIfNeverBuilt true 时只在从未重建过（没有 EcommerceProductStatsRebuild 记录）时执行，供 InitProductStats 任务在升级后补建
+     */
+    public static void rebuild(ExecutionContext ec, boolean onlyIfNeverBuilt) {
+        writeLock.lock();
+        try {
+            EntityValue marker = ec.getEntity().find("marketplace.ecommerce.EcommerceProductStatsRebuild")
+                    .condition("rebuildId", REBUILD_ID).forUpdate(true).one();
+            if (onlyIfNeverBuilt && marker != null) return;
+            long startMs = System.currentTimeMillis();
+            Timestamp cutoff = new Timestamp(startMs);
+            ProductStatsBuffer.beginRebuild(startMs);
+
+            Map<String, long[]> totals = new HashMap<>();
+            Map<String, Timestamp> lastSold = new HashMap<>();
+            Map<String, Map<Date, Long>> days = new HashMap<>();
+
+            try (EntityListIterator reviews = ec.getEntity().find("marketplace.ecommerce.EcommerceProductReview")
+                    .condition("status", "ACTIVE")
+                    .condition(createdNotAfter(ec, cutoff))
+                    .selectField("ecommerceProductId").selectField("rating")
+                    .iterator()) {
+                EntityValue review;
+                while ((review = reviews.next()) != null) {
+                    String productId = review.getString("ecommerceProductId");
+                    long rating = longValue(review.get("rating"));
+                    if (productId == null || rating == 0L) continue;
+                    long[] total = totals.computeIfAbsent(productId, k -> new long[3]);
+                    total[0] += rating;
+                    total[1]++;
+                }
+            }
+
+            try (EntityListIterator items = ec.getEntity().find("marketplace.ecommerce.EcommerceOrderItem")
+                    .condition(createdNotAfter(ec, cutoff))
+                    .selectField("ecommerceProductId").selectField("quantity").selectField("createdDate")
+                    .iterator()) {
+                EntityValue item;
+                while ((item = items.next()) != null) {
+                    String productId = item.getString("ecommerceProductId");
+                    long quantity = longValue(item.get("quantity"));
+                    if (productId == null || quantity == 0L) continue;
+                    totals.computeIfAbsent(productId, k -> new long[3])[2] += quantity;
+                    Timestamp created = (Timestamp) item.get("createdDate");
+                    if (created == null) continue;
+                    lastSold.merge(productId, created, (a, b) -> a.after(b) ? a : b);
+                    days.computeIfAbsent(productId, k -> new HashMap<>())
+                            .merge(ProductStatsBuffer.salesDate(created), quantity, Long::sum);
+                }
+            }
+
+            ec.getEntity().find("marketplace.ecommerce.EcommerceProductSalesDay").deleteAll();
+            ec.getEntity().find("marketplace.ecommerce.EcommerceProductStats").deleteAll();
+            Timestamp now = ec.getUser().getNowTimestamp();
+            for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+                EntityValue stats = ec.getEntity().makeValue("marketplace.ecommerce.EcommerceProductStats");
+                stats.set("ecommerceProductId", entry.getKey());
+                stats.set("ratingSum", entry.getValue()[0]);
+                stats.set("ratingCount", entry.getValue()[1]);
+                stats.set("soldQuantity", entry.getValue()[2]);
+                stats.set("avgRating", averageRating(entry.getValue()[0], entry.getValue()[1]));
+                stats.set("lastSoldDate", lastSold.get(entry.getKey()));
+                stats.set("lastUpdatedDate", now);
+                stats.create();
+            }
+            for (Map.Entry<String, Map<Date, Long>> entry : days.entrySet()) {
+                for (Map.Entry<Date, Long> day : entry.getValue().entrySet()) {
+                    EntityValue value = ec.getEntity().makeValue("marketplace.ecommerce.EcommerceProductSalesDay");
+                    value.set("ecommerceProductId", entry.getKey());
+                    value.set("salesDate", day.getKey());
+                    value.set("soldQuantity", day.getValue());
+                    value.create();
+                }
+            }
+            if (marker == null) {
+                marker = ec.getEntity().makeValue("marketplace.ecommerce.EcommerceProductStatsRebuild");
+                marker.set("rebuildId", REBUILD_ID);
+                marker.set("lastRebuiltDate", now);
+                marker.create();
+            } else {
+                marker.set("lastRebuiltDate", now);
+                marker.store();
+            }
+            invalidateRecommendations();
+            logger.info("Rebuilt product stats for {} products in {}ms", totals.size(), System.currentTimeMillis() - startMs);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** createdDate 不晚于 cutoff，或早期数据没有 createdDate */
+    private static EntityCondition createdNotAfter(ExecutionContext ec, Timestamp cutoff) {
+        EntityConditionFactory cf = ec.getEntity().getConditionFactory();
+        return cf.makeCondition(cf.makeCondition("createdDate", EntityCondition.LESS_THAN_EQUAL_TO, cutoff),
+                EntityCondition.OR, cf.makeCondition("createdDate", EntityCondition.IS_NULL, null));
+    }
+
+    /** 清空全部推荐缓存（全量重建后使用） */
+    public static void invalidateRecommendations() {
+        recommendationCache.clear();
+    }
+
+    /**
+     * 商品、库存或汇总变化后让相关品类（及全品类）的推荐缓存过期，下次读取时重新计算；其他品类的缓存不受影响
+     */
+    public static void invalidateCategories(Collection<String> categoryIds) {
+        long version = changeVersion.incrementAndGet();
+        if (categoryIds != null) {
+            for (String categoryId : categoryIds) {
+                if (categoryId != null && !categoryId.isEmpty()) categoryChangeVersion.put(categoryId, version);
+            }
+        }
+        anyChangeVersion = version;
+    }
+
+    public static void invalidateCategory(String categoryId) {
+        invalidateCategories(Collections.singletonList(categoryId));
+    }
+
+    // ==================== 推荐读取 ====================
+
+    /**
+     * 按意图与品类返回推荐商品（最多 limit 个，limit 上限20），结果为缓存的副本
+     * 汇总表由 rebuild#ProductStats（每日任务、数据导入后）建立，尚未重建时按已刷新的增量计算。
+     */
+    public static List<Map<String, Object>> recommend(ExecutionContext ec, String intentType, String categoryId, int limit) {
+        String intent = normalizeIntent(intentType);
+        String cacheKey = intent + "|" + (categoryId != null ? categoryId : "");
+        CachedRecommendations cached = recommendationCache.get(cacheKey);
+        if (cached == null || cached.expiresMillis < System.currentTimeMillis() || cached.version < changedSince(categoryId)) {
+            // 先取版本号再计算，计算期间发生的变化会让这次结果在下次读取时过期
+            long version = changeVersion.get();
+            cached = new CachedRecommendations(computeRecommendations(ec, intent, categoryId),
+                    System.currentTimeMillis() + CACHE_TTL_MILLIS, version);
+            recommendationCache.put(cacheKey, cached);
+        }
+        int count = Math.min(Math.max(1, limit), cached.recommendations.size());
+        List<Map<String, Object>> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) result.add(new LinkedHashMap<>(cached.recommendations.get(i)));
+        return result;
+    }
+
+    private static long changedSince(String categoryId) {
+        if (categoryId == null) return anyChangeVersion;
+        return categoryChangeVersion.getOrDefault(categoryId, 0L);
+    }
+
+    /** 只有这三种意图影响权重与来源标签，其他取值共用默认缓存键 */
+    private static String normalizeIntent(String intentType) {
+        String intent = intentType != null ? intentType.toUpperCase() : "";
+        switch (intent) {
+            case "B2B_PURCHASE":
+            case "PROJECT_EXPANSION":
+            case "SOCIAL_RETAIL":
+                return intent;
+            default:
+                return "DEFAULT";
+        }
+    }
+
+    private static List<Map<String, Object>> computeRecommendations(ExecutionContext ec, String intent, String categoryId) {
+        BigDecimal ratingWeight;
+        BigDecimal salesWeight;
+        switch (intent) {
+            case "B2B_PURCHASE":
+                ratingWeight = new BigDecimal("0.4");
+                salesWeight = new BigDecimal("0.6");
+                break;
+            case "PROJECT_EXPANSION":
+                ratingWeight = new BigDecimal("0.6");
+                salesWeight = new BigDecimal("0.4");
+                break;
+            case "SOCIAL_RETAIL":
+                ratingWeight = new BigDecimal("0.7");
+                salesWeight = new BigDecimal("0.3");
+                break;
+            default:
+                ratingWeight = new BigDecimal("0.55");
+                salesWeight = new BigDecimal("0.45");
+                break;
+        }
+
+        // 销量归一化以全部商品（含非ACTIVE）的最大累计销量为基准
+        EntityValue topSeller = ec.getEntity().find("marketplace.ecommerce.EcommerceProductStats")
+                .selectField("soldQuantity")
+                .orderBy("-soldQuantity")
+                .limit(1)
+                .one();
+        long maxOrderQty = topSeller != null ? Math.max(0L, longValue(topSeller.get("soldQuantity"))) : 0L;
+
+        // 有界小顶堆保留最高分的 MAX_RECOMMENDATIONS 个，同分时商品ID在前者优先（与原脚本按商品ID遍历一致）
+        Comparator<Candidate> order = (a, b) -> {
+            int cmp = a.score.compareTo(b.score);
+            return cmp != 0 ? cmp : b.productId.compareTo(a.productId);
+        };
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(MAX_RECOMMENDATIONS + 1, order);
+        Set<String> seen = new HashSet<>();
+
+        // 按销量、平均评分两个降序列表交替分页读取（阈值算法）：未读到的商品销量不高于销量列表的当前位置、
+        // 平均评分不高于评分列表的当前位置，其得分上界不超过堆中第K名（或为0）时停止。得分为0的商品不进堆，最后按商品ID补足。
+        boolean salesDone = false;
+        boolean ratingDone = false;
+        long salesBound = 0L;
+        BigDecimal ratingBound = BigDecimal.ZERO;
+        for (int offset = 0; !salesDone || !ratingDone; offset += RANK_PAGE_SIZE) {
+            if (!salesDone) {
+                List<EntityValue> page = rankedFind(ec, categoryId)
+                        .condition("soldQuantity", EntityCondition.GREATER_THAN, 0L)
+                        .orderBy("-soldQuantity").orderBy("ecommerceProductId")
+                        .offset(offset).limit(RANK_PAGE_SIZE)
+                        .list();
+                for (EntityValue row : page) offer(heap, order, seen, row, maxOrderQty, ratingWeight, salesWeight);
+                salesDone = page.size() < RANK_PAGE_SIZE;
+                salesBound = salesDone ? 0L : longValue(page.get(page.size() - 1).get("soldQuantity"));
+            }
+            if (!ratingDone) {
+                List<EntityValue> page = rankedFind(ec, categoryId)
+                        .condition("avgRating", EntityCondition.GREATER_THAN, BigDecimal.ZERO)
+                        .orderBy("-avgRating").orderBy("ecommerceProductId")
+                        .offset(offset).limit(RANK_PAGE_SIZE)
+                        .list();
+                for (EntityValue row : page) offer(heap, order, seen, row, maxOrderQty, ratingWeight, salesWeight);
+                ratingDone = page.size() < RANK_PAGE_SIZE;
+                ratingBound = ratingDone ? BigDecimal.ZERO : decimalValue(page.get(page.size() - 1).get("avgRating"));
+            }
+            BigDecimal bound = score(ratingBound, salesBound, maxOrderQty, ratingWeight, salesWeight).score;
+            if (bound.signum() == 0) break;
+            if (heap.size() >= MAX_RECOMMENDATIONS && heap.peek().score.compareTo(bound) > 0) break;
+        }
+
+        List<Candidate> selected = new ArrayList<>(heap);
+        selected.sort(order.reversed());
+        if (selected.size() < MAX_RECOMMENDATIONS) {
+            // 不足K个有得分的商品：按商品ID取得分为0的ACTIVE商品补足（最多读 MAX_RECOMMENDATIONS 个）
+            Set<String> positive = new HashSet<>();
+            for (Candidate candidate : selected) positive.add(candidate.productId);
+            EntityFind productFind = ec.getEntity().find("marketplace.ecommerce.EcommerceProduct")
+                    .condition("status", "ACTIVE")
+                    .selectField("ecommerceProductId").selectField("productName").selectField("productCategoryId")
+                    .selectField("price").selectField("stockQuantity")
+                    .orderBy("ecommerceProductId")
+                    .limit(MAX_RECOMMENDATIONS);
+            if (categoryId != null) productFind.condition("productCategoryId", categoryId);
+            List<EntityValue> fill = new ArrayList<>();
+            for (EntityValue product : productFind.list()) {
+                if (fill.size() + selected.size() >= MAX_RECOMMENDATIONS) break;
+                if (!positive.contains(product.getString("ecommerceProductId"))) fill.add(product);
+            }
+            Map<String, EntityValue> statsById = new HashMap<>();
+            if (!fill.isEmpty()) {
+                List<String> fillIds = new ArrayList<>(fill.size());
+                for (EntityValue product : fill) fillIds.add(product.getString("ecommerceProductId"));
+                for (EntityValue stats : ec.getEntity().find("marketplace.ecommerce.EcommerceProductStats")
+                        .condition("ecommerceProductId", EntityCondition.IN, fillIds)
+                        .list()) {
+                    statsById.put(stats.getString("ecommerceProductId"), stats);
+                }
+            }
+            for (EntityValue product : fill) {
+                EntityValue stats = statsById.get(product.getString("ecommerceProductId"));
+                Candidate candidate = score(stats, maxOrderQty, ratingWeight, salesWeight);
+                candidate.productId = product.getString("ecommerceProductId");
+                candidate.product = product;
+                selected.add(candidate);
+            }
+        }
+        if (selected.isEmpty()) return Collections.emptyList();
+
+        // 近期销量只读取入选商品的按日汇总
+        List<String> selectedIds = new ArrayList<>(selected.size());
+        for (Candidate candidate : selected) selectedIds.add(candidate.productId);
+        Map<String, Long> recentById = new HashMap<>();
+        for (EntityValue day : ec.getEntity().find("marketplace.ecommerce.EcommerceProductSalesDay")
+                .condition("ecommerceProductId", EntityCondition.IN, selectedIds)
+                .condition("salesDate", EntityCondition.GREATER_THAN_EQUAL_TO,
+                        Date.valueOf(ec.getUser().getNowTimestamp().toLocalDateTime().toLocalDate().minusDays(RECENT_DAYS - 1)))
+                .list()) {
+            recentById.merge(day.getString("ecommerceProductId"), longValue(day.get("soldQuantity")), Long::sum);
+        }
+
+        List<Map<String, Object>> recommendations = new ArrayList<>(selected.size());
+        for (Candidate entry : selected) {
+            EntityValue product = entry.product;
+            String source = "综合推荐";
+            if (entry.orderScore.compareTo(entry.ratingScore) > 0 && entry.orderQty > 0L) {
+                source = "B2B_PURCHASE".equals(intent) ? "B端热销" : "订单热度";
+            } else if (entry.ratingCount != 0L) {
+                source = "PROJECT_EXPANSION".equals(intent) ? "项目口碑" : "客户评价";
+            }
+
+            Map<String, Object> recommendation = new LinkedHashMap<>();
+            recommendation.put("ecommerceProductId", entry.productId);
+            recommendation.put("productName", product.get("productName"));
+            recommendation.put("productCategoryId", product.get("productCategoryId"));
+            recommendation.put("price", product.get("price"));
+            recommendation.put("stockQuantity", product.get("stockQuantity"));
+            recommendation.put("avgRating", entry.avgRating);
+            recommendation.put("reviewCount", (int) entry.ratingCount);
+            recommendation.put("orderCount", entry.orderQty);
+            recommendation.put("recentOrderCount", recentById.getOrDefault(entry.productId, 0L));
+            recommendation.put("recommendationScore", entry.score);
+            recommendation.put("recommendationSource", source);
+            recommendations.add(recommendation);
+        }
+        return Collections.unmodifiableList(recommendations);
+    }
+
+    /** 推荐的一个候选商品及其得分明细 */
+    private static final class Candidate {
+        String productId;
+        EntityValue product;
+        BigDecimal score;
+        BigDecimal avgRating;
+        long ratingCount;
+        long orderQty;
+        BigDecimal ratingScore;
+        BigDecimal orderScore;
+    }
+
+    /** 有汇总的ACTIVE商品（按品类过滤时只含本品类） */
+    private static EntityFind rankedFind(ExecutionContext ec, String categoryId) {
+        EntityFind find = ec.getEntity().find("marketplace.ecommerce.EcommerceProductAndStats")
+                .condition("status", "ACTIVE");
+        if (categoryId != null) find.condition("productCategoryId", categoryId);
+        return find;
+    }
+
+    /** 读到的商品计入有界堆；每个商品只计一次，得分为0的不进堆 */
+    private static void offer(PriorityQueue<Candidate> heap, Comparator<Candidate> order, Set<String> seen, EntityValue row,
+                              long maxOrderQty, BigDecimal ratingWeight, BigDecimal salesWeight) {
+        if (!seen.add(row.getString("ecommerceProductId"))) return;
+        Candidate candidate = score(row, maxOrderQty, ratingWeight, salesWeight);
+        if (candidate.score.signum() == 0) return;
+        candidate.productId = row.getString("ecommerceProductId");
+        candidate.product = row;
+        if (heap.size() < MAX_RECOMMENDATIONS) {
+            heap.add(candidate);
+        } else if (order.compare(candidate, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(candidate);
+        }
+    }
+
+    /** 按汇总行（可为空）计算得分 */
+    private static Candidate score(EntityValue stats, long maxOrderQty, BigDecimal ratingWeight, BigDecimal salesWeight) {
+        long ratingSum = stats != null ? longValue(stats.get("ratingSum")) : 0L;
+        long ratingCount = stats != null ? longValue(stats.get("ratingCount")) : 0L;
+        long orderQty = stats != null ? longValue(stats.get("soldQuantity")) : 0L;
+        Candidate candidate = score(averageRating(ratingSum, ratingCount), orderQty, maxOrderQty, ratingWeight, salesWeight);
+        candidate.ratingCount = ratingCount;
+        return candidate;
+    }
+
+    /** 得分对平均评分与销量单调不减，也用于计算未读商品的得分上界 */
+    private static Candidate score(BigDecimal avgRating, long orderQty, long maxOrderQty, BigDecimal ratingWeight,
+                                   BigDecimal salesWeight) {
+        Candidate candidate = new Candidate();
+        candidate.avgRating = avgRating;
+        candidate.orderQty = orderQty;
+        candidate.ratingScore = avgRating.compareTo(BigDecimal.ZERO) > 0 ?
+                avgRating.divide(FIVE, 4, RoundingMode.HALF_UP) : BigDecimal.ZERO;
+        candidate.orderScore = (maxOrderQty > 0L && orderQty > 0L) ?
+                BigDecimal.valueOf(orderQty).divide(BigDecimal.valueOf(maxOrderQty), 4, RoundingMode.HALF_UP) :
+                BigDecimal.ZERO;
+        candidate.score = candidate.ratingScore.multiply(ratingWeight)
+                .add(candidate.orderScore.multiply(salesWeight))
+                .setScale(4, RoundingMode.HALF_UP);
+        return candidate;
+    }
+
+    /** 平均评分（4位小数），没有评价时为0 */
+    static BigDecimal averageRating(long ratingSum, long ratingCount) {
+        if (ratingCount == 0L) return BigDecimal.ZERO;
+        return BigDecimal.valueOf(ratingSum).divide(BigDecimal.valueOf(ratingCount), 4, RoundingMode.HALF_UP);
+    }
+
+    private static BigDecimal decimalValue(Object value) {
+        if (value == null) return BigDecimal.ZERO;
+        if (value instanceof BigDecimal) return (BigDecimal) value;
+        return new BigDecimal(value.toString());
+    }
+
+    private static long longValue(Object value) {
+        if (value == null) return 0L;
+        if (value instanceof Number) return ((Number) value).longValue();
+        try {
+            return new BigDecimal(value.toString()).longValue();
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.moqui.marketplace.ecommerce;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商品汇总的进程内合并缓冲
+ * 订单与评价提交后把 ProductStatsEvents 按商品合并成增量，flush#ProductStats 一次取走，
+ * 在独立事务内批量累加到 EcommerceProductStats 与 EcommerceProductSalesDay；热门商品的多笔订单只产生一次汇总行更新。
+ *
+ * 全量重建以开始时刻为界：不晚于该时刻的事件由重建从订单明细与评价读取，之后到达缓冲的这类事件直接丢弃，
+ * 晚于该时刻的事件照常累加。缓冲不持久化，进程异常退出时未刷新的增量由每日的 rebuild#ProductStats 补齐。
+ */
+public final class ProductStatsBuffer {
+    /** 待刷新的商品数达到该值时立即触发一次刷新，否则等定时任务 */
+    public static final int FLUSH_THRESHOLD = 2000;
+
+    private static final Map<String, Delta> pending = new ConcurrentHashMap<>();
+    private static final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private static final AtomicLong recordedEvents = new AtomicLong();
+    private static final AtomicLong skippedEvents = new AtomicLong();
+    private static final AtomicLong flushedProducts = new AtomicLong();
+    /** record 持读锁，beginRebuild 持写锁，保证重建界限之前的事件不会在丢弃之后才进入缓冲 */
+    private static final ReentrantReadWriteLock cutoffLock = new ReentrantReadWriteLock();
+    private static long rebuildCutoffMillis = Long.MIN_VALUE;
+
+    private ProductStatsBuffer() { }
+
+    /**
+     * 单个商品的增量；只在 ConcurrentHashMap.merge 内或刷新线程中修改
+     */
+    public static final class Delta {
+        long soldQuantity;
+        long ratingSum;
+        long ratingCount;
+        Timestamp lastSoldDate;
+        final Map<Date, Long> soldByDay = new HashMap<>();
+
+        public long getSoldQuantity() {
+            return soldQuantity;
+        }
+
+        public long getRatingSum() {
+            return ratingSum;
+        }
+
+        public long getRatingCount() {
+            return ratingCount;
+        }
+
+        public Timestamp getLastSoldDate() {
+            return lastSoldDate;
+        }
+
+        public Map<Date, Long> getSoldByDay() {
+            return soldByDay;
+        }
+
+        void add(Delta other) {
+            soldQuantity += other.soldQuantity;
+            ratingSum += other.ratingSum;
+            ratingCount += other.ratingCount;
+            if (other.lastSoldDate != null && (lastSoldDate == null || lastSoldDate.before(other.lastSoldDate))) {
+                lastSoldDate = other.lastSoldDate;
+            }
+            for (Map.Entry<Date, Long> day : other.soldByDay.entrySet()) soldByDay.merge(day.getKey(), day.getValue(), Long::sum);
+        }
+    }
+
+    /**
+     * 累加一批已提交的事件
+     *
+     * @return true表示待刷新商品数达到阈值且此前未请求刷新，调用方应立即安排一次刷新
+     */
+    public static boolean record(ProductStatsEvents events) {
+        if (events == null || events.isEmpty()) return false;
+        cutoffLock.readLock().lock();
+        try {
+            for (ProductStatsEvents.Event event : events.events()) {
+                if (event.eventMillis() <= rebuildCutoffMillis) {
+                    skippedEvents.incrementAndGet();
+                    continue;
+                }
+                Delta delta = new Delta();
+                if (event.quantity != 0L) {
+                    delta.soldQuantity = event.quantity;
+                    delta.lastSoldDate = event.eventDate;
+                    delta.soldByDay.put(salesDate(event.eventDate), event.quantity);
+                }
+                if (event.rating != 0L) {
+                    delta.ratingSum = event.rating;
+                    delta.ratingCount = 1L;
+                }
+                pending.merge(event.productId, delta, (current, added) -> {
+                    current.add(added);
+                    return current;
+                });
+                recordedEvents.incrementAndGet();
+            }
+        } finally {
+            cutoffLock.readLock().unlock();
+        }
+        return pending.size() >= FLUSH_THRESHOLD && flushRequested.compareAndSet(false, true);
+    }
+
+    /**
+     * 取走全部待刷新增量（按商品ID排序）
+     */
+    public static SortedMap<String, Delta> drain() {
+        flushRequested.set(false);
+        List<String> keys = new ArrayList<>(pending.keySet());
+        SortedMap<String, Delta> drained = new TreeMap<>();
+        for (String key : keys) {
+            Delta delta = pending.remove(key);
+            if (delta != null) drained.put(key, delta);
+        }
+        return drained;
+    }
+
+    /**
+     * 刷新失败时放回增量，与期间新累加的增量合并
+     */
+    public static void restore(Map<String, Delta> deltas) {
+        for (Map.Entry<String, Delta> entry : deltas.entrySet()) {
+            pending.merge(entry.getKey(), entry.getValue(), (current, restored) -> {
+                current.add(restored);
+                return current;
+            });
+        }
+    }
+
+    /**
+     * 全量重建开始：此后不晚于 cutoffMillis 的事件不再累加，已缓冲的增量（均已提交、会被重建读到）丢弃
+     */
+    static void beginRebuild(long cutoffMillis) {
+        cutoffLock.writeLock().lock();
+        try {
+            if (cutoffMillis > rebuildCutoffMillis) rebuildCutoffMillis = cutoffMillis;
+            pending.clear();
+            flushRequested.set(false);
+        } finally {
+            cutoffLock.writeLock().unlock();
+        }
+    }
+
+    public static void recordFlushed(int productCount) {
+        flushedProducts.addAndGet(productCount);
+    }
+
+    static Date salesDate(Timestamp date) {
+        return Date.valueOf(date.toLocalDateTime().toLocalDate());
+    }
+
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendingProducts", pending.size());
+        stats.put("recordedEvents", recordedEvents.get());
+        stats.put("skippedEvents", skippedEvents.get());
+        stats.put("flushedProducts", flushedProducts.get());
+        return stats;
+    }
+}
@@ -0,0 +1,75 @@
+package org.moqui.marketplace.ecommerce;
+
+import org.moqui.context.ExecutionContext;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * 一次写入中产生的商品销量与评价事件，只在单个线程内使用
+ * create#Order、create#ProductReview 在事务中收集，submitOnCommit 在提交后交给 ProductStatsBuffer，
+ * 回滚的订单与评价不计入汇总，下单事务也不再锁商品汇总行。
+ */
+public final class ProductStatsEvents {
+    private final List<Event> events = new ArrayList<>();
+
+    private ProductStatsEvents() { }
+
+    public static ProductStatsEvents create() {
+        return new ProductStatsEvents();
+    }
+
+    /**
+     * 单条事件；eventMillis 与订单明细、评价的 createdDate 一致，全量重建据此区分已计入汇总的事件
+     */
+    static final class Event {
+        final String productId;
+        final long quantity;
+        final long rating;
+        final Timestamp eventDate;
+
+        Event(String productId, long quantity, long rating, Timestamp eventDate) {
+            this.productId = productId;
+            this.quantity = quantity;
+            this.rating = rating;
+            this.eventDate = eventDate;
+        }
+
+        long eventMillis() {
+            return eventDate.getTime();
+        }
+    }
+
+    /** 一笔订单明细的销量，soldDate 为订单明细的 createdDate */
+    public ProductStatsEvents sale(String productId, long quantity, Timestamp soldDate) {
+        if (productId == null || quantity == 0L || soldDate == null) return this;
+        events.add(new Event(productId, quantity, 0L, soldDate));
+        return this;
+    }
+
+    /** 一条ACTIVE评价；评分为空或0时与原统计一致，不计入评价数 */
+    public ProductStatsEvents review(String productId, Number rating, Timestamp reviewDate) {
+        if (productId == null || rating == null || rating.longValue() == 0L || reviewDate == null) return this;
+        events.add(new Event(productId, 0L, rating.longValue(), reviewDate));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    /**
+     * 事务提交后把事件交给缓冲（buffer#ProductStats）
+     */
+    public void submitOnCommit(ExecutionContext ec) {
+        if (isEmpty()) return;
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("events", this);
+        ec.getService().special().name("marketplace.EcommerceServices.buffer#ProductStats")
+                .parameters(parameters).registerOnCommit();
+    }
+
+    List<Event> events() {
+        return events;
+    }
+}
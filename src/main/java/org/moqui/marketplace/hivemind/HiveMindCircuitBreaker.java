@@ -0,0 +1,78 @@
+package org.moqui.marketplace.hivemind;
+
+/**
+ * 单个接口（方法 + 主机 + 路径模板）的熔断器
+ * 连续失败达到 failureThreshold 次后打开，openMillis 内的请求直接拒绝、不占用连接；
+ * 到期后进入半开状态只放行一个探测请求，成功则关闭，失败则重新打开并重新计时。
+ */
+final class HiveMindCircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedMillis;
+    private boolean probeInFlight;
+    private long rejectedCount;
+
+    HiveMindCircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(0L, openMillis);
+    }
+
+    /**
+     * @return false表示熔断中，本次请求不应发出；返回true后必须以 onSuccess/onFailure/onAbandon 之一结束
+     */
+    synchronized boolean tryAcquire(long nowMillis) {
+        if (state == State.OPEN) {
+            if (nowMillis - openedMillis < openMillis) {
+                rejectedCount++;
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                rejectedCount++;
+                return false;
+            }
+            probeInFlight = true;
+        }
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    synchronized void onFailure(long nowMillis) {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedMillis = nowMillis;
+        }
+    }
+
+    /** 请求未得到可判断的结果（如被取消），半开时允许下一个探测 */
+    synchronized void onAbandon() {
+        probeInFlight = false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+}
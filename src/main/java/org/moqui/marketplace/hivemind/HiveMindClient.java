@@ -0,0 +1,653 @@
+package org.moqui.marketplace.hivemind;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * HiveMind API 的共享HTTP客户端
+ * 进程内只保留一个长期存活的 HttpClient（优先 HTTP/2，连接复用），配置每隔 CHECK_INTERVAL_MS 才重新解析一次，
+ * 配置变化时才替换实例。sendAsync 不阻塞调用线程：同时在途的请求数受 maxInFlight 限制，超出的请求排队，
+ * 队列满时直接拒绝；失败重试通过延迟调度完成，不占用线程等待。
+ *
+ * 每个接口（方法 + 主机 + 路径模板，如 GET /projects/{@literal *}/tasks）有独立的熔断器，HiveMind 不可用时快速失败；
+ * GET 请求使用 ETag/Last-Modified 条件请求缓存，项目状态与任务列表未变化时服务端只需返回304。
+ *
+ * 也可以直接以 Settings 构造独立实例（如指向本地桩服务器的 baseUrl）。
+ */
+public final class HiveMindClient {
+    private static final Logger logger = LoggerFactory.getLogger(HiveMindClient.class);
+
+    /** 共享实例重新解析配置的间隔 */
+    private static final long CHECK_INTERVAL_MS = 60_000L;
+
+    private static final ExecutorService HTTP_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "marketplace-hivemind-http-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final Object SHARED_LOCK = new Object();
+    private static volatile HiveMindClient shared;
+    private static volatile long nextCheckMillis = 0L;
+
+    private final Settings settings;
+    private final HttpClient httpClient;
+    private final HiveMindResponseCache cache;
+    private final ConcurrentHashMap<String, HiveMindCircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * 客户端配置；交给 HiveMindClient 构造后不应再修改
+     */
+    public static final class Settings {
+        private String baseUrl;
+        private String token;
+        private int timeoutSeconds = 15;
+        private int maxAttempts = 3;
+        private long backoffMillis = 2000L;
+        private int maxInFlight = 32;
+        private int maxQueued = 256;
+        private int failureThreshold = 5;
+        private int openSeconds = 30;
+        private int cacheMaxEntries = 500;
+
+        public static Settings defaults(String baseUrl) {
+            Settings settings = new Settings();
+            settings.baseUrl = baseUrl;
+            return settings;
+        }
+
+        /**
+         * 按 系统属性、环境变量、confLookup（Moqui 配置）、默认值 的顺序解析
+         */
+        public static Settings resolve(Function<String, String> confLookup) {
+            Settings settings = new Settings();
+            settings.baseUrl = value(confLookup, "hivemind.api.baseUrl", "HIVEMIND_API_URL", "https://hivemind.example.com/api");
+            settings.token = value(confLookup, "hivemind.api.token", "HIVEMIND_API_TOKEN", null);
+            String timeout = value(confLookup, "hivemind.api.timeout.seconds", null, null);
+            if (timeout == null) timeout = value(confLookup, "hivemind.api.timeout", null, null);
+            settings.timeoutSeconds = intValue(timeout, settings.timeoutSeconds);
+            settings.maxAttempts = intValue(value(confLookup, "hivemind.api.retry.maxAttempts", null, null), settings.maxAttempts);
+            settings.backoffMillis = intValue(value(confLookup, "hivemind.api.retry.backoff.millis", null, null), (int) settings.backoffMillis);
+            settings.maxInFlight = intValue(value(confLookup, "hivemind.api.maxInFlight", null, null), settings.maxInFlight);
+            settings.maxQueued = intValue(value(confLookup, "hivemind.api.maxQueued", null, null), settings.maxQueued);
+            settings.failureThreshold = intValue(value(confLookup, "hivemind.api.circuit.failureThreshold", null, null), settings.failureThreshold);
+            settings.openSeconds = intValue(value(confLookup, "hivemind.api.circuit.openSeconds", null, null), settings.openSeconds);
+            settings.cacheMaxEntries = intValue(value(confLookup, "hivemind.api.cache.maxEntries", null, null), settings.cacheMaxEntries);
+            return settings;
+        }
+
+        public Settings token(String token) {
+            this.token = token;
+            return this;
+        }
+
+        public Settings timeoutSeconds(int timeoutSeconds) {
+            this.timeoutSeconds = timeoutSeconds;
+            return this;
+        }
+
+        public Settings retry(int maxAttempts, long backoffMillis) {
+            this.maxAttempts = maxAttempts;
+            this.backoffMillis = backoffMillis;
+            return this;
+        }
+
+        public Settings concurrency(int maxInFlight, int maxQueued) {
+            this.maxInFlight = maxInFlight;
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        public Settings circuitBreaker(int failureThreshold, int openSeconds) {
+            this.failureThreshold = failureThreshold;
+            this.openSeconds = openSeconds;
+            return this;
+        }
+
+        public Settings cacheMaxEntries(int cacheMaxEntries) {
+            this.cacheMaxEntries = cacheMaxEntries;
+            return this;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Settings)) return false;
+            Settings other = (Settings) o;
+            return timeoutSeconds == other.timeoutSeconds && maxAttempts == other.maxAttempts
+                    && backoffMillis == other.backoffMillis && maxInFlight == other.maxInFlight
+                    && maxQueued == other.maxQueued && failureThreshold == other.failureThreshold
+                    && openSeconds == other.openSeconds && cacheMaxEntries == other.cacheMaxEntries
+                    && Objects.equals(baseUrl, other.baseUrl) && Objects.equals(token, other.token);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(baseUrl, token, timeoutSeconds, maxAttempts, backoffMillis);
+        }
+
+        private static String value(Function<String, String> confLookup, String property, String envName, String defaultValue) {
+            String value = System.getProperty(property);
+            if ((value == null || value.isEmpty()) && envName != null) value = System.getenv(envName);
+            if ((value == null || value.isEmpty()) && confLookup != null) {
+                try {
+                    value = confLookup.apply(property);
+                } catch (RuntimeException e) {
+                    value = null;
+                }
+            }
+            return value == null || value.isEmpty() ? defaultValue : value;
+        }
+
+        private static int intValue(String value, int defaultValue) {
+            if (value == null || value.trim().isEmpty()) return defaultValue;
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+    }
+
+    /**
+     * 一次请求；timeoutSeconds、maxAttempts 为0时使用客户端配置
+     */
+    public static final class Request {
+        private final String method;
+        private final String url;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private String body;
+        private int timeoutSeconds;
+        private int maxAttempts;
+        private boolean cacheable = true;
+
+        private Request(String method, String url) {
+            this.method = method == null ? "GET" : method.toUpperCase();
+            this.url = url;
+        }
+
+        /** 不带 HiveMind 默认请求头的请求（如Webhook回调） */
+        public static Request to(String method, String url) {
+            return new Request(method, url);
+        }
+
+        public Request header(String name, Object value) {
+            if (name != null && value != null) headers.put(name, value.toString());
+            return this;
+        }
+
+        public Request headers(Map<?, ?> values) {
+            if (values != null) {
+                for (Map.Entry<?, ?> entry : values.entrySet()) {
+                    if (entry.getKey() != null) header(entry.getKey().toString(), entry.getValue());
+                }
+            }
+            return this;
+        }
+
+        /** JSON请求体，未指定 Content-Type 时按 application/json 发送 */
+        public Request body(String json) {
+            this.body = json;
+            if (json != null && !headers.containsKey("Content-Type")) headers.put("Content-Type", "application/json");
+            return this;
+        }
+
+        public Request timeoutSeconds(int timeoutSeconds) {
+            this.timeoutSeconds = timeoutSeconds;
+            return this;
+        }
+
+        public Request maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /** 是否使用条件请求缓存，只对GET有效 */
+        public Request cacheable(boolean cacheable) {
+            this.cacheable = cacheable;
+            return this;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+    }
+
+    public static final class Response {
+        private final String url;
+        private final int statusCode;
+        private final String body;
+        private final boolean fromCache;
+        private final int attempts;
+
+        Response(String url, int statusCode, String body, boolean fromCache, int attempts) {
+            this.url = url;
+            this.statusCode = statusCode;
+            this.body = body;
+            this.fromCache = fromCache;
+            this.attempts = attempts;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public boolean isSuccessful() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+
+        /** 响应体来自条件请求缓存（服务端返回304） */
+        public boolean isFromCache() {
+            return fromCache;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+    /**
+     * 接口熔断中，请求未发出
+     */
+    public static final class CircuitOpenException extends IllegalStateException {
+        private final String endpoint;
+
+        CircuitOpenException(String endpoint) {
+            super("HiveMind endpoint circuit open: " + endpoint);
+            this.endpoint = endpoint;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+    }
+
+    public HiveMindClient(Settings settings) {
+        this.settings = settings;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(Math.max(1, settings.timeoutSeconds)))
+                .executor(HTTP_EXECUTOR)
+                .build();
+        this.cache = new HiveMindResponseCache(settings.cacheMaxEntries);
+    }
+
+    /**
+     * 进程内共享的客户端；confLookup 读取 Moqui 配置值（如 ec.ecfi.getConfValue），只在重新解析配置时调用
+     */
+    public static HiveMindClient shared(Function<String, String> confLookup) {
+        HiveMindClient client = shared;
+        long now = System.currentTimeMillis();
+        if (client != null && now < nextCheckMillis) return client;
+        synchronized (SHARED_LOCK) {
+            client = shared;
+            if (client != null && now < nextCheckMillis) return client;
+            Settings settings = Settings.resolve(confLookup);
+            if (client == null || !client.settings.equals(settings)) {
+                if (client != null) logger.info("HiveMind client settings changed, replacing shared client for {}", settings.baseUrl);
+                client = new HiveMindClient(settings);
+                shared = client;
+            }
+            nextCheckMillis = now + CHECK_INTERVAL_MS;
+            return client;
+        }
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * 带 HiveMind 默认请求头（Accept、User-Agent、Bearer token）的请求，headers 中同名项覆盖默认值
+     */
+    public Request request(String method, String url) {
+        Request request = new Request(method, url);
+        request.header("Accept", "application/json");
+        request.header("User-Agent", "Moqui-Marketplace/1.0");
+        if (settings.token != null) request.header("Authorization", "Bearer " + settings.token);
+        return request;
+    }
+
+    /**
+     * 以 baseUrl 拼接相对路径与查询参数（值为空的参数忽略）
+     */
+    public String resolveUrl(String path, Map<?, ?> queryParameters) {
+        String base = settings.baseUrl == null ? "" : settings.baseUrl;
+        String rel = path == null ? "" : path;
+        if (!rel.isEmpty() && !base.isEmpty()) {
+            boolean baseEndsWithSlash = base.endsWith("/");
+            boolean relStartsWithSlash = rel.startsWith("/");
+            if (baseEndsWithSlash && relStartsWithSlash) rel = rel.substring(1);
+            else if (!baseEndsWithSlash && !relStartsWithSlash) base = base + "/";
+        }
+        StringBuilder url = new StringBuilder(base).append(rel);
+        if (queryParameters != null && !queryParameters.isEmpty()) {
+            StringJoiner query = new StringJoiner("&");
+            for (Map.Entry<?, ?> entry : queryParameters.entrySet()) {
+                if (entry.getKey() == null || entry.getValue() == null) continue;
+                query.add(URLEncoder.encode(entry.getKey().toString(), StandardCharsets.UTF_8) + "="
+                        + URLEncoder.encode(entry.getValue().toString(), StandardCharsets.UTF_8));
+            }
+            if (query.length() > 0) url.append(url.indexOf("?") >= 0 ? '&' : '?').append(query);
+        }
+        return url.toString();
+    }
+
+    /**
+     * 发送请求并等待结果，供同步服务使用；等待时间以超时与重试间隔之和为上限
+     *
+     * @throws CircuitOpenException 接口熔断中
+     * @throws RejectedExecutionException 在途与排队的请求已满
+     */
+    public Response send(Request request) {
+        CompletableFuture<Response> future = sendAsync(request);
+        int attempts = attempts(request);
+        long timeoutMillis = timeoutSeconds(request) * 1000L;
+        long maxWaitMillis = (timeoutMillis + settings.backoffMillis * attempts) * attempts + timeoutMillis;
+        try {
+            return future.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new IllegalStateException("HiveMind request timed out after " + maxWaitMillis + "ms: " + request.method + " " + request.url, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new IllegalStateException("Interrupted waiting for HiveMind request " + request.url, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof IOException) throw new UncheckedIOException((IOException) cause);
+            throw new IllegalStateException(cause != null ? cause.getMessage() : e.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 异步发送请求；非2xx响应正常完成（由调用方判断），连接异常、熔断、队列满时异常完成
+     */
+    public CompletableFuture<Response> sendAsync(Request request) {
+        requestCount.incrementAndGet();
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        attempt(request, 1, result);
+        return result;
+    }
+
+    private void attempt(Request request, int attempt, CompletableFuture<Response> result) {
+        if (result.isDone()) return;
+        int maxAttempts = attempts(request);
+        submit(() -> execute(request, attempt)).whenComplete((response, error) -> {
+            boolean failed = error != null || !response.isSuccessful();
+            if (failed) {
+                logger.warn("HiveMind request {} {} failed (attempt {}/{}): {}", request.method, request.url, attempt, maxAttempts,
+                        error != null ? error.toString() : "HTTP " + response.getStatusCode());
+            }
+            boolean retry = attempt < maxAttempts && (error != null
+                    ? !(error instanceof CircuitOpenException || error instanceof RejectedExecutionException)
+                    : isFailureStatus(response.getStatusCode()));
+            if (retry) {
+                Executor delayed = CompletableFuture.delayedExecutor(settings.backoffMillis * attempt, TimeUnit.MILLISECONDS, HTTP_EXECUTOR);
+                delayed.execute(() -> attempt(request, attempt + 1, result));
+            } else if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(response);
+            }
+        });
+    }
+
+    /**
+     * 在途请求数未满时立即开始，否则排队；排队也满时拒绝
+     */
+    private CompletableFuture<Response> submit(Supplier<CompletableFuture<Response>> task) {
+        CompletableFuture<Response> promise = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<Response> call;
+            try {
+                call = task.get();
+            } catch (RuntimeException e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+            call.whenComplete((response, error) -> {
+                inFlight.decrementAndGet();
+                dispatchWaiting();
+                if (error != null) promise.completeExceptionally(unwrap(error));
+                else promise.complete(response);
+            });
+        };
+        if (inFlight.incrementAndGet() <= settings.maxInFlight) {
+            start.run();
+            return promise;
+        }
+        inFlight.decrementAndGet();
+        if (queued.incrementAndGet() > settings.maxQueued) {
+            queued.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            promise.completeExceptionally(new RejectedExecutionException("Too many pending HiveMind requests"));
+            return promise;
+        }
+        waiting.add(start);
+        // 入队后自己再尝试一次，避免与释放名额的线程错过
+        dispatchWaiting();
+        return promise;
+    }
+
+    private void dispatchWaiting() {
+        while (!waiting.isEmpty()) {
+            if (inFlight.incrementAndGet() > settings.maxInFlight) {
+                inFlight.decrementAndGet();
+                return;
+            }
+            Runnable next = waiting.poll();
+            if (next == null) {
+                inFlight.decrementAndGet();
+                return;
+            }
+            queued.decrementAndGet();
+            next.run();
+        }
+    }
+
+    private CompletableFuture<Response> execute(Request request, int attempt) {
+        String endpoint = endpointKey(request);
+        HiveMindCircuitBreaker breaker = breakers.computeIfAbsent(endpoint,
+                k -> new HiveMindCircuitBreaker(settings.failureThreshold, settings.openSeconds * 1000L));
+        if (!breaker.tryAcquire(System.currentTimeMillis())) {
+            return CompletableFuture.failedFuture(new CircuitOpenException(endpoint));
+        }
+
+        boolean cacheable = request.cacheable && cache.isEnabled() && "GET".equals(request.method);
+        String cacheKey = cacheable ? cacheKey(request) : null;
+        HiveMindResponseCache.Entry cached = cacheable ? cache.get(cacheKey) : null;
+
+        HttpRequest httpRequest;
+        try {
+            httpRequest = buildRequest(request, cached);
+        } catch (RuntimeException e) {
+            breaker.onAbandon();
+            return CompletableFuture.failedFuture(e);
+        }
+        return httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString()).handle((httpResponse, error) -> {
+            if (error != null) {
+                breaker.onFailure(System.currentTimeMillis());
+                throw new CompletionException(unwrap(error));
+            }
+            int status = httpResponse.statusCode();
+            if (isFailureStatus(status)) breaker.onFailure(System.currentTimeMillis());
+            else breaker.onSuccess();
+
+            if (status == 304 && cached != null) {
+                cache.recordHit();
+                return new Response(request.url, cached.statusCode, cached.body, true, attempt);
+            }
+            boolean successful = status >= 200 && status < 300;
+            if (cacheable) {
+                cache.recordMiss();
+                if (successful) {
+                    cache.store(cacheKey, status, httpResponse.body(),
+                            httpResponse.headers().firstValue("ETag").orElse(null),
+                            httpResponse.headers().firstValue("Last-Modified").orElse(null));
+                }
+            } else if (successful && !"GET".equals(request.method) && !"HEAD".equals(request.method)) {
+                cache.invalidatePath(stripQuery(request.url));
+            }
+            return new Response(request.url, status, httpResponse.body(), false, attempt);
+        });
+    }
+
+    private HttpRequest buildRequest(Request request, HiveMindResponseCache.Entry cached) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(request.url))
+                .timeout(Duration.ofSeconds(timeoutSeconds(request)));
+        for (Map.Entry<String, String> header : request.headers.entrySet()) builder.header(header.getKey(), header.getValue());
+        if (cached != null) {
+            if (cached.etag != null) builder.header("If-None-Match", cached.etag);
+            if (cached.lastModified != null) builder.header("If-Modified-Since", cached.lastModified);
+        }
+        if (request.body != null && !"GET".equals(request.method) && !"DELETE".equals(request.method)) {
+            builder.method(request.method, HttpRequest.BodyPublishers.ofString(request.body));
+        } else if ("GET".equals(request.method)) {
+            builder.GET();
+        } else if ("DELETE".equals(request.method)) {
+            builder.DELETE();
+        } else {
+            builder.method(request.method, HttpRequest.BodyPublishers.noBody());
+        }
+        return builder.build();
+    }
+
+    /**
+     * 熔断器的接口键：baseUrl 下的路径按 集合/ID 交替，ID段替换为*（/projects/{@literal *}/tasks），其他URL取完整路径
+     */
+    String endpointKey(Request request) {
+        String path = stripQuery(request.url);
+        String base = settings.baseUrl;
+        if (base != null && !base.isEmpty() && path.startsWith(base)) {
+            String[] segments = path.substring(base.length()).split("/");
+            StringBuilder template = new StringBuilder(base);
+            int index = 0;
+            for (String segment : segments) {
+                if (segment.isEmpty()) continue;
+                template.append('/').append(index % 2 == 1 ? "*" : segment);
+                index++;
+            }
+            return request.method + " " + template;
+        }
+        return request.method + " " + path;
+    }
+
+    /**
+     * 条件请求缓存的键：URL + 空格 + Authorization 头的SHA-256，不同凭证的响应分开缓存；
+     * 按完整凭证摘要区分，不会因哈希碰撞把一个凭证的响应返回给另一个凭证，键中也不保留凭证原文
+     */
+    static String cacheKey(Request request) {
+        String authorization = null;
+        for (Map.Entry<String, String> header : request.headers.entrySet()) {
+            if ("Authorization".equalsIgnoreCase(header.getKey())) authorization = header.getValue();
+        }
+        if (authorization == null) return request.url + " -";
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return request.url + " " + HiveMindWebhookSignature.toHex(digest.digest(authorization.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private int timeoutSeconds(Request request) {
+        return Math.max(1, request.timeoutSeconds > 0 ? request.timeoutSeconds : settings.timeoutSeconds);
+    }
+
+    private int attempts(Request request) {
+        return Math.max(1, request.maxAttempts > 0 ? request.maxAttempts : settings.maxAttempts);
+    }
+
+    /** 计为接口失败（熔断计数）并值得重试的状态码 */
+    private static boolean isFailureStatus(int status) {
+        return status >= 500 || status == 408 || status == 429;
+    }
+
+    private static String stripQuery(String url) {
+        int query = url.indexOf('?');
+        return query >= 0 ? url.substring(0, query) : url;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("baseUrl", settings.baseUrl);
+        stats.put("requestCount", requestCount.get());
+        stats.put("inFlight", inFlight.get());
+        stats.put("queued", queued.get());
+        stats.put("rejectedCount", rejectedCount.get());
+        stats.put("cacheEntries", cache.size());
+        stats.put("cacheHits", cache.getHitCount());
+        stats.put("cacheMisses", cache.getMissCount());
+        Map<String, Object> circuits = new TreeMap<>();
+        for (Map.Entry<String, HiveMindCircuitBreaker> entry : breakers.entrySet()) {
+            HiveMindCircuitBreaker breaker = entry.getValue();
+            Map<String, Object> circuit = new LinkedHashMap<>();
+            circuit.put("state", breaker.getState().name());
+            circuit.put("consecutiveFailures", breaker.getConsecutiveFailures());
+            circuit.put("rejectedCount", breaker.getRejectedCount());
+            circuits.put(entry.getKey(), circuit);
+        }
+        stats.put("circuits", circuits);
+        return stats;
+    }
+
+    /** 共享实例的统计，尚未创建时返回空Map */
+    public static Map<String, Object> getSharedStats() {
+        HiveMindClient client = shared;
+        return client != null ? client.getStats() : new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,305 @@
+package org.moqui.marketplace.hivemind;
+
+import groovy.json.JsonOutput;
+import org.moqui.context.ExecutionContext;
+import org.moqui.context.ExecutionContextFactory;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityConditionFactory;
+import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityListIterator;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HiveMind 项目跟进的一轮监控
+ * 先按通知先后（从未通知的在前）取出全部到期项目的ID，再按页处理：页内每个项目在独立的虚拟线程与
+ * ExecutionContext 中调用 monitor#HiveMindProject（同步状态、拉取任务、推送提醒，各自的事务），
+ * 同时处理的项目数受 concurrency 限制；远程调用阻塞的只是虚拟线程，HTTP 并发另由共享的 HiveMindClient 限制。
+ *
+ * 项目产生的 Webhook 事件按 batchSize 合并成一个请求异步发送，每页结束时发出已凑满的批次，最后发出剩余事件。
+ * 一轮结束返回处理速度（项目/秒）与滞后（项目到期至本轮开始的最长与平均时间）。
+ */
+public final class HiveMindProjectMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(HiveMindProjectMonitor.class);
+
+    private static final String PROJECT_ENTITY = "marketplace.project.HiveMindProject";
+    private static final String PROJECT_SERVICE = "marketplace.MarketplaceServices.monitor#HiveMindProject";
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int DEFAULT_CONCURRENCY = 16;
+    public static final int DEFAULT_WEBHOOK_BATCH_SIZE = 50;
+
+    private final ExecutionContext ec;
+    private final int thresholdHours;
+    private final String projectType;
+    private final int maxProjects;
+    private final int pageSize;
+    private final int concurrency;
+
+    private HiveMindClient webhookClient;
+    private String webhookUrl;
+    private String webhookToken;
+    private int webhookTimeoutSeconds = 10;
+    private int webhookBatchSize = DEFAULT_WEBHOOK_BATCH_SIZE;
+
+    private final AtomicInteger notifiedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final Queue<Map<String, Object>> pendingEvents = new ConcurrentLinkedQueue<>();
+    private final List<CompletableFuture<Integer>> webhookCalls = new ArrayList<>();
+    private int webhookBatchCount;
+
+    /**
+     * @param maxProjects 本轮最多处理的项目数，0表示处理全部到期项目
+     */
+    public HiveMindProjectMonitor(ExecutionContext ec, int thresholdHours, String projectType, int maxProjects,
+                                  int pageSize, int concurrency) {
+        this.ec = ec;
+        this.thresholdHours = Math.max(0, thresholdHours);
+        this.projectType = projectType == null || projectType.isEmpty() ? null : projectType.toUpperCase();
+        this.maxProjects = Math.max(0, maxProjects);
+        this.pageSize = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+        this.concurrency = concurrency > 0 ? concurrency : DEFAULT_CONCURRENCY;
+    }
+
+    /**
+     * 启用 Webhook 批量推送
+     */
+    public HiveMindProjectMonitor webhook(HiveMindClient client, String url, String token, int timeoutSeconds, int batchSize) {
+        this.webhookClient = client;
+        this.webhookUrl = url;
+        this.webhookToken = token;
+        if (timeoutSeconds > 0) this.webhookTimeoutSeconds = timeoutSeconds;
+        if (batchSize > 0) this.webhookBatchSize = batchSize;
+        return this;
+    }
+
+    private boolean webhookEnabled() {
+        return webhookClient != null && webhookUrl != null && !webhookUrl.isEmpty();
+    }
+
+    /** 到期项目：ID与到期时间（毫秒，未知时为null） */
+    private static final class DueProject {
+        final String workEffortId;
+        final Long dueMillis;
+
+        DueProject(String workEffortId, Long dueMillis) {
+            this.workEffortId = workEffortId;
+            this.dueMillis = dueMillis;
+        }
+    }
+
+    public Map<String, Object> run() {
+        long startMillis = System.currentTimeMillis();
+        Timestamp nowTs = ec.getUser().getNowTimestamp();
+        List<DueProject> dueProjects = findDueProjects(nowTs);
+
+        long maxLagMillis = 0L;
+        long lagSumMillis = 0L;
+        int lagCount = 0;
+        for (DueProject project : dueProjects) {
+            if (project.dueMillis == null) continue;
+            long lag = Math.max(0L, nowTs.getTime() - project.dueMillis);
+            maxLagMillis = Math.max(maxLagMillis, lag);
+            lagSumMillis += lag;
+            lagCount++;
+        }
+
+        ExecutionContextFactory ecf = ec.getFactory();
+        String username = ec.getUser().getUsername();
+        Semaphore permits = new Semaphore(concurrency);
+        int processed = 0;
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("hivemind-monitor-", 0).factory());
+        try {
+            for (int from = 0; from < dueProjects.size(); from += pageSize) {
+                List<DueProject> page = dueProjects.subList(from, Math.min(from + pageSize, dueProjects.size()));
+                List<Future<?>> tasks = new ArrayList<>(page.size());
+                for (DueProject project : page) {
+                    permits.acquireUninterruptibly();
+                    try {
+                        tasks.add(executor.submit(() -> {
+                            try {
+                                processProject(ecf, username, project.workEffortId, nowTs);
+                            } finally {
+                                permits.release();
+                            }
+                        }));
+                    } catch (RejectedExecutionException e) {
+                        permits.release();
+                        throw e;
+                    }
+                }
+                for (Future<?> task : tasks) awaitTask(task);
+                processed += page.size();
+                flushWebhooks(false);
+                logger.info("HiveMind monitor processed {}/{} projects ({} notified, {} failed)",
+                        processed, dueProjects.size(), notifiedCount.get(), failedCount.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        flushWebhooks(true);
+        int webhookCount = awaitWebhooks();
+
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("processedCount", processed);
+        result.put("notifiedCount", notifiedCount.get());
+        result.put("failedCount", failedCount.get());
+        result.put("webhookCount", webhookCount);
+        result.put("webhookBatchCount", webhookBatchCount);
+        result.put("elapsedMillis", elapsedMillis);
+        result.put("projectsPerSecond", elapsedMillis > 0 ? BigDecimal.valueOf(processed * 1000L)
+                .divide(BigDecimal.valueOf(elapsedMillis), 2, RoundingMode.HALF_UP) : BigDecimal.ZERO);
+        result.put("maxLagSeconds", maxLagMillis / 1000L);
+        result.put("avgLagSeconds", lagCount > 0 ? lagSumMillis / lagCount / 1000L : 0L);
+        logger.info("HiveMind monitor cycle: {} projects in {}ms ({} projects/s), max lag {}s, {} webhook events in {} batches",
+                processed, elapsedMillis, result.get("projectsPerSecond"), result.get("maxLagSeconds"), webhookCount, webhookBatchCount);
+        return result;
+    }
+
+    /**
+     * 上次通知早于阈值或从未通知的项目，按上次通知时间（空在前）、最近同步时间倒序；只读取排序与计算滞后所需的字段
+     */
+    private List<DueProject> findDueProjects(Timestamp nowTs) {
+        long thresholdMillis = thresholdHours * 3600_000L;
+        Timestamp thresholdTs = new Timestamp(nowTs.getTime() - thresholdMillis);
+        EntityConditionFactory cf = ec.getEntity().getConditionFactory();
+        EntityFind find = ec.getEntity().find(PROJECT_ENTITY)
+                .condition(cf.makeCondition(
+                        cf.makeCondition("lastNotifyDate", EntityCondition.LESS_THAN, thresholdTs),
+                        EntityCondition.OR,
+                        cf.makeCondition("lastNotifyDate", EntityCondition.IS_NULL, null)))
+                .selectField("workEffortId").selectField("lastNotifyDate").selectField("lastSyncDate")
+                .orderBy("lastNotifyDate NULLS FIRST").orderBy("-lastSyncDate")
+                .disableAuthz();
+        if (projectType != null) find.condition("projectType", projectType);
+        if (maxProjects > 0) find.limit(maxProjects);
+
+        List<DueProject> dueProjects = new ArrayList<>();
+        try (EntityListIterator rows = find.iterator()) {
+            EntityValue row;
+            while ((row = rows.next()) != null) {
+                Timestamp lastNotify = (Timestamp) row.get("lastNotifyDate");
+                Timestamp since = lastNotify != null ? lastNotify : (Timestamp) row.get("lastSyncDate");
+                dueProjects.add(new DueProject(row.getString("workEffortId"),
+                        since != null ? since.getTime() + thresholdMillis : null));
+            }
+        }
+        return dueProjects;
+    }
+
+    /**
+     * 在当前（虚拟）线程的独立 ExecutionContext 中处理单个项目
+     */
+    private void processProject(ExecutionContextFactory ecf, String username, String workEffortId, Timestamp nowTs) {
+        ExecutionContext projectEc = ecf.getExecutionContext();
+        try {
+            if (username != null) projectEc.getUser().internalLoginUser(username);
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("workEffortId", workEffortId);
+            parameters.put("notifyTimestamp", nowTs);
+            parameters.put("includeWebhookEvent", webhookEnabled());
+            Map<String, Object> result = projectEc.getService().sync().name(PROJECT_SERVICE)
+                    .parameters(parameters).disableAuthz().call();
+            if (projectEc.getMessage().hasError()) {
+                failedCount.incrementAndGet();
+                logger.warn("HiveMind monitor failed for project {}: {}", workEffortId, projectEc.getMessage().getErrorsString());
+                projectEc.getMessage().clearErrors();
+                return;
+            }
+            if (result != null && Boolean.TRUE.equals(result.get("notified"))) notifiedCount.incrementAndGet();
+            Object event = result != null ? result.get("webhookEvent") : null;
+            if (event instanceof Map && webhookEnabled()) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> eventMap = (Map<String, Object>) event;
+                pendingEvents.add(eventMap);
+            }
+        } catch (RuntimeException e) {
+            failedCount.incrementAndGet();
+            logger.warn("HiveMind monitor failed for project " + workEffortId, e);
+        } finally {
+            projectEc.destroy();
+        }
+    }
+
+    private void awaitTask(Future<?> task) {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("HiveMind monitor interrupted", e);
+        } catch (ExecutionException e) {
+            // processProject 已记录并计数，这里只兜底意外的 Error
+            failedCount.incrementAndGet();
+            logger.warn("HiveMind monitor task failed", e.getCause());
+        }
+    }
+
+    /**
+     * 把待发送的事件按 batchSize 分批异步推送；all 为 false 时只发出已凑满的批次
+     */
+    private void flushWebhooks(boolean all) {
+        if (!webhookEnabled()) return;
+        while (pendingEvents.size() >= webhookBatchSize || (all && !pendingEvents.isEmpty())) {
+            List<Map<String, Object>> batch = new ArrayList<>(webhookBatchSize);
+            Map<String, Object> event;
+            while (batch.size() < webhookBatchSize && (event = pendingEvents.poll()) != null) batch.add(event);
+            if (batch.isEmpty()) return;
+
+            Map<String, Object> payload = new LinkedHashMap<>();
+            payload.put("eventType", "HIVEMIND_PROJECT_MONITOR");
+            payload.put("sentDate", ec.getUser().getNowTimestamp().toString());
+            payload.put("eventCount", batch.size());
+            payload.put("events", batch);
+            HiveMindClient.Request request = HiveMindClient.Request.to("POST", webhookUrl)
+                    .body(JsonOutput.toJson(payload))
+                    .timeoutSeconds(webhookTimeoutSeconds)
+                    .maxAttempts(1);
+            if (webhookToken != null && !webhookToken.isEmpty()) request.header("Authorization", "Bearer " + webhookToken);
+
+            int eventCount = batch.size();
+            webhookBatchCount++;
+            webhookCalls.add(webhookClient.sendAsync(request).handle((response, error) -> {
+                if (error != null) {
+                    logger.warn("HiveMind monitor webhook batch of {} events failed: {}", eventCount, error.toString());
+                    return 0;
+                }
+                if (!response.isSuccessful()) {
+                    logger.warn("HiveMind monitor webhook batch of {} events failed: HTTP {} -> {}",
+                            eventCount, response.getStatusCode(), response.getBody());
+                    return 0;
+                }
+                return eventCount;
+            }));
+        }
+    }
+
+    /**
+     * 等待全部 Webhook 批次完成
+     *
+     * @return 推送成功的事件数
+     */
+    private int awaitWebhooks() {
+        int delivered = 0;
+        long deadline = System.currentTimeMillis() + (webhookTimeoutSeconds + 5) * 1000L;
+        for (CompletableFuture<Integer> call : webhookCalls) {
+            try {
+                delivered += call.get(Math.max(1L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                logger.warn("HiveMind monitor webhook batch did not complete: {}", e.toString());
+            }
+        }
+        return delivered;
+    }
+}
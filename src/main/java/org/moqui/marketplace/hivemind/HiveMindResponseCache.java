@@ -0,0 +1,118 @@
+package org.moqui.marketplace.hivemind;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * GET 响应的条件请求缓存
+ * 只保存带 ETag 或 Last-Modified 的成功响应；再次请求同一URL时带上 If-None-Match / If-Modified-Since，
+ * 服务端返回304时直接复用缓存的响应体，不再传输与解析完整的项目或任务列表。
+ * 按访问顺序淘汰（LRU）；写请求（POST/PUT/PATCH/DELETE）成功后按路径前缀清除缓存：
+ * 写入路径本身及其下级路径（含各种查询参数），以及各级上级路径（所属集合、所属项目），
+ * 例如 PUT /projects/1/tasks/5 清除 /projects/1/tasks/5、/projects/1/tasks?status=OPEN、/projects/1 与 /projects。
+ * 键为 URL + 空格 + 凭证摘要，前缀按路径段比较，/projects/1 不会清除 /projects/12。
+ */
+final class HiveMindResponseCache {
+    /** 超过该长度的响应体不缓存 */
+    static final int MAX_BODY_LENGTH = 256 * 1024;
+
+    static final class Entry {
+        final int statusCode;
+        final String body;
+        final String etag;
+        final String lastModified;
+
+        Entry(int statusCode, String body, String etag, String lastModified) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hitCount;
+    private long missCount;
+
+    HiveMindResponseCache(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > HiveMindResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * 记录一次成功响应：有校验头时缓存，否则清除旧的缓存
+     */
+    synchronized void store(String key, int statusCode, String body, String etag, String lastModified) {
+        if ((etag == null && lastModified == null) || body == null || body.length() > MAX_BODY_LENGTH) {
+            entries.remove(key);
+            return;
+        }
+        entries.put(key, new Entry(statusCode, body, etag, lastModified));
+    }
+
+    synchronized void recordHit() {
+        hitCount++;
+    }
+
+    synchronized void recordMiss() {
+        missCount++;
+    }
+
+    /**
+     * 清除与写入路径（不含查询参数）处于同一路径前缀下的缓存：该路径、其下级路径与其各级上级路径
+     */
+    synchronized void invalidatePath(String writePath) {
+        String path = trimSlash(writePath);
+        Iterator<String> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            String cachedPath = keyPath(keys.next());
+            if (isSameOrBelow(cachedPath, path) || isSameOrBelow(path, cachedPath)) keys.remove();
+        }
+    }
+
+    /** 缓存键中的路径：去掉凭证摘要与查询参数 */
+    static String keyPath(String key) {
+        int space = key.lastIndexOf(' ');
+        String url = space >= 0 ? key.substring(0, space) : key;
+        int query = url.indexOf('?');
+        return trimSlash(query >= 0 ? url.substring(0, query) : url);
+    }
+
+    /** path 等于 prefix 或是其下级路径（按路径段比较） */
+    static boolean isSameOrBelow(String path, String prefix) {
+        return path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/');
+    }
+
+    private static String trimSlash(String path) {
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') end--;
+        return path.substring(0, end);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+}
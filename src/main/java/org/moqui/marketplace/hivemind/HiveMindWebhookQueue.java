@@ -0,0 +1,152 @@
+package org.moqui.marketplace.hivemind;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HiveMind Webhook 事件队列的进程内协调
+ * 队列本身持久化在 HiveMindWebhookEvent 实体中；这里只负责限制同时排空队列的工作线程数、
+ * 生成幂等键，并累计接收、重复、合并、完成、失败等计数，供 get#HiveMindWebhookQueueStats 输出。
+ */
+public final class HiveMindWebhookQueue {
+    public static final String WORKERS_PROPERTY = "hivemind.webhook.queue.workers";
+    public static final String BATCH_SIZE_PROPERTY = "hivemind.webhook.queue.batch.size";
+    public static final String MAX_ATTEMPTS_PROPERTY = "hivemind.webhook.queue.max.attempts";
+    public static final String COALESCE_SECONDS_PROPERTY = "hivemind.webhook.coalesce.seconds";
+    public static final String RETENTION_DAYS_PROPERTY = "hivemind.webhook.retention.days";
+
+    private static final int DEFAULT_WORKERS = 1;
+    private static final int DEFAULT_BATCH_SIZE = 20;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final int DEFAULT_COALESCE_SECONDS = 10;
+    private static final int DEFAULT_RETENTION_DAYS = 7;
+
+    private static final AtomicInteger activeWorkers = new AtomicInteger();
+
+    private static final AtomicLong receivedCount = new AtomicLong();
+    private static final AtomicLong duplicateCount = new AtomicLong();
+    private static final AtomicLong coalescedCount = new AtomicLong();
+    private static final AtomicLong completedCount = new AtomicLong();
+    private static final AtomicLong retriedCount = new AtomicLong();
+    private static final AtomicLong failedCount = new AtomicLong();
+    private static final AtomicLong processingMillis = new AtomicLong();
+    private static volatile long lastCompletedMillis = 0L;
+
+    private HiveMindWebhookQueue() { }
+
+    /**
+     * 尝试占用一个工作线程名额，已达上限时返回false（由已在运行的工作线程继续排空队列）
+     */
+    public static boolean tryAcquireWorker() {
+        int max = getMaxWorkers();
+        while (true) {
+            int current = activeWorkers.get();
+            if (current >= max) return false;
+            if (activeWorkers.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    public static void releaseWorker() {
+        activeWorkers.updateAndGet(current -> current > 0 ? current - 1 : 0);
+    }
+
+    public static boolean hasIdleWorker() {
+        return activeWorkers.get() < getMaxWorkers();
+    }
+
+    /**
+     * 幂等键：优先使用发送方提供的事件ID，否则取请求体的SHA-256（同一请求体的重投视为重复）
+     */
+    public static String idempotencyKey(String explicitKey, String body) {
+        if (explicitKey != null && !explicitKey.trim().isEmpty()) return explicitKey.trim();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((body == null ? "" : body).getBytes(StandardCharsets.UTF_8));
+            return "sha256:" + HiveMindWebhookSignature.toHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // ==================== 计数 ====================
+
+    /**
+     * @param duplicate 幂等键已存在，未入队
+     * @param coalesced 合并到同一项目的待处理事件
+     */
+    public static void recordReceived(boolean duplicate, boolean coalesced) {
+        receivedCount.incrementAndGet();
+        if (duplicate) duplicateCount.incrementAndGet();
+        else if (coalesced) coalescedCount.incrementAndGet();
+    }
+
+    public static void recordCompleted(long elapsedMillis) {
+        completedCount.incrementAndGet();
+        processingMillis.addAndGet(elapsedMillis);
+        lastCompletedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @param willRetry true表示事件已退回PENDING等待重试，false表示超过最大重试次数标记为FAILED
+     */
+    public static void recordFailure(boolean willRetry) {
+        if (willRetry) retriedCount.incrementAndGet();
+        else failedCount.incrementAndGet();
+    }
+
+    /** 进程内累计计数（自启动以来） */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long completed = completedCount.get();
+        stats.put("activeWorkers", activeWorkers.get());
+        stats.put("maxWorkers", getMaxWorkers());
+        stats.put("received", receivedCount.get());
+        stats.put("duplicates", duplicateCount.get());
+        stats.put("coalesced", coalescedCount.get());
+        stats.put("completed", completed);
+        stats.put("retried", retriedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("avgProcessingMillis", completed > 0 ? processingMillis.get() / completed : 0L);
+        stats.put("lastCompletedMillis", lastCompletedMillis);
+        return stats;
+    }
+
+    // ==================== 配置 ====================
+
+    public static int getMaxWorkers() {
+        return Math.max(1, intProperty(WORKERS_PROPERTY, DEFAULT_WORKERS));
+    }
+
+    public static int getBatchSize() {
+        return Math.max(1, intProperty(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE));
+    }
+
+    public static int getMaxAttempts() {
+        return Math.max(1, intProperty(MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS));
+    }
+
+    /** 同一项目的更新在该时间内合并为一次同步，0表示不等待 */
+    public static int getCoalesceSeconds() {
+        return Math.max(0, intProperty(COALESCE_SECONDS_PROPERTY, DEFAULT_COALESCE_SECONDS));
+    }
+
+    /** 已完成事件保留天数，期间重投的事件按幂等键去重 */
+    public static int getRetentionDays() {
+        return Math.max(1, intProperty(RETENTION_DAYS_PROPERTY, DEFAULT_RETENTION_DAYS));
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.moqui.marketplace.hivemind;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * HiveMind Webhook 签名校验
+ * 签名为以共享密钥对原始请求体做的 HMAC-SHA256（十六进制，可带 "sha256=" 前缀），
+ * 直接对收到的字节计算，不依赖重新序列化 payload 的字段顺序与格式；比较使用常量时间。
+ */
+public final class HiveMindWebhookSignature {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private HiveMindWebhookSignature() { }
+
+    public static boolean verify(String secret, String rawBody, String signature) {
+        if (secret == null || secret.isEmpty() || rawBody == null || signature == null) return false;
+        String provided = signature.trim();
+        if (provided.regionMatches(true, 0, "sha256=", 0, 7)) provided = provided.substring(7);
+        String expected = sign(secret, rawBody);
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII),
+                provided.toLowerCase().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** 十六进制的 HMAC-SHA256 签名 */
+    public static String sign(String secret, String rawBody) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return toHex(mac.doFinal(rawBody.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
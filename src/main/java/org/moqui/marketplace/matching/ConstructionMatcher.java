@@ -0,0 +1,475 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityConditionFactory;
+import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/**
+ * 建筑工程供需匹配（find#ConstructionMatches）
+ * 评分规则：项目类型与服务类型匹配 0.4，预算落在报价区间内 0.3，经验 ≥5年 0.2 / ≥2年 0.1，
+ * 非紧急需求或供应方可加班 0.1。各维度均为0.1的整数倍，内部以十分位整数计算。
+ *
+ * 指定 demandId / supplyId 时，由 minScore 推出“可能达标”的必要条件下推到查询，只读取可能匹配的行；
+ * 全量匹配时供应按服务类型分桶，桶内按报价下限排序并以报价上限的线段树做区间包含查询，
+ * 结果经有界堆保留分数最高的 maxResults 个。同分按 demandId、supplyId 升序。
+ */
+public final class ConstructionMatcher {
+    private static final Logger logger = LoggerFactory.getLogger(ConstructionMatcher.class);
+
+    static final String DEMAND_ENTITY = "marketplace.construction.ConstructionDemand";
+    static final String SUPPLY_ENTITY = "marketplace.construction.ConstructionSupply";
+
+    private static final String FULL_SERVICE = "全包";
+    private static final String URGENT = "紧急";
+    private static final String OVERTIME = "加班";
+    private static final String MATCH_REASON = "基于项目类型和服务类型的匹配";
+
+    private static final int TYPE_POINTS = 4;
+    private static final int BUDGET_POINTS = 3;
+
+    /** 项目类型 → 可承接的服务类型（全包可承接任何项目类型） */
+    private static final Map<String, Set<String>> SERVICES_BY_PROJECT_TYPE;
+    /** 服务类型 → 可承接的项目类型（不含全包） */
+    private static final Map<String, Set<String>> PROJECT_TYPES_BY_SERVICE;
+    static {
+        Map<String, Set<String>> services = new HashMap<>();
+        services.put("装修", new HashSet<>(Arrays.asList("全包", "木工", "油漆", "水电", "泥瓦")));
+        services.put("维修", new HashSet<>(Arrays.asList("水电", "泥瓦", "防水", "全包")));
+        services.put("新建", new HashSet<>(Arrays.asList("全包", "泥瓦", "水电", "防水")));
+        services.put("改造", new HashSet<>(Arrays.asList("全包", "木工", "水电", "泥瓦")));
+        Map<String, Set<String>> projectTypes = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : services.entrySet()) {
+            for (String serviceType : entry.getValue()) {
+                projectTypes.computeIfAbsent(serviceType, k -> new HashSet<>()).add(entry.getKey());
+            }
+        }
+        SERVICES_BY_PROJECT_TYPE = services;
+        PROJECT_TYPES_BY_SERVICE = projectTypes;
+    }
+
+    private ConstructionMatcher() { }
+
+    /**
+     * 查找匹配：给定 demandId 时只为该需求匹配供应，否则给定 supplyId 时只为该供应匹配需求，都未给定时全量匹配
+     *
+     * @return 按分数降序的匹配（demandId、supplyId、matchScore、matchReason），最多 maxResults 个
+     */
+    public static List<Map<String, Object>> findMatches(ExecutionContext ec, String demandId, String supplyId,
+                                                        BigDecimal minScore, int maxResults) {
+        if (maxResults <= 0) return new ArrayList<>();
+        int threshold = thresholdTenths(minScore);
+        if (threshold > TYPE_POINTS + BUDGET_POINTS + 3) return new ArrayList<>();
+
+        if (demandId != null && !demandId.isEmpty()) {
+            EntityValue demandValue = ec.getEntity().find(DEMAND_ENTITY).condition("demandId", demandId)
+                    .disableAuthz().one();
+            return demandValue != null ? matchDemand(ec, new Demand(demandValue), threshold, maxResults) : new ArrayList<>();
+        }
+        if (supplyId != null && !supplyId.isEmpty()) {
+            EntityValue supplyValue = ec.getEntity().find(SUPPLY_ENTITY).condition("supplyId", supplyId)
+                    .disableAuthz().one();
+            return supplyValue != null ? matchSupply(ec, new Supply(supplyValue), threshold, maxResults) : new ArrayList<>();
+        }
+        return matchAll(ec, threshold, maxResults);
+    }
+
+    /** 达标所需的最低十分位分数 */
+    private static int thresholdTenths(BigDecimal minScore) {
+        if (minScore == null || minScore.signum() <= 0) return 0;
+        return minScore.movePointRight(1).setScale(0, RoundingMode.CEILING).min(BigDecimal.valueOf(100)).intValue();
+    }
+
+    // ==================== 评分 ====================
+
+    private static final class Demand {
+        final String demandId;
+        final String projectType;
+        /** 预算，未填或为0时为NaN（不参与预算匹配） */
+        final double budget;
+        final boolean urgent;
+
+        Demand(EntityValue value) {
+            demandId = value.getString("demandId");
+            projectType = value.getString("projectType");
+            budget = positiveOrNaN(value.getBigDecimal("budget"));
+            urgent = URGENT.equals(value.getString("urgency"));
+        }
+
+        boolean hasBudget() {
+            return !Double.isNaN(budget);
+        }
+    }
+
+    private static final class Supply {
+        final String supplyId;
+        final String serviceType;
+        /** 报价区间，任一端未填或为0时为NaN */
+        final double priceMin;
+        final double priceMax;
+        final int experiencePoints;
+        final boolean overtime;
+
+        Supply(EntityValue value) {
+            supplyId = value.getString("supplyId");
+            serviceType = value.getString("serviceType");
+            double min = positiveOrNaN(value.getBigDecimal("priceRangeMin"));
+            double max = positiveOrNaN(value.getBigDecimal("priceRangeMax"));
+            boolean hasRange = !Double.isNaN(min) && !Double.isNaN(max);
+            priceMin = hasRange ? min : Double.NaN;
+            priceMax = hasRange ? max : Double.NaN;
+            Long years = value.getLong("experienceYears");
+            experiencePoints = years == null ? 0 : years >= 5 ? 2 : years >= 2 ? 1 : 0;
+            String workingHours = value.getString("workingHours");
+            overtime = workingHours != null && workingHours.contains(OVERTIME);
+        }
+
+        boolean hasPriceRange() {
+            return !Double.isNaN(priceMin);
+        }
+
+        boolean contains(double budget) {
+            return budget >= priceMin && budget <= priceMax;
+        }
+
+        /** 经验与紧急度两项得分 */
+        int restPoints(boolean urgentDemand) {
+            return experiencePoints + (!urgentDemand || overtime ? 1 : 0);
+        }
+    }
+
+    /** 非零即参与匹配（与原脚本的Groovy真值判断一致），否则返回NaN */
+    private static double positiveOrNaN(BigDecimal value) {
+        return value != null && value.signum() != 0 ? value.doubleValue() : Double.NaN;
+    }
+
+    private static boolean typeMatches(String projectType, String serviceType) {
+        if (FULL_SERVICE.equals(serviceType)) return true;
+        Set<String> services = projectType != null ? SERVICES_BY_PROJECT_TYPE.get(projectType) : null;
+        return services != null && services.contains(serviceType);
+    }
+
+    private static int score(Demand demand, Supply supply) {
+        int score = typeMatches(demand.projectType, supply.serviceType) ? TYPE_POINTS : 0;
+        if (demand.hasBudget() && supply.hasPriceRange() && supply.contains(demand.budget)) score += BUDGET_POINTS;
+        return score + supply.restPoints(demand.urgent);
+    }
+
+    private static Map<String, Object> toMatch(Demand demand, Supply supply, int tenths) {
+        Map<String, Object> match = new LinkedHashMap<>();
+        match.put("demandId", demand.demandId);
+        match.put("supplyId", supply.supplyId);
+        match.put("matchScore", BigDecimal.valueOf(tenths, 1));
+        match.put("matchReason", MATCH_REASON);
+        return match;
+    }
+
+    // ==================== 单条需求 / 单条供应 ====================
+
+    private static List<Map<String, Object>> matchDemand(ExecutionContext ec, Demand demand, int threshold, int maxResults) {
+        EntityConditionFactory cf = ec.getEntity().getConditionFactory();
+        List<EntityCondition> options = new ArrayList<>();
+        // 依次考虑“类型是否匹配 × 预算是否命中”四种组合，各组合下其余维度还需的分数决定经验/加班条件
+        for (int combo = 0; combo < 4; combo++) {
+            boolean typeRequired = (combo & 1) != 0;
+            boolean budgetRequired = (combo & 2) != 0;
+            if (budgetRequired && !demand.hasBudget()) continue;
+            int rest = threshold - (typeRequired ? TYPE_POINTS : 0) - (budgetRequired ? BUDGET_POINTS : 0);
+            List<EntityCondition> parts = new ArrayList<>();
+            if (!supplyRestCondition(cf, demand.urgent, rest, parts)) continue;
+            if (typeRequired) {
+                Set<String> services = new HashSet<>(Collections.singleton(FULL_SERVICE));
+                Set<String> compatible = demand.projectType != null ? SERVICES_BY_PROJECT_TYPE.get(demand.projectType) : null;
+                if (compatible != null) services.addAll(compatible);
+                parts.add(cf.makeCondition("serviceType", EntityCondition.IN, new ArrayList<>(services)));
+            }
+            if (budgetRequired) {
+                BigDecimal budget = BigDecimal.valueOf(demand.budget);
+                parts.add(cf.makeCondition("priceRangeMin", EntityCondition.LESS_THAN_EQUAL_TO, budget));
+                parts.add(cf.makeCondition("priceRangeMax", EntityCondition.GREATER_THAN_EQUAL_TO, budget));
+            }
+            // 某一组合无附加条件时全部供应都可能达标
+            if (parts.isEmpty()) {
+                options = null;
+                break;
+            }
+            options.add(parts.size() == 1 ? parts.get(0) : cf.makeCondition(parts, EntityCondition.AND));
+        }
+        if (options != null && options.isEmpty()) return new ArrayList<>();
+
+        EntityFind find = ec.getEntity().find(SUPPLY_ENTITY)
+                .selectField("supplyId").selectField("serviceType").selectField("priceRangeMin")
+                .selectField("priceRangeMax").selectField("experienceYears").selectField("workingHours")
+                .orderBy("supplyId").disableAuthz();
+        if (options != null) find.condition(options.size() == 1 ? options.get(0) : cf.makeCondition(options, EntityCondition.OR));
+        List<EntityValue> rows = find.list();
+
+        List<Supply> supplies = new ArrayList<>(rows.size());
+        TopKSelector selector = new TopKSelector(Math.min(maxResults, rows.size()));
+        for (EntityValue row : rows) {
+            Supply supply = new Supply(row);
+            int tenths = score(demand, supply);
+            if (tenths >= threshold) selector.offer(tenths, supplies.size());
+            supplies.add(supply);
+        }
+        logger.debug("Construction demand {} scored {} candidate supplies", demand.demandId, rows.size());
+
+        List<Map<String, Object>> matches = new ArrayList<>(selector.size());
+        int[] indexes = selector.sortedIndexes();
+        long[] scores = selector.sortedScores();
+        for (int i = 0; i < indexes.length; i++) matches.add(toMatch(demand, supplies.get(indexes[i]), (int) scores[i]));
+        return matches;
+    }
+
+    /**
+     * 为需求一侧追加“经验+加班得分 ≥ rest”所需的供应条件，不可能满足时返回false
+     */
+    private static boolean supplyRestCondition(EntityConditionFactory cf, boolean urgentDemand, int rest,
+                                               List<EntityCondition> parts) {
+        if (rest <= 0) return true;
+        if (!urgentDemand) {
+            // 非紧急需求固定得紧急度1分
+            if (rest - 1 > 2) return false;
+            EntityCondition experience = experienceAtLeast(cf, rest - 1);
+            if (experience != null) parts.add(experience);
+            return true;
+        }
+        if (rest > 3) return false;
+        // 紧急需求：可加班且经验 ≥ rest-1，或经验单独 ≥ rest
+        EntityCondition overtime = cf.makeCondition("workingHours", EntityCondition.LIKE, "%" + OVERTIME + "%");
+        EntityCondition withOvertime = experienceAtLeast(cf, rest - 1);
+        withOvertime = withOvertime != null ? cf.makeCondition(Arrays.asList(overtime, withOvertime), EntityCondition.AND) : overtime;
+        if (rest > 2) {
+            parts.add(withOvertime);
+        } else {
+            parts.add(cf.makeCondition(Arrays.asList(withOvertime, experienceAtLeast(cf, rest)), EntityCondition.OR));
+        }
+        return true;
+    }
+
+    /** 经验得分 ≥ points 的条件，points<=0 时返回null */
+    private static EntityCondition experienceAtLeast(EntityConditionFactory cf, int points) {
+        if (points <= 0) return null;
+        return cf.makeCondition("experienceYears", EntityCondition.GREATER_THAN_EQUAL_TO, points >= 2 ? 5L : 2L);
+    }
+
+    private static List<Map<String, Object>> matchSupply(ExecutionContext ec, Supply supply, int threshold, int maxResults) {
+        EntityConditionFactory cf = ec.getEntity().getConditionFactory();
+        boolean typeAlways = FULL_SERVICE.equals(supply.serviceType);
+        Set<String> projectTypes = supply.serviceType != null ? PROJECT_TYPES_BY_SERVICE.get(supply.serviceType) : null;
+        List<EntityCondition> options = new ArrayList<>();
+        for (int combo = 0; combo < 4; combo++) {
+            boolean typeRequired = (combo & 1) != 0;
+            boolean budgetRequired = (combo & 2) != 0;
+            if (typeRequired && !typeAlways && projectTypes == null) continue;
+            if (budgetRequired && !supply.hasPriceRange()) continue;
+            int rest = threshold - (typeRequired || typeAlways ? TYPE_POINTS : 0) - (budgetRequired ? BUDGET_POINTS : 0);
+            List<EntityCondition> parts = new ArrayList<>();
+            // 供应的经验分固定，紧急度分只在供应不可加班时取决于需求是否紧急
+            if (rest > supply.experiencePoints + 1) continue;
+            if (rest == supply.experiencePoints + 1 && !supply.overtime) {
+                parts.add(cf.makeCondition(Arrays.asList(cf.makeCondition("urgency", EntityCondition.EQUALS, null),
+                        cf.makeCondition("urgency", EntityCondition.NOT_EQUAL, URGENT)), EntityCondition.OR));
+            }
+            if (typeRequired && !typeAlways) {
+                parts.add(cf.makeCondition("projectType", EntityCondition.IN, new ArrayList<>(projectTypes)));
+            }
+            if (budgetRequired) {
+                parts.add(cf.makeCondition("budget", EntityCondition.GREATER_THAN_EQUAL_TO, BigDecimal.valueOf(supply.priceMin)));
+                parts.add(cf.makeCondition("budget", EntityCondition.LESS_THAN_EQUAL_TO, BigDecimal.valueOf(supply.priceMax)));
+            }
+            if (parts.isEmpty()) {
+                options = null;
+                break;
+            }
+            options.add(parts.size() == 1 ? parts.get(0) : cf.makeCondition(parts, EntityCondition.AND));
+        }
+        if (options != null && options.isEmpty()) return new ArrayList<>();
+
+        EntityFind find = ec.getEntity().find(DEMAND_ENTITY)
+                .selectField("demandId").selectField("projectType").selectField("budget").selectField("urgency")
+                .orderBy("demandId").disableAuthz();
+        if (options != null) find.condition(options.size() == 1 ? options.get(0) : cf.makeCondition(options, EntityCondition.OR));
+        List<EntityValue> rows = find.list();
+
+        List<Demand> demands = new ArrayList<>(rows.size());
+        TopKSelector selector = new TopKSelector(Math.min(maxResults, rows.size()));
+        for (EntityValue row : rows) {
+            Demand demand = new Demand(row);
+            int tenths = score(demand, supply);
+            if (tenths >= threshold) selector.offer(tenths, demands.size());
+            demands.add(demand);
+        }
+        logger.debug("Construction supply {} scored {} candidate demands", supply.supplyId, rows.size());
+
+        List<Map<String, Object>> matches = new ArrayList<>(selector.size());
+        int[] indexes = selector.sortedIndexes();
+        long[] scores = selector.sortedScores();
+        for (int i = 0; i < indexes.length; i++) matches.add(toMatch(demands.get(indexes[i]), supply, (int) scores[i]));
+        return matches;
+    }
+
+    // ==================== 全量匹配 ====================
+
+    /**
+     * 同一服务类型的供应；有效报价区间按下限排序，线段树维护区间内报价上限的最大值
+     */
+    private static final class SupplyBucket {
+        final String serviceType;
+        final List<Integer> supplyIndexes = new ArrayList<>();
+        int maxRestNormal = 0;
+        int maxRestUrgent = 0;
+        double[] sortedMin;
+        int[] sortedSupply;
+        double[] maxTree;
+        int rangeCount;
+
+        SupplyBucket(String serviceType) {
+            this.serviceType = serviceType;
+        }
+
+        void add(int index, Supply supply) {
+            supplyIndexes.add(index);
+            maxRestNormal = Math.max(maxRestNormal, supply.restPoints(false));
+            maxRestUrgent = Math.max(maxRestUrgent, supply.restPoints(true));
+        }
+
+        void buildRangeIndex(List<Supply> supplies) {
+            List<Integer> ranged = new ArrayList<>();
+            for (int index : supplyIndexes) if (supplies.get(index).hasPriceRange()) ranged.add(index);
+            ranged.sort(Comparator.comparingDouble(index -> supplies.get(index).priceMin));
+            rangeCount = ranged.size();
+            sortedMin = new double[rangeCount];
+            sortedSupply = new int[rangeCount];
+            double[] sortedMax = new double[rangeCount];
+            for (int i = 0; i < rangeCount; i++) {
+                Supply supply = supplies.get(ranged.get(i));
+                sortedSupply[i] = ranged.get(i);
+                sortedMin[i] = supply.priceMin;
+                sortedMax[i] = supply.priceMax;
+            }
+            maxTree = new double[Math.max(1, 4 * rangeCount)];
+            if (rangeCount > 0) build(1, 0, rangeCount - 1, sortedMax);
+        }
+
+        private void build(int node, int lo, int hi, double[] values) {
+            if (lo == hi) {
+                maxTree[node] = values[lo];
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            build(2 * node, lo, mid, values);
+            build(2 * node + 1, mid + 1, hi, values);
+            maxTree[node] = Math.max(maxTree[2 * node], maxTree[2 * node + 1]);
+        }
+
+        /**
+         * 报价区间包含 budget 的供应：先二分出下限 ≤ budget 的前缀，再在线段树中只下探上限 ≥ budget 的子树
+         */
+        void collectContaining(double budget, List<Integer> out) {
+            int lo = 0;
+            int hi = rangeCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sortedMin[mid] <= budget) lo = mid + 1;
+                else hi = mid;
+            }
+            if (lo > 0) collect(1, 0, rangeCount - 1, lo - 1, budget, out);
+        }
+
+        private void collect(int node, int lo, int hi, int limit, double budget, List<Integer> out) {
+            if (lo > limit || maxTree[node] < budget) return;
+            if (lo == hi) {
+                out.add(sortedSupply[lo]);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            collect(2 * node, lo, mid, limit, budget, out);
+            collect(2 * node + 1, mid + 1, hi, limit, budget, out);
+        }
+    }
+
+    /** 全量模式的堆键：高32位为分数，低32位使同分时 demandId 靠前者优先；堆下标为供应序号 */
+    private static long pairKey(int tenths, int demandIndex) {
+        return ((long) tenths << 32) | (Integer.MAX_VALUE - demandIndex);
+    }
+
+    private static List<Map<String, Object>> matchAll(ExecutionContext ec, int threshold, int maxResults) {
+        List<Demand> demands = new ArrayList<>();
+        for (EntityValue row : ec.getEntity().find(DEMAND_ENTITY)
+                .selectField("demandId").selectField("projectType").selectField("budget").selectField("urgency")
+                .orderBy("demandId").disableAuthz().list()) {
+            demands.add(new Demand(row));
+        }
+        List<Supply> supplies = new ArrayList<>();
+        Map<String, SupplyBucket> bucketMap = new LinkedHashMap<>();
+        for (EntityValue row : ec.getEntity().find(SUPPLY_ENTITY)
+                .selectField("supplyId").selectField("serviceType").selectField("priceRangeMin")
+                .selectField("priceRangeMax").selectField("experienceYears").selectField("workingHours")
+                .orderBy("supplyId").disableAuthz().list()) {
+            Supply supply = new Supply(row);
+            // serviceType为空的供应单独成桶，不与任何项目类型匹配
+            bucketMap.computeIfAbsent(supply.serviceType, SupplyBucket::new).add(supplies.size(), supply);
+            supplies.add(supply);
+        }
+        if (demands.isEmpty() || supplies.isEmpty()) return new ArrayList<>();
+        SupplyBucket[] buckets = bucketMap.values().toArray(new SupplyBucket[0]);
+        for (SupplyBucket bucket : buckets) bucket.buildRangeIndex(supplies);
+
+        TopKSelector selector = new TopKSelector(maxResults);
+        List<Integer> hits = new ArrayList<>();
+        long scanned = 0;
+        for (int d = 0; d < demands.size(); d++) {
+            Demand demand = demands.get(d);
+            for (SupplyBucket bucket : buckets) {
+                int typePoints = typeMatches(demand.projectType, bucket.serviceType) ? TYPE_POINTS : 0;
+                int maxRest = demand.urgent ? bucket.maxRestUrgent : bucket.maxRestNormal;
+                int bestWithBudget = typePoints + (demand.hasBudget() ? BUDGET_POINTS : 0) + maxRest;
+                if (!canEnter(selector, bestWithBudget, d, threshold)) continue;
+
+                if (!canEnter(selector, typePoints + maxRest, d, threshold)) {
+                    // 只有预算命中的供应可能达标或进入Top-K
+                    if (!demand.hasBudget()) continue;
+                    hits.clear();
+                    bucket.collectContaining(demand.budget, hits);
+                    for (int index : hits) {
+                        int tenths = score(demand, supplies.get(index));
+                        if (tenths >= threshold) selector.offer(pairKey(tenths, d), index);
+                    }
+                    scanned += hits.size();
+                } else {
+                    for (int index : bucket.supplyIndexes) {
+                        int tenths = score(demand, supplies.get(index));
+                        if (tenths >= threshold) selector.offer(pairKey(tenths, d), index);
+                    }
+                    scanned += bucket.supplyIndexes.size();
+                }
+            }
+        }
+        logger.debug("Construction full match scored {} of {} pairs in {} service buckets", scanned,
+                (long) demands.size() * supplies.size(), buckets.length);
+
+        List<Map<String, Object>> matches = new ArrayList<>(selector.size());
+        int[] indexes = selector.sortedIndexes();
+        long[] keys = selector.sortedScores();
+        for (int i = 0; i < indexes.length; i++) {
+            int demandIndex = Integer.MAX_VALUE - (int) (keys[i] & 0xFFFFFFFFL);
+            matches.add(toMatch(demands.get(demandIndex), supplies.get(indexes[i]), (int) (keys[i] >>> 32)));
+        }
+        return matches;
+    }
+
+    /** 分数上界为 bestTenths 的配对是否可能达标并进入Top-K */
+    private static boolean canEnter(TopKSelector selector, int bestTenths, int demandIndex, int threshold) {
+        if (bestTenths < threshold) return false;
+        // 同键时按供应序号比较，保守起见只在严格更差时跳过
+        return !selector.isFull() || pairKey(bestTenths, demandIndex) >= selector.worstScore();
+    }
+}
@@ -0,0 +1,268 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityListIterator;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ACTIVE Listing 坐标的经纬度网格索引
+ * 按固定网格(约5km)分桶，半径查询只遍历覆盖圆形外接矩形的网格，再以Haversine精确过滤，
+ * 查询代价与半径内的Listing数量相关而非全量Listing数量。
+ *
+ * 首次使用时全量构建，之后由 MatchingIndexes.refreshListing / removeListing 增量维护。
+ */
+public final class ListingGeoIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ListingGeoIndex.class);
+
+    /** 网格边长（度），纬度方向约5.5km */
+    private static final double CELL_DEGREES = 0.05;
+    /** 每度对应公里数，取略小于6371km半径对应的111.19，使外接矩形偏大而不漏点 */
+    private static final double KM_PER_DEGREE = 111.0;
+    /** 外接矩形覆盖的网格数超过该值时退化为全量扫描 */
+    private static final int MAX_CELLS_PER_QUERY = 20000;
+    private static final int IN_CHUNK_SIZE = 1000;
+
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static volatile boolean loaded = false;
+
+    // 以下结构均受 lock 保护
+    private static final Map<String, double[]> coordinatesByListing = new HashMap<>();
+    private static final Map<Long, Set<String>> cells = new HashMap<>();
+
+    private ListingGeoIndex() { }
+
+    /**
+     * 首次使用时全量构建索引（只读取有坐标的ACTIVE Listing）
+     */
+    public static void ensureLoaded(ExecutionContext ec) {
+        if (loaded) return;
+        lock.writeLock().lock();
+        try {
+            if (loaded) return;
+            long startMs = System.currentTimeMillis();
+            clearStructures();
+
+            Map<String, List<String>> listingsByGeoPoint = new HashMap<>();
+            try (EntityListIterator listings = ec.getEntity().find("marketplace.listing.Listing")
+                    .condition("status", "ACTIVE")
+                    .condition("geoPointId", EntityCondition.NOT_EQUAL, null)
+                    .selectField("listingId").selectField("geoPointId")
+                    .iterator()) {
+                EntityValue listing;
+                while ((listing = listings.next()) != null) {
+                    listingsByGeoPoint.computeIfAbsent(listing.getString("geoPointId"), k -> new ArrayList<>())
+                            .add(listing.getString("listingId"));
+                }
+            }
+
+            List<String> geoPointIds = new ArrayList<>(listingsByGeoPoint.keySet());
+            for (int start = 0; start < geoPointIds.size(); start += IN_CHUNK_SIZE) {
+                List<String> chunk = geoPointIds.subList(start, Math.min(start + IN_CHUNK_SIZE, geoPointIds.size()));
+                for (EntityValue geo : ec.getEntity().find(ListingHydration.GEO_POINT_ENTITY)
+                        .condition("geoPointId", EntityCondition.IN, chunk).list()) {
+                    double[] coordinates = toCoordinates(geo);
+                    if (coordinates == null) continue;
+                    for (String listingId : listingsByGeoPoint.get(geo.getString("geoPointId"))) {
+                        putListing(listingId, coordinates);
+                    }
+                }
+            }
+
+            loaded = true;
+            logger.info("Built listing geo index: {} listings in {} cells in {}ms",
+                    coordinatesByListing.size(), cells.size(), System.currentTimeMillis() - startMs);
+        } catch (Exception e) {
+            clearStructures();
+            logger.warn("Unable to build listing geo index, geo pruning disabled: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 按已读取的Listing记录更新索引：ACTIVE且有坐标则写入，否则移出
+     */
+    static void refresh(ExecutionContext ec, String listingId, EntityValue listing) {
+        if (!loaded) return;
+        double[] coordinates = null;
+        if (listing != null && "ACTIVE".equals(listing.getString("status"))) {
+            coordinates = loadCoordinates(ec, listing.getString("geoPointId"));
+        }
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            if (coordinates != null) putListing(listingId, coordinates);
+            else unindex(listingId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static void removeListing(String listingId) {
+        if (!loaded || listingId == null) return;
+        lock.writeLock().lock();
+        try {
+            unindex(listingId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static void invalidateAll() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+            clearStructures();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** 读取GeoPoint坐标，返回 [latitude, longitude]，无坐标时返回null */
+    static double[] loadCoordinates(ExecutionContext ec, String geoPointId) {
+        if (geoPointId == null) return null;
+        try {
+            EntityValue geo = ec.getEntity().find(ListingHydration.GEO_POINT_ENTITY)
+                    .condition("geoPointId", geoPointId).one();
+            return geo != null ? toCoordinates(geo) : null;
+        } catch (Exception e) {
+            logger.debug("Unable to load geo point {}: {}", geoPointId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 返回以给定坐标为中心、radiusKm 半径内（含边界）的ACTIVE Listing ID；索引不可用时返回null
+     */
+    public static Set<String> findWithinRadius(double latitude, double longitude, double radiusKm) {
+        if (!loaded || Double.isNaN(radiusKm) || radiusKm < 0) return null;
+        Set<String> result = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            if (!loaded) return null;
+            double latSpan = radiusKm / KM_PER_DEGREE;
+            double cosLat = Math.cos(Math.toRadians(Math.min(89.0, Math.abs(latitude) + latSpan)));
+            double lonSpan = radiusKm / (KM_PER_DEGREE * cosLat);
+            long minLatCell = cellOf(latitude - latSpan), maxLatCell = cellOf(latitude + latSpan);
+            long minLonCell = cellOf(longitude - lonSpan), maxLonCell = cellOf(longitude + lonSpan);
+            long cellCount = (maxLatCell - minLatCell + 1) * (maxLonCell - minLonCell + 1);
+
+            boolean crossesDateLine = longitude - lonSpan < -180.0 || longitude + lonSpan > 180.0;
+            if (crossesDateLine || cellCount > MAX_CELLS_PER_QUERY || cellCount > cells.size()) {
+                for (Map.Entry<String, double[]> entry : coordinatesByListing.entrySet()) {
+                    if (within(entry.getValue(), latitude, longitude, radiusKm)) result.add(entry.getKey());
+                }
+                return result;
+            }
+            for (long latCell = minLatCell; latCell <= maxLatCell; latCell++) {
+                for (long lonCell = minLonCell; lonCell <= maxLonCell; lonCell++) {
+                    Set<String> members = cells.get(cellKey(latCell, lonCell));
+                    if (members == null) continue;
+                    for (String listingId : members) {
+                        if (within(coordinatesByListing.get(listingId), latitude, longitude, radiusKm)) result.add(listingId);
+                    }
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 在给定Listing中找出已被索引且距离超过 radiusKm 的ID（未被索引的Listing不返回）；索引不可用时返回空集合
+     */
+    static Set<String> findOutsideRadius(Collection<String> listingIds, double latitude, double longitude, double radiusKm) {
+        Set<String> outside = new HashSet<>();
+        Set<String> nearby = findWithinRadius(latitude, longitude, radiusKm);
+        if (nearby == null) return outside;
+        lock.readLock().lock();
+        try {
+            for (String listingId : listingIds) {
+                if (!nearby.contains(listingId) && coordinatesByListing.containsKey(listingId)) outside.add(listingId);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return outside;
+    }
+
+    /** 已索引Listing的坐标，未被索引时返回null */
+    static double[] getCoordinates(String listingId) {
+        if (!loaded || listingId == null) return null;
+        lock.readLock().lock();
+        try {
+            return coordinatesByListing.get(listingId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static int size() {
+        lock.readLock().lock();
+        try {
+            return coordinatesByListing.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ==================== 内部维护（调用方持有写锁） ====================
+
+    private static boolean within(double[] coordinates, double latitude, double longitude, double radiusKm) {
+        return coordinates != null
+                && MatchScoringKernel.haversineKm(latitude, longitude, coordinates[0], coordinates[1]) <= radiusKm;
+    }
+
+    private static double[] toCoordinates(EntityValue geo) {
+        BigDecimal latitude = geo.getBigDecimal("latitude");
+        BigDecimal longitude = geo.getBigDecimal("longitude");
+        if (latitude == null || longitude == null) return null;
+        return new double[]{latitude.doubleValue(), longitude.doubleValue()};
+    }
+
+    private static long cellOf(double degrees) {
+        return (long) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long cellKey(long latCell, long lonCell) {
+        return (latCell << 32) ^ (lonCell & 0xFFFFFFFFL);
+    }
+
+    private static long cellKey(double[] coordinates) {
+        return cellKey(cellOf(coordinates[0]), cellOf(coordinates[1]));
+    }
+
+    private static void putListing(String listingId, double[] coordinates) {
+        unindex(listingId);
+        coordinatesByListing.put(listingId, coordinates);
+        cells.computeIfAbsent(cellKey(coordinates), k -> new HashSet<>()).add(listingId);
+    }
+
+    private static void unindex(String listingId) {
+        double[] previous = coordinatesByListing.remove(listingId);
+        if (previous == null) return;
+        long key = cellKey(previous);
+        Set<String> members = cells.get(key);
+        if (members != null) {
+            members.remove(listingId);
+            if (members.isEmpty()) cells.remove(key);
+        }
+    }
+
+    private static void clearStructures() {
+        coordinatesByListing.clear();
+        cells.clear();
+    }
+}
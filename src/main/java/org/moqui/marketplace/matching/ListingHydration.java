@@ -0,0 +1,159 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityList;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * 匹配候选集批量装载
+ * 一次性以IN查询加载标签、地理坐标、用户画像与识别信息，评分阶段只读内存映射，
+ * 避免每个候选逐条查询数据库（N+1）
+ */
+public class ListingHydration {
+    private static final Logger logger = LoggerFactory.getLogger(ListingHydration.class);
+
+    static final String GEO_POINT_ENTITY = "moqui.basic.GeoPoint";
+
+    /** 单条IN查询的最大参数个数，超出后分批查询，避免超过数据库绑定参数上限 */
+    private static final int IN_CHUNK_SIZE = 1000;
+
+    private final Map<String, int[]> tagsByListing = new HashMap<>();
+    private final Map<String, double[]> coordinatesByGeoPoint = new HashMap<>();
+    private final Map<String, EntityValue> profilesByParty = new HashMap<>();
+    private final Map<String, List<EntityValue>> insightsByListing = new HashMap<>();
+    private int queryCount = 0;
+
+    private ListingHydration() { }
+
+    /**
+     * 为给定的Listing集合批量装载评分所需的关联数据
+     */
+    public static ListingHydration load(ExecutionContext ec, Collection<EntityValue> listings) {
+        return load(ec, listings, null);
+    }
+
+    /**
+     * 同上，但只为 insightListingIds 中的Listing加载识别信息（为null时全部加载），
+     * 项目画像已命中缓存的Listing无需再读取 ListingInsight
+     */
+    public static ListingHydration load(ExecutionContext ec, Collection<EntityValue> listings, Set<String> insightListingIds) {
+        ListingHydration hydration = new ListingHydration();
+        if (listings == null || listings.isEmpty()) return hydration;
+
+        Set<String> listingIds = new HashSet<>();
+        Set<String> geoPointIds = new HashSet<>();
+        Set<String> partyIds = new HashSet<>();
+        for (EntityValue listing : listings) {
+            if (listing == null) continue;
+            String listingId = listing.getString("listingId");
+            if (listingId != null) listingIds.add(listingId);
+            String geoPointId = listing.getString("geoPointId");
+            if (geoPointId != null) geoPointIds.add(geoPointId);
+            String publisherId = listing.getString("publisherId");
+            if (publisherId != null) partyIds.add(publisherId);
+        }
+
+        hydration.loadTags(ec, listingIds);
+        hydration.loadGeoPoints(ec, geoPointIds);
+        hydration.loadProfiles(ec, partyIds);
+        hydration.loadInsights(ec, insightListingIds != null ? insightListingIds : listingIds);
+
+        logger.debug("Hydrated {} listings with {} queries", listingIds.size(), hydration.queryCount);
+        return hydration;
+    }
+
+    /**
+     * 已在标签索引中的Listing直接复用其驻留标签，其余（非ACTIVE或索引未构建）再查询数据库
+     */
+    private void loadTags(ExecutionContext ec, Set<String> listingIds) {
+        Set<String> missing = ListingTagIndex.copyTags(listingIds, tagsByListing);
+        Map<String, List<String>> rawTags = new HashMap<>();
+        for (EntityValue listingTag : findIn(ec, "marketplace.listing.ListingTag", "listingId", missing)) {
+            rawTags.computeIfAbsent(listingTag.getString("listingId"), k -> new ArrayList<>())
+                    .add(listingTag.getString("tagId"));
+        }
+        for (Map.Entry<String, List<String>> entry : rawTags.entrySet()) {
+            tagsByListing.put(entry.getKey(), ListingTagIndex.toSortedCodes(entry.getValue()));
+        }
+    }
+
+    private void loadGeoPoints(ExecutionContext ec, Set<String> geoPointIds) {
+        try {
+            for (EntityValue geo : findIn(ec, GEO_POINT_ENTITY, "geoPointId", geoPointIds)) {
+                BigDecimal latitude = geo.getBigDecimal("latitude");
+                BigDecimal longitude = geo.getBigDecimal("longitude");
+                if (latitude == null || longitude == null) continue;
+                coordinatesByGeoPoint.put(geo.getString("geoPointId"),
+                        new double[]{latitude.doubleValue(), longitude.doubleValue()});
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to load geo points for matching: {}", e.getMessage());
+        }
+    }
+
+    private void loadProfiles(ExecutionContext ec, Set<String> partyIds) {
+        try {
+            for (EntityValue profile : findIn(ec, "marketplace.profile.UserProfile", "partyId", partyIds)) {
+                profilesByParty.put(profile.getString("partyId"), profile);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to load user profiles for matching: {}", e.getMessage());
+        }
+    }
+
+    private void loadInsights(ExecutionContext ec, Set<String> listingIds) {
+        try {
+            for (EntityValue insight : findIn(ec, "marketplace.listing.ListingInsight", "listingId", listingIds)) {
+                insightsByListing.computeIfAbsent(insight.getString("listingId"), k -> new ArrayList<>()).add(insight);
+            }
+        } catch (Exception e) {
+            logger.debug("Failed to load listing insights: {}", e.getMessage());
+        }
+    }
+
+    private List<EntityValue> findIn(ExecutionContext ec, String entityName, String fieldName, Set<String> values) {
+        if (values.isEmpty()) return Collections.emptyList();
+        List<EntityValue> results = new ArrayList<>();
+        List<String> valueList = new ArrayList<>(values);
+        for (int start = 0; start < valueList.size(); start += IN_CHUNK_SIZE) {
+            List<String> chunk = valueList.subList(start, Math.min(start + IN_CHUNK_SIZE, valueList.size()));
+            EntityList chunkResults = ec.getEntity().find(entityName)
+                    .condition(fieldName, EntityCondition.IN, chunk)
+                    .list();
+            queryCount++;
+            results.addAll(chunkResults);
+        }
+        return results;
+    }
+
+    /** 返回驻留后的有序标签编码，无标签时返回空数组 */
+    public int[] getTagCodes(String listingId) {
+        int[] tags = listingId != null ? tagsByListing.get(listingId) : null;
+        return tags != null ? tags : ListingTagIndex.EMPTY;
+    }
+
+    /** 返回 [latitude, longitude]，无坐标时返回null */
+    public double[] getCoordinates(String geoPointId) {
+        return geoPointId != null ? coordinatesByGeoPoint.get(geoPointId) : null;
+    }
+
+    public EntityValue getProfile(String partyId) {
+        return partyId != null ? profilesByParty.get(partyId) : null;
+    }
+
+    public List<EntityValue> getInsights(String listingId) {
+        List<EntityValue> insights = listingId != null ? insightsByListing.get(listingId) : null;
+        return insights != null ? insights : Collections.emptyList();
+    }
+
+    /** 本次装载实际发出的数据库查询次数 */
+    public int getQueryCount() {
+        return queryCount;
+    }
+}
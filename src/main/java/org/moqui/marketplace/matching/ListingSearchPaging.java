@@ -0,0 +1,107 @@
+package org.moqui.marketplace.matching;
+
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * search#Listings 的游标分页与总数缓存
+ * 游标为上一页最后一条的 (createdDate, listingId)，下一页按键集条件继续读取，不随页码加深而变慢；
+ * 总数按过滤条件缓存一段时间，翻页时不再重复 count，结果为近似值。
+ * 半径、标签或关键词得到候选ID集合时，按 IN_CHUNK_SIZE 分块查询后在内存中排序分页。
+ */
+public final class ListingSearchPaging {
+    /** 单条 IN 条件的最大ID数（Oracle 的 IN 列表上限为1000，SQL Server 的参数上限为2100） */
+    public static final int IN_CHUNK_SIZE = 1000;
+
+    private static final int MAX_CACHED_COUNTS = 256;
+    private static final long COUNT_TTL_MILLIS = 60_000L;
+
+    private static final Map<String, CachedCount> countCache = new LinkedHashMap<String, CachedCount>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedCount> eldest) {
+            return size() > MAX_CACHED_COUNTS;
+        }
+    };
+
+    private ListingSearchPaging() { }
+
+    private static final class CachedCount {
+        final long count;
+        final long expiresMillis;
+
+        CachedCount(long count, long expiresMillis) {
+            this.count = count;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+
+    /** 解码后的游标 */
+    public static final class Cursor {
+        private final Timestamp createdDate;
+        private final String listingId;
+
+        Cursor(Timestamp createdDate, String listingId) {
+            this.createdDate = createdDate;
+            this.listingId = listingId;
+        }
+
+        public Timestamp getCreatedDate() {
+            return createdDate;
+        }
+
+        public String getListingId() {
+            return listingId;
+        }
+    }
+
+    /**
+     * 以一页最后一条记录生成游标，形如 "毫秒:listingId"；createdDate为空时返回null
+     */
+    public static String encodeCursor(Timestamp createdDate, String listingId) {
+        if (createdDate == null || listingId == null) return null;
+        return createdDate.getTime() + ":" + listingId;
+    }
+
+    /**
+     * 解析游标，格式不正确时返回null（调用方按第一页处理）
+     */
+    public static Cursor decodeCursor(String cursor) {
+        if (cursor == null) return null;
+        int sep = cursor.indexOf(':');
+        if (sep <= 0 || sep == cursor.length() - 1) return null;
+        try {
+            return new Cursor(new Timestamp(Long.parseLong(cursor.substring(0, sep))), cursor.substring(sep + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 缓存中未过期的总数，没有时返回null
+     */
+    public static Long cachedCount(String filterKey) {
+        synchronized (countCache) {
+            CachedCount cached = countCache.get(filterKey);
+            if (cached == null) return null;
+            if (cached.expiresMillis < System.currentTimeMillis()) {
+                countCache.remove(filterKey);
+                return null;
+            }
+            return cached.count;
+        }
+    }
+
+    public static void cacheCount(String filterKey, long count) {
+        synchronized (countCache) {
+            countCache.put(filterKey, new CachedCount(count, System.currentTimeMillis() + COUNT_TTL_MILLIS));
+        }
+    }
+
+    /** 清空总数缓存（测试或批量导入后使用） */
+    public static void clearCounts() {
+        synchronized (countCache) {
+            countCache.clear();
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityListIterator;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ACTIVE Listing 的内存标签倒排索引
+ * 标签ID驻留为int，每个Listing的标签保存为有序int数组，标签Jaccard退化为一次有序数组归并计数；
+ * 倒排表（标签 → Listing位图）与MinHash/LSH分桶用于大品类下的候选预筛选。
+ *
+ * 首次使用时从数据库全量构建，之后由 add#ListingTags（refreshListing）以及 MatchingIndexes 的
+ * 状态变化回调增量维护；未构建前这些调用不做任何事。
+ */
+public final class ListingTagIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ListingTagIndex.class);
+
+    private static final String LSH_MIN_CANDIDATES_PROPERTY = "marketplace.matching.tag.lsh.minCandidates";
+    static final int[] EMPTY = new int[0];
+
+    /** MinHash签名长度 = 分桶数 × 每桶行数 */
+    private static final int LSH_BANDS = 16;
+    private static final int LSH_ROWS = 2;
+    private static final int MINHASH_SIZE = LSH_BANDS * LSH_ROWS;
+    private static final long[] MINHASH_SEEDS = new long[MINHASH_SIZE];
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED_7A65L);
+        for (int i = 0; i < MINHASH_SIZE; i++) MINHASH_SEEDS[i] = random.nextLong() | 1L;
+    }
+
+    /** 标签字典：tagId → int，只增不减，非ACTIVE Listing的标签也在此驻留 */
+    private static final ConcurrentHashMap<String, Integer> tagCodes = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextTagCode = new AtomicInteger();
+
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static volatile boolean loaded = false;
+
+    // 以下结构均受 lock 保护
+    private static final Map<String, Integer> listingOrdinals = new HashMap<>();
+    private static int nextOrdinal = 0;
+    /** 已移出Listing释放的序号，新Listing优先复用，位图不会随删除与过期无限增长 */
+    private static final ArrayDeque<Integer> freeOrdinals = new ArrayDeque<>();
+    private static final List<String> listingIdsByOrdinal = new ArrayList<>();
+    private static final Map<String, int[]> tagsByListing = new HashMap<>();
+    private static final Map<Integer, BitSet> postings = new HashMap<>();
+    private static final Map<Long, BitSet> lshBuckets = new HashMap<>();
+    private static final Map<String, long[]> bucketKeysByListing = new HashMap<>();
+
+    private ListingTagIndex() { }
+
+    static int internTag(String tagId) {
+        return tagCodes.computeIfAbsent(tagId, k -> nextTagCode.getAndIncrement());
+    }
+
+    /** 将标签ID集合转换为有序去重的int数组 */
+    static int[] toSortedCodes(Collection<String> tagIds) {
+        if (tagIds == null || tagIds.isEmpty()) return EMPTY;
+        int[] codes = new int[tagIds.size()];
+        int count = 0;
+        for (String tagId : tagIds) {
+            if (tagId != null) codes[count++] = internTag(tagId);
+        }
+        Arrays.sort(codes, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || codes[unique - 1] != codes[i]) codes[unique++] = codes[i];
+        }
+        return unique == codes.length ? codes : Arrays.copyOf(codes, unique);
+    }
+
+    /** 两个有序int数组的交集大小 */
+    static int intersectionSize(int[] codes1, int[] codes2) {
+        int i = 0, j = 0, count = 0;
+        while (i < codes1.length && j < codes2.length) {
+            if (codes1[i] == codes2[j]) {
+                count++;
+                i++;
+                j++;
+            } else if (codes1[i] < codes2[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 首次使用时全量构建索引（只读取ACTIVE Listing及其标签）
+     */
+    public static void ensureLoaded(ExecutionContext ec) {
+        if (loaded) return;
+        lock.writeLock().lock();
+        try {
+            if (loaded) return;
+            long startMs = System.currentTimeMillis();
+            clearStructures();
+
+            Set<String> activeIds = new HashSet<>();
+            try (EntityListIterator listings = ec.getEntity().find("marketplace.listing.Listing")
+                    .condition("status", "ACTIVE")
+                    .selectField("listingId")
+                    .iterator()) {
+                EntityValue listing;
+                while ((listing = listings.next()) != null) activeIds.add(listing.getString("listingId"));
+            }
+
+            Map<String, List<String>> rawTags = new HashMap<>();
+            try (EntityListIterator listingTags = ec.getEntity().find("marketplace.listing.ListingTag")
+                    .selectField("listingId").selectField("tagId")
+                    .iterator()) {
+                EntityValue listingTag;
+                while ((listingTag = listingTags.next()) != null) {
+                    String listingId = listingTag.getString("listingId");
+                    if (activeIds.contains(listingId)) {
+                        rawTags.computeIfAbsent(listingId, k -> new ArrayList<>()).add(listingTag.getString("tagId"));
+                    }
+                }
+            }
+
+            for (String listingId : activeIds) putListing(listingId, toSortedCodes(rawTags.get(listingId)));
+            loaded = true;
+            logger.info("Built listing tag index: {} active listings, {} tags in {}ms",
+                    activeIds.size(), postings.size(), System.currentTimeMillis() - startMs);
+        } catch (Exception e) {
+            clearStructures();
+            logger.warn("Unable to build listing tag index, falling back to per-request tag queries: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 重新读取单个Listing的状态与标签：ACTIVE则更新索引，否则移出索引
+     */
+    public static void refreshListing(ExecutionContext ec, String listingId) {
+        if (!loaded || listingId == null) return;
+        refresh(ec, listingId, ec.getEntity().find("marketplace.listing.Listing")
+                .condition("listingId", listingId)
+                .selectField("status")
+                .one());
+    }
+
+    /**
+     * 按已读取的Listing记录（至少包含status）更新索引
+     */
+    static void refresh(ExecutionContext ec, String listingId, EntityValue listing) {
+        if (!loaded || listingId == null) return;
+        try {
+            if (listing == null || !"ACTIVE".equals(listing.getString("status"))) {
+                removeListing(listingId);
+                return;
+            }
+            int[] codes = queryTags(ec, listingId);
+            lock.writeLock().lock();
+            try {
+                if (loaded) putListing(listingId, codes);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to refresh tag index for listing {}, index will be rebuilt: {}", listingId, e.getMessage());
+            invalidateAll();
+        }
+    }
+
+    public static void removeListing(String listingId) {
+        if (!loaded || listingId == null) return;
+        lock.writeLock().lock();
+        try {
+            unindex(listingId);
+            tagsByListing.remove(listingId);
+            Integer ordinal = listingOrdinals.remove(listingId);
+            if (ordinal != null) {
+                listingIdsByOrdinal.set(ordinal, null);
+                freeOrdinals.push(ordinal);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** 丢弃索引，下次使用时重新构建 */
+    public static void invalidateAll() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+            clearStructures();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 批量读取已索引Listing的标签，返回未被索引（非ACTIVE或索引未构建）的listingId
+     */
+    static Set<String> copyTags(Collection<String> listingIds, Map<String, int[]> target) {
+        Set<String> missing = new HashSet<>();
+        if (!loaded) {
+            missing.addAll(listingIds);
+            return missing;
+        }
+        lock.readLock().lock();
+        try {
+            for (String listingId : listingIds) {
+                int[] codes = tagsByListing.get(listingId);
+                if (codes != null) target.put(listingId, codes);
+                else missing.add(listingId);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return missing;
+    }
+
+    /**
+     * 读取单个Listing的标签：优先取索引，未被索引时查询数据库
+     */
+    static int[] loadTags(ExecutionContext ec, String listingId) {
+        Map<String, int[]> found = new HashMap<>(2);
+        if (copyTags(Collections.singleton(listingId), found).isEmpty()) return found.get(listingId);
+        return queryTags(ec, listingId);
+    }
+
+    private static int[] queryTags(ExecutionContext ec, String listingId) {
+        List<String> tagIds = new ArrayList<>();
+        for (EntityValue listingTag : ec.getEntity().find("marketplace.listing.ListingTag")
+                .condition("listingId", listingId).selectField("tagId").list()) {
+            tagIds.add(listingTag.getString("tagId"));
+        }
+        return toSortedCodes(tagIds);
+    }
+
+    /** LSH预筛选生效的最小候选数，0表示关闭 */
+    static int getLshMinCandidates() {
+        try {
+            return Integer.parseInt(System.getProperty(LSH_MIN_CANDIDATES_PROPERTY, "0").trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 大品类候选预筛选：保留与源标签在任一LSH分桶碰撞（高重合度）的候选；
+     * 碰撞数不足 minKeep 时放宽为至少共享一个标签的候选。源无标签或索引不可用时原样返回。
+     * 该筛选是近似的，会舍弃标签重合度很低的候选，仅在候选数超过配置阈值时启用。
+     */
+    static List<EntityValue> preselect(List<EntityValue> candidates, int[] sourceCodes, int minKeep) {
+        if (!loaded || sourceCodes == null || sourceCodes.length == 0) return candidates;
+        BitSet selected = new BitSet();
+        lock.readLock().lock();
+        try {
+            for (long bucketKey : bucketKeys(minHash(sourceCodes))) {
+                BitSet bucket = lshBuckets.get(bucketKey);
+                if (bucket != null) selected.or(bucket);
+            }
+            if (countCandidates(candidates, selected) < minKeep) {
+                for (int code : sourceCodes) {
+                    BitSet posting = postings.get(code);
+                    if (posting != null) selected.or(posting);
+                }
+            }
+            List<EntityValue> result = new ArrayList<>();
+            for (EntityValue candidate : candidates) {
+                Integer ordinal = listingOrdinals.get(candidate.getString("listingId"));
+                // 未被索引的候选无法判断，保守保留
+                if (ordinal == null || selected.get(ordinal)) result.add(candidate);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 带有任一所给标签的已索引（ACTIVE）Listing，索引不可用时返回null
+     */
+    public static Set<String> findWithAnyTag(Collection<String> tagIds) {
+        if (!loaded) return null;
+        BitSet selected = new BitSet();
+        lock.readLock().lock();
+        try {
+            if (!loaded) return null;
+            for (String tagId : tagIds) {
+                Integer code = tagId != null ? tagCodes.get(tagId) : null;
+                BitSet posting = code != null ? postings.get(code) : null;
+                if (posting != null) selected.or(posting);
+            }
+            Set<String> listingIds = new HashSet<>(selected.cardinality() * 2);
+            for (int ordinal = selected.nextSetBit(0); ordinal >= 0; ordinal = selected.nextSetBit(ordinal + 1)) {
+                String listingId = listingIdsByOrdinal.get(ordinal);
+                if (listingId != null) listingIds.add(listingId);
+            }
+            return listingIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static int size() {
+        lock.readLock().lock();
+        try {
+            return tagsByListing.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ==================== 内部维护（调用方持有写锁） ====================
+
+    private static int countCandidates(List<EntityValue> candidates, BitSet selected) {
+        int count = 0;
+        for (EntityValue candidate : candidates) {
+            Integer ordinal = listingOrdinals.get(candidate.getString("listingId"));
+            if (ordinal == null || selected.get(ordinal)) count++;
+        }
+        return count;
+    }
+
+    private static void putListing(String listingId, int[] codes) {
+        unindex(listingId);
+        Integer ordinal = listingOrdinals.get(listingId);
+        if (ordinal == null) {
+            if (freeOrdinals.isEmpty()) {
+                ordinal = nextOrdinal++;
+                listingIdsByOrdinal.add(listingId);
+            } else {
+                ordinal = freeOrdinals.pop();
+                listingIdsByOrdinal.set(ordinal, listingId);
+            }
+            listingOrdinals.put(listingId, ordinal);
+        }
+        tagsByListing.put(listingId, codes);
+        if (codes.length == 0) return;
+        for (int code : codes) postings.computeIfAbsent(code, k -> new BitSet()).set(ordinal);
+        long[] keys = bucketKeys(minHash(codes));
+        for (long key : keys) lshBuckets.computeIfAbsent(key, k -> new BitSet()).set(ordinal);
+        bucketKeysByListing.put(listingId, keys);
+    }
+
+    private static void unindex(String listingId) {
+        Integer ordinal = listingOrdinals.get(listingId);
+        if (ordinal == null) return;
+        int[] codes = tagsByListing.get(listingId);
+        if (codes != null) {
+            for (int code : codes) {
+                BitSet posting = postings.get(code);
+                if (posting == null) continue;
+                posting.clear(ordinal);
+                if (posting.isEmpty()) postings.remove(code);
+            }
+        }
+        long[] keys = bucketKeysByListing.remove(listingId);
+        if (keys != null) {
+            for (long key : keys) {
+                BitSet bucket = lshBuckets.get(key);
+                if (bucket == null) continue;
+                bucket.clear(ordinal);
+                if (bucket.isEmpty()) lshBuckets.remove(key);
+            }
+        }
+    }
+
+    private static void clearStructures() {
+        listingOrdinals.clear();
+        nextOrdinal = 0;
+        freeOrdinals.clear();
+        listingIdsByOrdinal.clear();
+        tagsByListing.clear();
+        postings.clear();
+        lshBuckets.clear();
+        bucketKeysByListing.clear();
+    }
+
+    private static int[] minHash(int[] codes) {
+        int[] signature = new int[MINHASH_SIZE];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (int code : codes) {
+            for (int i = 0; i < MINHASH_SIZE; i++) {
+                int hash = (int) ((code * MINHASH_SEEDS[i]) >>> 33);
+                if (hash < signature[i]) signature[i] = hash;
+            }
+        }
+        return signature;
+    }
+
+    /** 每个分桶键 = 分桶序号(高位) + 该分桶行签名的哈希(低位) */
+    private static long[] bucketKeys(int[] signature) {
+        long[] keys = new long[LSH_BANDS];
+        for (int band = 0; band < LSH_BANDS; band++) {
+            int hash = 17;
+            for (int row = 0; row < LSH_ROWS; row++) hash = 31 * hash + signature[band * LSH_ROWS + row];
+            keys[band] = ((long) band << 32) | (hash & 0xFFFFFFFFL);
+        }
+        return keys;
+    }
+}
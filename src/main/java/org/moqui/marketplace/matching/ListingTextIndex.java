@@ -0,0 +1,552 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityListIterator;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ACTIVE Listing 标题、描述与标签名的内存全文倒排索引（search#Listings 关键词检索）
+ * 汉字连续片段切分为单字与相邻二元组（bigram），字母数字片段按整词小写；全角字符先转半角。
+ * 查询中长度≥2的汉字片段只用二元组匹配，单个汉字用单字匹配，所有查询词须同时命中，按BM25打分（标题、标签加权）。
+ * 索引同时保存每个Listing的类型、品类、发布者与价格区间，search#Listings 的列过滤在截断前命中，前 MAX_SEARCH_HITS 名均满足过滤条件。
+ *
+ * 首次搜索时全量构建，之后由 MatchingIndexes.refreshListing / removeListing 增量维护。
+ */
+public final class ListingTextIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ListingTextIndex.class);
+
+    /** 单次检索保留的最高分命中数（过滤后），search#Listings 在其中分页 */
+    public static final int MAX_SEARCH_HITS = 1000;
+
+    private static final int TITLE_WEIGHT = 3;
+    private static final int TAG_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    private static final double BM25_K1 = 1.2;
+    private static final double BM25_B = 0.75;
+
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static volatile boolean loaded = false;
+
+    // 以下结构均受 lock 保护；Listing更新时分配新序号，倒排表按序号递增追加
+    private static final Map<String, Integer> ordinalsByListing = new HashMap<>();
+    private static final List<String> listingIdsByOrdinal = new ArrayList<>();
+    private static final Map<Integer, String[]> termsByOrdinal = new HashMap<>();
+    private static final Map<Integer, Integer> lengthsByOrdinal = new HashMap<>();
+    private static final Map<Integer, Attributes> attributesByOrdinal = new HashMap<>();
+    private static final Map<String, Posting> postings = new HashMap<>();
+    private static final Map<String, String> tagNames = new HashMap<>();
+    private static long totalLength = 0L;
+
+    private ListingTextIndex() { }
+
+    /** 单个词的倒排表：递增的文档序号与对应的加权词频 */
+    private static final class Posting {
+        int[] docs = new int[4];
+        int[] weights = new int[4];
+        int size = 0;
+
+        void append(int doc, int weight) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            docs[size] = doc;
+            weights[size] = weight;
+            size++;
+        }
+
+        void remove(int doc) {
+            int pos = Arrays.binarySearch(docs, 0, size, doc);
+            if (pos < 0) return;
+            System.arraycopy(docs, pos + 1, docs, pos, size - pos - 1);
+            System.arraycopy(weights, pos + 1, weights, pos, size - pos - 1);
+            size--;
+        }
+
+        /** 文档的加权词频，不含该文档时返回0 */
+        int weightOf(int doc) {
+            int pos = Arrays.binarySearch(docs, 0, size, doc);
+            return pos >= 0 ? weights[pos] : 0;
+        }
+    }
+
+    /** 列过滤用的Listing字段 */
+    private static final class Attributes {
+        final String listingType;
+        final String category;
+        final String subCategory;
+        final String publisherId;
+        final BigDecimal priceMin;
+        final BigDecimal priceMax;
+
+        Attributes(EntityValue listing) {
+            this.listingType = listing.getString("listingType");
+            this.category = listing.getString("category");
+            this.subCategory = listing.getString("subCategory");
+            this.publisherId = listing.getString("publisherId");
+            this.priceMin = toBigDecimal(listing.get("priceMin"));
+            this.priceMax = toBigDecimal(listing.get("priceMax"));
+        }
+
+        private static BigDecimal toBigDecimal(Object value) {
+            if (value == null) return null;
+            if (value instanceof BigDecimal) return (BigDecimal) value;
+            return new BigDecimal(value.toString());
+        }
+    }
+
+    /**
+     * 检索时的列过滤与候选集合，未设置的条件不限制；语义与 search#Listings 的数据库条件一致
+     */
+    public static final class Filter {
+        private String listingType;
+        private String category;
+        private String subCategory;
+        private String publisherId;
+        private BigDecimal priceMin;
+        private BigDecimal priceMax;
+        private Set<String> restrictIds;
+
+        public Filter listingType(String listingType) {
+            this.listingType = emptyToNull(listingType);
+            return this;
+        }
+
+        public Filter category(String category) {
+            this.category = emptyToNull(category);
+            return this;
+        }
+
+        public Filter subCategory(String subCategory) {
+            this.subCategory = emptyToNull(subCategory);
+            return this;
+        }
+
+        public Filter publisherId(String publisherId) {
+            this.publisherId = emptyToNull(publisherId);
+            return this;
+        }
+
+        /** 与价格区间有交集；未填上限的Listing按下限视为单一价格 */
+        public Filter priceRange(BigDecimal priceMin, BigDecimal priceMax) {
+            this.priceMin = priceMin;
+            this.priceMax = priceMax;
+            return this;
+        }
+
+        /** 只在这些Listing中检索（半径、标签等已得到的候选），为null时不限制 */
+        public Filter restrictTo(Set<String> restrictIds) {
+            this.restrictIds = restrictIds;
+            return this;
+        }
+
+        boolean matches(String listingId, Attributes attributes) {
+            if (restrictIds != null && !restrictIds.contains(listingId)) return false;
+            if (attributes == null) return false;
+            if (listingType != null && !listingType.equals(attributes.listingType)) return false;
+            if (category != null && !category.equals(attributes.category)) return false;
+            if (subCategory != null && !subCategory.equals(attributes.subCategory)) return false;
+            if (publisherId != null && !publisherId.equals(attributes.publisherId)) return false;
+            if (priceMin != null) {
+                boolean overlaps = attributes.priceMax != null ? attributes.priceMax.compareTo(priceMin) >= 0
+                        : attributes.priceMin != null && attributes.priceMin.compareTo(priceMin) >= 0;
+                if (!overlaps) return false;
+            }
+            if (priceMax != null && (attributes.priceMin == null || attributes.priceMin.compareTo(priceMax) > 0)) return false;
+            return true;
+        }
+
+        private static String emptyToNull(String value) {
+            return value == null || value.isEmpty() ? null : value;
+        }
+    }
+
+    public static Filter filter() {
+        return new Filter();
+    }
+
+    /** 检索结果：按相关度降序的 listingId 与分数，以及截断前的命中总数 */
+    public static final class Hits {
+        private final List<String> listingIds;
+        private final double[] scores;
+        private final int totalHits;
+
+        Hits(List<String> listingIds, double[] scores, int totalHits) {
+            this.listingIds = listingIds;
+            this.scores = scores;
+            this.totalHits = totalHits;
+        }
+
+        public List<String> getListingIds() {
+            return listingIds;
+        }
+
+        public double getScore(int rank) {
+            return scores[rank];
+        }
+
+        public int getTotalHits() {
+            return totalHits;
+        }
+
+        public boolean isTruncated() {
+            return totalHits > listingIds.size();
+        }
+    }
+
+    // ==================== 分词 ====================
+
+    /**
+     * 文本切分为词及词频：汉字片段输出单字与二元组，其他字母数字片段输出小写整词
+     */
+    static Map<String, Integer> tokenize(String text) {
+        Map<String, Integer> terms = new HashMap<>();
+        if (text == null || text.isEmpty()) return terms;
+        forEachRun(text, (run, han) -> {
+            if (han) {
+                for (int i = 0; i < run.length(); i++) {
+                    terms.merge(run.substring(i, i + 1), 1, Integer::sum);
+                    if (i + 1 < run.length()) terms.merge(run.substring(i, i + 2), 1, Integer::sum);
+                }
+            } else {
+                terms.merge(run, 1, Integer::sum);
+            }
+        });
+        return terms;
+    }
+
+    /**
+     * 查询切分：长度≥2的汉字片段只取二元组，单个汉字取单字，其他片段取整词；去重
+     */
+    static Set<String> queryTerms(String keywords) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (keywords == null || keywords.trim().isEmpty()) return terms;
+        forEachRun(keywords, (run, han) -> {
+            if (han && run.length() > 1) {
+                for (int i = 0; i + 1 < run.length(); i++) terms.add(run.substring(i, i + 2));
+            } else {
+                terms.add(run);
+            }
+        });
+        return terms;
+    }
+
+    private interface RunConsumer {
+        void accept(String run, boolean han);
+    }
+
+    private static void forEachRun(String text, RunConsumer consumer) {
+        StringBuilder run = new StringBuilder();
+        boolean runHan = false;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            // 全角ASCII转半角
+            if (codePoint >= 0xFF01 && codePoint <= 0xFF5E) codePoint -= 0xFEE0;
+            boolean han = Character.UnicodeScript.of(codePoint) == Character.UnicodeScript.HAN;
+            if (!han && !Character.isLetterOrDigit(codePoint)) {
+                if (run.length() > 0) consumer.accept(run.toString(), runHan);
+                run.setLength(0);
+                continue;
+            }
+            if (run.length() > 0 && han != runHan) {
+                consumer.accept(run.toString(), runHan);
+                run.setLength(0);
+            }
+            runHan = han;
+            run.appendCodePoint(han ? codePoint : Character.toLowerCase(codePoint));
+        }
+        if (run.length() > 0) consumer.accept(run.toString(), runHan);
+    }
+
+    // ==================== 构建与维护 ====================
+
+    /**
+     * 首次使用时全量构建索引（只读取ACTIVE Listing及其标签）
+     */
+    public static void ensureLoaded(ExecutionContext ec) {
+        if (loaded) return;
+        lock.writeLock().lock();
+        try {
+            if (loaded) return;
+            long startMs = System.currentTimeMillis();
+            clearStructures();
+
+            try (EntityListIterator tags = ec.getEntity().find("marketplace.tag.Tag")
+                    .selectField("tagId").selectField("tagName")
+                    .iterator()) {
+                EntityValue tag;
+                while ((tag = tags.next()) != null) {
+                    if (tag.getString("tagName") != null) tagNames.put(tag.getString("tagId"), tag.getString("tagName"));
+                }
+            }
+
+            Map<String, EntityValue> activeListings = new LinkedHashMap<>();
+            try (EntityListIterator listings = ec.getEntity().find("marketplace.listing.Listing")
+                    .condition("status", "ACTIVE")
+                    .selectField("listingId").selectField("title").selectField("description")
+                    .selectField("listingType").selectField("category").selectField("subCategory")
+                    .selectField("publisherId").selectField("priceMin").selectField("priceMax")
+                    .iterator()) {
+                EntityValue listing;
+                while ((listing = listings.next()) != null) activeListings.put(listing.getString("listingId"), listing);
+            }
+
+            Map<String, List<String>> tagIdsByListing = new HashMap<>();
+            try (EntityListIterator listingTags = ec.getEntity().find("marketplace.listing.ListingTag")
+                    .selectField("listingId").selectField("tagId")
+                    .iterator()) {
+                EntityValue listingTag;
+                while ((listingTag = listingTags.next()) != null) {
+                    String listingId = listingTag.getString("listingId");
+                    if (activeListings.containsKey(listingId)) {
+                        tagIdsByListing.computeIfAbsent(listingId, k -> new ArrayList<>()).add(listingTag.getString("tagId"));
+                    }
+                }
+            }
+
+            for (EntityValue listing : activeListings.values()) {
+                String listingId = listing.getString("listingId");
+                putListing(listingId, listingTerms(listing, tagIdsByListing.get(listingId)), new Attributes(listing));
+            }
+            loaded = true;
+            logger.info("Built listing text index: {} active listings, {} terms in {}ms",
+                    ordinalsByListing.size(), postings.size(), System.currentTimeMillis() - startMs);
+        } catch (Exception e) {
+            clearStructures();
+            logger.warn("Unable to build listing text index, keyword search falls back to LIKE queries: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 按已读取的Listing记录（至少包含status、title、description及列过滤字段）更新索引：ACTIVE则重新切分写入，否则移出
+     */
+    static void refresh(ExecutionContext ec, String listingId, EntityValue listing) {
+        if (!loaded || listingId == null) return;
+        try {
+            if (listing == null || !"ACTIVE".equals(listing.getString("status"))) {
+                removeListing(listingId);
+                return;
+            }
+            List<String> tagIds = new ArrayList<>();
+            for (EntityValue listingTag : ec.getEntity().find("marketplace.listing.ListingTag")
+                    .condition("listingId", listingId).selectField("tagId").list()) {
+                tagIds.add(listingTag.getString("tagId"));
+            }
+            loadMissingTagNames(ec, tagIds);
+            lock.writeLock().lock();
+            try {
+                if (loaded) putListing(listingId, listingTerms(listing, tagIds), new Attributes(listing));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to refresh text index for listing {}, index will be rebuilt: {}", listingId, e.getMessage());
+            invalidateAll();
+        }
+    }
+
+    public static void removeListing(String listingId) {
+        if (!loaded || listingId == null) return;
+        lock.writeLock().lock();
+        try {
+            unindex(listingId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** 丢弃索引，下次使用时重新构建 */
+    public static void invalidateAll() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+            clearStructures();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static int size() {
+        lock.readLock().lock();
+        try {
+            return ordinalsByListing.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void loadMissingTagNames(ExecutionContext ec, List<String> tagIds) {
+        List<String> missing = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (String tagId : tagIds) if (tagId != null && !tagNames.containsKey(tagId)) missing.add(tagId);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (missing.isEmpty()) return;
+        Map<String, String> found = new HashMap<>();
+        for (EntityValue tag : ec.getEntity().find("marketplace.tag.Tag")
+                .condition("tagId", EntityCondition.IN, missing)
+                .selectField("tagId").selectField("tagName").list()) {
+            if (tag.getString("tagName") != null) found.put(tag.getString("tagId"), tag.getString("tagName"));
+        }
+        lock.writeLock().lock();
+        try {
+            tagNames.putAll(found);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** 标题、标签名、描述按字段权重合并的加权词频（调用方持有锁或在构建中） */
+    private static Map<String, Integer> listingTerms(EntityValue listing, List<String> tagIds) {
+        Map<String, Integer> weighted = new HashMap<>();
+        addWeighted(weighted, tokenize(listing.getString("title")), TITLE_WEIGHT);
+        addWeighted(weighted, tokenize(listing.getString("description")), DESCRIPTION_WEIGHT);
+        if (tagIds != null) {
+            for (String tagId : tagIds) {
+                String tagName = tagNames.get(tagId);
+                if (tagName != null) addWeighted(weighted, tokenize(tagName), TAG_WEIGHT);
+            }
+        }
+        return weighted;
+    }
+
+    private static void addWeighted(Map<String, Integer> target, Map<String, Integer> terms, int weight) {
+        for (Map.Entry<String, Integer> entry : terms.entrySet()) target.merge(entry.getKey(), entry.getValue() * weight, Integer::sum);
+    }
+
+    // ==================== 检索 ====================
+
+    /**
+     * 检索同时包含全部查询词的ACTIVE Listing，按BM25分数降序（同分时较早索引者在前）返回前 limit 个；
+     * 索引不可用时返回null，无查询词时返回空结果
+     */
+    public static Hits search(String keywords, int limit) {
+        return search(keywords, limit, null);
+    }
+
+    /**
+     * 同上，只保留满足 filter 的Listing；过滤在截断前进行，totalHits 为过滤后的命中总数
+     */
+    public static Hits search(String keywords, int limit, Filter filter) {
+        if (!loaded) return null;
+        Set<String> terms = queryTerms(keywords);
+        if (terms.isEmpty() || limit <= 0) return new Hits(Collections.emptyList(), new double[0], 0);
+        lock.readLock().lock();
+        try {
+            if (!loaded) return null;
+            int docCount = ordinalsByListing.size();
+            Posting[] termPostings = new Posting[terms.size()];
+            int i = 0;
+            for (String term : terms) {
+                Posting posting = postings.get(term);
+                if (posting == null || posting.size == 0) return new Hits(Collections.emptyList(), new double[0], 0);
+                termPostings[i++] = posting;
+            }
+            // 从最短的倒排表出发，逐个在其余倒排表中二分确认
+            Arrays.sort(termPostings, Comparator.comparingInt(posting -> posting.size));
+            double[] idf = new double[termPostings.length];
+            for (int t = 0; t < termPostings.length; t++) {
+                double df = termPostings[t].size;
+                idf[t] = Math.log(1.0 + (docCount - df + 0.5) / (df + 0.5));
+            }
+            double avgLength = docCount > 0 ? (double) totalLength / docCount : 1.0;
+
+            Posting driver = termPostings[0];
+            TopKSelector selector = new TopKSelector(Math.min(limit, driver.size));
+            int totalHits = 0;
+            for (int p = 0; p < driver.size; p++) {
+                int doc = driver.docs[p];
+                if (filter != null && !filter.matches(listingIdsByOrdinal.get(doc), attributesByOrdinal.get(doc))) continue;
+                double norm = BM25_K1 * (1.0 - BM25_B + BM25_B * lengthsByOrdinal.get(doc) / avgLength);
+                double score = 0.0;
+                boolean matched = true;
+                for (int t = 0; t < termPostings.length; t++) {
+                    int weight = t == 0 ? driver.weights[p] : termPostings[t].weightOf(doc);
+                    if (weight == 0) {
+                        matched = false;
+                        break;
+                    }
+                    score += idf[t] * weight * (BM25_K1 + 1.0) / (weight + norm);
+                }
+                if (!matched) continue;
+                totalHits++;
+                selector.offer(Math.round(score * 1_000_000.0), doc);
+            }
+
+            int[] docs = selector.sortedIndexes();
+            long[] scaledScores = selector.sortedScores();
+            List<String> listingIds = new ArrayList<>(docs.length);
+            double[] scores = new double[docs.length];
+            for (int r = 0; r < docs.length; r++) {
+                listingIds.add(listingIdsByOrdinal.get(docs[r]));
+                scores[r] = scaledScores[r] / 1_000_000.0;
+            }
+            return new Hits(listingIds, scores, totalHits);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ==================== 内部维护（调用方持有写锁） ====================
+
+    private static void putListing(String listingId, Map<String, Integer> weightedTerms, Attributes attributes) {
+        unindex(listingId);
+        int ordinal = listingIdsByOrdinal.size();
+        listingIdsByOrdinal.add(listingId);
+        ordinalsByListing.put(listingId, ordinal);
+        int length = 0;
+        for (Map.Entry<String, Integer> entry : weightedTerms.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), k -> new Posting()).append(ordinal, entry.getValue());
+            length += entry.getValue();
+        }
+        termsByOrdinal.put(ordinal, weightedTerms.keySet().toArray(new String[0]));
+        attributesByOrdinal.put(ordinal, attributes);
+        lengthsByOrdinal.put(ordinal, Math.max(1, length));
+        totalLength += Math.max(1, length);
+    }
+
+    private static void unindex(String listingId) {
+        Integer ordinal = ordinalsByListing.remove(listingId);
+        if (ordinal == null) return;
+        listingIdsByOrdinal.set(ordinal, null);
+        String[] terms = termsByOrdinal.remove(ordinal);
+        if (terms != null) {
+            for (String term : terms) {
+                Posting posting = postings.get(term);
+                if (posting == null) continue;
+                posting.remove(ordinal);
+                if (posting.size == 0) postings.remove(term);
+            }
+        }
+        attributesByOrdinal.remove(ordinal);
+        Integer length = lengthsByOrdinal.remove(ordinal);
+        if (length != null) totalLength -= length;
+    }
+
+    private static void clearStructures() {
+        ordinalsByListing.clear();
+        listingIdsByOrdinal.clear();
+        termsByOrdinal.clear();
+        lengthsByOrdinal.clear();
+        attributesByOrdinal.clear();
+        postings.clear();
+        tagNames.clear();
+        totalLength = 0L;
+    }
+}
@@ -0,0 +1,204 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityListIterator;
+import org.moqui.entity.EntityValue;
+import org.moqui.marketplace.stats.MerchantStatsEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * 全市场批量撮合
+ * 以品类为单位流式读取ACTIVE供需信息，按品类（可选细分到子品类）分块，每块内的供需对只评分一次，
+ * 结果按供需对写入或更新Match，新记录分批批量插入。检查点与运行记录由 run#MarketBatchMatch 维护。
+ */
+public final class MarketBatchMatcher {
+    private static final Logger logger = LoggerFactory.getLogger(MarketBatchMatcher.class);
+
+    private static final String MATCH_ENTITY = "marketplace.match.Match";
+    private static final int IN_CHUNK_SIZE = 1000;
+
+    private final ExecutionContext ec;
+    private final SmartMatchingEngine engine;
+    private final int maxResults;
+    private final BigDecimal minScore;
+    private final boolean blockBySubCategory;
+    private final int insertBatchSize;
+
+    private long listingsRead = 0L;
+    private long blocksScored = 0L;
+    private long pairsScored = 0L;
+    private long matchesCreated = 0L;
+    private long matchesUpdated = 0L;
+
+    public MarketBatchMatcher(ExecutionContext ec, int maxResults, BigDecimal minScore,
+                              boolean blockBySubCategory, int insertBatchSize) {
+        this.ec = ec;
+        this.engine = new SmartMatchingEngine(ec);
+        this.maxResults = maxResults;
+        this.minScore = minScore != null ? minScore : SmartMatchingEngine.getConfiguredDefaultMinScore(ec);
+        this.blockBySubCategory = blockBySubCategory;
+        this.insertBatchSize = Math.max(1, insertBatchSize);
+    }
+
+    /**
+     * 列出存在ACTIVE供需信息的品类（升序），作为批量撮合的处理顺序与检查点依据；afterCategory 为检查点，只返回其后的品类
+     */
+    public static List<String> findActiveCategories(ExecutionContext ec, String afterCategory) {
+        List<String> categories = new ArrayList<>();
+        EntityFind find = ec.getEntity().find("marketplace.listing.Listing")
+                .condition("status", "ACTIVE")
+                .condition("category", EntityCondition.NOT_EQUAL, null)
+                .selectField("category")
+                .distinct(true)
+                .orderBy("category");
+        if (afterCategory != null) find.condition("category", EntityCondition.GREATER_THAN, afterCategory);
+        for (EntityValue row : find.list()) categories.add(row.getString("category"));
+        return categories;
+    }
+
+    /**
+     * 处理一个品类：流式读取该品类的ACTIVE供需信息，分块评分并写入Match
+     */
+    public void matchCategory(String category) {
+        Map<String, List<EntityValue>> suppliesByBlock = new LinkedHashMap<>();
+        Map<String, List<EntityValue>> demandsByBlock = new LinkedHashMap<>();
+        try (EntityListIterator listings = ec.getEntity().find("marketplace.listing.Listing")
+                .condition("status", "ACTIVE")
+                .condition("category", category)
+                .orderBy("listingId")
+                .iterator()) {
+            EntityValue listing;
+            while ((listing = listings.next()) != null) {
+                listingsRead++;
+                String blockKey = blockBySubCategory ? Objects.toString(listing.getString("subCategory"), "") : "";
+                String listingType = listing.getString("listingType");
+                if ("SUPPLY".equals(listingType)) {
+                    suppliesByBlock.computeIfAbsent(blockKey, k -> new ArrayList<>()).add(listing);
+                } else if ("DEMAND".equals(listingType)) {
+                    demandsByBlock.computeIfAbsent(blockKey, k -> new ArrayList<>()).add(listing);
+                }
+            }
+        }
+
+        for (Map.Entry<String, List<EntityValue>> entry : suppliesByBlock.entrySet()) {
+            List<EntityValue> supplies = entry.getValue();
+            List<EntityValue> demands = demandsByBlock.get(entry.getKey());
+            if (demands == null || demands.isEmpty()) continue;
+
+            long startMs = System.currentTimeMillis();
+            List<Map<String, Object>> matches = engine.matchBlock(supplies, demands, maxResults, minScore);
+            blocksScored++;
+            pairsScored += (long) supplies.size() * demands.size();
+            storeMatches(supplies, matches);
+            logger.info("Batch matched block {}/{}: {} x {} listings, {} matches in {}ms", category, entry.getKey(),
+                    supplies.size(), demands.size(), matches.size(), System.currentTimeMillis() - startMs);
+        }
+    }
+
+    /**
+     * 按供需对写入：已存在且仍为SUGGESTED的记录更新分数，已被查看/联系等的记录保留不动，其余分批批量插入
+     */
+    private void storeMatches(List<EntityValue> supplies, List<Map<String, Object>> matches) {
+        if (matches.isEmpty()) return;
+        Map<String, EntityValue> existingByPair = loadExistingMatches(supplies);
+        Timestamp nowTs = ec.getUser().getNowTimestamp();
+        List<EntityValue> pendingCreates = new ArrayList<>(Math.min(insertBatchSize, matches.size()));
+        MerchantStatsEvents statsEvents = MerchantStatsEvents.create();
+
+        for (Map<String, Object> match : matches) {
+            EntityValue supply = (EntityValue) match.get("supplyListing");
+            EntityValue demand = (EntityValue) match.get("demandListing");
+            Map<String, Object> scoreFields = new HashMap<>();
+            scoreFields.put("matchScore", match.get("matchScore"));
+            scoreFields.put("matchReason", engine.generateMatchReason(match, supply, demand));
+            scoreFields.put("tagSimilarity", match.get("tagSimilarity"));
+            scoreFields.put("geoProximity", match.get("geoProximity"));
+            scoreFields.put("priceMatch", match.get("priceMatch"));
+            scoreFields.put("freshnessScore", match.get("freshnessScore"));
+            scoreFields.put("preferenceScore", match.get("preferenceScore"));
+            scoreFields.put("projectAffinity", match.get("projectAffinity"));
+
+            EntityValue existing = existingByPair.get(pairKey(supply.getString("listingId"), demand.getString("listingId")));
+            if (existing != null) {
+                if ("SUGGESTED".equals(existing.getString("status"))) {
+                    Object oldScore = existing.get("matchScore");
+                    existing.setAll(scoreFields);
+                    existing.store();
+                    statsEvents.matchRescored(supply.getString("publisherId"), demand.getString("publisherId"), statsCategory(supply, demand),
+                            oldScore, existing.get("matchScore"), (Timestamp) existing.get("suggestedDate"));
+                    matchesUpdated++;
+                }
+                continue;
+            }
+
+            EntityValue matchValue = ec.getEntity().makeValue(MATCH_ENTITY);
+            matchValue.setAll(scoreFields);
+            matchValue.set("supplyListingId", supply.getString("listingId"));
+            matchValue.set("demandListingId", demand.getString("listingId"));
+            matchValue.set("status", "SUGGESTED");
+            matchValue.set("suggestedDate", nowTs);
+            matchValue.set("notifiedToSupplier", "N");
+            matchValue.set("notifiedToDemander", "N");
+            matchValue.setSequencedIdPrimary();
+            pendingCreates.add(matchValue);
+            statsEvents.matchCreated(supply.getString("publisherId"), demand.getString("publisherId"), statsCategory(supply, demand),
+                    matchValue.get("matchScore"), nowTs);
+            if (pendingCreates.size() >= insertBatchSize) flushCreates(pendingCreates);
+        }
+        flushCreates(pendingCreates);
+        statsEvents.submitOnCommit(ec);
+    }
+
+    private static String statsCategory(EntityValue supply, EntityValue demand) {
+        String category = supply.getString("category");
+        return category != null ? category : demand.getString("category");
+    }
+
+    private void flushCreates(List<EntityValue> pendingCreates) {
+        if (pendingCreates.isEmpty()) return;
+        ec.getEntity().createBulk(new ArrayList<>(pendingCreates));
+        matchesCreated += pendingCreates.size();
+        pendingCreates.clear();
+    }
+
+    private Map<String, EntityValue> loadExistingMatches(List<EntityValue> supplies) {
+        Map<String, EntityValue> existingByPair = new HashMap<>();
+        List<String> supplyIds = new ArrayList<>(supplies.size());
+        for (EntityValue supply : supplies) supplyIds.add(supply.getString("listingId"));
+        for (int start = 0; start < supplyIds.size(); start += IN_CHUNK_SIZE) {
+            List<String> chunk = supplyIds.subList(start, Math.min(start + IN_CHUNK_SIZE, supplyIds.size()));
+            try (EntityListIterator rows = ec.getEntity().find(MATCH_ENTITY)
+                    .condition("supplyListingId", EntityCondition.IN, chunk)
+                    .forUpdate(true)
+                    .iterator()) {
+                EntityValue row;
+                while ((row = rows.next()) != null) {
+                    existingByPair.put(pairKey(row.getString("supplyListingId"), row.getString("demandListingId")), row);
+                }
+            }
+        }
+        return existingByPair;
+    }
+
+    private static String pairKey(String supplyListingId, String demandListingId) {
+        return supplyListingId + '|' + demandListingId;
+    }
+
+    /** 当前累计计数 */
+    public Map<String, Object> getCounts() {
+        Map<String, Object> counts = new LinkedHashMap<>();
+        counts.put("listingsRead", listingsRead);
+        counts.put("blocksScored", blocksScored);
+        counts.put("pairsScored", pairsScored);
+        counts.put("matchesCreated", matchesCreated);
+        counts.put("matchesUpdated", matchesUpdated);
+        return counts;
+    }
+}
@@ -0,0 +1,73 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.entity.EntityValue;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+/**
+ * 单个Listing的评分特征快照
+ * 在持有 ExecutionContext 的线程上一次性从 EntityValue 与 ListingHydration 中提取，
+ * 之后评分只读这些不可变字段，可安全地交给其他线程并行计算。
+ */
+final class MatchFeatures {
+    private static final double DEFAULT_DELIVERY_RANGE_KM = 5.0;
+
+    final String listingId;
+    final String category;
+    final int[] tagCodes;
+    /** [latitude, longitude]，无坐标时为null */
+    final double[] coordinates;
+    final double deliveryRangeKm;
+
+    final BigDecimal priceMin;
+    final BigDecimal priceMax;
+    /** 价格区间中点（万分之一为单位），无法定点化时 priceScaledValid 为false */
+    final long priceMidScaled;
+    final boolean priceScaledValid;
+
+    final Timestamp createdDate;
+
+    final boolean hasPublisherProfile;
+    final String preferredCategories;
+    final BigDecimal creditScore;
+
+    final ProjectProfile projectProfile;
+
+    private MatchFeatures(EntityValue listing, ProjectProfile projectProfile, ListingHydration hydration) {
+        this.listingId = listing.getString("listingId");
+        this.category = listing.getString("category");
+        this.tagCodes = hydration.getTagCodes(listingId);
+        this.coordinates = hydration.getCoordinates(listing.getString("geoPointId"));
+        BigDecimal deliveryRange = listing.getBigDecimal("deliveryRange");
+        this.deliveryRangeKm = deliveryRange != null ? deliveryRange.doubleValue() : DEFAULT_DELIVERY_RANGE_KM;
+
+        this.priceMin = listing.getBigDecimal("priceMin");
+        this.priceMax = listing.getBigDecimal("priceMax");
+        long midScaled = 0L;
+        boolean scaledValid = false;
+        if (priceMin != null) {
+            try {
+                midScaled = MatchScoringKernel.priceMidpoint(priceMin, priceMax);
+                scaledValid = true;
+            } catch (ArithmeticException e) {
+                // 超过4位小数或数值过大，评分时退回BigDecimal计算
+            }
+        }
+        this.priceMidScaled = midScaled;
+        this.priceScaledValid = scaledValid;
+
+        this.createdDate = listing.getTimestamp("createdDate");
+
+        EntityValue publisherProfile = hydration.getProfile(listing.getString("publisherId"));
+        this.hasPublisherProfile = publisherProfile != null;
+        this.preferredCategories = publisherProfile != null ? publisherProfile.getString("preferredCategories") : null;
+        this.creditScore = publisherProfile != null ? publisherProfile.getBigDecimal("creditScore") : null;
+
+        this.projectProfile = projectProfile;
+    }
+
+    static MatchFeatures of(EntityValue listing, ProjectProfile projectProfile, ListingHydration hydration) {
+        return new MatchFeatures(listing, projectProfile, hydration);
+    }
+}
@@ -0,0 +1,101 @@
+package org.moqui.marketplace.matching;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 候选评分调度
+ * 候选数低于阈值时在当前线程顺序评分；否则把特征数组切分为若干段提交到专用 ForkJoinPool，
+ * 每段维护自己的 TopKSelector，最后合并。评分只读 MatchFeatures，不访问实体与 ExecutionContext。
+ * 评分是纯CPU计算、没有阻塞等待，虚拟线程并不能带来更多并行；用并行度固定为CPU核数的 ForkJoinPool
+ * 分段计算，既不会超额占用处理器，也能通过工作窃取平衡各段耗时。
+ */
+final class MatchScoringExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(MatchScoringExecutor.class);
+
+    /** 每个工作线程分到的段数，便于负载均衡 */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final Object POOL_LOCK = new Object();
+    private static ForkJoinPool scoringPool;
+    private static int scoringPoolParallelism = 0;
+
+    private MatchScoringExecutor() { }
+
+    /**
+     * 为全部候选打分并返回保留前 k 名（且不低于 threshold）的选择器
+     *
+     * @param parallelism   并行度，<=1 时顺序执行
+     * @param minCandidates 启用并行的最小候选数
+     */
+    static TopKSelector selectTopK(MatchScoringKernel kernel, MatchFeatures source, MatchFeatures[] candidates,
+                                   int k, long threshold, long nowMillis, int parallelism, int minCandidates) {
+        if (parallelism <= 1 || candidates.length < Math.max(minCandidates, 2)) {
+            return scoreRange(kernel, source, candidates, 0, candidates.length, k, threshold, nowMillis);
+        }
+
+        ForkJoinPool pool = getPool(parallelism);
+        int chunkCount = Math.min(candidates.length, parallelism * CHUNKS_PER_THREAD);
+        int chunkSize = (candidates.length + chunkCount - 1) / chunkCount;
+        List<ForkJoinTask<TopKSelector>> tasks = new ArrayList<>(chunkCount);
+        try {
+            for (int start = 0; start < candidates.length; start += chunkSize) {
+                final int from = start;
+                final int to = Math.min(start + chunkSize, candidates.length);
+                final MatchScoringKernel chunkKernel = kernel.copy();
+                tasks.add(pool.submit(() -> scoreRange(chunkKernel, source, candidates, from, to, k, threshold, nowMillis)));
+            }
+        } catch (RejectedExecutionException e) {
+            // 并行度调整时旧线程池已关闭，本次退回顺序评分
+            for (ForkJoinTask<TopKSelector> task : tasks) task.cancel(false);
+            return scoreRange(kernel, source, candidates, 0, candidates.length, k, threshold, nowMillis);
+        }
+
+        TopKSelector merged = new TopKSelector(k);
+        try {
+            for (ForkJoinTask<TopKSelector> task : tasks) merged.merge(task.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (ForkJoinTask<TopKSelector> task : tasks) task.cancel(true);
+            throw new IllegalStateException("Match scoring interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Parallel match scoring failed", e.getCause());
+        }
+        logger.debug("Scored {} candidates in {} chunks with parallelism {}", candidates.length, tasks.size(), parallelism);
+        return merged;
+    }
+
+    private static TopKSelector scoreRange(MatchScoringKernel kernel, MatchFeatures source, MatchFeatures[] candidates,
+                                           int from, int to, int k, long threshold, long nowMillis) {
+        TopKSelector selector = new TopKSelector(Math.min(k, to - from));
+        for (int i = from; i < to; i++) {
+            long score = kernel.score(source, candidates[i], nowMillis);
+            if (score >= threshold) selector.offer(score, i);
+        }
+        return selector;
+    }
+
+    private static ForkJoinPool getPool(int parallelism) {
+        synchronized (POOL_LOCK) {
+            if (scoringPool == null || scoringPoolParallelism != parallelism) {
+                if (scoringPool != null) scoringPool.shutdown();
+                scoringPool = new ForkJoinPool(parallelism, pool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("marketplace-match-scoring-" + thread.getPoolIndex());
+                    return thread;
+                }, null, false);
+                scoringPoolParallelism = parallelism;
+                logger.info("Created match scoring pool with parallelism {}", parallelism);
+            }
+            return scoringPool;
+        }
+    }
+}
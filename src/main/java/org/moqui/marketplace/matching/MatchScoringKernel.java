@@ -0,0 +1,397 @@
+package org.moqui.marketplace.matching;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.util.Set;
+
+/**
+ * 匹配评分内核
+ * 以double计算各维度原始分，再以“万分之一”为单位的long定点数完成4位小数舍入与加权求和，
+ * 结果与 SmartMatchingEngine 的BigDecimal实现逐位一致（HALF_UP），但每个候选几乎不产生对象分配。
+ * 各维度的原始公式也在此定义，BigDecimal实现复用同一套公式。
+ *
+ * 内核实例持有每次请求复用的临时数组，非线程安全。
+ */
+final class MatchScoringKernel {
+    static final int TAG_SIMILARITY = 0;
+    static final int GEO_PROXIMITY = 1;
+    static final int PRICE_MATCH = 2;
+    static final int FRESHNESS = 3;
+    static final int PREFERENCE = 4;
+    static final int PROJECT_AFFINITY = 5;
+    static final int DIMENSIONS = 6;
+
+    /** 分数定点化的小数位数，对应 setScale(4) */
+    static final int SCORE_SCALE = 4;
+    private static final long SCORE_UNIT = 10_000L;
+    private static final int MAX_WEIGHT_SCALE = 8;
+    /** 定点权重上限，保证加权求和不溢出 */
+    private static final long MAX_SCALED_WEIGHT = 1_000_000_000_000L;
+    private static final int CREDIT_SCALE = 8;
+    /** 定点价格上限，保证中间运算不溢出 */
+    private static final long MAX_SCALED_PRICE = Long.MAX_VALUE / 4;
+
+    private static final long PRICE_FALLBACK = 7_000L;
+    private static final long NEUTRAL_SCORE = 5_000L;
+
+    private final long[] weights = new long[DIMENSIONS];
+    private final long weightUnit;
+    private final long geoFallback;
+    /** 每个候选复用的维度分数组（单位：万分之一） */
+    private final long[] scratch = new long[DIMENSIONS];
+
+    private MatchScoringKernel(long[] weights, long weightUnit, long geoFallback) {
+        System.arraycopy(weights, 0, this.weights, 0, DIMENSIONS);
+        this.weightUnit = weightUnit;
+        this.geoFallback = geoFallback;
+    }
+
+    /**
+     * 按引擎当前权重构建内核；权重或地理兜底分无法精确定点化时返回null，由调用方退回BigDecimal实现
+     */
+    static MatchScoringKernel create(BigDecimal[] weightValues, BigDecimal geoFallbackScore) {
+        if (weightValues.length != DIMENSIONS || geoFallbackScore == null) return null;
+        int weightScale = 0;
+        for (BigDecimal weight : weightValues) {
+            if (weight == null) return null;
+            weightScale = Math.max(weightScale, weight.stripTrailingZeros().scale());
+        }
+        if (weightScale > MAX_WEIGHT_SCALE) return null;
+        if (geoFallbackScore.stripTrailingZeros().scale() > SCORE_SCALE) return null;
+        try {
+            long[] scaledWeights = new long[DIMENSIONS];
+            for (int i = 0; i < DIMENSIONS; i++) {
+                scaledWeights[i] = weightValues[i].movePointRight(weightScale).longValueExact();
+                if (Math.abs(scaledWeights[i]) > MAX_SCALED_WEIGHT) return null;
+            }
+            long geoFallback = geoFallbackScore.movePointRight(SCORE_SCALE).longValueExact();
+            return new MatchScoringKernel(scaledWeights, pow10(weightScale), geoFallback);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 将最低分阈值换算为定点数：score >= minScore 等价于 scaledScore >= 返回值
+     */
+    static long thresholdScaled(BigDecimal minScore) {
+        if (minScore == null) return Long.MIN_VALUE;
+        try {
+            return minScore.movePointRight(SCORE_SCALE).setScale(0, RoundingMode.CEILING).longValueExact();
+        } catch (ArithmeticException e) {
+            return minScore.signum() > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * 复制一个权重相同、临时数组独立的内核，供其他线程使用
+     */
+    MatchScoringKernel copy() {
+        return new MatchScoringKernel(weights, weightUnit, geoFallback);
+    }
+
+    /**
+     * 计算候选总分（单位：万分之一），与 calculateMatchScore 的 matchScore 数值一致。
+     * 只读取特征快照，不访问实体与 ExecutionContext
+     */
+    long score(MatchFeatures source, MatchFeatures candidate, long nowMillis) {
+        long[] dims = scratch;
+        try {
+            int[] tags1 = source.tagCodes;
+            int[] tags2 = candidate.tagCodes;
+            dims[TAG_SIMILARITY] = (tags1.length == 0 || tags2.length == 0) ? 0L : round4(jaccard(tags1, tags2));
+
+            double[] coordinates1 = source.coordinates;
+            double[] coordinates2 = candidate.coordinates;
+            dims[GEO_PROXIMITY] = geoFallback;
+            if (coordinates1 != null && coordinates2 != null) {
+                double distance = haversineKm(coordinates1[0], coordinates1[1], coordinates2[0], coordinates2[1]);
+                double proximity = geoProximity(distance, source.deliveryRangeKm);
+                // 配送范围为0等异常值时与BigDecimal实现一致，退回兜底分
+                if (!Double.isNaN(proximity) && !Double.isInfinite(proximity)) {
+                    dims[GEO_PROXIMITY] = round4(proximity);
+                }
+            }
+
+            dims[PRICE_MATCH] = priceMatchScaled(source, candidate);
+
+            Timestamp created1 = source.createdDate;
+            Timestamp created2 = candidate.createdDate;
+            dims[FRESHNESS] = (created1 == null || created2 == null) ? NEUTRAL_SCORE :
+                    round4(freshness(created1.getTime(), created2.getTime(), nowMillis));
+
+            dims[PREFERENCE] = preferenceScaled(source, candidate);
+
+            dims[PROJECT_AFFINITY] = hasProjectSignal(source.projectProfile, candidate.projectProfile) ?
+                    round4(projectAffinity(source.projectProfile, candidate.projectProfile)) : NEUTRAL_SCORE;
+        } catch (RuntimeException e) {
+            // 与BigDecimal实现一致：计算异常时总分记为0
+            return 0L;
+        }
+
+        long total = 0L;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            total += dims[i] * weights[i];
+        }
+        return divideHalfUp(total, weightUnit);
+    }
+
+    // ==================== 各维度原始公式（BigDecimal实现共用） ====================
+
+    /** Jaccard相似度 = |交集| / |并集|，基于有序标签编码归并计数 */
+    static double jaccard(int[] tags1, int[] tags2) {
+        int intersection = ListingTagIndex.intersectionSize(tags1, tags2);
+        int union = tags1.length + tags2.length - intersection;
+        return (double) intersection / union;
+    }
+
+    /** Haversine公式计算两点间距离(km) */
+    static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+        final double R = 6371; // 地球半径(km)
+
+        double latDistance = Math.toRadians(lat2 - lat1);
+        double lonDistance = Math.toRadians(lon2 - lon1);
+
+        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
+
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+
+        return R * c;
+    }
+
+    /** 距离衰减函数：在配送范围内线性递减，超出范围快速衰减 */
+    static double geoProximity(double distance, double maxRange) {
+        if (distance <= maxRange) {
+            return 1.0 - (distance / maxRange) * 0.5;
+        }
+        return 0.5 * Math.exp(-(distance - maxRange) / maxRange);
+    }
+
+    /** 价格差异越小，匹配度越高（指数衰减） */
+    static double priceMatch(double diffPercent) {
+        return Math.exp(-diffPercent * 2);
+    }
+
+    /** 48小时内：最多降低30%；48小时后：指数衰减 */
+    static double freshness(long created1Millis, long created2Millis, long nowMillis) {
+        long age1 = (nowMillis - created1Millis) / (1000 * 60 * 60);
+        long age2 = (nowMillis - created2Millis) / (1000 * 60 * 60);
+        double avgAge = (age1 + age2) / 2.0;
+        if (avgAge <= 48) {
+            return 1.0 - (avgAge / 48.0) * 0.3;
+        }
+        return 0.7 * Math.exp(-(avgAge - 48) / 48.0);
+    }
+
+    /** 品类偏好各加0.2，信用分均值贡献最多10%，上限1.0；avgCredit为NaN表示缺少信用分 */
+    static double preference(boolean prefers1, boolean prefers2, double avgCredit) {
+        double score = 0.5;
+        if (prefers1) score += 0.2;
+        if (prefers2) score += 0.2;
+        if (!Double.isNaN(avgCredit)) score += avgCredit * 0.1;
+        return Math.min(score, 1.0);
+    }
+
+    static boolean hasProjectSignal(ProjectProfile profile1, ProjectProfile profile2) {
+        return profile1 != null && profile2 != null && (profile1.isProject() || profile2.isProject());
+    }
+
+    /** 项目画像契合度，调用前需确认 hasProjectSignal */
+    static double projectAffinity(ProjectProfile profile1, ProjectProfile profile2) {
+        double score = 0.5;
+
+        if (profile1.projectType != null && profile2.projectType != null) {
+            if (profile1.projectType.equals(profile2.projectType)) {
+                score = 0.75;
+            } else if (profile1.isProject() && profile2.isProject()) {
+                score = 0.4;
+            }
+        } else if (profile1.isProject() || profile2.isProject()) {
+            score = 0.55;
+        }
+
+        if (profile1.areaSquare != null && profile2.areaSquare != null) {
+            double smaller = Math.min(profile1.areaSquare, profile2.areaSquare);
+            double larger = Math.max(profile1.areaSquare, profile2.areaSquare);
+            if (larger > 0) {
+                double ratio = smaller / larger;
+                if (ratio >= 0.9) score += 0.1;
+                else if (ratio >= 0.75) score += 0.07;
+                else if (ratio >= 0.6) score += 0.04;
+                else score -= 0.05;
+            }
+        }
+
+        if (profile1.budgetAmount != null && profile2.budgetAmount != null) {
+            double diff = Math.abs(profile1.budgetAmount - profile2.budgetAmount);
+            double avg = (profile1.budgetAmount + profile2.budgetAmount) / 2.0;
+            if (avg > 0) {
+                double diffRatio = diff / avg;
+                if (diffRatio <= 0.2) score += 0.08;
+                else if (diffRatio <= 0.35) score += 0.05;
+                else if (diffRatio <= 0.5) score += 0.02;
+                else score -= 0.05;
+            }
+        }
+
+        if (profile1.durationDays != null && profile2.durationDays != null) {
+            double diff = Math.abs(profile1.durationDays - profile2.durationDays);
+            if (diff <= 7) score += 0.04;
+            else if (diff <= 14) score += 0.02;
+            else score -= 0.03;
+        }
+
+        if (profile1.locationHint != null && profile2.locationHint != null) {
+            if (profile1.locationHint.equals(profile2.locationHint)) {
+                score += 0.08;
+            } else if (profile1.locationHint.startsWith(profile2.locationHint)
+                    || profile2.locationHint.startsWith(profile1.locationHint)) {
+                score += 0.04;
+            } else {
+                score -= 0.04;
+            }
+        }
+
+        if (intersects(profile1.styleTags, profile2.styleTags)) {
+            score += 0.03;
+        }
+        if (intersects(profile1.materialTags, profile2.materialTags)) {
+            score += 0.02;
+        }
+
+        return Math.max(0.0, Math.min(1.0, score));
+    }
+
+    private static boolean intersects(Set<String> set1, Set<String> set2) {
+        Set<String> smaller = set1.size() <= set2.size() ? set1 : set2;
+        Set<String> larger = smaller == set1 ? set2 : set1;
+        for (String value : smaller) {
+            if (larger.contains(value)) return true;
+        }
+        return false;
+    }
+
+    // ==================== 定点数实现 ====================
+
+    /**
+     * 价格差异百分比的BigDecimal实现：区间中点保留2位、均价保留2位、差异比例保留4位
+     */
+    static double priceDiffPercent(BigDecimal price1Min, BigDecimal price1Max,
+                                   BigDecimal price2Min, BigDecimal price2Max) {
+        BigDecimal two = BigDecimal.valueOf(2);
+        BigDecimal price1Avg = (price1Max != null) ?
+                price1Min.add(price1Max).divide(two, 2, RoundingMode.HALF_UP) : price1Min;
+        BigDecimal price2Avg = (price2Max != null) ?
+                price2Min.add(price2Max).divide(two, 2, RoundingMode.HALF_UP) : price2Min;
+
+        BigDecimal priceDiff = price1Avg.subtract(price2Avg).abs();
+        BigDecimal avgPrice = price1Avg.add(price2Avg).divide(two, 2, RoundingMode.HALF_UP);
+        return priceDiff.divide(avgPrice, 4, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    /** 信用分均值的BigDecimal实现（保留4位） */
+    static double averageCredit(BigDecimal credit1, BigDecimal credit2) {
+        return credit1.add(credit2).divide(BigDecimal.valueOf(2), 4, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    /**
+     * 以定点数复现 priceDiffPercent 的中间舍入；价格超过4位小数或数值过大时退回BigDecimal实现
+     */
+    private static long priceMatchScaled(MatchFeatures f1, MatchFeatures f2) {
+        if (f1.priceMin == null || f2.priceMin == null) return PRICE_FALLBACK;
+        if (!f1.priceScaledValid || !f2.priceScaledValid) {
+            return round4(priceMatch(priceDiffPercent(f1.priceMin, f1.priceMax, f2.priceMin, f2.priceMax)));
+        }
+        long avg1 = f1.priceMidScaled;
+        long avg2 = f2.priceMidScaled;
+        double diffPercent;
+        long priceDiff = Math.abs(avg1 - avg2);
+        long avgPrice = divideHalfUp(avg1 + avg2, 200L) * 100L;
+        if (avgPrice == 0L) throw new ArithmeticException("Division by zero");
+        if (priceDiff > Long.MAX_VALUE / SCORE_UNIT) {
+            diffPercent = priceDiffPercent(f1.priceMin, f1.priceMax, f2.priceMin, f2.priceMax);
+        } else {
+            diffPercent = divideHalfUp(priceDiff * SCORE_UNIT, avgPrice) / (double) SCORE_UNIT;
+        }
+        return round4(priceMatch(diffPercent));
+    }
+
+    /** 返回以万分之一为单位的价格中点；价格超过4位小数或超出范围时抛出ArithmeticException */
+    static long priceMidpoint(BigDecimal priceMin, BigDecimal priceMax) {
+        long min = toScaledPrice(priceMin);
+        if (priceMax == null) return min;
+        long max = toScaledPrice(priceMax);
+        return divideHalfUp(Math.addExact(min, max), 200L) * 100L;
+    }
+
+    private static long toScaledPrice(BigDecimal price) {
+        long scaled = price.movePointRight(SCORE_SCALE).longValueExact();
+        if (Math.abs(scaled) > MAX_SCALED_PRICE) throw new ArithmeticException("Price out of range");
+        return scaled;
+    }
+
+    private static long preferenceScaled(MatchFeatures f1, MatchFeatures f2) {
+        if (!f1.hasPublisherProfile || !f2.hasPublisherProfile) return NEUTRAL_SCORE;
+
+        String category = f2.category;
+        String preferredCategories1 = f1.preferredCategories;
+        String preferredCategories2 = f2.preferredCategories;
+        // BigDecimal实现中 contains(null) 抛异常后按中等分处理
+        if (category == null && (preferredCategories1 != null || preferredCategories2 != null)) return NEUTRAL_SCORE;
+        boolean prefers1 = preferredCategories1 != null && preferredCategories1.contains(category);
+        boolean prefers2 = preferredCategories2 != null && preferredCategories2.contains(category);
+
+        double avgCredit = Double.NaN;
+        BigDecimal credit1 = f1.creditScore;
+        BigDecimal credit2 = f2.creditScore;
+        if (credit1 != null && credit2 != null) {
+            try {
+                long sum = Math.addExact(credit1.movePointRight(CREDIT_SCALE).longValueExact(),
+                        credit2.movePointRight(CREDIT_SCALE).longValueExact());
+                avgCredit = divideHalfUp(sum, 2L * pow10(CREDIT_SCALE - SCORE_SCALE)) / (double) SCORE_UNIT;
+            } catch (ArithmeticException e) {
+                avgCredit = averageCredit(credit1, credit2);
+            }
+        }
+        return round4(preference(prefers1, prefers2, avgCredit));
+    }
+
+    /**
+     * 等价于 BigDecimal.valueOf(value).setScale(4, RoundingMode.HALF_UP) 的万分之一整数值；
+     * 仅在恰好临近 .5 舍入边界时退回BigDecimal以复现其十进制表示
+     */
+    static long round4(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new ArithmeticException("Invalid score value");
+        }
+        double scaled = Math.abs(value) * SCORE_UNIT;
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        if (Math.abs(fraction - 0.5d) < 1e-7d) {
+            return BigDecimal.valueOf(value).setScale(SCORE_SCALE, RoundingMode.HALF_UP).unscaledValue().longValue();
+        }
+        long rounded = (long) floor + (fraction > 0.5d ? 1L : 0L);
+        return value < 0 ? -rounded : rounded;
+    }
+
+    /** 整数除法，HALF_UP（远离零）舍入 */
+    static long divideHalfUp(long dividend, long divisor) {
+        long quotient = Math.abs(dividend) / Math.abs(divisor);
+        long remainder = Math.abs(dividend) % Math.abs(divisor);
+        if (remainder * 2 >= Math.abs(divisor)) quotient++;
+        return ((dividend < 0) != (divisor < 0)) ? -quotient : quotient;
+    }
+
+    static BigDecimal toScore(long scaled) {
+        return BigDecimal.valueOf(scaled, SCORE_SCALE);
+    }
+
+    private static long pow10(int exponent) {
+        long result = 1L;
+        for (int i = 0; i < exponent; i++) result *= 10L;
+        return result;
+    }
+}
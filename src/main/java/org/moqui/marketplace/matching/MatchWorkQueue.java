@@ -0,0 +1,130 @@
+package org.moqui.marketplace.matching;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步撮合队列的进程内协调
+ * 队列本身持久化在 MatchWorkItem 实体中；这里只负责限制同时排空队列的工作线程数，
+ * 并累计入队、完成、失败、处理耗时等计数，供 get#MatchQueueStats 输出。
+ */
+public final class MatchWorkQueue {
+    public static final String WORKERS_PROPERTY = "marketplace.matching.queue.workers";
+    public static final String BATCH_SIZE_PROPERTY = "marketplace.matching.queue.batch.size";
+    public static final String MAX_ATTEMPTS_PROPERTY = "marketplace.matching.queue.max.attempts";
+    public static final String HIGH_WATER_PROPERTY = "marketplace.matching.queue.high.water";
+
+    private static final int DEFAULT_WORKERS = 2;
+    private static final int DEFAULT_BATCH_SIZE = 20;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final int DEFAULT_HIGH_WATER = 5000;
+
+    private static final AtomicInteger activeWorkers = new AtomicInteger();
+
+    private static final AtomicLong enqueuedCount = new AtomicLong();
+    private static final AtomicLong coalescedCount = new AtomicLong();
+    private static final AtomicLong completedCount = new AtomicLong();
+    private static final AtomicLong retriedCount = new AtomicLong();
+    private static final AtomicLong failedCount = new AtomicLong();
+    private static final AtomicLong matchesWritten = new AtomicLong();
+    private static final AtomicLong processingMillis = new AtomicLong();
+    private static final AtomicLong maxProcessingMillis = new AtomicLong();
+    private static volatile long lastCompletedMillis = 0L;
+
+    private MatchWorkQueue() { }
+
+    /**
+     * 尝试占用一个工作线程名额，已达上限时返回false（由已在运行的工作线程继续排空队列）
+     */
+    public static boolean tryAcquireWorker() {
+        int max = getMaxWorkers();
+        while (true) {
+            int current = activeWorkers.get();
+            if (current >= max) return false;
+            if (activeWorkers.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    public static void releaseWorker() {
+        activeWorkers.updateAndGet(current -> current > 0 ? current - 1 : 0);
+    }
+
+    public static int getActiveWorkers() {
+        return activeWorkers.get();
+    }
+
+    public static boolean hasIdleWorker() {
+        return activeWorkers.get() < getMaxWorkers();
+    }
+
+    // ==================== 计数 ====================
+
+    public static void recordEnqueued(boolean coalesced) {
+        if (coalesced) coalescedCount.incrementAndGet();
+        else enqueuedCount.incrementAndGet();
+    }
+
+    public static void recordCompleted(long elapsedMillis, int matchCount) {
+        completedCount.incrementAndGet();
+        matchesWritten.addAndGet(Math.max(matchCount, 0));
+        processingMillis.addAndGet(elapsedMillis);
+        maxProcessingMillis.accumulateAndGet(elapsedMillis, Math::max);
+        lastCompletedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @param willRetry true表示任务已退回PENDING等待重试，false表示超过最大重试次数标记为FAILED
+     */
+    public static void recordFailure(boolean willRetry) {
+        if (willRetry) retriedCount.incrementAndGet();
+        else failedCount.incrementAndGet();
+    }
+
+    /** 进程内累计计数（自启动以来） */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long completed = completedCount.get();
+        stats.put("activeWorkers", activeWorkers.get());
+        stats.put("maxWorkers", getMaxWorkers());
+        stats.put("enqueued", enqueuedCount.get());
+        stats.put("coalesced", coalescedCount.get());
+        stats.put("completed", completed);
+        stats.put("retried", retriedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("matchesWritten", matchesWritten.get());
+        stats.put("avgProcessingMillis", completed > 0 ? processingMillis.get() / completed : 0L);
+        stats.put("maxProcessingMillis", maxProcessingMillis.get());
+        stats.put("lastCompletedMillis", lastCompletedMillis);
+        return stats;
+    }
+
+    // ==================== 配置 ====================
+
+    public static int getMaxWorkers() {
+        return Math.max(1, intProperty(WORKERS_PROPERTY, DEFAULT_WORKERS));
+    }
+
+    public static int getBatchSize() {
+        return Math.max(1, intProperty(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE));
+    }
+
+    public static int getMaxAttempts() {
+        return Math.max(1, intProperty(MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS));
+    }
+
+    public static int getHighWaterMark() {
+        return Math.max(1, intProperty(HIGH_WATER_PROPERTY, DEFAULT_HIGH_WATER));
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.moqui.marketplace.matching;
+
+import groovy.json.JsonSlurper;
+import org.moqui.context.ExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * 匹配配置快照
+ * matching-config.json 解析后的不可变结果（权重、阈值、并行参数、已编译的关键词自动机），
+ * 通过 AtomicReference 发布：读取路径无锁，只返回当前快照引用。
+ *
+ * 每隔 CHECK_INTERVAL_MS 检查一次配置资源的修改时间，变化时由单个线程重新读取；
+ * 内容（CRC32）变化才编译新快照并替换，其余线程在重新加载期间继续使用旧快照。
+ */
+final class MatchingConfig {
+    private static final Logger logger = LoggerFactory.getLogger(MatchingConfig.class);
+
+    private static final String CONFIG_LOCATION_PROPERTY = "marketplace.matching.config.location";
+    private static final String CONFIG_DEFAULT_LOCATION = "component://moqui-marketplace/config/matching-config.json";
+    private static final long CHECK_INTERVAL_MS = 5000L;
+
+    // 默认权重配置
+    static final BigDecimal DEFAULT_WEIGHT_TAG_SIMILARITY = new BigDecimal("0.30");
+    static final BigDecimal DEFAULT_WEIGHT_GEO_PROXIMITY = new BigDecimal("0.20");
+    static final BigDecimal DEFAULT_WEIGHT_PRICE_MATCH = new BigDecimal("0.15");
+    static final BigDecimal DEFAULT_WEIGHT_FRESHNESS = new BigDecimal("0.10");
+    static final BigDecimal DEFAULT_WEIGHT_PREFERENCE = new BigDecimal("0.10");
+    static final BigDecimal DEFAULT_WEIGHT_PROJECT_AFFINITY = new BigDecimal("0.15");
+
+    static final BigDecimal DEFAULT_MIN_SCORE = new BigDecimal("0.6");
+    static final int DEFAULT_PARALLEL_MIN_CANDIDATES = 2000;
+    static final BigDecimal DEFAULT_GEO_FALLBACK_SCORE = new BigDecimal("0.5");
+
+    private static final List<String> DEFAULT_EXHIBITION_KEYWORDS = Arrays.asList("展台", "搭建", "会展", "展览", "布展", "展位", "展厅", "展馆", "巡展");
+    private static final List<String> DEFAULT_RENOVATION_KEYWORDS = Arrays.asList("装修", "改造", "翻新", "设计", "施工", "家装", "工装", "装潢", "软装", "硬装");
+    private static final List<String> DEFAULT_ENGINEERING_KEYWORDS = Arrays.asList("工程", "总包", "施工队", "钢结构", "机电", "土建", "建材", "脚手架", "设备租赁", "电气", "管道", "消防", "弱电", "暖通", "安装");
+    private static final List<String> DEFAULT_STYLE_KEYWORDS = Arrays.asList("现代", "科技", "工业", "中式", "欧式", "简约", "奢华", "北欧", "复古", "工业风", "极简", "科技感");
+    private static final List<String> DEFAULT_MATERIAL_KEYWORDS = Arrays.asList("钢结构", "桁架", "木材", "灯光", "音响", "LED", "玻璃", "铝合金", "地毯", "石材", "PVC", "喷绘", "舞台", "幕布", "地板", "龙骨", "设备");
+
+    // detect#ProjectType / extract#ProjectRequirements 使用的关键词，可由 keywords.detection 覆盖
+    private static final List<String> DEFAULT_DETECT_EXHIBITION_KEYWORDS = Arrays.asList("展台", "搭建", "会展", "展览", "布展", "展位", "展厅", "巡展", "展馆");
+    private static final List<String> DEFAULT_DETECT_RENOVATION_KEYWORDS = Arrays.asList("装修", "改造", "翻新", "设计", "施工", "家装", "工装", "装潢", "软装", "硬装", "办公室", "店面");
+    private static final List<String> DEFAULT_DETECT_ENGINEERING_KEYWORDS = Arrays.asList("工程", "总包", "施工队", "钢结构", "机电", "土建", "建材", "脚手架", "设备租赁", "电气", "管道", "消防", "弱电", "暖通", "工程师", "项目经理", "进场");
+    private static final List<String> DEFAULT_DETECT_STYLE_KEYWORDS = Arrays.asList("现代", "科技", "工业", "中式", "欧式", "简约", "奢华", "北欧", "复古", "工业风", "极简", "科技感", "艺术", "主题");
+    private static final List<String> DEFAULT_DETECT_MATERIAL_KEYWORDS = Arrays.asList("钢结构", "桁架", "木材", "灯光", "音响", "LED", "玻璃", "铝合金", "地毯", "石材", "PVC", "喷绘", "舞台", "幕布", "地板", "龙骨", "冷气", "空调", "电缆", "管道");
+
+    private static final Set<String> CASE_INSENSITIVE_KEYWORD_GROUPS = new HashSet<>(Arrays.asList(
+            SmartMatchingEngine.KEYWORDS_EXHIBITION, SmartMatchingEngine.KEYWORDS_RENOVATION,
+            SmartMatchingEngine.KEYWORDS_ENGINEERING, SmartMatchingEngine.KEYWORDS_DETECT_EXHIBITION,
+            SmartMatchingEngine.KEYWORDS_DETECT_RENOVATION, SmartMatchingEngine.KEYWORDS_DETECT_ENGINEERING));
+
+    private static final AtomicReference<MatchingConfig> current = new AtomicReference<>();
+    private static final AtomicBoolean reloading = new AtomicBoolean(false);
+    // 以下检查状态只由持有 reloading 的线程写入
+    private static volatile long nextCheckMillis = 0L;
+    private static volatile String checkedLocation;
+    private static volatile long checkedLastModified = Long.MIN_VALUE;
+
+    /** 配置内容的CRC32，内容不变则版本不变；无配置文件时为0 */
+    final long version;
+    final long loadedMillis;
+
+    final BigDecimal weightTagSimilarity;
+    final BigDecimal weightGeoProximity;
+    final BigDecimal weightPriceMatch;
+    final BigDecimal weightFreshness;
+    final BigDecimal weightPreference;
+    final BigDecimal weightProjectAffinity;
+
+    final BigDecimal defaultMinScore;
+    final BigDecimal geoFallbackScore;
+    /** 候选超出 配送范围×该系数 时直接跳过（近似），0表示只做不影响结果的精确剪枝 */
+    final double maxDistanceFactor;
+    /** 并行评分线程数，<=1 表示顺序评分 */
+    final int scoringParallelism;
+    /** 候选数达到该值时才启用并行评分 */
+    final int parallelMinCandidates;
+
+    final ProjectKeywordMatcher keywordMatcher;
+
+    private MatchingConfig(long version, Map<?, ?> config) {
+        this.version = version;
+        this.loadedMillis = System.currentTimeMillis();
+        Map<?, ?> weights = section(config, "weights");
+        weightTagSimilarity = toBigDecimal(weights.get("tagSimilarity"), DEFAULT_WEIGHT_TAG_SIMILARITY);
+        weightGeoProximity = toBigDecimal(weights.get("geoProximity"), DEFAULT_WEIGHT_GEO_PROXIMITY);
+        weightPriceMatch = toBigDecimal(weights.get("priceMatch"), DEFAULT_WEIGHT_PRICE_MATCH);
+        weightFreshness = toBigDecimal(weights.get("freshness"), DEFAULT_WEIGHT_FRESHNESS);
+        weightPreference = toBigDecimal(weights.get("preference"), DEFAULT_WEIGHT_PREFERENCE);
+        weightProjectAffinity = toBigDecimal(weights.get("projectAffinity"), DEFAULT_WEIGHT_PROJECT_AFFINITY);
+
+        Map<?, ?> thresholds = section(config, "thresholds");
+        defaultMinScore = toBigDecimal(thresholds.get("defaultMinScore"), DEFAULT_MIN_SCORE);
+        geoFallbackScore = toBigDecimal(thresholds.get("geoFallbackScore"), DEFAULT_GEO_FALLBACK_SCORE);
+        maxDistanceFactor = toBigDecimal(thresholds.get("maxDistanceFactor"), BigDecimal.ZERO).doubleValue();
+
+        Object parallelObj = config.get("parallel");
+        Map<?, ?> parallel = section(config, "parallel");
+        if (parallelObj instanceof Map && !Boolean.FALSE.equals(parallel.get("enabled"))) {
+            int configured = toBigDecimal(parallel.get("parallelism"), BigDecimal.ZERO).intValue();
+            // 0或未配置时按可用CPU数
+            scoringParallelism = configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+        } else {
+            scoringParallelism = 1;
+        }
+        parallelMinCandidates = toBigDecimal(parallel.get("minCandidates"),
+                BigDecimal.valueOf(DEFAULT_PARALLEL_MIN_CANDIDATES)).intValue();
+
+        Map<?, ?> keywords = section(config, "keywords");
+        Map<?, ?> detection = section(keywords, "detection");
+        LinkedHashMap<String, List<String>> groups = new LinkedHashMap<>();
+        groups.put(SmartMatchingEngine.KEYWORDS_EXHIBITION, toStringList(keywords.get("exhibition"), DEFAULT_EXHIBITION_KEYWORDS));
+        groups.put(SmartMatchingEngine.KEYWORDS_RENOVATION, toStringList(keywords.get("renovation"), DEFAULT_RENOVATION_KEYWORDS));
+        groups.put(SmartMatchingEngine.KEYWORDS_ENGINEERING, toStringList(keywords.get("engineering"), DEFAULT_ENGINEERING_KEYWORDS));
+        groups.put(SmartMatchingEngine.KEYWORDS_STYLE, toStringList(keywords.get("style"), DEFAULT_STYLE_KEYWORDS));
+        groups.put(SmartMatchingEngine.KEYWORDS_MATERIAL, toStringList(keywords.get("material"), DEFAULT_MATERIAL_KEYWORDS));
+        groups.put(SmartMatchingEngine.KEYWORDS_DETECT_EXHIBITION, toStringList(detection.get("exhibition"), DEFAULT_DETECT_EXHIBITION_KEYWORDS));
+        groups.put(SmartMatchingEngine.KEYWORDS_DETECT_RENOVATION, toStringList(detection.get("renovation"), DEFAULT_DETECT_RENOVATION_KEYWORDS));
+        groups.put(SmartMatchingEngine.KEYWORDS_DETECT_ENGINEERING, toStringList(detection.get("engineering"), DEFAULT_DETECT_ENGINEERING_KEYWORDS));
+        groups.put(SmartMatchingEngine.KEYWORDS_DETECT_STYLE, toStringList(detection.get("style"), DEFAULT_DETECT_STYLE_KEYWORDS));
+        groups.put(SmartMatchingEngine.KEYWORDS_DETECT_MATERIAL, toStringList(detection.get("material"), DEFAULT_DETECT_MATERIAL_KEYWORDS));
+        keywordMatcher = ProjectKeywordMatcher.compile(version, groups, CASE_INSENSITIVE_KEYWORD_GROUPS);
+    }
+
+    /**
+     * 当前配置快照。检查间隔内直接返回已发布的快照，不加锁
+     */
+    static MatchingConfig current(ExecutionContext ec) {
+        MatchingConfig snapshot = current.get();
+        if (snapshot != null && System.currentTimeMillis() < nextCheckMillis) return snapshot;
+        // 已有快照时只让一个线程检查，其余线程继续使用旧快照
+        if (!reloading.compareAndSet(false, true)) {
+            if (snapshot != null) return snapshot;
+            synchronized (reloading) {
+                snapshot = current.get();
+                if (snapshot != null) return snapshot;
+                return reload(ec, null);
+            }
+        }
+        try {
+            return reload(ec, snapshot);
+        } finally {
+            reloading.set(false);
+        }
+    }
+
+    /** 下次访问时重新检查配置资源 */
+    static void invalidate() {
+        nextCheckMillis = 0L;
+        checkedLastModified = Long.MIN_VALUE;
+    }
+
+    private static MatchingConfig reload(ExecutionContext ec, MatchingConfig snapshot) {
+        String location = resolveLocation();
+        try {
+            long lastModified = lastModified(ec, location);
+            if (snapshot != null && location.equals(checkedLocation) && lastModified > 0
+                    && lastModified == checkedLastModified) {
+                nextCheckMillis = System.currentTimeMillis() + CHECK_INTERVAL_MS;
+                return snapshot;
+            }
+
+            String configText = ec.getResource().getLocationText(location, false);
+            Map<?, ?> config = Collections.emptyMap();
+            long version = 0L;
+            if (configText != null && !configText.trim().isEmpty()) {
+                Object parsed = new JsonSlurper().parseText(configText);
+                if (parsed instanceof Map) {
+                    config = (Map<?, ?>) parsed;
+                    version = contentVersion(configText);
+                }
+            }
+
+            MatchingConfig result = snapshot;
+            if (snapshot == null || snapshot.version != version) {
+                result = new MatchingConfig(version, config);
+                current.set(result);
+                if (snapshot != null) ProjectProfileCache.invalidateAll();
+                logger.info("Loaded matching config from {} (version {})", location, version);
+            }
+            checkedLocation = location;
+            checkedLastModified = lastModified;
+            nextCheckMillis = System.currentTimeMillis() + CHECK_INTERVAL_MS;
+            return result;
+        } catch (Exception e) {
+            logger.warn("Unable to load matching config from {}: {}", location, e.getMessage());
+            nextCheckMillis = System.currentTimeMillis() + CHECK_INTERVAL_MS;
+            if (snapshot != null) return snapshot;
+            MatchingConfig defaults = new MatchingConfig(0L, Collections.emptyMap());
+            current.compareAndSet(null, defaults);
+            return current.get();
+        }
+    }
+
+    private static String resolveLocation() {
+        String location = System.getProperty(CONFIG_LOCATION_PROPERTY);
+        if (location == null || location.isEmpty()) {
+            String envKey = CONFIG_LOCATION_PROPERTY.toUpperCase().replace('.', '_');
+            location = System.getenv(envKey);
+        }
+        return location == null || location.isEmpty() ? CONFIG_DEFAULT_LOCATION : location;
+    }
+
+    /** 配置资源的修改时间，无法获取时返回0（每次检查都重新读取内容比较版本） */
+    private static long lastModified(ExecutionContext ec, String location) {
+        try {
+            return ec.getResource().getLocationReference(location).getLastModified();
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+
+    private static long contentVersion(String configText) {
+        CRC32 crc = new CRC32();
+        crc.update(configText.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private static Map<?, ?> section(Map<?, ?> config, String name) {
+        Object value = config.get(name);
+        return value instanceof Map ? (Map<?, ?>) value : Collections.emptyMap();
+    }
+
+    private static BigDecimal toBigDecimal(Object value, BigDecimal defaultValue) {
+        if (value == null) return defaultValue;
+        if (value instanceof BigDecimal) return (BigDecimal) value;
+        try {
+            return new BigDecimal(value.toString());
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+
+    private static List<String> toStringList(Object value, List<String> defaults) {
+        if (value instanceof Collection) {
+            List<String> result = new ArrayList<>();
+            for (Object obj : (Collection<?>) value) {
+                if (obj != null) {
+                    String str = obj.toString().trim();
+                    if (!str.isEmpty()) result.add(str);
+                }
+            }
+            if (!result.isEmpty()) return result;
+        }
+        return new ArrayList<>(defaults);
+    }
+}
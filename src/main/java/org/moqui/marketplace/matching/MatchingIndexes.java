@@ -0,0 +1,83 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityValue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 匹配与搜索用内存索引（标签、地理、全文）的统一维护入口
+ * Listing 创建、状态、位置、标题描述或标签变化、删除的服务调用 *OnCommit，事务提交后由 refresh#ListingIndexes
+ * 读取已提交的Listing记录一次再分发给各索引；其它请求不会看到未提交的Listing，回滚也不会在索引中留下残留。
+ */
+public final class MatchingIndexes {
+    static final String REFRESH_SERVICE = "marketplace.MatchingServices.refresh#ListingIndexes";
+
+    private MatchingIndexes() { }
+
+    /**
+     * 构建尚未加载的索引（首次匹配或搜索时调用）
+     */
+    public static void ensureLoaded(ExecutionContext ec) {
+        ListingTagIndex.ensureLoaded(ec);
+        ListingGeoIndex.ensureLoaded(ec);
+    }
+
+    /**
+     * Listing 新建或状态、位置、标题描述、标签变化后在服务事务中调用：事务提交后再刷新索引
+     */
+    public static void refreshListingOnCommit(ExecutionContext ec, String listingId) {
+        if (listingId == null) return;
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("listingIds", Collections.singletonList(listingId));
+        ec.getService().special().name(REFRESH_SERVICE).parameters(parameters).registerOnCommit();
+    }
+
+    /**
+     * 按已提交的Listing记录刷新索引（由 refresh#ListingIndexes 调用）：ACTIVE则更新索引，否则移出
+     */
+    public static void refreshListing(ExecutionContext ec, String listingId) {
+        if (listingId == null || (!ListingTagIndex.isLoaded() && !ListingGeoIndex.isLoaded()
+                && !ListingTextIndex.isLoaded())) return;
+        EntityValue listing = ec.getEntity().find("marketplace.listing.Listing")
+                .condition("listingId", listingId)
+                .selectField("status").selectField("geoPointId")
+                .selectField("title").selectField("description")
+                .selectField("listingType").selectField("category").selectField("subCategory")
+                .selectField("publisherId").selectField("priceMin").selectField("priceMax")
+                .one();
+        ListingTagIndex.refresh(ec, listingId, listing);
+        ListingGeoIndex.refresh(ec, listingId, listing);
+        ListingTextIndex.refresh(ec, listingId, listing);
+    }
+
+    /**
+     * Listing 删除或取消后在服务事务中调用：事务提交后再移出索引，回滚时Listing仍留在索引中
+     */
+    public static void removeListingOnCommit(ExecutionContext ec, String listingId) {
+        if (listingId == null) return;
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("removedListingIds", Collections.singletonList(listingId));
+        ec.getService().special().name(REFRESH_SERVICE).parameters(parameters).registerOnCommit();
+    }
+
+    /**
+     * 移出已删除的Listing（由 refresh#ListingIndexes 调用）
+     */
+    public static void removeListing(String listingId) {
+        ListingTagIndex.removeListing(listingId);
+        ListingGeoIndex.removeListing(listingId);
+        ListingTextIndex.removeListing(listingId);
+    }
+
+    /**
+     * 丢弃全部索引，下次使用时重新构建
+     */
+    public static void invalidateAll() {
+        ListingTagIndex.invalidateAll();
+        ListingGeoIndex.invalidateAll();
+        ListingTextIndex.invalidateAll();
+    }
+}
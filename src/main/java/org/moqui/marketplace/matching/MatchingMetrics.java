@@ -0,0 +1,272 @@
+package org.moqui.marketplace.matching;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 匹配热路径的进程内度量
+ * findMatchesForListing 每次调用记录各阶段耗时、扫描候选数、达到阈值的候选数与发出的实体查询数，
+ * 并按品类累计端到端耗时直方图（p50/p95/p99），供 get#MatchingMetrics 输出。
+ *
+ * 每次请求只有若干次 System.nanoTime 与 LongAdder 累加，直方图为固定桶的原子计数，常开即可。
+ */
+public final class MatchingMetrics {
+    /** 按品类分别统计的上限，超出后计入 OTHER，避免品类取值异常时无限增长 */
+    private static final int MAX_CATEGORIES = 64;
+    private static final String OTHER_CATEGORY = "OTHER";
+    private static final String NO_CATEGORY = "NONE";
+
+    public enum Phase {
+        /** 读取源Listing与候选列表 */
+        CANDIDATE_QUERY("candidateQuery"),
+        /** 内存索引加载、地理剪枝与LSH预筛选 */
+        PRUNING("pruning"),
+        /** 批量装载标签、坐标、用户画像、识别信息与持久化的项目画像 */
+        HYDRATION("hydration"),
+        /** 缓存未命中的项目画像提取 */
+        PROFILE_EXTRACTION("profileExtraction"),
+        /** 特征提取与候选评分 */
+        SCORING("scoring"),
+        /** 排序、截取Top-K并生成分项结果 */
+        SELECTION("selection");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final LongAdder[] phaseNanos = new LongAdder[PHASES.length];
+    private static final AtomicLong[] phaseMaxNanos = new AtomicLong[PHASES.length];
+    static {
+        for (int i = 0; i < PHASES.length; i++) {
+            phaseNanos[i] = new LongAdder();
+            phaseMaxNanos[i] = new AtomicLong();
+        }
+    }
+
+    private static final LongAdder requestCount = new LongAdder();
+    private static final LongAdder candidatesScanned = new LongAdder();
+    private static final LongAdder candidatesAboveThreshold = new LongAdder();
+    private static final LongAdder matchesReturned = new LongAdder();
+    private static final LongAdder entityQueries = new LongAdder();
+    private static final LatencyHistogram overallLatency = new LatencyHistogram();
+    private static final Map<String, LatencyHistogram> latencyByCategory = new ConcurrentHashMap<>();
+    private static volatile long sinceMillis = System.currentTimeMillis();
+
+    private MatchingMetrics() { }
+
+    /**
+     * 开始记录一次匹配请求
+     */
+    public static Trace start() {
+        return new Trace();
+    }
+
+    /**
+     * 单次匹配请求的度量，只在发起请求的线程内使用，finish 时汇总到全局计数
+     */
+    public static final class Trace {
+        private final long startNanos = System.nanoTime();
+        private final long[] nanos = new long[PHASES.length];
+        private int queries = 0;
+        private int scanned = 0;
+        private int aboveThreshold = 0;
+
+        private Trace() { }
+
+        /**
+         * 把 fromNanos 到当前的耗时计入指定阶段，返回当前时间作为下一阶段的起点
+         */
+        public long phase(Phase phase, long fromNanos) {
+            long now = System.nanoTime();
+            nanos[phase.ordinal()] += now - fromNanos;
+            return now;
+        }
+
+        public void addQueries(int count) {
+            queries += count;
+        }
+
+        /** 参与评分的候选数（剪枝后） */
+        public void setScanned(int count) {
+            scanned = count;
+        }
+
+        /** 分数达到 minScore 的候选数 */
+        public void setAboveThreshold(int count) {
+            aboveThreshold = count;
+        }
+
+        /**
+         * 结束请求并汇总
+         *
+         * @param category 源Listing品类，决定计入哪个延迟直方图
+         * @param returned 实际返回的匹配数
+         */
+        public void finish(String category, int returned) {
+            long totalNanos = System.nanoTime() - startNanos;
+            for (int i = 0; i < nanos.length; i++) {
+                if (nanos[i] == 0L) continue;
+                phaseNanos[i].add(nanos[i]);
+                phaseMaxNanos[i].accumulateAndGet(nanos[i], Math::max);
+            }
+            requestCount.increment();
+            candidatesScanned.add(scanned);
+            candidatesAboveThreshold.add(aboveThreshold);
+            matchesReturned.add(returned);
+            entityQueries.add(queries);
+
+            long micros = totalNanos / 1000L;
+            overallLatency.record(micros);
+            categoryHistogram(category).record(micros);
+        }
+    }
+
+    private static LatencyHistogram categoryHistogram(String category) {
+        String key = category != null && !category.isEmpty() ? category : NO_CATEGORY;
+        LatencyHistogram histogram = latencyByCategory.get(key);
+        if (histogram != null) return histogram;
+        if (latencyByCategory.size() >= MAX_CATEGORIES) key = OTHER_CATEGORY;
+        return latencyByCategory.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+
+    /** 进程内累计度量（自启动或上次 reset 以来），耗时单位为毫秒 */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long requests = requestCount.sum();
+        stats.put("sinceMillis", sinceMillis);
+        stats.put("requests", requests);
+        stats.put("candidatesScanned", candidatesScanned.sum());
+        stats.put("candidatesAboveThreshold", candidatesAboveThreshold.sum());
+        stats.put("matchesReturned", matchesReturned.sum());
+        stats.put("entityQueries", entityQueries.sum());
+        stats.put("avgEntityQueries", requests > 0 ? (double) entityQueries.sum() / requests : 0.0);
+
+        Map<String, Object> phases = new LinkedHashMap<>();
+        for (Phase phase : PHASES) {
+            long total = phaseNanos[phase.ordinal()].sum();
+            Map<String, Object> phaseStats = new LinkedHashMap<>();
+            phaseStats.put("totalMillis", nanosToMillis(total));
+            phaseStats.put("avgMillis", requests > 0 ? nanosToMillis(total / requests) : 0.0);
+            phaseStats.put("maxMillis", nanosToMillis(phaseMaxNanos[phase.ordinal()].get()));
+            phases.put(phase.getKey(), phaseStats);
+        }
+        stats.put("phases", phases);
+
+        stats.put("latency", overallLatency.summary());
+        Map<String, Object> byCategory = new LinkedHashMap<>();
+        latencyByCategory.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> byCategory.put(entry.getKey(), entry.getValue().summary()));
+        stats.put("latencyByCategory", byCategory);
+        return stats;
+    }
+
+    /**
+     * 清零全部度量（与正在结束的请求并发时，该请求可能部分计入清零前）
+     */
+    public static void reset() {
+        for (int i = 0; i < PHASES.length; i++) {
+            phaseNanos[i].reset();
+            phaseMaxNanos[i].set(0L);
+        }
+        requestCount.reset();
+        candidatesScanned.reset();
+        candidatesAboveThreshold.reset();
+        matchesReturned.reset();
+        entityQueries.reset();
+        overallLatency.reset();
+        latencyByCategory.clear();
+        sinceMillis = System.currentTimeMillis();
+    }
+
+    private static double nanosToMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    /**
+     * 对数分桶的延迟直方图（微秒）
+     * 每个2的幂区间再均分为 SUB_BUCKETS 个子桶，相对误差不超过 1/SUB_BUCKETS；
+     * 桶计数为原子累加，记录无锁，分位数取所在桶的上界。
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        /** 0..SUB_BUCKETS-1 微秒单独成桶，其后每个2的幂区间 SUB_BUCKETS 个桶，覆盖到 2^40 微秒 */
+        private static final int MAX_MAGNITUDE = 40;
+        private static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            long value = Math.max(0L, micros);
+            counts.incrementAndGet(bucketIndex(value));
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            if (magnitude > MAX_MAGNITUDE) return BUCKET_COUNT - 1;
+            int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /** 桶内最大值 */
+        static long bucketUpperBound(int index) {
+            if (index < SUB_BUCKETS) return index;
+            int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            int subBucket = index % SUB_BUCKETS;
+            long base = (1L << magnitude) + ((long) subBucket << (magnitude - SUB_BUCKET_BITS));
+            return base + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+        }
+
+        /** 分位数（微秒），无记录时返回0 */
+        long percentile(double quantile) {
+            long total = count.sum();
+            if (total == 0L) return 0L;
+            long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+            long seen = 0L;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(bucketUpperBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        Map<String, Object> summary() {
+            long total = count.sum();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", total);
+            summary.put("avgMillis", total > 0 ? Math.round((double) sum.sum() / total) / 1000.0 : 0.0);
+            summary.put("p50Millis", percentile(0.50) / 1000.0);
+            summary.put("p95Millis", percentile(0.95) / 1000.0);
+            summary.put("p99Millis", percentile(0.99) / 1000.0);
+            summary.put("maxMillis", max.get() / 1000.0);
+            return summary;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) counts.set(i, 0L);
+            count.reset();
+            sum.reset();
+            max.set(0L);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.marketplace.tag.AhoCorasickAutomaton;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 项目关键词多模式匹配（Aho-Corasick）
+ * 把全部关键词分组（项目类型、风格、材料等）编译为一个自动机（与标签词典共用 AhoCorasickAutomaton），对文本扫描一遍即得到每组命中的关键词，
+ * 取代逐个关键词 String.contains。按配置版本编译一次后只读，可被多个线程共享。
+ *
+ * 命中语义与原逐词判断一致：
+ * 不区分大小写的分组 —— 原文包含关键词，或小写文本包含小写关键词；
+ * 区分大小写的分组 —— 原文包含关键词。
+ */
+public final class ProjectKeywordMatcher {
+
+    /** 面积、预算、工期、地点、中文词元的预编译正则，与原内联表达式相同 */
+    public static final Pattern AREA_PATTERN = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(平米|平方米|㎡|m2|平方)");
+    public static final Pattern BUDGET_PATTERN = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(万|万元|千|k|元|人民币|rmb)");
+    public static final Pattern DURATION_PATTERN = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(天|日|周|月|年)");
+    public static final Pattern LOCATION_PATTERN = Pattern.compile("(?:在|位于|地址|地点|于)([\\p{IsHan}]{2,9})(?:省|市|区|县|镇|馆|中心|展馆|工地)");
+    public static final Pattern HAN_TOKEN_PATTERN = Pattern.compile("\\p{IsHan}+");
+
+    private final long configVersion;
+    private final Map<String, Integer> groupIndexes = new HashMap<>();
+    /** 每组的关键词（保持配置顺序，重复项各自计数） */
+    private final String[][] groupKeywords;
+    /** 每组关键词在原文中对应的模式ID */
+    private final int[][] rawPatternIds;
+    /** 不区分大小写的分组中每个关键词小写形式的模式ID，区分大小写的分组为null */
+    private final int[][] lowerPatternIds;
+
+    /** 输出为模式ID的自动机 */
+    private final AhoCorasickAutomaton automaton;
+    private final int patternCount;
+
+    private ProjectKeywordMatcher(long configVersion, LinkedHashMap<String, List<String>> groups,
+                                  Set<String> caseInsensitiveGroups) {
+        this.configVersion = configVersion;
+        int groupCount = groups.size();
+        this.groupKeywords = new String[groupCount][];
+        this.rawPatternIds = new int[groupCount][];
+        this.lowerPatternIds = new int[groupCount][];
+
+        Map<String, Integer> patternIds = new LinkedHashMap<>();
+        int groupIndex = 0;
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+            groupIndexes.put(group.getKey(), groupIndex);
+            List<String> keywords = new ArrayList<>();
+            for (String keyword : group.getValue()) {
+                if (keyword != null && !keyword.isEmpty()) keywords.add(keyword);
+            }
+            boolean caseInsensitive = caseInsensitiveGroups.contains(group.getKey());
+            groupKeywords[groupIndex] = keywords.toArray(new String[0]);
+            rawPatternIds[groupIndex] = new int[keywords.size()];
+            lowerPatternIds[groupIndex] = caseInsensitive ? new int[keywords.size()] : null;
+            for (int k = 0; k < keywords.size(); k++) {
+                String keyword = keywords.get(k);
+                rawPatternIds[groupIndex][k] = patternIds.computeIfAbsent(keyword, p -> patternIds.size());
+                if (caseInsensitive) {
+                    String lower = keyword.toLowerCase();
+                    lowerPatternIds[groupIndex][k] = patternIds.computeIfAbsent(lower, p -> patternIds.size());
+                }
+            }
+            groupIndex++;
+        }
+        this.patternCount = patternIds.size();
+        AhoCorasickAutomaton.Builder builder = AhoCorasickAutomaton.builder();
+        for (Map.Entry<String, Integer> pattern : patternIds.entrySet()) builder.add(pattern.getKey(), pattern.getValue());
+        this.automaton = builder.build();
+    }
+
+    /**
+     * 编译关键词分组
+     *
+     * @param groups                分组名 → 关键词列表（保持顺序）
+     * @param caseInsensitiveGroups 不区分大小写的分组名
+     */
+    public static ProjectKeywordMatcher compile(long configVersion, LinkedHashMap<String, List<String>> groups,
+                                                Set<String> caseInsensitiveGroups) {
+        return new ProjectKeywordMatcher(configVersion, groups, caseInsensitiveGroups);
+    }
+
+    public long getConfigVersion() {
+        return configVersion;
+    }
+
+    /**
+     * 扫描文本，返回各分组的命中结果。文本小写后与原文不同时，对小写文本再扫描一遍
+     */
+    public Hits scan(String text) {
+        BitSet rawHits = new BitSet(patternCount);
+        BitSet lowerHits = rawHits;
+        if (text != null && !text.isEmpty()) {
+            automaton.scan(text, false, rawHits);
+            String lower = text.toLowerCase();
+            if (!lower.equals(text)) {
+                lowerHits = new BitSet(patternCount);
+                automaton.scan(lower, false, lowerHits);
+            }
+        }
+        return new Hits(rawHits, lowerHits);
+    }
+
+    /** 文本中的全部连续中文片段（按出现顺序，含重复） */
+    public static List<String> hanTokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+        Matcher matcher = HAN_TOKEN_PATTERN.matcher(text);
+        while (matcher.find()) tokens.add(matcher.group());
+        return tokens;
+    }
+
+    /**
+     * 一次扫描的命中结果
+     */
+    public final class Hits {
+        private final BitSet rawHits;
+        private final BitSet lowerHits;
+
+        private Hits(BitSet rawHits, BitSet lowerHits) {
+            this.rawHits = rawHits;
+            this.lowerHits = lowerHits;
+        }
+
+        private boolean hit(int groupIndex, int keywordIndex) {
+            if (rawHits.get(rawPatternIds[groupIndex][keywordIndex])) return true;
+            int[] lowerIds = lowerPatternIds[groupIndex];
+            return lowerIds != null && lowerHits.get(lowerIds[keywordIndex]);
+        }
+
+        /** 分组中命中的关键词个数（未知分组返回0） */
+        public int count(String group) {
+            Integer groupIndex = groupIndexes.get(group);
+            if (groupIndex == null) return 0;
+            int count = 0;
+            for (int k = 0; k < groupKeywords[groupIndex].length; k++) {
+                if (hit(groupIndex, k)) count++;
+            }
+            return count;
+        }
+
+        /** 分组中命中的关键词（按配置顺序） */
+        public List<String> matched(String group) {
+            Integer groupIndex = groupIndexes.get(group);
+            if (groupIndex == null) return new ArrayList<>();
+            List<String> matched = new ArrayList<>();
+            for (int k = 0; k < groupKeywords[groupIndex].length; k++) {
+                if (hit(groupIndex, k)) matched.add(groupKeywords[groupIndex][k]);
+            }
+            return matched;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.moqui.marketplace.matching;
+
+import java.util.*;
+
+/**
+ * 从Listing文本与识别信息中提取的项目画像
+ */
+class ProjectProfile {
+    String projectType = "NONE";
+    Double areaSquare;
+    Double budgetAmount;
+    Double durationDays;
+    String locationHint;
+    Set<String> styleTags = new HashSet<>();
+    Set<String> materialTags = new HashSet<>();
+    Set<String> keywords = new HashSet<>();
+    /** 仅在提取阶段使用的原始识别元数据，不参与缓存与持久化 */
+    Map<String, Object> metadata = new HashMap<>();
+
+    boolean isProject() {
+        return projectType != null && !"NONE".equals(projectType) && !"NOT_PROJECT".equals(projectType);
+    }
+
+    /**
+     * 不含metadata的副本，供缓存共享；调用方手中的画像（含metadata）保持不变
+     */
+    ProjectProfile withoutMetadata() {
+        ProjectProfile copy = new ProjectProfile();
+        copy.projectType = projectType;
+        copy.areaSquare = areaSquare;
+        copy.budgetAmount = budgetAmount;
+        copy.durationDays = durationDays;
+        copy.locationHint = locationHint;
+        copy.styleTags = new HashSet<>(styleTags);
+        copy.materialTags = new HashSet<>(materialTags);
+        copy.keywords = new HashSet<>(keywords);
+        copy.metadata = Collections.emptyMap();
+        return copy;
+    }
+
+    /**
+     * 转换为可持久化的紧凑Map（不含metadata）
+     */
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("projectType", projectType);
+        if (areaSquare != null) map.put("areaSquare", areaSquare);
+        if (budgetAmount != null) map.put("budgetAmount", budgetAmount);
+        if (durationDays != null) map.put("durationDays", durationDays);
+        if (locationHint != null) map.put("locationHint", locationHint);
+        if (!styleTags.isEmpty()) map.put("styleTags", new ArrayList<>(styleTags));
+        if (!materialTags.isEmpty()) map.put("materialTags", new ArrayList<>(materialTags));
+        if (!keywords.isEmpty()) map.put("keywords", new ArrayList<>(keywords));
+        return map;
+    }
+
+    static ProjectProfile fromMap(Map<?, ?> map) {
+        ProjectProfile profile = new ProjectProfile();
+        if (map == null) return profile;
+        Object projectType = map.get("projectType");
+        if (projectType != null) profile.projectType = projectType.toString();
+        profile.areaSquare = toDouble(map.get("areaSquare"));
+        profile.budgetAmount = toDouble(map.get("budgetAmount"));
+        profile.durationDays = toDouble(map.get("durationDays"));
+        Object locationHint = map.get("locationHint");
+        if (locationHint != null) profile.locationHint = locationHint.toString();
+        addAll(profile.styleTags, map.get("styleTags"));
+        addAll(profile.materialTags, map.get("materialTags"));
+        addAll(profile.keywords, map.get("keywords"));
+        return profile;
+    }
+
+    private static Double toDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : null;
+    }
+
+    private static void addAll(Set<String> target, Object value) {
+        if (!(value instanceof Collection)) return;
+        for (Object item : (Collection<?>) value) {
+            if (item != null) target.add(item.toString());
+        }
+    }
+}
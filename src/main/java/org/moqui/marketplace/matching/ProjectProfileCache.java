@@ -0,0 +1,220 @@
+package org.moqui.marketplace.matching;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 项目画像缓存
+ * 以 listingId + lastUpdatedStamp + 匹配配置版本 为键缓存提取结果，未变化的Listing不再重复解析文本与元数据。
+ * 进程内缓存始终启用，条目数达到上限时按最近访问淘汰最久未用的一段；设置 marketplace.matching.profile.persist=true 后
+ * 新提取的画像在事务提交后批量写入 ListingProfileCache 实体，重启后可直接复用。缓存中的画像对象视为只读。
+ */
+public final class ProjectProfileCache {
+    private static final Logger logger = LoggerFactory.getLogger(ProjectProfileCache.class);
+
+    static final String CACHE_ENTITY = "marketplace.listing.ListingProfileCache";
+    private static final String PERSIST_PROPERTY = "marketplace.matching.profile.persist";
+    private static final int MAX_ENTRIES = 50000;
+    /** 每次淘汰的条目数（上限的十分之一），避免一次清空导致所有Listing同时重新提取 */
+    private static final int EVICT_ENTRIES = MAX_ENTRIES / 10;
+    private static final int IN_CHUNK_SIZE = 1000;
+
+    private static final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final AtomicLong accessClock = new AtomicLong();
+    private static final Object evictLock = new Object();
+
+    private ProjectProfileCache() { }
+
+    private static final class Entry {
+        final long listingStamp;
+        final long configVersion;
+        final ProjectProfile profile;
+        volatile long lastAccess;
+
+        Entry(long listingStamp, long configVersion, ProjectProfile profile) {
+            this.listingStamp = listingStamp;
+            this.configVersion = configVersion;
+            this.profile = profile;
+            this.lastAccess = accessClock.incrementAndGet();
+        }
+    }
+
+    static long listingStamp(EntityValue listing) {
+        Timestamp stamp = listing.getTimestamp("lastUpdatedStamp");
+        return stamp != null ? stamp.getTime() : -1L;
+    }
+
+    static ProjectProfile get(EntityValue listing, long configVersion) {
+        String listingId = listing.getString("listingId");
+        if (listingId == null) return null;
+        Entry entry = entries.get(listingId);
+        if (entry == null) return null;
+        if (entry.configVersion != configVersion || entry.listingStamp != listingStamp(listing)) {
+            entries.remove(listingId, entry);
+            return null;
+        }
+        entry.lastAccess = accessClock.incrementAndGet();
+        return entry.profile;
+    }
+
+    /**
+     * 缓存画像的副本（去掉metadata），传入的画像对象不受影响
+     */
+    static void put(EntityValue listing, long configVersion, ProjectProfile profile) {
+        String listingId = listing.getString("listingId");
+        if (listingId == null || profile == null) return;
+        if (entries.size() >= MAX_ENTRIES) evictLeastRecentlyUsed();
+        entries.put(listingId, new Entry(listingStamp(listing), configVersion, profile.withoutMetadata()));
+    }
+
+    /**
+     * 淘汰最久未访问的 EVICT_ENTRIES 条；并发写入时只有一个线程执行淘汰
+     */
+    private static void evictLeastRecentlyUsed() {
+        synchronized (evictLock) {
+            if (entries.size() < MAX_ENTRIES) return;
+            long[] accesses = new long[entries.size()];
+            int count = 0;
+            for (Entry entry : entries.values()) {
+                if (count == accesses.length) break;
+                accesses[count++] = entry.lastAccess;
+            }
+            Arrays.sort(accesses, 0, count);
+            long threshold = accesses[Math.min(EVICT_ENTRIES, count) - 1];
+            entries.values().removeIf(entry -> entry.lastAccess <= threshold);
+            logger.info("Project profile cache reached {} entries, evicted least recently used down to {}", MAX_ENTRIES, entries.size());
+        }
+    }
+
+    static boolean isPersistenceEnabled() {
+        return "true".equalsIgnoreCase(System.getProperty(PERSIST_PROPERTY));
+    }
+
+    /**
+     * 一次IN查询读取持久化画像，仅返回与当前Listing版本和配置版本一致的记录，并回填进程内缓存
+     */
+    static Map<String, ProjectProfile> loadPersisted(ExecutionContext ec, List<EntityValue> listings, long configVersion) {
+        Map<String, ProjectProfile> result = new HashMap<>();
+        if (listings.isEmpty()) return result;
+        Map<String, EntityValue> listingById = new HashMap<>();
+        for (EntityValue listing : listings) listingById.put(listing.getString("listingId"), listing);
+        try {
+            List<EntityValue> rows = ec.getEntity().find(CACHE_ENTITY)
+                    .condition("listingId", EntityCondition.IN, new ArrayList<>(listingById.keySet()))
+                    .condition("configVersion", configVersion)
+                    .list();
+            for (EntityValue row : rows) {
+                EntityValue listing = listingById.get(row.getString("listingId"));
+                Long rowStamp = row.getLong("listingStamp");
+                if (listing == null || rowStamp == null || rowStamp != listingStamp(listing)) continue;
+                Object parsed = new JsonSlurper().parseText(row.getString("profileJson"));
+                if (!(parsed instanceof Map)) continue;
+                ProjectProfile profile = ProjectProfile.fromMap((Map<?, ?>) parsed);
+                result.put(listing.getString("listingId"), profile);
+                put(listing, configVersion, profile);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to load persisted project profiles: {}", e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 事务提交后由 store#ListingProfiles 批量写入新提取的画像，评分路径上不逐条写库；回滚时不写入
+     */
+    static void persist(ExecutionContext ec, List<EntityValue> listings, Map<String, ProjectProfile> profiles, long configVersion) {
+        List<Map<String, Object>> rows = new ArrayList<>(listings.size());
+        for (EntityValue listing : listings) {
+            String listingId = listing.getString("listingId");
+            ProjectProfile profile = profiles.get(listingId);
+            if (listingId == null || profile == null) continue;
+            Map<String, Object> row = new HashMap<>();
+            row.put("listingId", listingId);
+            row.put("listingStamp", listingStamp(listing));
+            row.put("configVersion", configVersion);
+            row.put("profileJson", JsonOutput.toJson(profile.toMap()));
+            rows.add(row);
+        }
+        if (rows.isEmpty()) return;
+        try {
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("profiles", rows);
+            ec.getService().special().name("marketplace.MatchingServices.store#ListingProfiles")
+                    .parameters(parameters).registerOnCommit();
+        } catch (Exception e) {
+            logger.warn("Unable to schedule persisting {} project profiles: {}", rows.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 批量写入画像：按 listingId 分块删除旧记录后一次批量插入，替代逐条 createOrUpdate
+     */
+    public static void storePersisted(ExecutionContext ec, List<Map<String, Object>> rows) {
+        if (rows == null || rows.isEmpty()) return;
+        Map<String, Map<String, Object>> rowById = new LinkedHashMap<>();
+        for (Map<String, Object> row : rows) {
+            Object listingId = row.get("listingId");
+            if (listingId != null) rowById.put(listingId.toString(), row);
+        }
+        List<String> listingIds = new ArrayList<>(rowById.keySet());
+        Timestamp nowTs = ec.getUser().getNowTimestamp();
+        try {
+            for (int start = 0; start < listingIds.size(); start += IN_CHUNK_SIZE) {
+                ec.getEntity().find(CACHE_ENTITY)
+                        .condition("listingId", EntityCondition.IN, listingIds.subList(start, Math.min(start + IN_CHUNK_SIZE, listingIds.size())))
+                        .deleteAll();
+            }
+            List<EntityValue> values = new ArrayList<>(rowById.size());
+            for (Map<String, Object> row : rowById.values()) {
+                EntityValue value = ec.getEntity().makeValue(CACHE_ENTITY);
+                value.set("listingId", row.get("listingId"));
+                value.set("listingStamp", row.get("listingStamp"));
+                value.set("configVersion", row.get("configVersion"));
+                value.set("profileJson", row.get("profileJson"));
+                value.set("createdDate", nowTs);
+                values.add(value);
+            }
+            ec.getEntity().createBulk(values);
+        } catch (Exception e) {
+            // 并发写入同一Listing时可能主键冲突，画像缓存可丢弃，下次未命中时重新提取
+            logger.warn("Unable to persist {} project profiles: {}", rowById.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 使单个Listing的画像失效（Listing更新、识别信息变化时调用）
+     */
+    public static void invalidate(ExecutionContext ec, String listingId) {
+        if (listingId == null) return;
+        entries.remove(listingId);
+        if (ec != null && isPersistenceEnabled()) {
+            try {
+                EntityValue row = ec.getEntity().find(CACHE_ENTITY).condition("listingId", listingId).one();
+                if (row != null) row.delete();
+            } catch (Exception e) {
+                logger.warn("Unable to delete persisted project profile for {}: {}", listingId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 清空进程内缓存（匹配配置重载时调用）；持久化记录按配置版本区分，无需删除
+     */
+    public static void invalidateAll() {
+        entries.clear();
+    }
+
+    public static int size() {
+        return entries.size();
+    }
+}
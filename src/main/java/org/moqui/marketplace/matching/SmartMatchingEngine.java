@@ -12,8 +12,6 @@ import groovy.json.JsonSlurper;
 
 import java.util.*;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * 智能匹配引擎
@@ -24,173 +22,76 @@ public class SmartMatchingEngine {
 
     private final ExecutionContext ec;
 
-    // 默认权重配置
-    private static final BigDecimal DEFAULT_WEIGHT_TAG_SIMILARITY = new BigDecimal("0.30");
-    private static final BigDecimal DEFAULT_WEIGHT_GEO_PROXIMITY = new BigDecimal("0.20");
-    private static final BigDecimal DEFAULT_WEIGHT_PRICE_MATCH = new BigDecimal("0.15");
-    private static final BigDecimal DEFAULT_WEIGHT_FRESHNESS = new BigDecimal("0.10");
-    private static final BigDecimal DEFAULT_WEIGHT_PREFERENCE = new BigDecimal("0.10");
-    private static final BigDecimal DEFAULT_WEIGHT_PROJECT_AFFINITY = new BigDecimal("0.15");
-
-    private static final BigDecimal DEFAULT_MIN_SCORE = new BigDecimal("0.6");
-    private static final BigDecimal DEFAULT_GEO_FALLBACK_SCORE = new BigDecimal("0.5");
-
-    private static final String MATCHING_CONFIG_PROPERTY = "marketplace.matching.config.location";
-    private static final String MATCHING_CONFIG_DEFAULT_LOCATION = "component://moqui-marketplace/config/matching-config.json";
-    private static final long CONFIG_CACHE_TTL_MS = 5 * 60 * 1000L;
-    private static final Object CONFIG_LOCK = new Object();
-    private static Map<String, Object> cachedConfig;
-    private static long configLoadedTs = 0L;
-
-    private static final List<String> DEFAULT_EXHIBITION_KEYWORDS = Arrays.asList("展台", "搭建", "会展", "展览", "布展", "展位", "展厅", "展馆", "巡展");
-    private static final List<String> DEFAULT_RENOVATION_KEYWORDS = Arrays.asList("装修", "改造", "翻新", "设计", "施工", "家装", "工装", "装潢", "软装", "硬装");
-    private static final List<String> DEFAULT_ENGINEERING_KEYWORDS = Arrays.asList("工程", "总包", "施工队", "钢结构", "机电", "土建", "建材", "脚手架", "设备租赁", "电气", "管道", "消防", "弱电", "暖通", "安装");
-    private static final List<String> DEFAULT_STYLE_KEYWORDS = Arrays.asList("现代", "科技", "工业", "中式", "欧式", "简约", "奢华", "北欧", "复古", "工业风", "极简", "科技感");
-    private static final List<String> DEFAULT_MATERIAL_KEYWORDS = Arrays.asList("钢结构", "桁架", "木材", "灯光", "音响", "LED", "玻璃", "铝合金", "地毯", "石材", "PVC", "喷绘", "舞台", "幕布", "地板", "龙骨", "设备");
-
-    private BigDecimal weightTagSimilarity = DEFAULT_WEIGHT_TAG_SIMILARITY;
-    private BigDecimal weightGeoProximity = DEFAULT_WEIGHT_GEO_PROXIMITY;
-    private BigDecimal weightPriceMatch = DEFAULT_WEIGHT_PRICE_MATCH;
-    private BigDecimal weightFreshness = DEFAULT_WEIGHT_FRESHNESS;
-    private BigDecimal weightPreference = DEFAULT_WEIGHT_PREFERENCE;
-    private BigDecimal weightProjectAffinity = DEFAULT_WEIGHT_PROJECT_AFFINITY;
-    private BigDecimal geoFallbackScore = DEFAULT_GEO_FALLBACK_SCORE;
-
-    private List<String> exhibitionKeywords = new ArrayList<>(DEFAULT_EXHIBITION_KEYWORDS);
-    private List<String> renovationKeywords = new ArrayList<>(DEFAULT_RENOVATION_KEYWORDS);
-    private List<String> engineeringKeywords = new ArrayList<>(DEFAULT_ENGINEERING_KEYWORDS);
-    private List<String> styleKeywords = new ArrayList<>(DEFAULT_STYLE_KEYWORDS);
-    private List<String> materialKeywords = new ArrayList<>(DEFAULT_MATERIAL_KEYWORDS);
+    /** 关键词分组名（ProjectKeywordMatcher） */
+    public static final String KEYWORDS_EXHIBITION = "exhibition";
+    public static final String KEYWORDS_RENOVATION = "renovation";
+    public static final String KEYWORDS_ENGINEERING = "engineering";
+    public static final String KEYWORDS_STYLE = "style";
+    public static final String KEYWORDS_MATERIAL = "material";
+    public static final String KEYWORDS_DETECT_EXHIBITION = "detection.exhibition";
+    public static final String KEYWORDS_DETECT_RENOVATION = "detection.renovation";
+    public static final String KEYWORDS_DETECT_ENGINEERING = "detection.engineering";
+    public static final String KEYWORDS_DETECT_STYLE = "detection.style";
+    public static final String KEYWORDS_DETECT_MATERIAL = "detection.material";
+
+    // 以下取自构造时的配置快照，同一引擎实例内保持一致
+    private final BigDecimal weightTagSimilarity;
+    private final BigDecimal weightGeoProximity;
+    private final BigDecimal weightPriceMatch;
+    private final BigDecimal weightFreshness;
+    private final BigDecimal weightPreference;
+    private final BigDecimal weightProjectAffinity;
+    private final BigDecimal geoFallbackScore;
+    /** 候选超出 配送范围×该系数 时直接跳过（近似），0表示只做不影响结果的精确剪枝 */
+    private final double maxDistanceFactor;
+    /** 并行评分线程数，<=1 表示顺序评分 */
+    private final int scoringParallelism;
+    /** 候选数达到该值时才启用并行评分 */
+    private final int parallelMinCandidates;
+    private final ProjectKeywordMatcher keywordMatcher;
+    private final long configVersion;
 
     public SmartMatchingEngine(ExecutionContext ec) {
         this.ec = ec;
-        loadRuntimeConfig();
+        MatchingConfig config = MatchingConfig.current(ec);
+        weightTagSimilarity = config.weightTagSimilarity;
+        weightGeoProximity = config.weightGeoProximity;
+        weightPriceMatch = config.weightPriceMatch;
+        weightFreshness = config.weightFreshness;
+        weightPreference = config.weightPreference;
+        weightProjectAffinity = config.weightProjectAffinity;
+        geoFallbackScore = config.geoFallbackScore;
+        maxDistanceFactor = config.maxDistanceFactor;
+        scoringParallelism = config.scoringParallelism;
+        parallelMinCandidates = config.parallelMinCandidates;
+        keywordMatcher = config.keywordMatcher;
+        configVersion = config.version;
     }
 
+    /**
+     * 下次访问时重新读取匹配配置，并清除项目画像缓存
+     */
     public static void clearCachedConfig() {
-        synchronized (CONFIG_LOCK) {
-            cachedConfig = null;
-            configLoadedTs = 0L;
-        }
-    }
-
-    public static BigDecimal getConfiguredDefaultMinScore(ExecutionContext ec) {
-        Map<String, Object> config = getMatchingConfig(ec);
-        if (config != null) {
-            Object thresholdsObj = config.get("thresholds");
-            if (thresholdsObj instanceof Map) {
-                Object value = ((Map<?, ?>) thresholdsObj).get("defaultMinScore");
-                BigDecimal parsed = toBigDecimal(value, null);
-                if (parsed != null) return parsed;
-            }
-        }
-        return DEFAULT_MIN_SCORE;
-    }
-
-    private void loadRuntimeConfig() {
-        resetToDefaults();
-        Map<String, Object> config = getMatchingConfig(ec);
-        if (config == null) return;
-
-        Object weightsObj = config.get("weights");
-        if (weightsObj instanceof Map) {
-            Map<?, ?> weights = (Map<?, ?>) weightsObj;
-            weightTagSimilarity = toBigDecimal(weights.get("tagSimilarity"), DEFAULT_WEIGHT_TAG_SIMILARITY);
-            weightGeoProximity = toBigDecimal(weights.get("geoProximity"), DEFAULT_WEIGHT_GEO_PROXIMITY);
-            weightPriceMatch = toBigDecimal(weights.get("priceMatch"), DEFAULT_WEIGHT_PRICE_MATCH);
-            weightFreshness = toBigDecimal(weights.get("freshness"), DEFAULT_WEIGHT_FRESHNESS);
-            weightPreference = toBigDecimal(weights.get("preference"), DEFAULT_WEIGHT_PREFERENCE);
-            weightProjectAffinity = toBigDecimal(weights.get("projectAffinity"), DEFAULT_WEIGHT_PROJECT_AFFINITY);
-        }
-
-        Object thresholdsObj = config.get("thresholds");
-        if (thresholdsObj instanceof Map) {
-            Map<?, ?> thresholds = (Map<?, ?>) thresholdsObj;
-            geoFallbackScore = toBigDecimal(thresholds.get("geoFallbackScore"), DEFAULT_GEO_FALLBACK_SCORE);
-        }
-
-        Object keywordsObj = config.get("keywords");
-        if (keywordsObj instanceof Map) {
-            Map<?, ?> keywords = (Map<?, ?>) keywordsObj;
-            exhibitionKeywords = toStringList(keywords.get("exhibition"), DEFAULT_EXHIBITION_KEYWORDS);
-            renovationKeywords = toStringList(keywords.get("renovation"), DEFAULT_RENOVATION_KEYWORDS);
-            engineeringKeywords = toStringList(keywords.get("engineering"), DEFAULT_ENGINEERING_KEYWORDS);
-            styleKeywords = toStringList(keywords.get("style"), DEFAULT_STYLE_KEYWORDS);
-            materialKeywords = toStringList(keywords.get("material"), DEFAULT_MATERIAL_KEYWORDS);
-        }
+        MatchingConfig.invalidate();
+        ProjectProfileCache.invalidateAll();
     }
 
-    private void resetToDefaults() {
-        weightTagSimilarity = DEFAULT_WEIGHT_TAG_SIMILARITY;
-        weightGeoProximity = DEFAULT_WEIGHT_GEO_PROXIMITY;
-        weightPriceMatch = DEFAULT_WEIGHT_PRICE_MATCH;
-        weightFreshness = DEFAULT_WEIGHT_FRESHNESS;
-        weightPreference = DEFAULT_WEIGHT_PREFERENCE;
-        weightProjectAffinity = DEFAULT_WEIGHT_PROJECT_AFFINITY;
-        geoFallbackScore = DEFAULT_GEO_FALLBACK_SCORE;
-
-        exhibitionKeywords = new ArrayList<>(DEFAULT_EXHIBITION_KEYWORDS);
-        renovationKeywords = new ArrayList<>(DEFAULT_RENOVATION_KEYWORDS);
-        engineeringKeywords = new ArrayList<>(DEFAULT_ENGINEERING_KEYWORDS);
-        styleKeywords = new ArrayList<>(DEFAULT_STYLE_KEYWORDS);
-        materialKeywords = new ArrayList<>(DEFAULT_MATERIAL_KEYWORDS);
-    }
-
-    private static Map<String, Object> getMatchingConfig(ExecutionContext ec) {
-        long now = System.currentTimeMillis();
-        synchronized (CONFIG_LOCK) {
-            if (cachedConfig != null && (now - configLoadedTs) < CONFIG_CACHE_TTL_MS) {
-                return cachedConfig;
-            }
-            String location = System.getProperty(MATCHING_CONFIG_PROPERTY);
-            if (location == null || location.isEmpty()) {
-                String envKey = MATCHING_CONFIG_PROPERTY.toUpperCase().replace('.', '_');
-                location = System.getenv(envKey);
-            }
-            if (location == null || location.isEmpty()) {
-                location = MATCHING_CONFIG_DEFAULT_LOCATION;
-            }
-            try {
-                String configText = ec.getResource().getLocationText(location, false);
-                if (configText != null && !configText.trim().isEmpty()) {
-                    Object parsed = new JsonSlurper().parseText(configText);
-                    if (parsed instanceof Map) {
-                        cachedConfig = (Map<String, Object>) parsed;
-                        configLoadedTs = now;
-                        return cachedConfig;
-                    }
-                }
-            } catch (Exception e) {
-                logger.warn("Unable to load matching config from {}: {}", location, e.getMessage());
-            }
-            cachedConfig = null;
-            configLoadedTs = now;
-            return null;
-        }
+    /**
+     * 当前匹配配置版本（配置内容的CRC32，内容不变则版本不变；无配置文件时为0）
+     */
+    public static long getConfigVersion(ExecutionContext ec) {
+        return MatchingConfig.current(ec).version;
     }
 
-    private static BigDecimal toBigDecimal(Object value, BigDecimal defaultValue) {
-        if (value == null) return defaultValue;
-        if (value instanceof BigDecimal) return (BigDecimal) value;
-        try {
-            return new BigDecimal(value.toString());
-        } catch (Exception e) {
-            return defaultValue;
-        }
+    public static BigDecimal getConfiguredDefaultMinScore(ExecutionContext ec) {
+        return MatchingConfig.current(ec).defaultMinScore;
     }
 
-    private static List<String> toStringList(Object value, List<String> defaults) {
-        if (value instanceof Collection) {
-            List<String> result = new ArrayList<>();
-            for (Object obj : (Collection<?>) value) {
-                if (obj != null) {
-                    String str = obj.toString().trim();
-                    if (!str.isEmpty()) result.add(str);
-                }
-            }
-            if (!result.isEmpty()) return result;
-        }
-        return new ArrayList<>(defaults);
+    /**
+     * 当前配置对应的关键词自动机，按配置版本编译一次，供引擎与 detect#ProjectType 共用
+     */
+    public static ProjectKeywordMatcher getKeywordMatcher(ExecutionContext ec) {
+        return MatchingConfig.current(ec).keywordMatcher;
     }
 
     /**
@@ -198,6 +99,8 @@ public class SmartMatchingEngine {
      */
     public List<Map<String, Object>> findMatchesForListing(String listingId, int maxResults, BigDecimal minScore) {
         logger.info("Finding matches for listing: {}", listingId);
+        MatchingMetrics.Trace trace = MatchingMetrics.start();
+        long phaseStart = System.nanoTime();
 
         // 1. 获取源Listing信息
         EntityValue sourceListing = ec.getEntity().find("marketplace.listing.Listing")
@@ -218,16 +121,250 @@ public class SmartMatchingEngine {
                 .condition("status", "ACTIVE")
                 .condition("category", sourceListing.getString("category"))
                 .list();
+        trace.addQueries(2);
+        phaseStart = trace.phase(MatchingMetrics.Phase.CANDIDATE_QUERY, phaseStart);
 
         logger.info("Found {} candidate listings", candidates.size());
 
-        // 3. 计算每个候选的匹配分数
-        ProjectProfile sourceProfile = extractProjectProfile(sourceListing);
+        // 候选剪枝：按地理网格跳过距离过远的候选；大品类下可选LSH标签预筛选（近似，默认关闭）
+        MatchingIndexes.ensureLoaded(ec);
+        List<EntityValue> candidateList = pruneByDistance(sourceListing, candidates, minScore);
+        int lshMinCandidates = ListingTagIndex.getLshMinCandidates();
+        if (lshMinCandidates > 0 && candidateList.size() >= lshMinCandidates) {
+            int before = candidateList.size();
+            candidateList = ListingTagIndex.preselect(candidateList, ListingTagIndex.loadTags(ec, listingId), maxResults);
+            logger.info("Tag LSH preselected {} of {} candidates", candidateList.size(), before);
+        }
+        trace.phase(MatchingMetrics.Phase.PRUNING, phaseStart);
+
+        // 3. 批量装载候选集的标签、坐标、画像，项目画像优先取缓存
+        List<EntityValue> hydrationTargets = new ArrayList<>(candidateList.size() + 1);
+        hydrationTargets.add(sourceListing);
+        hydrationTargets.addAll(candidateList);
+        Map<String, ProjectProfile> projectProfiles = new HashMap<>();
+        ListingHydration hydration = prepareScoring(hydrationTargets, projectProfiles, trace);
+
+        // 4. 计算每个候选的匹配分数
+        ProjectProfile sourceProfile = projectProfiles.get(listingId);
+        long nowMillis = System.currentTimeMillis();
+
+        MatchScoringKernel kernel = createScoringKernel();
+        trace.setScanned(candidateList.size());
+        List<Map<String, Object>> matches = kernel != null ?
+                selectTopMatches(kernel, sourceListing, candidateList, sourceProfile, projectProfiles, hydration,
+                        maxResults, minScore, nowMillis, trace) :
+                scoreAllMatches(sourceListing, candidateList, sourceProfile, projectProfiles, hydration,
+                        maxResults, minScore, nowMillis, trace);
+
+        trace.finish(sourceListing.getString("category"), matches.size());
+        logger.info("Found {} matches above threshold {}", matches.size(), minScore);
+        return matches;
+    }
+
+    /**
+     * 借助地理网格索引跳过距离过远的候选。
+     * 默认只剪掉“即使其余维度全部满分也达不到 minScore”的候选，不改变匹配结果；
+     * 配置 thresholds.maxDistanceFactor 后额外跳过超出 配送范围×系数 的候选。
+     * 无坐标、未被索引或发布时间晚于当前时间的候选始终保留。
+     */
+    private List<EntityValue> pruneByDistance(EntityValue sourceListing, List<EntityValue> candidates, BigDecimal minScore) {
+        if (candidates.isEmpty() || !ListingGeoIndex.isLoaded()) return candidates;
+        double maxRange = sourceListing.getBigDecimal("deliveryRange") != null ?
+                sourceListing.getBigDecimal("deliveryRange").doubleValue() : 5.0;
+        if (!(maxRange > 0)) return candidates;
+
+        double radius = geoCutoffKm(maxRange, minScore);
+        if (maxDistanceFactor > 0) radius = Math.min(radius, maxRange * maxDistanceFactor);
+        if (Double.isInfinite(radius) || Double.isNaN(radius)) return candidates;
+
+        String sourceId = sourceListing.getString("listingId");
+        double[] center = ListingGeoIndex.getCoordinates(sourceId);
+        if (center == null) center = ListingGeoIndex.loadCoordinates(ec, sourceListing.getString("geoPointId"));
+        if (center == null) return candidates;
+
+        List<String> candidateIds = new ArrayList<>(candidates.size());
+        for (EntityValue candidate : candidates) candidateIds.add(candidate.getString("listingId"));
+        Set<String> outside = ListingGeoIndex.findOutsideRadius(candidateIds, center[0], center[1], radius);
+        if (outside.isEmpty()) return candidates;
 
+        long now = System.currentTimeMillis();
+        java.sql.Timestamp sourceCreated = sourceListing.getTimestamp("createdDate");
+        boolean sourceInFuture = sourceCreated != null && sourceCreated.getTime() > now;
+        List<EntityValue> kept = new ArrayList<>(candidates.size() - outside.size());
+        for (EntityValue candidate : candidates) {
+            java.sql.Timestamp created = candidate.getTimestamp("createdDate");
+            // 发布时间在未来时新鲜度可超过1，精确剪枝的上界不成立
+            boolean inFuture = sourceInFuture || (created != null && created.getTime() > now);
+            if (!outside.contains(candidate.getString("listingId")) || (inFuture && maxDistanceFactor <= 0)) {
+                kept.add(candidate);
+            }
+        }
+        logger.info("Geo index pruned {} of {} candidates beyond {} km", candidates.size() - kept.size(),
+                candidates.size(), String.format("%.2f", radius));
+        return kept;
+    }
+
+    /**
+     * 计算精确剪枝半径：距离超过该值的候选即使其余维度全部满分（含4位小数舍入余量）也达不到 minScore。
+     * 无法剪枝时返回正无穷
+     */
+    private double geoCutoffKm(double maxRange, BigDecimal minScore) {
+        double geoWeight = weightGeoProximity.doubleValue();
+        if (minScore == null || !(geoWeight > 0)) return Double.POSITIVE_INFINITY;
+        final double roundingSlack = 0.00005;
+        double otherMax = 0.0;
+        for (BigDecimal weight : new BigDecimal[]{weightTagSimilarity, weightPriceMatch, weightFreshness,
+                weightPreference, weightProjectAffinity}) {
+            otherMax += Math.max(0.0, weight.doubleValue()) * (1.0 + roundingSlack);
+        }
+        // 地理分需低于 threshold 才可剪枝
+        double threshold = (minScore.doubleValue() - 2 * roundingSlack - otherMax) / geoWeight - roundingSlack;
+        if (!(threshold > 0)) return Double.POSITIVE_INFINITY;
+        double cutoff;
+        if (threshold >= 1.0) {
+            cutoff = 0.0;
+        } else if (threshold > 0.5) {
+            cutoff = 2 * maxRange * (1.0 - threshold);
+        } else {
+            cutoff = maxRange * (1.0 + Math.log(0.5 / threshold));
+        }
+        return cutoff * 1.000001 + 1e-6;
+    }
+
+    /** 按当前权重构建定点评分内核（包可见，供 src/test 下的等价性测试使用） */
+    MatchScoringKernel createScoringKernel() {
+        return MatchScoringKernel.create(new BigDecimal[]{weightTagSimilarity, weightGeoProximity, weightPriceMatch,
+                weightFreshness, weightPreference, weightProjectAffinity}, geoFallbackScore);
+    }
+
+    /**
+     * 定点内核对全部候选打分，只保留分数最高的 maxResults 个，再对入选者生成完整的分项结果。
+     * 评分特征在当前线程一次性提取，候选较多时分段并行评分；实体访问全部留在当前线程
+     */
+    private List<Map<String, Object>> selectTopMatches(MatchScoringKernel kernel, EntityValue sourceListing,
+                                                       List<EntityValue> candidates, ProjectProfile sourceProfile,
+                                                       Map<String, ProjectProfile> projectProfiles,
+                                                       ListingHydration hydration, int maxResults,
+                                                       BigDecimal minScore, long nowMillis,
+                                                       MatchingMetrics.Trace trace) {
+        long phaseStart = System.nanoTime();
+        long threshold = MatchScoringKernel.thresholdScaled(minScore);
+        MatchFeatures sourceFeatures = MatchFeatures.of(sourceListing, sourceProfile, hydration);
+        MatchFeatures[] candidateFeatures = new MatchFeatures[candidates.size()];
+        for (int i = 0; i < candidateFeatures.length; i++) {
+            EntityValue candidate = candidates.get(i);
+            candidateFeatures[i] = MatchFeatures.of(candidate, projectProfiles.get(candidate.getString("listingId")), hydration);
+        }
+        TopKSelector selector = MatchScoringExecutor.selectTopK(kernel, sourceFeatures, candidateFeatures,
+                Math.min(maxResults, candidates.size()), threshold, nowMillis, scoringParallelism, parallelMinCandidates);
+        trace.setAboveThreshold(selector.offered());
+        phaseStart = trace.phase(MatchingMetrics.Phase.SCORING, phaseStart);
+
+        List<Map<String, Object>> matches = new ArrayList<>(selector.size());
+        for (int index : selector.sortedIndexes()) {
+            EntityValue candidate = candidates.get(index);
+            Map<String, Object> matchResult = calculateMatchScore(sourceListing, candidate, sourceProfile,
+                    projectProfiles.get(candidate.getString("listingId")), hydration, nowMillis);
+            matchResult.put("candidateListing", candidate);
+            matches.add(matchResult);
+        }
+        trace.phase(MatchingMetrics.Phase.SELECTION, phaseStart);
+        return matches;
+    }
+
+    /**
+     * 批量撮合：同一分块内的每个供需对只评分一次（以供应为源），
+     * 每个供应保留分数最高的 maxResults 个需求、每个需求保留分数最高的 maxResults 个供应，返回两者并集。
+     * 结果含 supplyListing / demandListing 以及与 calculateMatchScore 相同的分项分数
+     */
+    public List<Map<String, Object>> matchBlock(List<EntityValue> supplies, List<EntityValue> demands,
+                                                int maxResults, BigDecimal minScore) {
+        if (supplies.isEmpty() || demands.isEmpty() || maxResults <= 0) return Collections.emptyList();
+
+        List<EntityValue> hydrationTargets = new ArrayList<>(supplies.size() + demands.size());
+        hydrationTargets.addAll(supplies);
+        hydrationTargets.addAll(demands);
+        Map<String, ProjectProfile> projectProfiles = new HashMap<>();
+        ListingHydration hydration = prepareScoring(hydrationTargets, projectProfiles);
+        long nowMillis = System.currentTimeMillis();
+        long threshold = MatchScoringKernel.thresholdScaled(minScore);
+        MatchScoringKernel kernel = createScoringKernel();
+
+        MatchFeatures[] supplyFeatures = new MatchFeatures[supplies.size()];
+        MatchFeatures[] demandFeatures = new MatchFeatures[demands.size()];
+        if (kernel != null) {
+            for (int s = 0; s < supplyFeatures.length; s++) {
+                EntityValue supply = supplies.get(s);
+                supplyFeatures[s] = MatchFeatures.of(supply, projectProfiles.get(supply.getString("listingId")), hydration);
+            }
+            for (int d = 0; d < demandFeatures.length; d++) {
+                EntityValue demand = demands.get(d);
+                demandFeatures[d] = MatchFeatures.of(demand, projectProfiles.get(demand.getString("listingId")), hydration);
+            }
+        }
+
+        TopKSelector[] bestDemands = new TopKSelector[supplies.size()];
+        TopKSelector[] bestSupplies = new TopKSelector[demands.size()];
+        for (int s = 0; s < bestDemands.length; s++) bestDemands[s] = new TopKSelector(Math.min(maxResults, demands.size()));
+        for (int d = 0; d < bestSupplies.length; d++) bestSupplies[d] = new TopKSelector(Math.min(maxResults, supplies.size()));
+
+        for (int s = 0; s < supplies.size(); s++) {
+            EntityValue supply = supplies.get(s);
+            ProjectProfile supplyProfile = projectProfiles.get(supply.getString("listingId"));
+            for (int d = 0; d < demands.size(); d++) {
+                long score;
+                if (kernel != null) {
+                    score = kernel.score(supplyFeatures[s], demandFeatures[d], nowMillis);
+                } else {
+                    EntityValue demand = demands.get(d);
+                    BigDecimal matchScore = (BigDecimal) calculateMatchScore(supply, demand, supplyProfile,
+                            projectProfiles.get(demand.getString("listingId")), hydration, nowMillis).get("matchScore");
+                    score = matchScore.movePointRight(4).longValue();
+                }
+                if (score < threshold) continue;
+                bestDemands[s].offer(score, d);
+                bestSupplies[d].offer(score, s);
+            }
+        }
+
+        // 两侧Top-K的并集，按供应顺序输出
+        Set<Long> selectedPairs = new LinkedHashSet<>();
+        for (int s = 0; s < bestDemands.length; s++) {
+            for (int d : bestDemands[s].sortedIndexes()) selectedPairs.add((long) s * demands.size() + d);
+        }
+        for (int d = 0; d < bestSupplies.length; d++) {
+            for (int s : bestSupplies[d].sortedIndexes()) selectedPairs.add((long) s * demands.size() + d);
+        }
+
+        List<Map<String, Object>> matches = new ArrayList<>(selectedPairs.size());
+        for (long pair : selectedPairs) {
+            EntityValue supply = supplies.get((int) (pair / demands.size()));
+            EntityValue demand = demands.get((int) (pair % demands.size()));
+            Map<String, Object> matchResult = calculateMatchScore(supply, demand,
+                    projectProfiles.get(supply.getString("listingId")),
+                    projectProfiles.get(demand.getString("listingId")), hydration, nowMillis);
+            matchResult.put("supplyListing", supply);
+            matchResult.put("demandListing", demand);
+            matches.add(matchResult);
+        }
+        return matches;
+    }
+
+    /**
+     * BigDecimal逐个评分后排序（权重无法定点化时使用）
+     */
+    private List<Map<String, Object>> scoreAllMatches(EntityValue sourceListing, List<EntityValue> candidates,
+                                                      ProjectProfile sourceProfile,
+                                                      Map<String, ProjectProfile> projectProfiles,
+                                                      ListingHydration hydration, int maxResults,
+                                                      BigDecimal minScore, long nowMillis,
+                                                      MatchingMetrics.Trace trace) {
+        long phaseStart = System.nanoTime();
         List<Map<String, Object>> matches = new ArrayList<>();
         for (EntityValue candidate : candidates) {
-            ProjectProfile candidateProfile = extractProjectProfile(candidate);
-            Map<String, Object> matchResult = calculateMatchScore(sourceListing, candidate, sourceProfile, candidateProfile);
+            ProjectProfile candidateProfile = projectProfiles.get(candidate.getString("listingId"));
+            Map<String, Object> matchResult = calculateMatchScore(sourceListing, candidate, sourceProfile,
+                    candidateProfile, hydration, nowMillis);
             BigDecimal matchScore = (BigDecimal) matchResult.get("matchScore");
 
             if (matchScore.compareTo(minScore) >= 0) {
@@ -235,8 +372,10 @@ public class SmartMatchingEngine {
                 matches.add(matchResult);
             }
         }
+        trace.setAboveThreshold(matches.size());
+        phaseStart = trace.phase(MatchingMetrics.Phase.SCORING, phaseStart);
 
-        // 4. 按分数降序排序并限制数量
+        // 按分数降序排序并限制数量
         matches.sort((m1, m2) -> {
             BigDecimal score1 = (BigDecimal) m1.get("matchScore");
             BigDecimal score2 = (BigDecimal) m2.get("matchScore");
@@ -246,8 +385,7 @@ public class SmartMatchingEngine {
         if (matches.size() > maxResults) {
             matches = matches.subList(0, maxResults);
         }
-
-        logger.info("Found {} matches above threshold {}", matches.size(), minScore);
+        trace.phase(MatchingMetrics.Phase.SELECTION, phaseStart);
         return matches;
     }
 
@@ -260,19 +398,86 @@ public class SmartMatchingEngine {
 
     public Map<String, Object> calculateMatchScore(EntityValue listing1, EntityValue listing2,
                                                    ProjectProfile profile1, ProjectProfile profile2) {
+        Map<String, ProjectProfile> projectProfiles = new HashMap<>();
+        ListingHydration hydration = prepareScoring(Arrays.asList(listing1, listing2), projectProfiles);
+        if (profile1 == null) profile1 = projectProfiles.get(listing1.getString("listingId"));
+        if (profile2 == null) profile2 = projectProfiles.get(listing2.getString("listingId"));
+        return calculateMatchScore(listing1, listing2, profile1, profile2, hydration, System.currentTimeMillis());
+    }
+
+    /**
+     * 评分前准备：先从缓存取项目画像，再批量装载关联数据，仅对缓存未命中的Listing加载识别信息并提取画像
+     */
+    private ListingHydration prepareScoring(List<EntityValue> listings, Map<String, ProjectProfile> projectProfiles) {
+        return prepareScoring(listings, projectProfiles, null);
+    }
+
+    /**
+     * 同上，trace 不为null时记录装载与画像提取的耗时及查询数
+     */
+    private ListingHydration prepareScoring(List<EntityValue> listings, Map<String, ProjectProfile> projectProfiles,
+                                            MatchingMetrics.Trace trace) {
+        long phaseStart = System.nanoTime();
+        List<EntityValue> missing = new ArrayList<>();
+        for (EntityValue listing : listings) {
+            ProjectProfile cached = ProjectProfileCache.get(listing, configVersion);
+            if (cached != null) {
+                projectProfiles.put(listing.getString("listingId"), cached);
+            } else {
+                missing.add(listing);
+            }
+        }
+
+        boolean persist = ProjectProfileCache.isPersistenceEnabled();
+        if (persist && !missing.isEmpty()) {
+            Map<String, ProjectProfile> persisted = ProjectProfileCache.loadPersisted(ec, missing, configVersion);
+            if (trace != null) trace.addQueries(1);
+            if (!persisted.isEmpty()) {
+                projectProfiles.putAll(persisted);
+                missing.removeIf(listing -> persisted.containsKey(listing.getString("listingId")));
+            }
+        }
+
+        Set<String> insightListingIds = new HashSet<>();
+        for (EntityValue listing : missing) insightListingIds.add(listing.getString("listingId"));
+        ListingHydration hydration = ListingHydration.load(ec, listings, insightListingIds);
+        if (trace != null) {
+            trace.addQueries(hydration.getQueryCount());
+            phaseStart = trace.phase(MatchingMetrics.Phase.HYDRATION, phaseStart);
+        }
+
+        for (EntityValue listing : missing) {
+            ProjectProfile profile = extractProjectProfile(listing, hydration);
+            projectProfiles.put(listing.getString("listingId"), profile);
+            ProjectProfileCache.put(listing, configVersion, profile);
+        }
+        if (persist && !missing.isEmpty()) {
+            ProjectProfileCache.persist(ec, missing, projectProfiles, configVersion);
+        }
+        if (trace != null) trace.phase(MatchingMetrics.Phase.PROFILE_EXTRACTION, phaseStart);
+        logger.debug("Project profiles: {} cached, {} extracted", listings.size() - missing.size(), missing.size());
+        return hydration;
+    }
+
+    /**
+     * BigDecimal 实现的分项评分，nowMillis 为新鲜度的计算时刻（包可见，供 src/test 下的等价性测试使用）
+     */
+    Map<String, Object> calculateMatchScore(EntityValue listing1, EntityValue listing2,
+                                            ProjectProfile profile1, ProjectProfile profile2,
+                                            ListingHydration hydration, long nowMillis) {
         Map<String, Object> result = new HashMap<>();
 
         try {
             // 1. 标签相似度 (35%)
             BigDecimal tagSimilarity = calculateTagSimilarity(
-                    listing1.getString("listingId"),
-                    listing2.getString("listingId")
+                    hydration.getTagCodes(listing1.getString("listingId")),
+                    hydration.getTagCodes(listing2.getString("listingId"))
             );
 
             // 2. 地理接近度 (25%)
             BigDecimal geoProximity = calculateGeoProximity(
-                    listing1.getString("geoPointId"),
-                    listing2.getString("geoPointId"),
+                    hydration.getCoordinates(listing1.getString("geoPointId")),
+                    hydration.getCoordinates(listing2.getString("geoPointId")),
                     listing1.getBigDecimal("deliveryRange")
             );
 
@@ -287,18 +492,19 @@ public class SmartMatchingEngine {
             // 4. 时效性/新鲜度 (10%)
             BigDecimal freshnessScore = calculateFreshnessScore(
                     listing1.getTimestamp("createdDate"),
-                    listing2.getTimestamp("createdDate")
+                    listing2.getTimestamp("createdDate"),
+                    nowMillis
             );
 
             // 5. 用户偏好分数 (15%)
             BigDecimal preferenceScore = calculatePreferenceScore(
-                    listing1.getString("publisherId"),
-                    listing2.getString("publisherId"),
+                    hydration.getProfile(listing1.getString("publisherId")),
+                    hydration.getProfile(listing2.getString("publisherId")),
                     listing2.getString("category")
             );
 
-            ProjectProfile effectiveProfile1 = profile1 != null ? profile1 : extractProjectProfile(listing1);
-            ProjectProfile effectiveProfile2 = profile2 != null ? profile2 : extractProjectProfile(listing2);
+            ProjectProfile effectiveProfile1 = profile1 != null ? profile1 : extractProjectProfile(listing1, hydration);
+            ProjectProfile effectiveProfile2 = profile2 != null ? profile2 : extractProjectProfile(listing2, hydration);
             BigDecimal projectAffinity = calculateProjectAffinity(effectiveProfile1, effectiveProfile2);
 
             // 6. 加权计算总分
@@ -331,82 +537,32 @@ public class SmartMatchingEngine {
     /**
      * 计算标签相似度 (Jaccard相似度)
      */
-    private BigDecimal calculateTagSimilarity(String listingId1, String listingId2) {
-        // 获取两个Listing的标签集合
-        Set<String> tags1 = getListingTags(listingId1);
-        Set<String> tags2 = getListingTags(listingId2);
-
-        if (tags1.isEmpty() || tags2.isEmpty()) {
+    private BigDecimal calculateTagSimilarity(int[] tags1, int[] tags2) {
+        if (tags1.length == 0 || tags2.length == 0) {
             return BigDecimal.ZERO;
         }
 
-        // 计算交集
-        Set<String> intersection = new HashSet<>(tags1);
-        intersection.retainAll(tags2);
-
-        // 计算并集
-        Set<String> union = new HashSet<>(tags1);
-        union.addAll(tags2);
-
         // Jaccard相似度 = |交集| / |并集|
-        double similarity = (double) intersection.size() / union.size();
+        double similarity = MatchScoringKernel.jaccard(tags1, tags2);
         return BigDecimal.valueOf(similarity).setScale(4, RoundingMode.HALF_UP);
     }
 
-    /**
-     * 获取Listing的标签集合
-     */
-    private Set<String> getListingTags(String listingId) {
-        EntityList listingTags = ec.getEntity().find("marketplace.listing.ListingTag")
-                .condition("listingId", listingId)
-                .list();
-
-        return listingTags.stream()
-                .map(lt -> lt.getString("tagId"))
-                .collect(Collectors.toSet());
-    }
-
     /**
      * 计算地理接近度
      * 使用简化的距离衰减函数
      */
-    private BigDecimal calculateGeoProximity(String geoPointId1, String geoPointId2, BigDecimal deliveryRange) {
-        if (geoPointId1 == null || geoPointId2 == null) {
+    private BigDecimal calculateGeoProximity(double[] coordinates1, double[] coordinates2, BigDecimal deliveryRange) {
+        if (coordinates1 == null || coordinates2 == null) {
             return geoFallbackScore; // 缺少位置信息时给中等分数
         }
 
         try {
-            // 获取地理坐标
-            EntityValue geo1 = ec.getEntity().find("mantle.humanres.position.GeoPoint")
-                    .condition("geoPointId", geoPointId1)
-                    .one();
-            EntityValue geo2 = ec.getEntity().find("mantle.humanres.position.GeoPoint")
-                    .condition("geoPointId", geoPointId2)
-                    .one();
-
-            if (geo1 == null || geo2 == null) {
-                return geoFallbackScore;
-            }
-
-            double lat1 = geo1.getBigDecimal("latitude").doubleValue();
-            double lon1 = geo1.getBigDecimal("longitude").doubleValue();
-            double lat2 = geo2.getBigDecimal("latitude").doubleValue();
-            double lon2 = geo2.getBigDecimal("longitude").doubleValue();
-
             // 计算距离(km) - 使用Haversine公式
-            double distance = calculateDistance(lat1, lon1, lat2, lon2);
+            double distance = MatchScoringKernel.haversineKm(coordinates1[0], coordinates1[1], coordinates2[0], coordinates2[1]);
 
             // 距离衰减函数：在配送范围内得分高，超出范围快速衰减
             double maxRange = deliveryRange != null ? deliveryRange.doubleValue() : 5.0;
-
-            double proximity;
-            if (distance <= maxRange) {
-                // 范围内：线性递减
-                proximity = 1.0 - (distance / maxRange) * 0.5;
-            } else {
-                // 范围外：快速衰减
-                proximity = 0.5 * Math.exp(-(distance - maxRange) / maxRange);
-            }
+            double proximity = MatchScoringKernel.geoProximity(distance, maxRange);
 
             return BigDecimal.valueOf(proximity).setScale(4, RoundingMode.HALF_UP);
 
@@ -416,24 +572,6 @@ public class SmartMatchingEngine {
         }
     }
 
-    /**
-     * Haversine公式计算两点间距离(km)
-     */
-    private double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        final double R = 6371; // 地球半径(km)
-
-        double latDistance = Math.toRadians(lat2 - lat1);
-        double lonDistance = Math.toRadians(lon2 - lon1);
-
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-
-        return R * c;
-    }
-
     /**
      * 计算价格匹配度
      */
@@ -444,19 +582,11 @@ public class SmartMatchingEngine {
             return new BigDecimal("0.7");
         }
 
-        // 使用价格区间的中点
-        BigDecimal price1Avg = (price1Max != null) ?
-                price1Min.add(price1Max).divide(new BigDecimal("2"), 2, RoundingMode.HALF_UP) : price1Min;
-        BigDecimal price2Avg = (price2Max != null) ?
-                price2Min.add(price2Max).divide(new BigDecimal("2"), 2, RoundingMode.HALF_UP) : price2Min;
-
-        // 计算价格差异百分比
-        BigDecimal priceDiff = price1Avg.subtract(price2Avg).abs();
-        BigDecimal avgPrice = price1Avg.add(price2Avg).divide(new BigDecimal("2"), 2, RoundingMode.HALF_UP);
-        double diffPercent = priceDiff.divide(avgPrice, 4, RoundingMode.HALF_UP).doubleValue();
+        // 使用价格区间的中点计算价格差异百分比
+        double diffPercent = MatchScoringKernel.priceDiffPercent(price1Min, price1Max, price2Min, price2Max);
 
         // 价格差异越小，匹配度越高
-        double match = Math.exp(-diffPercent * 2); // 指数衰减
+        double match = MatchScoringKernel.priceMatch(diffPercent); // 指数衰减
         return BigDecimal.valueOf(match).setScale(4, RoundingMode.HALF_UP);
     }
 
@@ -464,24 +594,13 @@ public class SmartMatchingEngine {
      * 计算时效性分数
      * 信息越新鲜，分数越高
      */
-    private BigDecimal calculateFreshnessScore(java.sql.Timestamp created1, java.sql.Timestamp created2) {
+    private BigDecimal calculateFreshnessScore(java.sql.Timestamp created1, java.sql.Timestamp created2, long nowMillis) {
         if (created1 == null || created2 == null) {
             return new BigDecimal("0.5");
         }
 
-        // 计算平均发布时间到现在的小时数
-        long now = System.currentTimeMillis();
-        long age1 = (now - created1.getTime()) / (1000 * 60 * 60); // 小时
-        long age2 = (now - created2.getTime()) / (1000 * 60 * 60);
-        double avgAge = (age1 + age2) / 2.0;
-
-        // 48小时内：高分；48小时后：指数衰减
-        double freshness;
-        if (avgAge <= 48) {
-            freshness = 1.0 - (avgAge / 48.0) * 0.3; // 最多降低30%
-        } else {
-            freshness = 0.7 * Math.exp(-(avgAge - 48) / 48.0);
-        }
+        // 按平均发布时间到现在的小时数计算：48小时内高分，48小时后指数衰减
+        double freshness = MatchScoringKernel.freshness(created1.getTime(), created2.getTime(), nowMillis);
 
         return BigDecimal.valueOf(freshness).setScale(4, RoundingMode.HALF_UP);
     }
@@ -490,42 +609,28 @@ public class SmartMatchingEngine {
      * 计算用户偏好分数
      * 基于历史交易和行为数据
      */
-    private BigDecimal calculatePreferenceScore(String partyId1, String partyId2, String category) {
+    private BigDecimal calculatePreferenceScore(EntityValue profile1, EntityValue profile2, String category) {
         try {
-            // 获取用户画像
-            EntityValue profile1 = ec.getEntity().find("marketplace.profile.UserProfile")
-                    .condition("partyId", partyId1)
-                    .one();
-            EntityValue profile2 = ec.getEntity().find("marketplace.profile.UserProfile")
-                    .condition("partyId", partyId2)
-                    .one();
-
             if (profile1 == null || profile2 == null) {
                 return new BigDecimal("0.5"); // 缺少画像信息
             }
 
-            double score = 0.5; // 基础分
-
             // 检查品类偏好
             String preferredCategories1 = profile1.getString("preferredCategories");
             String preferredCategories2 = profile2.getString("preferredCategories");
-
-            if (preferredCategories1 != null && preferredCategories1.contains(category)) {
-                score += 0.2;
-            }
-            if (preferredCategories2 != null && preferredCategories2.contains(category)) {
-                score += 0.2;
-            }
+            boolean prefers1 = preferredCategories1 != null && preferredCategories1.contains(category);
+            boolean prefers2 = preferredCategories2 != null && preferredCategories2.contains(category);
 
             // 信用评分影响
+            double avgCredit = Double.NaN;
             BigDecimal credit1 = profile1.getBigDecimal("creditScore");
             BigDecimal credit2 = profile2.getBigDecimal("creditScore");
             if (credit1 != null && credit2 != null) {
-                double avgCredit = credit1.add(credit2).divide(new BigDecimal("2"), 4, RoundingMode.HALF_UP).doubleValue();
-                score += avgCredit * 0.1; // 信用分贡献最多10%
+                avgCredit = MatchScoringKernel.averageCredit(credit1, credit2);
             }
 
-            return BigDecimal.valueOf(Math.min(score, 1.0)).setScale(4, RoundingMode.HALF_UP);
+            double score = MatchScoringKernel.preference(prefers1, prefers2, avgCredit);
+            return BigDecimal.valueOf(score).setScale(4, RoundingMode.HALF_UP);
 
         } catch (Exception e) {
             logger.warn("Error calculating preference score", e);
@@ -533,7 +638,10 @@ public class SmartMatchingEngine {
         }
     }
 
-    private ProjectProfile extractProjectProfile(EntityValue listing) {
+    /**
+     * 从标题、描述、品类与识别信息提取项目画像（包可见，供 src/jmh 下的基准测试直接调用）
+     */
+    ProjectProfile extractProjectProfile(EntityValue listing, ListingHydration hydration) {
         ProjectProfile profile = new ProjectProfile();
         if (listing == null) {
             return profile;
@@ -550,10 +658,7 @@ public class SmartMatchingEngine {
         if (subCategory != null) rawBuilder.append(subCategory).append(" ");
 
         try {
-            EntityList insights = ec.getEntity().find("marketplace.listing.ListingInsight")
-                    .condition("listingId", listing.getString("listingId"))
-                    .list();
-            for (EntityValue insight : insights) {
+            for (EntityValue insight : hydration.getInsights(listing.getString("listingId"))) {
                 String summary = insight.getString("summary");
                 if (summary != null) rawBuilder.append(summary).append(" ");
                 String metadataJson = insight.getString("metadataJson");
@@ -582,11 +687,12 @@ public class SmartMatchingEngine {
             return profile;
         }
 
-        profile.keywords.addAll(extractChineseTokens(rawText));
+        profile.keywords.addAll(ProjectKeywordMatcher.hanTokens(rawText));
 
-        int exhibitionCount = countKeywordMatches(rawText, exhibitionKeywords);
-        int renovationCount = countKeywordMatches(rawText, renovationKeywords);
-        int engineeringCount = countKeywordMatches(rawText, engineeringKeywords);
+        ProjectKeywordMatcher.Hits keywordHits = keywordMatcher.scan(rawText);
+        int exhibitionCount = keywordHits.count(KEYWORDS_EXHIBITION);
+        int renovationCount = keywordHits.count(KEYWORDS_RENOVATION);
+        int engineeringCount = keywordHits.count(KEYWORDS_ENGINEERING);
 
         if (exhibitionCount >= renovationCount && exhibitionCount >= engineeringCount && exhibitionCount > 0) {
             profile.projectType = "EXHIBITION_SETUP";
@@ -601,28 +707,28 @@ public class SmartMatchingEngine {
             profile.projectType = (String) metadataProjectType;
         }
 
-        Matcher areaMatcher = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(平米|平方米|㎡|m2|平方)").matcher(rawText);
+        Matcher areaMatcher = ProjectKeywordMatcher.AREA_PATTERN.matcher(rawText);
         if (areaMatcher.find()) {
             profile.areaSquare = Double.valueOf(areaMatcher.group(1));
         } else if (profile.metadata.get("estimatedArea") instanceof Number) {
             profile.areaSquare = ((Number) profile.metadata.get("estimatedArea")).doubleValue();
         }
 
-        Matcher budgetMatcher = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(万|万元|千|k|元|人民币|rmb)").matcher(rawText.toLowerCase());
+        Matcher budgetMatcher = ProjectKeywordMatcher.BUDGET_PATTERN.matcher(rawText.toLowerCase());
         if (budgetMatcher.find()) {
             profile.budgetAmount = convertBudget(Double.valueOf(budgetMatcher.group(1)), budgetMatcher.group(2));
         } else if (profile.metadata.get("budgetAmountCny") instanceof Number) {
             profile.budgetAmount = ((Number) profile.metadata.get("budgetAmountCny")).doubleValue();
         }
 
-        Matcher durationMatcher = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(天|日|周|月|年)").matcher(rawText);
+        Matcher durationMatcher = ProjectKeywordMatcher.DURATION_PATTERN.matcher(rawText);
         if (durationMatcher.find()) {
             profile.durationDays = convertDuration(Double.valueOf(durationMatcher.group(1)), durationMatcher.group(2));
         } else if (profile.metadata.get("estimatedDurationDays") instanceof Number) {
             profile.durationDays = ((Number) profile.metadata.get("estimatedDurationDays")).doubleValue();
         }
 
-        Matcher locationMatcher = Pattern.compile("(?:在|位于|地址|地点|于)([\\p{IsHan}]{2,9})(?:省|市|区|县|镇|馆|中心|展馆|工地)").matcher(rawText);
+        Matcher locationMatcher = ProjectKeywordMatcher.LOCATION_PATTERN.matcher(rawText);
         if (locationMatcher.find()) {
             profile.locationHint = locationMatcher.group(1);
         } else if (profile.metadata.get("locationHints") instanceof Collection) {
@@ -632,11 +738,7 @@ public class SmartMatchingEngine {
             }
         }
 
-        for (String style : styleKeywords) {
-            if (rawText.contains(style)) {
-                profile.styleTags.add(style);
-            }
-        }
+        profile.styleTags.addAll(keywordHits.matched(KEYWORDS_STYLE));
         if (profile.metadata.get("stylePreferences") instanceof Collection) {
             Collection<?> styles = (Collection<?>) profile.metadata.get("stylePreferences");
             for (Object style : styles) {
@@ -644,11 +746,7 @@ public class SmartMatchingEngine {
             }
         }
 
-        for (String material : materialKeywords) {
-            if (rawText.contains(material)) {
-                profile.materialTags.add(material);
-            }
-        }
+        profile.materialTags.addAll(keywordHits.matched(KEYWORDS_MATERIAL));
         if (profile.metadata.get("materialKeywords") instanceof Collection) {
             Collection<?> materials = (Collection<?>) profile.metadata.get("materialKeywords");
             for (Object material : materials) {
@@ -667,97 +765,10 @@ public class SmartMatchingEngine {
             return new BigDecimal("0.5");
         }
 
-        double score = 0.5;
-
-        if (profile1.projectType != null && profile2.projectType != null) {
-            if (profile1.projectType.equals(profile2.projectType)) {
-                score = 0.75;
-            } else if (profile1.isProject() && profile2.isProject()) {
-                score = 0.4;
-            }
-        } else if (profile1.isProject() || profile2.isProject()) {
-            score = 0.55;
-        }
-
-        if (profile1.areaSquare != null && profile2.areaSquare != null) {
-            double smaller = Math.min(profile1.areaSquare, profile2.areaSquare);
-            double larger = Math.max(profile1.areaSquare, profile2.areaSquare);
-            if (larger > 0) {
-                double ratio = smaller / larger;
-                if (ratio >= 0.9) score += 0.1;
-                else if (ratio >= 0.75) score += 0.07;
-                else if (ratio >= 0.6) score += 0.04;
-                else score -= 0.05;
-            }
-        }
-
-        if (profile1.budgetAmount != null && profile2.budgetAmount != null) {
-            double diff = Math.abs(profile1.budgetAmount - profile2.budgetAmount);
-            double avg = (profile1.budgetAmount + profile2.budgetAmount) / 2.0;
-            if (avg > 0) {
-                double diffRatio = diff / avg;
-                if (diffRatio <= 0.2) score += 0.08;
-                else if (diffRatio <= 0.35) score += 0.05;
-                else if (diffRatio <= 0.5) score += 0.02;
-                else score -= 0.05;
-            }
-        }
-
-        if (profile1.durationDays != null && profile2.durationDays != null) {
-            double diff = Math.abs(profile1.durationDays - profile2.durationDays);
-            if (diff <= 7) score += 0.04;
-            else if (diff <= 14) score += 0.02;
-            else score -= 0.03;
-        }
-
-        if (profile1.locationHint != null && profile2.locationHint != null) {
-            if (profile1.locationHint.equals(profile2.locationHint)) {
-                score += 0.08;
-            } else if (profile1.locationHint.startsWith(profile2.locationHint)
-                    || profile2.locationHint.startsWith(profile1.locationHint)) {
-                score += 0.04;
-            } else {
-                score -= 0.04;
-            }
-        }
-
-        Set<String> styleIntersection = new HashSet<>(profile1.styleTags);
-        styleIntersection.retainAll(profile2.styleTags);
-        if (!styleIntersection.isEmpty()) {
-            score += 0.03;
-        }
-
-        Set<String> materialIntersection = new HashSet<>(profile1.materialTags);
-        materialIntersection.retainAll(profile2.materialTags);
-        if (!materialIntersection.isEmpty()) {
-            score += 0.02;
-        }
-
-        score = Math.max(0.0, Math.min(1.0, score));
+        double score = MatchScoringKernel.projectAffinity(profile1, profile2);
         return BigDecimal.valueOf(score).setScale(4, RoundingMode.HALF_UP);
     }
 
-    private int countKeywordMatches(String text, List<String> keywords) {
-        if (text == null || text.isEmpty()) return 0;
-        String lower = text.toLowerCase();
-        int count = 0;
-        for (String keyword : keywords) {
-            if (text.contains(keyword) || lower.contains(keyword.toLowerCase())) {
-                count++;
-            }
-        }
-        return count;
-    }
-
-    private Set<String> extractChineseTokens(String text) {
-        Set<String> tokens = new HashSet<>();
-        Matcher matcher = Pattern.compile("\\p{IsHan}+").matcher(text);
-        while (matcher.find()) {
-            tokens.add(matcher.group());
-        }
-        return tokens;
-    }
-
     private Double convertBudget(Double value, String unit) {
         if (value == null || unit == null) return value;
         String lower = unit.toLowerCase();
@@ -836,20 +847,4 @@ public class SmartMatchingEngine {
 
         return reason.length() > 0 ? reason.toString() : "综合评估推荐";
     }
-
-    private static class ProjectProfile {
-        String projectType = "NONE";
-        Double areaSquare;
-        Double budgetAmount;
-        Double durationDays;
-        String locationHint;
-        Set<String> styleTags = new HashSet<>();
-        Set<String> materialTags = new HashSet<>();
-        Set<String> keywords = new HashSet<>();
-        Map<String, Object> metadata = new HashMap<>();
-
-        boolean isProject() {
-            return projectType != null && !"NONE".equals(projectType) && !"NOT_PROJECT".equals(projectType);
-        }
-    }
 }
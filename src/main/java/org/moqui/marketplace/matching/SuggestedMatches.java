@@ -0,0 +1,110 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityValue;
+import org.moqui.marketplace.notification.NotificationOutbox;
+import org.moqui.marketplace.stats.MerchantStatsEvents;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * 把一个供需信息的匹配结果写成 SUGGESTED 撮合记录（在调用方事务中执行）
+ * process#MatchWorkItem 与 find#MatchesForListing（autoNotify）共用：一次查询已存在的供需对并加锁，
+ * 仍为SUGGESTED的记录更新分数，已被查看/联系等的记录保留不动，其余新建；每条结果补上对应的 matchId。
+ * 只有新建的撮合写入通知发件箱，重复为同一供需信息查找匹配不会重复通知。
+ */
+public final class SuggestedMatches {
+    private static final String MATCH_ENTITY = "marketplace.match.Match";
+
+    private SuggestedMatches() { }
+
+    /**
+     * @param results findMatchesForListing 的结果（含 candidateListing），写入后每条加上 matchId
+     * @param outbox 新建撮合的通知写入该发件箱（通知候选方的发布者）；为空时不通知
+     * @param statsEvents 新建与重新评分的撮合计入经营统计；可为空
+     * @return 新建的撮合数
+     */
+    public static int upsert(ExecutionContext ec, SmartMatchingEngine engine, EntityValue sourceListing,
+                             List<Map<String, Object>> results, NotificationOutbox outbox, MerchantStatsEvents statsEvents) {
+        if (sourceListing == null || results == null || results.isEmpty()) return 0;
+        boolean sourceIsSupply = "SUPPLY".equals(sourceListing.getString("listingType"));
+        String pairSourceField = sourceIsSupply ? "supplyListingId" : "demandListingId";
+        String pairCandidateField = sourceIsSupply ? "demandListingId" : "supplyListingId";
+
+        // 一次查询已存在的供需对，避免逐个候选查询
+        List<String> candidateIds = new ArrayList<>(results.size());
+        for (Map<String, Object> result : results) {
+            EntityValue candidate = (EntityValue) result.get("candidateListing");
+            if (candidate != null) candidateIds.add(candidate.getString("listingId"));
+        }
+        if (candidateIds.isEmpty()) return 0;
+        Map<String, EntityValue> existingByCandidate = new HashMap<>();
+        for (EntityValue existing : ec.getEntity().find(MATCH_ENTITY)
+                .condition(pairSourceField, sourceListing.getString("listingId"))
+                .condition(pairCandidateField, EntityCondition.IN, candidateIds)
+                .forUpdate(true)
+                .list()) {
+            existingByCandidate.put(existing.getString(pairCandidateField), existing);
+        }
+
+        Timestamp now = ec.getUser().getNowTimestamp();
+        int created = 0;
+        for (Map<String, Object> result : results) {
+            EntityValue candidate = (EntityValue) result.get("candidateListing");
+            if (candidate == null) continue;
+            EntityValue supply = sourceIsSupply ? sourceListing : candidate;
+            EntityValue demand = sourceIsSupply ? candidate : sourceListing;
+            String category = supply.getString("category") != null ? supply.getString("category") : demand.getString("category");
+            Map<String, Object> scoreFields = new HashMap<>();
+            scoreFields.put("matchScore", result.get("matchScore"));
+            scoreFields.put("matchReason", engine.generateMatchReason(result, supply, demand));
+            scoreFields.put("tagSimilarity", result.get("tagSimilarity"));
+            scoreFields.put("geoProximity", result.get("geoProximity"));
+            scoreFields.put("priceMatch", result.get("priceMatch"));
+            scoreFields.put("freshnessScore", result.get("freshnessScore"));
+            scoreFields.put("preferenceScore", result.get("preferenceScore"));
+            scoreFields.put("projectAffinity", result.get("projectAffinity"));
+
+            EntityValue existing = existingByCandidate.get(candidate.getString("listingId"));
+            if (existing != null) {
+                // 已被查看或联系的匹配保留原状态，不覆盖
+                if ("SUGGESTED".equals(existing.getString("status"))) {
+                    Object oldScore = existing.get("matchScore");
+                    existing.setAll(scoreFields);
+                    existing.store();
+                    if (statsEvents != null) {
+                        statsEvents.matchRescored(supply.getString("publisherId"), demand.getString("publisherId"), category,
+                                oldScore, existing.get("matchScore"), (Timestamp) existing.get("suggestedDate"));
+                    }
+                }
+                result.put("matchId", existing.getString("matchId"));
+                continue;
+            }
+
+            EntityValue match = ec.getEntity().makeValue(MATCH_ENTITY);
+            match.setAll(scoreFields);
+            match.set("supplyListingId", supply.getString("listingId"));
+            match.set("demandListingId", demand.getString("listingId"));
+            match.set("status", "SUGGESTED");
+            match.set("suggestedDate", now);
+            match.set("notifiedToSupplier", "N");
+            match.set("notifiedToDemander", "N");
+            match.setSequencedIdPrimary();
+            match.create();
+            existingByCandidate.put(candidate.getString("listingId"), match);
+            result.put("matchId", match.getString("matchId"));
+            created++;
+            if (statsEvents != null) {
+                statsEvents.matchCreated(supply.getString("publisherId"), demand.getString("publisherId"), category,
+                        match.get("matchScore"), now);
+            }
+            if (outbox != null) {
+                outbox.add(candidate.getString("publisherId"), match.getString("matchId"), "NEW_MATCH", "ROCKETCHAT",
+                        sourceIsSupply ? NotificationOutbox.ROLE_DEMANDER : NotificationOutbox.ROLE_SUPPLIER, null);
+            }
+        }
+        return created;
+    }
+}
@@ -0,0 +1,143 @@
+package org.moqui.marketplace.matching;
+
+/**
+ * 有界Top-K选择器
+ * 以原始long/int数组维护容量为K的小顶堆，只保留分数最高的K个候选下标，避免为全部候选构建结果Map再整体排序。
+ * 同分时下标较小者优先，与按分数稳定排序的结果一致。
+ */
+final class TopKSelector {
+    private final int capacity;
+    private final long[] scores;
+    private final int[] indexes;
+    private int size = 0;
+    /** 提交过的候选总数（含被丢弃者），合并时累加 */
+    private int offered = 0;
+
+    TopKSelector(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.scores = new long[this.capacity];
+        this.indexes = new int[this.capacity];
+    }
+
+    /**
+     * 提交一个候选；堆已满且不优于堆顶时直接丢弃
+     */
+    void offer(long score, int index) {
+        offered++;
+        insert(score, index);
+    }
+
+    private void insert(long score, int index) {
+        if (capacity == 0) return;
+        if (size < capacity) {
+            scores[size] = score;
+            indexes[size] = index;
+            siftUp(size++);
+        } else if (better(score, index, scores[0], indexes[0])) {
+            scores[0] = score;
+            indexes[0] = index;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * 合并另一个选择器的结果（用于分段并行评分后的汇总）
+     */
+    void merge(TopKSelector other) {
+        for (int i = 0; i < other.size; i++) {
+            insert(other.scores[i], other.indexes[i]);
+        }
+        offered += other.offered;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int offered() {
+        return offered;
+    }
+
+    /**
+     * 按分数降序（同分按下标升序）返回保留的候选下标
+     */
+    int[] sortedIndexes() {
+        int[] result = new int[size];
+        sort(null, result);
+        return result;
+    }
+
+    /**
+     * 与 sortedIndexes 同序的分数
+     */
+    long[] sortedScores() {
+        long[] result = new long[size];
+        sort(result, null);
+        return result;
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * 当前保留者中最差的分数（堆顶），为空时返回 Long.MIN_VALUE
+     */
+    long worstScore() {
+        return size > 0 ? scores[0] : Long.MIN_VALUE;
+    }
+
+    private void sort(long[] sortedScores, int[] sortedIndexes) {
+        long[] heapScores = scores.clone();
+        int[] heapIndexes = indexes.clone();
+        int remaining = size;
+        // 依次弹出堆顶（当前最差者）放在结果末尾
+        while (remaining > 0) {
+            if (sortedScores != null) sortedScores[remaining - 1] = heapScores[0];
+            if (sortedIndexes != null) sortedIndexes[remaining - 1] = heapIndexes[0];
+            remaining--;
+            heapScores[0] = heapScores[remaining];
+            heapIndexes[0] = heapIndexes[remaining];
+            siftDown(heapScores, heapIndexes, remaining, 0);
+        }
+    }
+
+    private static boolean better(long score1, int index1, long score2, int index2) {
+        return score1 > score2 || (score1 == score2 && index1 < index2);
+    }
+
+    private void siftUp(int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!better(scores[parent], indexes[parent], scores[pos], indexes[pos])) break;
+            swap(scores, indexes, parent, pos);
+            pos = parent;
+        }
+    }
+
+    private void siftDown(int pos) {
+        siftDown(scores, indexes, size, pos);
+    }
+
+    private static void siftDown(long[] scores, int[] indexes, int size, int pos) {
+        while (true) {
+            int left = 2 * pos + 1;
+            if (left >= size) return;
+            int worst = left;
+            int right = left + 1;
+            if (right < size && better(scores[left], indexes[left], scores[right], indexes[right])) worst = right;
+            if (!better(scores[pos], indexes[pos], scores[worst], indexes[worst])) return;
+            swap(scores, indexes, pos, worst);
+            pos = worst;
+        }
+    }
+
+    private static void swap(long[] scores, int[] indexes, int i, int j) {
+        long score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+        int index = indexes[i];
+        indexes[i] = indexes[j];
+        indexes[j] = index;
+    }
+}
@@ -0,0 +1,282 @@
+package org.moqui.marketplace.notification;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 撮合通知发送的进程内协调
+ * 待发通知持久化在 MatchNotification 实体中（见 NotificationOutbox）；这里负责限制同时发送的线程数、
+ * 按渠道的令牌桶限流、失败重试的退避时间、同一接收人多条通知的摘要文案，以及发送计数。
+ */
+public final class NotificationDispatcher {
+    public static final List<String> CHANNELS = Collections.unmodifiableList(Arrays.asList("ROCKETCHAT", "SMS", "EMAIL"));
+
+    public static final String WORKERS_PROPERTY = "marketplace.notification.dispatch.workers";
+    public static final String BATCH_SIZE_PROPERTY = "marketplace.notification.dispatch.batch.size";
+    public static final String MAX_ATTEMPTS_PROPERTY = "marketplace.notification.dispatch.max.attempts";
+    public static final String BACKOFF_SECONDS_PROPERTY = "marketplace.notification.dispatch.backoff.seconds";
+    public static final String DIGEST_SECONDS_PROPERTY = "marketplace.notification.digest.seconds";
+    /** 按渠道配置，如 marketplace.notification.sms.rate.per.minute */
+    public static final String CHANNEL_PROPERTY_PREFIX = "marketplace.notification.";
+
+    private static final int DEFAULT_WORKERS = 1;
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final int DEFAULT_BACKOFF_SECONDS = 30;
+    private static final int DEFAULT_DIGEST_SECONDS = 30;
+    private static final long MAX_BACKOFF_MILLIS = 3_600_000L;
+    private static final Map<String, Integer> DEFAULT_RATE_PER_MINUTE;
+    static {
+        Map<String, Integer> rates = new HashMap<>();
+        rates.put("ROCKETCHAT", 120);
+        rates.put("SMS", 20);
+        rates.put("EMAIL", 60);
+        DEFAULT_RATE_PER_MINUTE = Collections.unmodifiableMap(rates);
+    }
+
+    private static final AtomicInteger activeWorkers = new AtomicInteger();
+    private static final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private static final AtomicLong queuedCount = new AtomicLong();
+    private static final AtomicLong sentCount = new AtomicLong();
+    private static final AtomicLong messageCount = new AtomicLong();
+    private static final AtomicLong throttledCount = new AtomicLong();
+    private static final AtomicLong retriedCount = new AtomicLong();
+    private static final AtomicLong failedCount = new AtomicLong();
+    private static final AtomicLong droppedCount = new AtomicLong();
+    private static volatile long lastSentMillis = 0L;
+
+    private NotificationDispatcher() { }
+
+    // ==================== 工作线程 ====================
+
+    public static boolean tryAcquireWorker() {
+        int max = getMaxWorkers();
+        while (true) {
+            int current = activeWorkers.get();
+            if (current >= max) return false;
+            if (activeWorkers.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    public static void releaseWorker() {
+        activeWorkers.updateAndGet(current -> current > 0 ? current - 1 : 0);
+    }
+
+    public static boolean hasIdleWorker() {
+        return activeWorkers.get() < getMaxWorkers();
+    }
+
+    // ==================== 限流 ====================
+
+    /**
+     * 为渠道取一个发送令牌（一条消息，摘要也只算一条），没有可用令牌时返回false
+     */
+    public static boolean tryAcquire(String channel) {
+        return bucket(channel).tryAcquire();
+    }
+
+    /** 渠道下一个令牌可用前需要等待的毫秒数 */
+    public static long millisUntilAvailable(String channel) {
+        return bucket(channel).millisUntilAvailable();
+    }
+
+    /** 渠道当前可用的令牌数，用于限制一次领取的接收人数 */
+    public static int availableTokens(String channel) {
+        return bucket(channel).available();
+    }
+
+    private static TokenBucket bucket(String channel) {
+        String key = channel == null ? NotificationOutbox.DEFAULT_CHANNEL : channel.toUpperCase();
+        int ratePerMinute = getRatePerMinute(key);
+        int burst = getBurst(key, ratePerMinute);
+        // 配置变更时重建令牌桶；compute 保证并发调用只保留一个令牌桶，不会各自拿到新桶而放大突发
+        return buckets.compute(key, (k, bucket) ->
+                bucket == null || bucket.ratePerMinute != ratePerMinute || bucket.capacity != burst
+                        ? new TokenBucket(ratePerMinute, burst) : bucket);
+    }
+
+    static final class TokenBucket {
+        final int ratePerMinute;
+        final int capacity;
+        private final double tokensPerMilli;
+        private double tokens;
+        private long lastRefillMillis;
+
+        TokenBucket(int ratePerMinute, int capacity) {
+            this.ratePerMinute = ratePerMinute;
+            this.capacity = capacity;
+            this.tokensPerMilli = ratePerMinute / 60_000.0;
+            this.tokens = capacity;
+            this.lastRefillMillis = System.currentTimeMillis();
+        }
+
+        synchronized boolean tryAcquire() {
+            refill();
+            if (tokens < 1.0) return false;
+            tokens -= 1.0;
+            return true;
+        }
+
+        synchronized long millisUntilAvailable() {
+            refill();
+            if (tokens >= 1.0) return 0L;
+            return (long) Math.ceil((1.0 - tokens) / tokensPerMilli);
+        }
+
+        synchronized int available() {
+            refill();
+            return (int) Math.floor(tokens);
+        }
+
+        private void refill() {
+            long now = System.currentTimeMillis();
+            if (now > lastRefillMillis) {
+                tokens = Math.min(capacity, tokens + (now - lastRefillMillis) * tokensPerMilli);
+                lastRefillMillis = now;
+            }
+        }
+    }
+
+    // ==================== 重试与文案 ====================
+
+    /** 第 attempt 次失败后的重试等待：backoff.seconds 起按次数翻倍，最长1小时 */
+    public static long backoffMillis(int attempt) {
+        long base = getBackoffSeconds() * 1000L;
+        int shift = Math.min(Math.max(attempt - 1, 0), 20);
+        return Math.min(MAX_BACKOFF_MILLIS, base << shift);
+    }
+
+    public static String defaultMessage(String notificationType) {
+        if ("CONTACT_REQUEST".equals(notificationType)) return "有商家希望与您联系，请登录平台查看详情。";
+        return "您有新的撮合更新，请登录平台查看详情。";
+    }
+
+    /**
+     * 同一接收人的多条通知合并后的摘要文案
+     */
+    public static String digestMessage(Map<String, Integer> countByType) {
+        int total = 0;
+        for (Integer count : countByType.values()) total += count;
+        StringBuilder message = new StringBuilder("您有").append(total).append("条撮合更新");
+        List<String> parts = new ArrayList<>();
+        Integer newMatches = countByType.get("NEW_MATCH");
+        if (newMatches != null) parts.add(newMatches + "条新匹配");
+        Integer contactRequests = countByType.get("CONTACT_REQUEST");
+        if (contactRequests != null) parts.add(contactRequests + "条联系请求");
+        if (!parts.isEmpty()) message.append("（").append(String.join("，", parts)).append("）");
+        return message.append("，请登录平台查看详情。").toString();
+    }
+
+    // ==================== 计数 ====================
+
+    public static void recordQueued(int count) {
+        queuedCount.addAndGet(count);
+    }
+
+    /**
+     * @param notificationCount 本条消息包含的通知数（摘要大于1）
+     */
+    public static void recordSent(int notificationCount) {
+        messageCount.incrementAndGet();
+        sentCount.addAndGet(notificationCount);
+        lastSentMillis = System.currentTimeMillis();
+    }
+
+    public static void recordThrottled(int notificationCount) {
+        throttledCount.addAndGet(notificationCount);
+    }
+
+    /** 缺少接收人或撮合ID、未写入发件箱的通知 */
+    public static void recordDropped(int count) {
+        droppedCount.addAndGet(count);
+    }
+
+    public static void recordFailure(boolean willRetry) {
+        if (willRetry) retriedCount.incrementAndGet();
+        else failedCount.incrementAndGet();
+    }
+
+    /** 进程内累计计数（自启动以来） */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activeWorkers", activeWorkers.get());
+        stats.put("maxWorkers", getMaxWorkers());
+        stats.put("queued", queuedCount.get());
+        stats.put("sent", sentCount.get());
+        stats.put("messages", messageCount.get());
+        stats.put("throttled", throttledCount.get());
+        stats.put("retried", retriedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("dropped", droppedCount.get());
+        stats.put("lastSentMillis", lastSentMillis);
+        Map<String, Object> channels = new LinkedHashMap<>();
+        for (String channel : CHANNELS) {
+            Map<String, Object> channelInfo = new LinkedHashMap<>();
+            channelInfo.put("ratePerMinute", getRatePerMinute(channel));
+            channelInfo.put("burst", getBurst(channel, getRatePerMinute(channel)));
+            channelInfo.put("deliveryService", getDeliveryService(channel));
+            channels.put(channel, channelInfo);
+        }
+        stats.put("channels", channels);
+        return stats;
+    }
+
+    // ==================== 配置 ====================
+
+    public static int getMaxWorkers() {
+        return Math.max(1, intProperty(WORKERS_PROPERTY, DEFAULT_WORKERS));
+    }
+
+    public static int getBatchSize() {
+        return Math.max(1, intProperty(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE));
+    }
+
+    public static int getMaxAttempts() {
+        return Math.max(1, intProperty(MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS));
+    }
+
+    public static int getBackoffSeconds() {
+        return Math.max(1, intProperty(BACKOFF_SECONDS_PROPERTY, DEFAULT_BACKOFF_SECONDS));
+    }
+
+    /** 同一接收人在该时间内的通知合并为一条摘要，0表示不等待 */
+    public static int getDigestSeconds() {
+        return Math.max(0, intProperty(DIGEST_SECONDS_PROPERTY, DEFAULT_DIGEST_SECONDS));
+    }
+
+    public static int getRatePerMinute(String channel) {
+        return Math.max(1, intProperty(channelProperty(channel, "rate.per.minute"),
+                DEFAULT_RATE_PER_MINUTE.getOrDefault(channel, 60)));
+    }
+
+    /** 令牌桶容量（允许的突发条数），默认每分钟速率的1/6且至少1条 */
+    public static int getBurst(String channel, int ratePerMinute) {
+        return Math.max(1, intProperty(channelProperty(channel, "burst"), Math.max(1, ratePerMinute / 6)));
+    }
+
+    /**
+     * 渠道实际投递的服务名（入参 channel、recipientPartyId、messageContent、notificationIds），
+     * 未配置时只记录日志并视为已发送，与原占位实现一致
+     */
+    public static String getDeliveryService(String channel) {
+        String value = System.getProperty(channelProperty(channel, "service"));
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    private static String channelProperty(String channel, String suffix) {
+        return CHANNEL_PROPERTY_PREFIX + (channel == null ? "" : channel.toLowerCase()) + "." + suffix;
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
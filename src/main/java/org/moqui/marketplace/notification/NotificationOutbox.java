@@ -0,0 +1,126 @@
+package org.moqui.marketplace.notification;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 撮合通知发件箱，只在单个线程内使用
+ * 写入方在事务中收集待发通知，write 一次批量插入 MatchNotification（PENDING），事务提交后唤醒
+ * dispatch#MatchNotifications 按渠道发送；回滚的写入不会产生通知。
+ */
+public final class NotificationOutbox {
+    private static final Logger logger = LoggerFactory.getLogger(NotificationOutbox.class);
+
+    public static final String ENTITY_NAME = "marketplace.notification.MatchNotification";
+    public static final String DEFAULT_CHANNEL = "ROCKETCHAT";
+
+    public static final String ROLE_SUPPLIER = "SUPPLIER";
+    public static final String ROLE_DEMANDER = "DEMANDER";
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    private NotificationOutbox() { }
+
+    public static NotificationOutbox create() {
+        return new NotificationOutbox();
+    }
+
+    /**
+     * @param recipientRole SUPPLIER 或 DEMANDER，发送成功后据此更新撮合记录的已通知标记；可为空
+     * @param messageContent 为空时按通知类型使用默认文案
+     * 缺少接收人或撮合ID的通知无法发送与回写，渠道不在 NotificationDispatcher.CHANNELS 中的通知不会被任何发送线程领取，
+     * 都记录警告并计入 NotificationDispatcher 的 dropped 计数后丢弃
+     */
+    public NotificationOutbox add(String recipientPartyId, String matchId, String notificationType, String channel,
+                                  String recipientRole, String messageContent) {
+        if (recipientPartyId == null || recipientPartyId.isEmpty() || matchId == null || matchId.isEmpty()) {
+            NotificationDispatcher.recordDropped(1);
+            logger.warn("Dropped {} notification without {} (recipient {}, match {})", notificationType,
+                    matchId == null || matchId.isEmpty() ? "matchId" : "recipient", recipientPartyId, matchId);
+            return this;
+        }
+        String channelKey = channel == null || channel.isEmpty() ? DEFAULT_CHANNEL : channel.toUpperCase(Locale.ROOT);
+        if (!NotificationDispatcher.CHANNELS.contains(channelKey)) {
+            NotificationDispatcher.recordDropped(1);
+            logger.warn("Dropped {} notification for unsupported channel {} (recipient {}, match {})", notificationType,
+                    channel, recipientPartyId, matchId);
+            return this;
+        }
+        entries.add(new Entry(recipientPartyId, matchId,
+                notificationType == null || notificationType.isEmpty() ? "NEW_MATCH" : notificationType,
+                channelKey, recipientRole, messageContent));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 批量写入待发通知并在事务提交后唤醒发送线程，返回通知ID（与 add 顺序一致）
+     * 每条通知的可发送时间推迟 digest 窗口，同一接收人在窗口内的后续通知会合并为一条摘要发送。
+     */
+    public List<String> write(ExecutionContext ec) {
+        if (entries.isEmpty()) return Collections.emptyList();
+        Timestamp now = ec.getUser().getNowTimestamp();
+        List<EntityValue> values = new ArrayList<>(entries.size());
+        List<String> notificationIds = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            EntityValue value = ec.getEntity().makeValue(ENTITY_NAME);
+            value.set("recipientPartyId", entry.recipientPartyId);
+            value.set("matchId", entry.matchId);
+            value.set("notificationType", entry.notificationType);
+            value.set("channel", entry.channel);
+            value.set("recipientRole", entry.recipientRole);
+            value.set("messageContent", entry.messageContent != null ? entry.messageContent
+                    : NotificationDispatcher.defaultMessage(entry.notificationType));
+            value.set("status", "PENDING");
+            value.set("attemptCount", 0L);
+            value.set("createdDate", now);
+            value.set("availableDate", new Timestamp(now.getTime() + NotificationDispatcher.getDigestSeconds() * 1000L));
+            value.setSequencedIdPrimary();
+            values.add(value);
+            notificationIds.add(value.getString("notificationId"));
+        }
+        ec.getEntity().createBulk(values);
+        NotificationDispatcher.recordQueued(values.size());
+        entries.clear();
+
+        // 发送线程已满时不再唤醒，由正在运行的发送线程与定时任务继续排空
+        if (NotificationDispatcher.hasIdleWorker()) {
+            ec.getService().special().name("marketplace.NotificationServices.dispatch#MatchNotifications").registerOnCommit();
+        }
+        return notificationIds;
+    }
+
+    private static final class Entry {
+        final String recipientPartyId;
+        final String matchId;
+        final String notificationType;
+        final String channel;
+        final String recipientRole;
+        final String messageContent;
+
+        Entry(String recipientPartyId, String matchId, String notificationType, String channel,
+              String recipientRole, String messageContent) {
+            this.recipientPartyId = recipientPartyId;
+            this.matchId = matchId;
+            this.notificationType = notificationType;
+            this.channel = channel;
+            this.recipientRole = recipientRole;
+            this.messageContent = messageContent;
+        }
+    }
+}
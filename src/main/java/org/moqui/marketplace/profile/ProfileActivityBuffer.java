@@ -0,0 +1,163 @@
+package org.moqui.marketplace.profile;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 用户画像计数的进程内合并缓冲
+ * record#UserBehavior 提交后把行为累加到所属 partyId 的增量（发布、联系、下单次数与最近行为时间），
+ * flush#ProfileCounters 一次取走全部增量，在独立事务内按 partyId 批量累加到 UserProfile；
+ * 同一用户在两次刷新之间的多次行为只产生一次画像更新。
+ *
+ * 对账以开始时刻为界：对账用户不晚于该时刻的行为由对账按行为记录统计，之后到达缓冲的这类行为直接丢弃，
+ * 晚于该时刻的行为照常累加，刷新与对账交错时不会重复计数。
+ *
+ * 缓冲不持久化，进程异常退出时未刷新的增量由每日的 reconcile#UserProfiles 全量对账补齐。
+ */
+public final class ProfileActivityBuffer {
+    /** 待刷新的用户数达到该值时立即触发一次刷新，否则等定时任务 */
+    public static final int FLUSH_THRESHOLD = 500;
+
+    private static final Map<String, Delta> pending = new ConcurrentHashMap<>();
+    private static final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private static final AtomicLong recordedCount = new AtomicLong();
+    private static final AtomicLong flushedProfiles = new AtomicLong();
+    private static final AtomicLong skippedCount = new AtomicLong();
+    /** 对账界限在事务超时之后不再有意义，开始新的对账时清理 */
+    private static final long CUTOFF_RETENTION_MILLIS = 60 * 60_000L;
+    /** partyId -> 最近一次对账的界限；record 持读锁，beginReconcile 持写锁 */
+    private static final Map<String, Long> reconcileCutoffs = new ConcurrentHashMap<>();
+    private static final ReentrantReadWriteLock cutoffLock = new ReentrantReadWriteLock();
+
+    private ProfileActivityBuffer() { }
+
+    /**
+     * 单个用户的待刷新增量；只在 ConcurrentHashMap.compute 内修改，取走后不再变化
+     */
+    public static final class Delta {
+        private long listings;
+        private long matches;
+        private long orders;
+        private Timestamp lastActiveDate;
+
+        public long getListings() {
+            return listings;
+        }
+
+        public long getMatches() {
+            return matches;
+        }
+
+        public long getOrders() {
+            return orders;
+        }
+
+        public Timestamp getLastActiveDate() {
+            return lastActiveDate;
+        }
+
+        void add(Delta other) {
+            listings += other.listings;
+            matches += other.matches;
+            orders += other.orders;
+            touch(other.lastActiveDate);
+        }
+
+        void touch(Timestamp date) {
+            if (date != null && (lastActiveDate == null || lastActiveDate.before(date))) lastActiveDate = date;
+        }
+    }
+
+    /**
+     * 累加一条已提交的行为；PUBLISH、CONTACT、ORDER 分别计入发布、撮合、订单数，其他类型只更新最近活跃时间
+     *
+     * @return true表示待刷新用户数达到阈值且此前未请求刷新，调用方应立即安排一次刷新
+     */
+    public static boolean record(String partyId, String behaviorType, Timestamp createdDate) {
+        if (partyId == null) return false;
+        cutoffLock.readLock().lock();
+        try {
+            Long cutoff = reconcileCutoffs.get(partyId);
+            if (cutoff != null && createdDate != null && createdDate.getTime() <= cutoff) {
+                skippedCount.incrementAndGet();
+                return false;
+            }
+            pending.compute(partyId, (key, delta) -> {
+                if (delta == null) delta = new Delta();
+                if ("PUBLISH".equals(behaviorType)) delta.listings++;
+                else if ("CONTACT".equals(behaviorType)) delta.matches++;
+                else if ("ORDER".equals(behaviorType)) delta.orders++;
+                delta.touch(createdDate);
+                return delta;
+            });
+        } finally {
+            cutoffLock.readLock().unlock();
+        }
+        recordedCount.incrementAndGet();
+        return pending.size() >= FLUSH_THRESHOLD && flushRequested.compareAndSet(false, true);
+    }
+
+    /**
+     * 取走全部待刷新增量（按 partyId 排序，批量加锁时顺序一致）
+     */
+    public static Map<String, Delta> drain() {
+        flushRequested.set(false);
+        List<String> partyIds = new ArrayList<>(pending.keySet());
+        partyIds.sort(null);
+        Map<String, Delta> drained = new LinkedHashMap<>();
+        for (String partyId : partyIds) {
+            Delta delta = pending.remove(partyId);
+            if (delta != null) drained.put(partyId, delta);
+        }
+        return drained;
+    }
+
+    /**
+     * 刷新失败时放回增量，与期间新累加的增量合并
+     */
+    public static void restore(Map<String, Delta> deltas) {
+        for (Map.Entry<String, Delta> entry : deltas.entrySet()) {
+            pending.merge(entry.getKey(), entry.getValue(), (current, restored) -> {
+                current.add(restored);
+                return current;
+            });
+        }
+    }
+
+    /**
+     * 对账开始：这些用户不晚于 cutoffMillis 的行为此后不再累加，已缓冲的增量（均已提交、会被对账统计到）丢弃
+     */
+    static void beginReconcile(Collection<String> partyIds, long cutoffMillis) {
+        cutoffLock.writeLock().lock();
+        try {
+            reconcileCutoffs.values().removeIf(cutoff -> cutoff < cutoffMillis - CUTOFF_RETENTION_MILLIS);
+            for (String partyId : partyIds) {
+                reconcileCutoffs.merge(partyId, cutoffMillis, Math::max);
+                pending.remove(partyId);
+            }
+        } finally {
+            cutoffLock.writeLock().unlock();
+        }
+    }
+
+    public static void recordFlushed(int profileCount) {
+        flushedProfiles.addAndGet(profileCount);
+    }
+
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendingProfiles", pending.size());
+        stats.put("recordedBehaviors", recordedCount.get());
+        stats.put("flushedProfiles", flushedProfiles.get());
+        stats.put("skippedBehaviors", skippedCount.get());
+        return stats;
+    }
+}
@@ -0,0 +1,195 @@
+package org.moqui.marketplace.profile;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityConditionFactory;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * UserProfile 行为计数（totalListings、totalMatches、totalOrders、lastActiveDate）的批量写入
+ * flush 把 ProfileActivityBuffer 中的增量累加到画像；reconcile 按 UserBehaviorSummary 分组统计重写绝对值，
+ * 用于单个用户的重建与定时全量对账。画像按 partyId 升序一次 IN 查询加锁，批次之间锁顺序一致。
+ *
+ * flush 与 reconcile 在本JVM内互斥：对账统计与写入期间不会有已取走、未提交的增量；
+ * 对账提交前开始的刷新会在画像行锁上等待对账提交，再累加对账界限之后的增量。
+ */
+public final class ProfileCounters {
+    private static final Logger logger = LoggerFactory.getLogger(ProfileCounters.class);
+
+    /** 每次 IN 查询加锁的画像数 */
+    public static final int BATCH_SIZE = 500;
+    /** 另一节点同时插入同一画像时的重试次数 */
+    private static final int STORE_ATTEMPTS = 2;
+    private static final String STORE_SERVICE = "marketplace.ProfileServices.store#ProfileCounterDeltas";
+
+    private static final ReentrantLock writeLock = new ReentrantLock();
+
+    private ProfileCounters() { }
+
+    /**
+     * 取走缓冲中的全部增量，在独立事务中累加到画像；另一节点先插入了同一画像时重试，
+     * 仍失败（含提交失败）则放回缓冲等下次刷新
+     *
+     * @return 更新的画像数
+     */
+    public static int flush(ExecutionContext ec) {
+        writeLock.lock();
+        try {
+            Map<String, ProfileActivityBuffer.Delta> deltas = ProfileActivityBuffer.drain();
+            if (deltas.isEmpty()) return 0;
+            String errorText = null;
+            for (int attempt = 1; attempt <= STORE_ATTEMPTS; attempt++) {
+                errorText = null;
+                try {
+                    Map<String, Object> parameters = new HashMap<>();
+                    parameters.put("deltas", deltas);
+                    ec.getService().sync().name(STORE_SERVICE).parameters(parameters).requireNewTransaction(true).call();
+                    if (ec.getMessage().hasError()) errorText = ec.getMessage().getErrorsString();
+                } catch (RuntimeException e) {
+                    errorText = e.toString();
+                }
+                if (errorText == null) break;
+                ec.getMessage().clearErrors();
+            }
+            if (errorText != null) {
+                ProfileActivityBuffer.restore(deltas);
+                logger.warn("Profile counter flush of {} profiles failed, deltas restored: {}", deltas.size(), errorText);
+                return 0;
+            }
+            ProfileActivityBuffer.recordFlushed(deltas.size());
+            return deltas.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 把一批增量累加到画像（store#ProfileCounterDeltas，在独立事务中执行），缺少的画像直接插入
+     */
+    public static void storeDeltas(ExecutionContext ec, Map<String, ProfileActivityBuffer.Delta> deltas) {
+        if (deltas == null || deltas.isEmpty()) return;
+        Timestamp now = ec.getUser().getNowTimestamp();
+        List<String> partyIds = new ArrayList<>(new TreeSet<>(deltas.keySet()));
+        for (int from = 0; from < partyIds.size(); from += BATCH_SIZE) {
+            List<String> batch = partyIds.subList(from, Math.min(from + BATCH_SIZE, partyIds.size()));
+            Map<String, EntityValue> profiles = lockProfiles(ec, batch);
+            for (String partyId : batch) {
+                ProfileActivityBuffer.Delta delta = deltas.get(partyId);
+                EntityValue profile = profiles.get(partyId);
+                boolean created = profile == null;
+                if (created) profile = newProfile(ec, partyId, now);
+                profile.set("totalListings", longValue(profile.get("totalListings")) + delta.getListings());
+                profile.set("totalMatches", longValue(profile.get("totalMatches")) + delta.getMatches());
+                profile.set("totalOrders", longValue(profile.get("totalOrders")) + delta.getOrders());
+                Timestamp lastActive = (Timestamp) profile.get("lastActiveDate");
+                if (delta.getLastActiveDate() != null && (lastActive == null || lastActive.before(delta.getLastActiveDate()))) {
+                    profile.set("lastActiveDate", delta.getLastActiveDate());
+                }
+                if (created) profile.create();
+                else profile.store();
+            }
+        }
+    }
+
+    /**
+     * 按行为记录重新统计指定用户的计数并写入画像（在调用方事务中执行）
+     * 每批以开始时刻为界，只统计不晚于该时刻的行为，缓冲中这些用户更早的增量丢弃、更晚的增量保留。
+     *
+     * @return 更新的画像数
+     */
+    public static int reconcile(ExecutionContext ec, Collection<String> partyIds) {
+        if (partyIds == null || partyIds.isEmpty()) return 0;
+        writeLock.lock();
+        try {
+            return reconcileLocked(ec, partyIds);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static int reconcileLocked(ExecutionContext ec, Collection<String> partyIds) {
+        List<String> sorted = new ArrayList<>(new TreeSet<>(partyIds));
+        Timestamp now = ec.getUser().getNowTimestamp();
+        EntityConditionFactory cf = ec.getEntity().getConditionFactory();
+        int updated = 0;
+        for (int from = 0; from < sorted.size(); from += BATCH_SIZE) {
+            List<String> batch = sorted.subList(from, Math.min(from + BATCH_SIZE, sorted.size()));
+            Timestamp cutoff = new Timestamp(System.currentTimeMillis());
+            ProfileActivityBuffer.beginReconcile(batch, cutoff.getTime());
+
+            Map<String, long[]> counts = new HashMap<>();
+            Map<String, Timestamp> lastDates = new HashMap<>();
+            for (EntityValue summary : ec.getEntity().find("marketplace.profile.UserBehaviorSummary")
+                    .condition("partyId", EntityCondition.IN, batch)
+                    .condition(cf.makeCondition(cf.makeCondition("createdDate", EntityCondition.LESS_THAN_EQUAL_TO, cutoff),
+                            EntityCondition.OR, cf.makeCondition("createdDate", EntityCondition.IS_NULL, null)))
+                    .selectField("partyId").selectField("behaviorType")
+                    .selectField("behaviorCount").selectField("lastBehaviorDate")
+                    .list()) {
+                String partyId = summary.getString("partyId");
+                long[] partyCounts = counts.computeIfAbsent(partyId, k -> new long[3]);
+                long count = longValue(summary.get("behaviorCount"));
+                String behaviorType = summary.getString("behaviorType");
+                if ("PUBLISH".equals(behaviorType)) partyCounts[0] += count;
+                else if ("CONTACT".equals(behaviorType)) partyCounts[1] += count;
+                else if ("ORDER".equals(behaviorType)) partyCounts[2] += count;
+                Timestamp last = (Timestamp) summary.get("lastBehaviorDate");
+                if (last != null) lastDates.merge(partyId, last, (a, b) -> a.after(b) ? a : b);
+            }
+
+            Map<String, EntityValue> profiles = lockProfiles(ec, batch);
+            for (String partyId : batch) {
+                long[] partyCounts = counts.getOrDefault(partyId, new long[3]);
+                EntityValue profile = profiles.get(partyId);
+                boolean created = profile == null;
+                if (created) profile = newProfile(ec, partyId, now);
+                profile.set("totalListings", partyCounts[0]);
+                profile.set("totalMatches", partyCounts[1]);
+                profile.set("totalOrders", partyCounts[2]);
+                if (lastDates.containsKey(partyId)) profile.set("lastActiveDate", lastDates.get(partyId));
+                if (created) profile.create();
+                else profile.store();
+                updated++;
+            }
+        }
+        logger.info("Reconciled behavior counters for {} user profiles", updated);
+        return updated;
+    }
+
+    private static Map<String, EntityValue> lockProfiles(ExecutionContext ec, List<String> partyIds) {
+        Map<String, EntityValue> profiles = new HashMap<>();
+        for (EntityValue profile : ec.getEntity().find("marketplace.profile.UserProfile")
+                .condition("partyId", EntityCondition.IN, partyIds)
+                .orderBy("partyId")
+                .forUpdate(true)
+                .list()) {
+            profiles.put(profile.getString("partyId"), profile);
+        }
+        return profiles;
+    }
+
+    private static EntityValue newProfile(ExecutionContext ec, String partyId, Timestamp now) {
+        EntityValue profile = ec.getEntity().makeValue("marketplace.profile.UserProfile");
+        profile.set("partyId", partyId);
+        profile.set("profileType", "MERCHANT");
+        profile.set("creditScore", new BigDecimal("0.80"));
+        profile.set("totalListings", 0L);
+        profile.set("totalMatches", 0L);
+        profile.set("totalOrders", 0L);
+        profile.set("createdDate", now);
+        return profile;
+    }
+
+    private static long longValue(Object value) {
+        if (value == null) return 0L;
+        if (value instanceof Number) return ((Number) value).longValue();
+        return new BigDecimal(value.toString()).longValue();
+    }
+}
@@ -0,0 +1,435 @@
+package org.moqui.marketplace.stats;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityConditionFactory;
+import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityListIterator;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按商家与品类的经营统计汇总（MerchantStatsBucket）
+ * 每行是一个商家在一个时段（HOUR 小时、DAY 日、TOTAL 累计）内某品类的发布数、撮合数与分数合计、
+ * 完成订单数、成交额与收到的评价；merchantId 为 ALL_MERCHANTS 的行是全平台合计。
+ * 写入方提交后经 MerchantStatsBuffer 合并，flush 在独立事务中批量累加；rebuild 从 Listing、Match、MatchOrder 全量回填，
+ * 回填界限记在 MerchantStatsFence 中，各节点刷新时据此丢弃已被回填计入的增量。
+ * 控制台与商家统计只读取固定数量的汇总行（按品类数与时段数），不随业务数据增长；
+ * 读取不会触发回填，汇总表由 rebuild#MerchantStats 建立：新装或升级后界限行尚无 cutoffDate，
+ * InitMerchantStats 任务在几分钟内完成首次回填，之后由每日的 RebuildMerchantStats 任务与演示数据重置重建。
+ *
+ * 时段按服务器默认时区划分；小时汇总只保留最近 HOURLY_RETENTION_DAYS 天，每次全量回填时清理。
+ */
+public final class MerchantStats {
+    private static final Logger logger = LoggerFactory.getLogger(MerchantStats.class);
+
+    public static final String PERIOD_HOUR = "HOUR";
+    public static final String PERIOD_DAY = "DAY";
+    public static final String PERIOD_TOTAL = "TOTAL";
+    /** 全平台合计行的 merchantId */
+    public static final String ALL_MERCHANTS = "_ALL_";
+    /** 未填写品类时的 category */
+    public static final String NO_CATEGORY = "_NA_";
+    public static final int HOURLY_RETENTION_DAYS = 7;
+
+    static final long TOTAL_BUCKET_START = 0L;
+
+    private static final String BUCKET_ENTITY = "marketplace.stats.MerchantStatsBucket";
+    private static final String FENCE_ENTITY = "marketplace.stats.MerchantStatsFence";
+    static final String REBUILD_FENCE_ID = "REBUILD";
+    private static final int IN_CHUNK_SIZE = 500;
+    private static final int INSERT_BATCH_SIZE = 1000;
+    /** 另一节点同时插入同一汇总行时的重试次数 */
+    private static final int STORE_ATTEMPTS = 2;
+    private static final String STORE_SERVICE = "marketplace.StatsServices.store#MerchantStatsDeltas";
+
+    /** 本节点的 flush 与 rebuild 互斥，回填期间不会有已取走、未写入的增量；其它节点由界限行的行锁排队 */
+    private static final ReentrantLock writeLock = new ReentrantLock();
+
+    private MerchantStats() { }
+
+    static long hourStart(long millis) {
+        return Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()).truncatedTo(ChronoUnit.HOURS).toInstant().toEpochMilli();
+    }
+
+    static long dayStart(long millis) {
+        return Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()).toLocalDate()
+                .atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /** 当天零点 */
+    public static Timestamp startOfDay(Timestamp date) {
+        return new Timestamp(dayStart(date.getTime()));
+    }
+
+    /** 当月1日零点 */
+    public static Timestamp startOfMonth(Timestamp date) {
+        ZonedDateTime zoned = Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault());
+        return new Timestamp(zoned.toLocalDate().withDayOfMonth(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    /** 向前推 days 天的零点（days 为0即当天零点） */
+    public static Timestamp daysAgo(Timestamp date, int days) {
+        ZonedDateTime zoned = Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault());
+        return new Timestamp(zoned.toLocalDate().minusDays(days).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    /**
+     * 取走缓冲中的全部增量，在独立事务中累加到汇总行；另一节点先插入了同一汇总行时重试，
+     * 仍失败（含提交失败）则放回缓冲等下次刷新
+     *
+     * @return 更新的汇总行数
+     */
+    public static int flush(ExecutionContext ec) {
+        writeLock.lock();
+        try {
+            SortedMap<Long, Map<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta>> deltasBySecond = MerchantStatsBuffer.drain();
+            if (deltasBySecond.isEmpty()) return 0;
+            String errorText = null;
+            int bucketCount = 0;
+            for (int attempt = 1; attempt <= STORE_ATTEMPTS; attempt++) {
+                errorText = null;
+                try {
+                    Map<String, Object> parameters = new HashMap<>();
+                    parameters.put("deltasBySecond", deltasBySecond);
+                    Map<String, Object> result = ec.getService().sync().name(STORE_SERVICE).parameters(parameters)
+                            .requireNewTransaction(true).call();
+                    if (ec.getMessage().hasError()) errorText = ec.getMessage().getErrorsString();
+                    else if (result != null && result.get("bucketCount") instanceof Number) {
+                        bucketCount = ((Number) result.get("bucketCount")).intValue();
+                    }
+                } catch (RuntimeException e) {
+                    errorText = e.toString();
+                }
+                if (errorText == null) break;
+                ec.getMessage().clearErrors();
+            }
+            if (errorText != null) {
+                MerchantStatsBuffer.restore(deltasBySecond);
+                logger.warn("Merchant stats flush of {} fence seconds failed, deltas restored: {}", deltasBySecond.size(), errorText);
+                return 0;
+            }
+            MerchantStatsBuffer.recordFlushed(bucketCount);
+            return bucketCount;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 把一批增量累加到汇总行（store#MerchantStatsDeltas，在独立事务中执行），缺少的汇总行直接插入
+     * 先锁定回填界限行：回填进行中时等它提交，已被回填计入的代（可能来自回填开始前其它节点的缓冲）直接丢弃
+     *
+     * @param deltasBySecond 界限秒 -> 该秒内的增量，不会被修改（刷新失败时原样放回缓冲）
+     * @return 更新的汇总行数
+     */
+    public static int storeDeltas(ExecutionContext ec, Map<Long, Map<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta>> deltasBySecond) {
+        if (deltasBySecond == null || deltasBySecond.isEmpty()) return 0;
+        long cutoffMillis = Long.MIN_VALUE;
+        EntityValue fence = ec.getEntity().find(FENCE_ENTITY).condition("fenceId", REBUILD_FENCE_ID).forUpdate(true).one();
+        if (fence != null && fence.get("cutoffDate") != null) cutoffMillis = ((Timestamp) fence.get("cutoffDate")).getTime();
+        SortedMap<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta> deltas = new TreeMap<>();
+        int skipped = 0;
+        for (Map.Entry<Long, Map<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta>> generation : deltasBySecond.entrySet()) {
+            if (MerchantStatsBuffer.covered(generation.getKey(), cutoffMillis)) {
+                skipped++;
+                continue;
+            }
+            for (Map.Entry<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta> entry : generation.getValue().entrySet()) {
+                deltas.computeIfAbsent(entry.getKey(), k -> new MerchantStatsBuffer.Delta()).add(entry.getValue());
+            }
+        }
+        if (skipped > 0) logger.info("Skipped {} merchant stats fence seconds already covered by the rebuild up to {}", skipped, new Timestamp(cutoffMillis));
+        if (deltas.isEmpty()) return 0;
+        Timestamp now = ec.getUser().getNowTimestamp();
+        // 按（周期、时段）分组，每组内商家按ID升序分批 IN 查询加锁
+        Map<String, List<MerchantStatsBuffer.Key>> groups = new LinkedHashMap<>();
+        for (MerchantStatsBuffer.Key key : deltas.keySet()) {
+            groups.computeIfAbsent(key.getPeriodType() + "|" + key.getBucketStart(), k -> new ArrayList<>()).add(key);
+        }
+        for (List<MerchantStatsBuffer.Key> group : groups.values()) {
+            MerchantStatsBuffer.Key first = group.get(0);
+            Timestamp bucketStart = new Timestamp(first.getBucketStart());
+            SortedSet<String> merchantSet = new TreeSet<>();
+            for (MerchantStatsBuffer.Key key : group) merchantSet.add(key.getMerchantId());
+            List<String> merchantIds = new ArrayList<>(merchantSet);
+            Map<String, EntityValue> rows = new HashMap<>();
+            for (int from = 0; from < merchantIds.size(); from += IN_CHUNK_SIZE) {
+                List<String> chunk = merchantIds.subList(from, Math.min(from + IN_CHUNK_SIZE, merchantIds.size()));
+                for (EntityValue row : ec.getEntity().find(BUCKET_ENTITY)
+                        .condition("periodType", first.getPeriodType())
+                        .condition("bucketStart", bucketStart)
+                        .condition("merchantId", EntityCondition.IN, chunk)
+                        .orderBy("merchantId").orderBy("category")
+                        .forUpdate(true)
+                        .list()) {
+                    rows.put(row.getString("merchantId") + "|" + row.getString("category"), row);
+                }
+            }
+            for (MerchantStatsBuffer.Key key : group) {
+                EntityValue row = rows.get(key.getMerchantId() + "|" + key.getCategory());
+                boolean created = row == null;
+                if (created) row = newBucket(ec, key);
+                addDelta(row, deltas.get(key));
+                row.set("lastUpdatedDate", now);
+                if (created) row.create();
+                else row.store();
+            }
+        }
+        return deltas.size();
+    }
+
+    /**
+     * 从发布、撮合与订单记录全量重建汇总表（在调用方事务中执行）
+     * 先锁定界限行，等到下一整秒后以上一秒末为界写入界限行：锁定前已提交的增量界限都早于它，会被回填覆盖；
+     * 界限前的发布与撮合由扫描读取，本节点缓冲中已有的这类增量丢弃，此后到达缓冲的同类事件也不再累加，
+     * 其它节点的刷新在回填提交后读到新界限，丢弃同样的旧增量；界限后创建的发布与撮合不在扫描范围内，由缓冲照常刷新。
+     * 与本节点的 flush 互斥，其它节点的刷新在界限行上等待回填提交（超时则放回缓冲，下次重试）。
+     *
+     * @param onlyIfNeverBuilt true 时只在界限行尚无 cutoffDate（从未回填过）时执行，供 InitMerchantStats 任务在升级后补建
+     * @return 写入的汇总行数
+     */
+    public static int rebuild(ExecutionContext ec, boolean onlyIfNeverBuilt) {
+        writeLock.lock();
+        try {
+            EntityValue fence = ec.getEntity().find(FENCE_ENTITY).condition("fenceId", REBUILD_FENCE_ID).forUpdate(true).one();
+            if (onlyIfNeverBuilt && fence != null && fence.get("cutoffDate") != null) return 0;
+            long startMs = System.currentTimeMillis();
+            try {
+                Thread.sleep(1000L - startMs % 1000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Merchant stats rebuild interrupted", e);
+            }
+            long cutoffMs = System.currentTimeMillis() / 1000L * 1000L - 1L;
+            Timestamp cutoff = new Timestamp(cutoffMs);
+            if (fence == null) {
+                fence = ec.getEntity().makeValue(FENCE_ENTITY);
+                fence.set("fenceId", REBUILD_FENCE_ID);
+                fence.set("cutoffDate", cutoff);
+                fence.set("lastUpdatedDate", ec.getUser().getNowTimestamp());
+                fence.create();
+            } else {
+                fence.set("cutoffDate", cutoff);
+                fence.set("lastUpdatedDate", ec.getUser().getNowTimestamp());
+                fence.store();
+            }
+            MerchantStatsBuffer.beginRebuild(cutoffMs);
+            Timestamp now = ec.getUser().getNowTimestamp();
+            MerchantStatsEvents events = MerchantStatsEvents.forBackfill(daysAgo(now, HOURLY_RETENTION_DAYS).getTime());
+
+            try (EntityListIterator listings = ec.getEntity().find("marketplace.listing.Listing")
+                    .condition(notAfter(ec, "createdDate", cutoff))
+                    .selectField("publisherId").selectField("listingType").selectField("category").selectField("createdDate")
+                    .iterator()) {
+                EntityValue listing;
+                while ((listing = listings.next()) != null) {
+                    events.listingPublished(listing.getString("publisherId"), listing.getString("category"),
+                            listing.getString("listingType"), (Timestamp) listing.get("createdDate"));
+                }
+            }
+
+            try (EntityListIterator matches = ec.getEntity().find("marketplace.match.MatchWithPublishers")
+                    .condition(notAfter(ec, "suggestedDate", cutoff))
+                    .selectField("matchId").selectField("supplyPublisherId").selectField("demandPublisherId")
+                    .selectField("supplyCategory").selectField("demandCategory")
+                    .selectField("matchScore").selectField("suggestedDate")
+                    .iterator()) {
+                EntityValue match;
+                while ((match = matches.next()) != null) {
+                    String category = match.getString("supplyCategory");
+                    if (category == null) category = match.getString("demandCategory");
+                    events.matchCreated(match.getString("supplyPublisherId"), match.getString("demandPublisherId"), category,
+                            match.get("matchScore"), (Timestamp) match.get("suggestedDate"));
+                }
+            }
+
+            try (EntityListIterator orders = ec.getEntity().find("marketplace.order.MatchOrderWithListing")
+                    .selectField("orderId").selectField("sellerId").selectField("buyerId").selectField("status")
+                    .selectField("totalAmount").selectField("sellerRating").selectField("buyerRating")
+                    .selectField("completedDate").selectField("createdDate").selectField("listingCategory")
+                    .iterator()) {
+                EntityValue order;
+                while ((order = orders.next()) != null) {
+                    String category = order.getString("listingCategory");
+                    Timestamp orderDate = orderDate(order);
+                    if ("COMPLETED".equals(order.getString("status"))) {
+                        events.orderCompleted(order.getString("sellerId"), order.getString("buyerId"), category,
+                                order.get("totalAmount"), orderDate, 1);
+                    }
+                    // 与 rate#MatchOrder 一致：sellerRating 是卖家给出、计入买家的评分，buyerRating 计入卖家
+                    if (order.get("sellerRating") != null) {
+                        events.ratingReceived(order.getString("buyerId"), category, 1, longValue(order.get("sellerRating")), orderDate);
+                    }
+                    if (order.get("buyerRating") != null) {
+                        events.ratingReceived(order.getString("sellerId"), category, 1, longValue(order.get("buyerRating")), orderDate);
+                    }
+                }
+            }
+
+            ec.getEntity().find(BUCKET_ENTITY).deleteAll();
+            List<EntityValue> values = new ArrayList<>(Math.min(INSERT_BATCH_SIZE, events.deltas().size()));
+            int written = 0;
+            for (Map.Entry<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta> entry : new TreeMap<>(events.deltas()).entrySet()) {
+                EntityValue row = newBucket(ec, entry.getKey());
+                addDelta(row, entry.getValue());
+                row.set("lastUpdatedDate", now);
+                values.add(row);
+                if (values.size() >= INSERT_BATCH_SIZE) {
+                    ec.getEntity().createBulk(values);
+                    written += values.size();
+                    values = new ArrayList<>(INSERT_BATCH_SIZE);
+                }
+            }
+            if (!values.isEmpty()) {
+                ec.getEntity().createBulk(values);
+                written += values.size();
+            }
+            logger.info("Rebuilt merchant stats: {} buckets from {} events in {}ms", written, events.eventCount(),
+                    System.currentTimeMillis() - startMs);
+            return written;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** field 不晚于 cutoff，或早期数据没有该时间 */
+    private static EntityCondition notAfter(ExecutionContext ec, String field, Timestamp cutoff) {
+        EntityConditionFactory cf = ec.getEntity().getConditionFactory();
+        return cf.makeCondition(cf.makeCondition(field, EntityCondition.LESS_THAN_EQUAL_TO, cutoff),
+                EntityCondition.OR, cf.makeCondition(field, EntityCondition.IS_NULL, null));
+    }
+
+    /**
+     * 汇总一个商家（merchantId 为空时为全平台）在 [fromDate, thruDate) 内指定周期的统计，category 为空时合计全部品类
+     */
+    public static Map<String, Object> summarize(ExecutionContext ec, String merchantId, String periodType,
+                                                Timestamp fromDate, Timestamp thruDate, String category) {
+        EntityFind find = ec.getEntity().find(BUCKET_ENTITY)
+                .condition("merchantId", merchantId != null ? merchantId : ALL_MERCHANTS)
+                .condition("periodType", periodType);
+        if (fromDate != null) find.condition("bucketStart", EntityCondition.GREATER_THAN_EQUAL_TO, fromDate);
+        if (thruDate != null) find.condition("bucketStart", EntityCondition.LESS_THAN, thruDate);
+        if (category != null) find.condition("category", category);
+        MerchantStatsBuffer.Delta total = new MerchantStatsBuffer.Delta();
+        for (EntityValue row : find.list()) total.add(toDelta(row));
+        return toMap(total);
+    }
+
+    /** 累计统计 */
+    public static Map<String, Object> totals(ExecutionContext ec, String merchantId, String category) {
+        return summarize(ec, merchantId, PERIOD_TOTAL, null, null, category);
+    }
+
+    /**
+     * fromDate 之后有数据的小时汇总（合计全部品类），按时间升序
+     */
+    public static List<Map<String, Object>> hourly(ExecutionContext ec, String merchantId, Timestamp fromDate) {
+        SortedMap<Long, MerchantStatsBuffer.Delta> byHour = new TreeMap<>();
+        for (EntityValue row : ec.getEntity().find(BUCKET_ENTITY)
+                .condition("merchantId", merchantId != null ? merchantId : ALL_MERCHANTS)
+                .condition("periodType", PERIOD_HOUR)
+                .condition("bucketStart", EntityCondition.GREATER_THAN_EQUAL_TO, fromDate)
+                .list()) {
+            byHour.computeIfAbsent(((Timestamp) row.get("bucketStart")).getTime(), k -> new MerchantStatsBuffer.Delta()).add(toDelta(row));
+        }
+        List<Map<String, Object>> result = new ArrayList<>(byHour.size());
+        for (Map.Entry<Long, MerchantStatsBuffer.Delta> entry : byHour.entrySet()) {
+            Map<String, Object> hour = new LinkedHashMap<>();
+            hour.put("hourStart", new Timestamp(entry.getKey()));
+            hour.putAll(toMap(entry.getValue()));
+            result.add(hour);
+        }
+        return result;
+    }
+
+    private static EntityValue newBucket(ExecutionContext ec, MerchantStatsBuffer.Key key) {
+        EntityValue row = ec.getEntity().makeValue(BUCKET_ENTITY);
+        row.set("merchantId", key.getMerchantId());
+        row.set("periodType", key.getPeriodType());
+        row.set("bucketStart", new Timestamp(key.getBucketStart()));
+        row.set("category", key.getCategory());
+        return row;
+    }
+
+    private static void addDelta(EntityValue row, MerchantStatsBuffer.Delta delta) {
+        row.set("supplyListings", longValue(row.get("supplyListings")) + delta.getSupplyListings());
+        row.set("demandListings", longValue(row.get("demandListings")) + delta.getDemandListings());
+        row.set("matchesCreated", longValue(row.get("matchesCreated")) + delta.getMatchesCreated());
+        row.set("matchScoreSum", decimalValue(row.get("matchScoreSum")).add(delta.getMatchScoreSum()));
+        row.set("ordersCompleted", longValue(row.get("ordersCompleted")) + delta.getOrdersCompleted());
+        row.set("revenue", decimalValue(row.get("revenue")).add(delta.getRevenue()));
+        row.set("ratingCount", longValue(row.get("ratingCount")) + delta.getRatingCount());
+        row.set("ratingSum", longValue(row.get("ratingSum")) + delta.getRatingSum());
+    }
+
+    private static MerchantStatsBuffer.Delta toDelta(EntityValue row) {
+        MerchantStatsBuffer.Delta delta = new MerchantStatsBuffer.Delta();
+        delta.supplyListings = longValue(row.get("supplyListings"));
+        delta.demandListings = longValue(row.get("demandListings"));
+        delta.matchesCreated = longValue(row.get("matchesCreated"));
+        delta.matchScoreSum = decimalValue(row.get("matchScoreSum"));
+        delta.ordersCompleted = longValue(row.get("ordersCompleted"));
+        delta.revenue = decimalValue(row.get("revenue"));
+        delta.ratingCount = longValue(row.get("ratingCount"));
+        delta.ratingSum = longValue(row.get("ratingSum"));
+        return delta;
+    }
+
+    private static Map<String, Object> toMap(MerchantStatsBuffer.Delta delta) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("listingsPublished", delta.getSupplyListings() + delta.getDemandListings());
+        result.put("supplyListings", delta.getSupplyListings());
+        result.put("demandListings", delta.getDemandListings());
+        result.put("matchesCreated", delta.getMatchesCreated());
+        result.put("averageMatchScore", delta.getMatchesCreated() > 0L
+                ? delta.getMatchScoreSum().divide(BigDecimal.valueOf(delta.getMatchesCreated()), 4, RoundingMode.HALF_UP)
+                : BigDecimal.ZERO);
+        result.put("ordersCompleted", delta.getOrdersCompleted());
+        result.put("revenue", delta.getRevenue());
+        result.put("ratingCount", delta.getRatingCount());
+        result.put("averageRating", delta.getRatingCount() > 0L
+                ? BigDecimal.valueOf(delta.getRatingSum()).divide(BigDecimal.valueOf(delta.getRatingCount()), 2, RoundingMode.HALF_UP)
+                : BigDecimal.ZERO);
+        return result;
+    }
+
+    /** 订单所属供需信息的品类，订单与评价事件按它归类 */
+    public static String listingCategory(ExecutionContext ec, String listingId) {
+        if (listingId == null) return null;
+        EntityValue listing = ec.getEntity().find("marketplace.listing.Listing")
+                .condition("listingId", listingId)
+                .selectField("category")
+                .one();
+        return listing != null ? listing.getString("category") : null;
+    }
+
+    /** 订单统计归属的时间：完成时间，未完成时为创建时间 */
+    public static Timestamp orderDate(EntityValue order) {
+        Timestamp completedDate = (Timestamp) order.get("completedDate");
+        return completedDate != null ? completedDate : (Timestamp) order.get("createdDate");
+    }
+
+    private static long longValue(Object value) {
+        if (value == null) return 0L;
+        if (value instanceof Number) return ((Number) value).longValue();
+        return new BigDecimal(value.toString()).longValue();
+    }
+
+    private static BigDecimal decimalValue(Object value) {
+        if (value == null) return BigDecimal.ZERO;
+        if (value instanceof BigDecimal) return (BigDecimal) value;
+        return new BigDecimal(value.toString());
+    }
+}
@@ -0,0 +1,269 @@
+package org.moqui.marketplace.stats;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 经营统计汇总的进程内合并缓冲
+ * 写入方在事务提交后把 MerchantStatsEvents 按界限时间所在的秒分代，每代内按（商家、周期、时段、品类）合并增量，
+ * flush#MerchantStats 一次取走全部增量，在独立事务内批量累加到 MerchantStatsBucket；
+ * 同一时段内的多次写入只产生一次汇总行更新，全平台行（ALL_MERCHANTS）也只在刷新时加锁。
+ *
+ * 全量回填的界限记在数据库的 MerchantStatsFence 中：界限时间不晚于它的事件由回填从源数据读取，
+ * 各节点写入汇总行前都锁定并读取界限行，丢弃已被回填覆盖的代，因此其它节点缓冲中的旧增量不会重复累加；
+ * 执行回填的节点另外在本地丢弃已缓冲和之后到达的旧事件。更晚的事件照常累加。回填读取期间对已有记录的修改
+ * （重新评分、订单完成、评价、物理删除）界限时间晚于回填界限，照常累加；若回填恰好读到修改后的记录，
+ * 该修改会多计一次，由下一次回填纠正。
+ *
+ * 缓冲不持久化，进程异常退出时未刷新的增量由每日的 rebuild#MerchantStats 全量回填补齐。
+ */
+public final class MerchantStatsBuffer {
+    /** 待刷新的汇总行数达到该值时立即触发一次刷新，否则等定时任务 */
+    public static final int FLUSH_THRESHOLD = 2000;
+
+    /** 界限秒 -> 该秒内的增量；drain 持写锁整体换出 */
+    private static volatile Map<Long, Map<Key, Delta>> pending = new ConcurrentHashMap<>();
+    private static final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private static final AtomicLong recordedEvents = new AtomicLong();
+    private static final AtomicLong flushedBuckets = new AtomicLong();
+    private static final AtomicLong skippedEvents = new AtomicLong();
+    /**
+     * record、restore 持读锁，drain、beginRebuild 持写锁：取走的增量不会漏掉正在合并的事件，
+     * 回填界限之前的事件也不会在丢弃之后才进入缓冲
+     */
+    private static final ReentrantReadWriteLock bufferLock = new ReentrantReadWriteLock();
+    private static long rebuildCutoffMillis = Long.MIN_VALUE;
+
+    private MerchantStatsBuffer() { }
+
+    /**
+     * 汇总行主键；按周期、时段、商家、品类排序，批量加锁时顺序一致
+     */
+    public static final class Key implements Comparable<Key> {
+        private final String merchantId;
+        private final String periodType;
+        private final long bucketStart;
+        private final String category;
+
+        Key(String merchantId, String periodType, long bucketStart, String category) {
+            this.merchantId = merchantId;
+            this.periodType = periodType;
+            this.bucketStart = bucketStart;
+            this.category = category;
+        }
+
+        public String getMerchantId() {
+            return merchantId;
+        }
+
+        public String getPeriodType() {
+            return periodType;
+        }
+
+        public long getBucketStart() {
+            return bucketStart;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int result = periodType.compareTo(other.periodType);
+            if (result == 0) result = Long.compare(bucketStart, other.bucketStart);
+            if (result == 0) result = merchantId.compareTo(other.merchantId);
+            if (result == 0) result = category.compareTo(other.category);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return bucketStart == key.bucketStart && merchantId.equals(key.merchantId)
+                    && periodType.equals(key.periodType) && category.equals(key.category);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(merchantId, periodType, bucketStart, category);
+        }
+    }
+
+    /**
+     * 单个汇总行的增量；只在 ConcurrentHashMap.merge 内或单线程的事件收集器中修改
+     */
+    public static final class Delta {
+        long supplyListings;
+        long demandListings;
+        long matchesCreated;
+        BigDecimal matchScoreSum = BigDecimal.ZERO;
+        long ordersCompleted;
+        BigDecimal revenue = BigDecimal.ZERO;
+        long ratingCount;
+        long ratingSum;
+
+        public long getSupplyListings() {
+            return supplyListings;
+        }
+
+        public long getDemandListings() {
+            return demandListings;
+        }
+
+        public long getMatchesCreated() {
+            return matchesCreated;
+        }
+
+        public BigDecimal getMatchScoreSum() {
+            return matchScoreSum;
+        }
+
+        public long getOrdersCompleted() {
+            return ordersCompleted;
+        }
+
+        public BigDecimal getRevenue() {
+            return revenue;
+        }
+
+        public long getRatingCount() {
+            return ratingCount;
+        }
+
+        public long getRatingSum() {
+            return ratingSum;
+        }
+
+        void add(Delta other) {
+            supplyListings += other.supplyListings;
+            demandListings += other.demandListings;
+            matchesCreated += other.matchesCreated;
+            matchScoreSum = matchScoreSum.add(other.matchScoreSum);
+            ordersCompleted += other.ordersCompleted;
+            revenue = revenue.add(other.revenue);
+            ratingCount += other.ratingCount;
+            ratingSum += other.ratingSum;
+        }
+
+        Delta copy() {
+            Delta copy = new Delta();
+            copy.add(this);
+            return copy;
+        }
+    }
+
+    /**
+     * 累加一批已提交的事件
+     *
+     * @return true表示待刷新行数达到阈值且此前未请求刷新，调用方应立即安排一次刷新
+     */
+    public static boolean record(MerchantStatsEvents events) {
+        if (events == null || events.isEmpty()) return false;
+        int pendingBuckets;
+        bufferLock.readLock().lock();
+        try {
+            for (Map.Entry<Long, Map<Key, Delta>> group : events.deltasByFence().entrySet()) {
+                if (group.getKey() <= rebuildCutoffMillis) {
+                    skippedEvents.incrementAndGet();
+                    continue;
+                }
+                merge(pending, generation(group.getKey()), group.getValue(), true);
+            }
+            pendingBuckets = pendingBuckets();
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+        recordedEvents.addAndGet(events.eventCount());
+        return pendingBuckets >= FLUSH_THRESHOLD && flushRequested.compareAndSet(false, true);
+    }
+
+    /**
+     * 取走全部待刷新增量：界限秒 -> 该秒内的增量
+     */
+    public static SortedMap<Long, Map<Key, Delta>> drain() {
+        Map<Long, Map<Key, Delta>> drained;
+        bufferLock.writeLock().lock();
+        try {
+            drained = pending;
+            pending = new ConcurrentHashMap<>();
+            flushRequested.set(false);
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
+        return new TreeMap<>(drained);
+    }
+
+    /**
+     * 刷新失败时放回增量，与期间新累加的增量合并；期间已被本节点回填覆盖的代直接丢弃
+     */
+    public static void restore(Map<Long, Map<Key, Delta>> deltasBySecond) {
+        bufferLock.readLock().lock();
+        try {
+            for (Map.Entry<Long, Map<Key, Delta>> generation : deltasBySecond.entrySet()) {
+                if (covered(generation.getKey(), rebuildCutoffMillis)) continue;
+                merge(pending, generation.getKey(), generation.getValue(), false);
+            }
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 全量回填开始：此后界限时间不晚于 cutoffMillis 的事件不再累加，已缓冲的这类增量（均已提交、会被回填读到）丢弃
+     */
+    static void beginRebuild(long cutoffMillis) {
+        bufferLock.writeLock().lock();
+        try {
+            if (cutoffMillis > rebuildCutoffMillis) rebuildCutoffMillis = cutoffMillis;
+            pending.keySet().removeIf(generation -> covered(generation, rebuildCutoffMillis));
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
+    }
+
+    /** 界限时间所在的秒，即增量的代 */
+    static long generation(long fenceMillis) {
+        return Math.floorDiv(fenceMillis, 1000L);
+    }
+
+    /** 该代的事件界限时间都不晚于 cutoffMillis，已由回填计入 */
+    static boolean covered(long generation, long cutoffMillis) {
+        return generation * 1000L + 999L <= cutoffMillis;
+    }
+
+    private static void merge(Map<Long, Map<Key, Delta>> target, long generation, Map<Key, Delta> deltas, boolean copy) {
+        Map<Key, Delta> current = target.computeIfAbsent(generation, k -> new ConcurrentHashMap<>());
+        for (Map.Entry<Key, Delta> entry : deltas.entrySet()) {
+            current.merge(entry.getKey(), copy ? entry.getValue().copy() : entry.getValue(), (existing, added) -> {
+                existing.add(added);
+                return existing;
+            });
+        }
+    }
+
+    private static int pendingBuckets() {
+        int count = 0;
+        for (Map<Key, Delta> deltas : pending.values()) count += deltas.size();
+        return count;
+    }
+
+    public static void recordFlushed(int bucketCount) {
+        flushedBuckets.addAndGet(bucketCount);
+    }
+
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendingBuckets", pendingBuckets());
+        stats.put("recordedEvents", recordedEvents.get());
+        stats.put("flushedBuckets", flushedBuckets.get());
+        stats.put("skippedEventGroups", skippedEvents.get());
+        return stats;
+    }
+}
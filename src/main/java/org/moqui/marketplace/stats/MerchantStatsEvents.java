@@ -0,0 +1,196 @@
+package org.moqui.marketplace.stats;
+
+import org.moqui.context.ExecutionContext;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * 一次写入中产生的经营统计事件，只在单个线程内使用
+ * 每个事件按发生时间展开到小时、日与累计三个周期，分别计入相关商家与全平台（ALL_MERCHANTS）；
+ * 写入方在事务中收集，submitOnCommit 在提交后交给 MerchantStatsBuffer，回滚的写入不计入统计。
+ *
+ * 每个事件带一个界限时间，缓冲据此判断全量回填是否已经计入：发布与新增撮合取记录的 createdDate / suggestedDate，
+ * 与回填读取的条件一致；其余对已有记录的修改取事件发生的时间。
+ */
+public final class MerchantStatsEvents {
+    /** 界限时间 -> 该时间的事件增量；回填只用一组 */
+    private final Map<Long, Map<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta>> deltasByFence = new HashMap<>();
+    private final long hourlySince;
+    private final boolean backfill;
+    private long eventCount;
+
+    private MerchantStatsEvents(long hourlySince, boolean backfill) {
+        this.hourlySince = hourlySince;
+        this.backfill = backfill;
+    }
+
+    public static MerchantStatsEvents create() {
+        return new MerchantStatsEvents(Long.MIN_VALUE, false);
+    }
+
+    /** 全量回填使用：早于 hourlySince 的事件不再生成小时汇总 */
+    static MerchantStatsEvents forBackfill(long hourlySince) {
+        return new MerchantStatsEvents(hourlySince, true);
+    }
+
+    /** 发布一条供应或需求 */
+    public MerchantStatsEvents listingPublished(String publisherId, String category, String listingType, Timestamp createdDate) {
+        return listing(publisherId, category, listingType, createdDate, 1, fence(createdDate));
+    }
+
+    /** 物理删除一条供应或需求，从其发布时段中扣除（软删除只改状态，不影响发布数） */
+    public MerchantStatsEvents listingDeleted(String publisherId, String category, String listingType, Timestamp createdDate) {
+        return listing(publisherId, category, listingType, createdDate, -1, fence(null));
+    }
+
+    private MerchantStatsEvents listing(String publisherId, String category, String listingType, Timestamp createdDate, int sign,
+                                        long fenceMillis) {
+        boolean supply = "SUPPLY".equals(listingType);
+        boolean demand = "DEMAND".equals(listingType);
+        if (!supply && !demand) return this;
+        for (MerchantStatsBuffer.Delta delta : deltas(merchants(publisherId, null), category, createdDate, fenceMillis)) {
+            if (supply) delta.supplyListings += sign;
+            else delta.demandListings += sign;
+        }
+        eventCount++;
+        return this;
+    }
+
+    /** 新增一条撮合；供需双方为同一商家时只计一次 */
+    public MerchantStatsEvents matchCreated(String supplyPublisherId, String demandPublisherId, String category,
+                                            Object matchScore, Timestamp suggestedDate) {
+        BigDecimal score = decimalValue(matchScore);
+        for (MerchantStatsBuffer.Delta delta : deltas(merchants(supplyPublisherId, demandPublisherId), category, suggestedDate,
+                fence(suggestedDate))) {
+            delta.matchesCreated++;
+            delta.matchScoreSum = delta.matchScoreSum.add(score);
+        }
+        eventCount++;
+        return this;
+    }
+
+    /** 已有撮合重新评分，差值计入撮合建议时间所在的时段 */
+    public MerchantStatsEvents matchRescored(String supplyPublisherId, String demandPublisherId, String category,
+                                             Object oldScore, Object newScore, Timestamp suggestedDate) {
+        BigDecimal scoreDelta = decimalValue(newScore).subtract(decimalValue(oldScore));
+        if (scoreDelta.signum() == 0) return this;
+        for (MerchantStatsBuffer.Delta delta : deltas(merchants(supplyPublisherId, demandPublisherId), category, suggestedDate,
+                fence(null))) {
+            delta.matchScoreSum = delta.matchScoreSum.add(scoreDelta);
+        }
+        eventCount++;
+        return this;
+    }
+
+    /**
+     * 订单完成（sign 为 -1 表示已完成的订单被改回其他状态）；成交额只计入卖家与全平台
+     */
+    public MerchantStatsEvents orderCompleted(String sellerId, String buyerId, String category, Object totalAmount,
+                                              Timestamp completedDate, int sign) {
+        BigDecimal amount = decimalValue(totalAmount);
+        if (sign < 0) amount = amount.negate();
+        long fenceMillis = fence(null);
+        for (MerchantStatsBuffer.Delta delta : deltas(merchants(sellerId, null), category, completedDate, fenceMillis)) {
+            delta.ordersCompleted += sign;
+            delta.revenue = delta.revenue.add(amount);
+        }
+        if (buyerId != null && !buyerId.equals(sellerId)) {
+            for (MerchantStatsBuffer.Delta delta : deltas(Collections.singletonList(buyerId), category, completedDate, fenceMillis)) {
+                delta.ordersCompleted += sign;
+            }
+        }
+        eventCount++;
+        return this;
+    }
+
+    /**
+     * 收到一条订单评价；改评时 countDelta 为0、ratingDelta 为新旧评分之差
+     */
+    public MerchantStatsEvents ratingReceived(String partyId, String category, int countDelta, long ratingDelta, Timestamp orderDate) {
+        if (countDelta == 0 && ratingDelta == 0L) return this;
+        for (MerchantStatsBuffer.Delta delta : deltas(merchants(partyId, null), category, orderDate, fence(null))) {
+            delta.ratingCount += countDelta;
+            delta.ratingSum += ratingDelta;
+        }
+        eventCount++;
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return deltasByFence.isEmpty();
+    }
+
+    /**
+     * 事务提交后把事件交给缓冲（buffer#MerchantStats）
+     */
+    public void submitOnCommit(ExecutionContext ec) {
+        if (isEmpty()) return;
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("events", this);
+        ec.getService().special().name("marketplace.StatsServices.buffer#MerchantStats")
+                .parameters(parameters).registerOnCommit();
+    }
+
+    /** 按界限时间分组的增量（缓冲使用） */
+    Map<Long, Map<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta>> deltasByFence() {
+        return deltasByFence;
+    }
+
+    /** 全部增量（回填使用，只有一组） */
+    Map<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta> deltas() {
+        if (deltasByFence.size() == 1) return deltasByFence.values().iterator().next();
+        Map<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta> merged = new HashMap<>();
+        for (Map<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta> group : deltasByFence.values()) {
+            for (Map.Entry<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta> entry : group.entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), k -> new MerchantStatsBuffer.Delta()).add(entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    long eventCount() {
+        return eventCount;
+    }
+
+    /** 记录日期作为界限，没有日期或修改已有记录时取当前时间；回填不区分 */
+    private long fence(Timestamp recordDate) {
+        if (backfill) return 0L;
+        return recordDate != null ? recordDate.getTime() : System.currentTimeMillis();
+    }
+
+    private List<MerchantStatsBuffer.Delta> deltas(List<String> merchantIds, String category, Timestamp date, long fenceMillis) {
+        String categoryKey = category == null || category.isEmpty() ? MerchantStats.NO_CATEGORY : category;
+        Map<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta> group = deltasByFence.computeIfAbsent(fenceMillis, k -> new HashMap<>());
+        List<MerchantStatsBuffer.Delta> result = new ArrayList<>(merchantIds.size() * 3);
+        for (String merchantId : merchantIds) {
+            result.add(delta(group, merchantId, MerchantStats.PERIOD_TOTAL, MerchantStats.TOTAL_BUCKET_START, categoryKey));
+            if (date == null) continue;
+            result.add(delta(group, merchantId, MerchantStats.PERIOD_DAY, MerchantStats.dayStart(date.getTime()), categoryKey));
+            long hourStart = MerchantStats.hourStart(date.getTime());
+            if (hourStart >= hourlySince) result.add(delta(group, merchantId, MerchantStats.PERIOD_HOUR, hourStart, categoryKey));
+        }
+        return result;
+    }
+
+    private static MerchantStatsBuffer.Delta delta(Map<MerchantStatsBuffer.Key, MerchantStatsBuffer.Delta> group, String merchantId,
+                                                   String periodType, long bucketStart, String category) {
+        return group.computeIfAbsent(new MerchantStatsBuffer.Key(merchantId, periodType, bucketStart, category),
+                k -> new MerchantStatsBuffer.Delta());
+    }
+
+    private static List<String> merchants(String first, String second) {
+        List<String> merchants = new ArrayList<>(3);
+        merchants.add(MerchantStats.ALL_MERCHANTS);
+        if (first != null) merchants.add(first);
+        if (second != null && !second.equals(first)) merchants.add(second);
+        return merchants;
+    }
+
+    private static BigDecimal decimalValue(Object value) {
+        if (value == null) return BigDecimal.ZERO;
+        if (value instanceof BigDecimal) return (BigDecimal) value;
+        return new BigDecimal(value.toString());
+    }
+}
@@ -0,0 +1,195 @@
+package org.moqui.marketplace.tag;
+
+import java.util.*;
+
+/**
+ * 多模式字符串匹配（Aho-Corasick）自动机，TagDictionary 与 ProjectKeywordMatcher 共用
+ * 每个模式带一个输出值（标签下标、关键词ID等），对文本扫描一遍即得到全部命中模式的输出值；同一状态上重复的输出只保留一个。
+ * 编译后只读，可被多个线程共享。
+ *
+ * 状态数 × 字母表大小不超过 DENSE_TABLE_LIMIT 时把失败链接展开为确定性转移表，每个字符只查一次数组；
+ * 超过时（如数千个汉字组成的大词典）保留按字符排序的稀疏转移与失败链接，转移表不随字母表膨胀。
+ */
+public final class AhoCorasickAutomaton {
+    /** 确定性转移表的最大单元数（约16MB） */
+    static final long DENSE_TABLE_LIMIT = 4L << 20;
+
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    private final int patternCount;
+    /** 稀疏转移：每个状态的子节点字符（升序）与对应的目标状态 */
+    private final char[][] childChars;
+    private final int[][] childStates;
+    private final int[] fail;
+    /** 每个状态的输出（已并入失败链上的输出） */
+    private final int[][] outputs;
+    /** 确定性转移表：字符 → 字母表下标（0表示不在字母表中），超过 DENSE_TABLE_LIMIT 时为null */
+    private final short[] alphabet;
+    private final int[][] transitions;
+
+    private AhoCorasickAutomaton(Builder builder) {
+        this.patternCount = builder.patternCount;
+        int stateCount = builder.children.size();
+        this.childChars = new char[stateCount][];
+        this.childStates = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            TreeMap<Character, Integer> children = builder.children.get(state);
+            char[] chars = new char[children.size()];
+            int[] states = new int[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> child : children.entrySet()) {
+                chars[i] = child.getKey();
+                states[i] = child.getValue();
+                i++;
+            }
+            childChars[state] = chars;
+            childStates[state] = states;
+        }
+
+        // 广度优先建立失败链接并合并输出；order 为广度优先顺序，失败目标总在当前状态之前
+        this.fail = new int[stateCount];
+        this.outputs = new int[stateCount][];
+        int[] order = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        order[tail++] = 0;
+        outputs[0] = builder.outputs.get(0);
+        while (head < tail) {
+            int state = order[head++];
+            for (int i = 0; i < childChars[state].length; i++) {
+                char c = childChars[state][i];
+                int child = childStates[state][i];
+                int target = 0;
+                if (state != 0) {
+                    int f = fail[state];
+                    int next;
+                    while ((next = child(f, c)) < 0 && f != 0) f = fail[f];
+                    target = Math.max(next, 0);
+                }
+                fail[child] = target;
+                outputs[child] = merge(builder.outputs.get(child), outputs[target]);
+                order[tail++] = child;
+            }
+        }
+
+        int alphabetSize = builder.alphabet.size();
+        if ((long) stateCount * (alphabetSize + 1) <= DENSE_TABLE_LIMIT && alphabetSize < Short.MAX_VALUE) {
+            this.alphabet = new short[Character.MAX_VALUE + 1];
+            short symbol = 0;
+            for (char c : builder.alphabet) alphabet[c] = ++symbol;
+            this.transitions = new int[stateCount][];
+            for (int k = 0; k < stateCount; k++) {
+                int state = order[k];
+                int[] row = state == 0 ? new int[alphabetSize + 1] : transitions[fail[state]].clone();
+                for (int i = 0; i < childChars[state].length; i++) row[alphabet[childChars[state][i]]] = childStates[state][i];
+                row[0] = 0;
+                transitions[state] = row;
+            }
+        } else {
+            this.alphabet = null;
+            this.transitions = null;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 逐个添加模式后编译；空模式忽略
+     */
+    public static final class Builder {
+        private final List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        private final List<int[]> outputs = new ArrayList<>();
+        private final TreeSet<Character> alphabet = new TreeSet<>();
+        private int patternCount;
+
+        private Builder() {
+            children.add(new TreeMap<>());
+            outputs.add(NO_OUTPUTS);
+        }
+
+        public Builder add(String pattern, int output) {
+            if (pattern == null || pattern.isEmpty()) return this;
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                alphabet.add(c);
+                Integer next = children.get(state).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<>());
+                    outputs.add(NO_OUTPUTS);
+                    children.get(state).put(c, next);
+                }
+                state = next;
+            }
+            outputs.set(state, merge(outputs.get(state), new int[] {output}));
+            patternCount++;
+            return this;
+        }
+
+        public AhoCorasickAutomaton build() {
+            return new AhoCorasickAutomaton(this);
+        }
+    }
+
+    /**
+     * 扫描文本，把命中模式的输出值记入 found
+     *
+     * @param lowerCase true时逐字符按 Character.toLowerCase 转换后匹配（模式需为小写）
+     */
+    public void scan(CharSequence text, boolean lowerCase, BitSet found) {
+        if (text == null || patternCount == 0) return;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (lowerCase) c = Character.toLowerCase(c);
+            if (transitions != null) {
+                state = transitions[state][alphabet[c]];
+            } else {
+                int next;
+                while ((next = child(state, c)) < 0 && state != 0) state = fail[state];
+                state = Math.max(next, 0);
+            }
+            for (int output : outputs[state]) found.set(output);
+        }
+    }
+
+    private int child(int state, char c) {
+        int index = Arrays.binarySearch(childChars[state], c);
+        return index >= 0 ? childStates[state][index] : -1;
+    }
+
+    private static int[] merge(int[] values, int[] added) {
+        if (added.length == 0) return values;
+        int[] result = values;
+        for (int value : added) {
+            boolean present = false;
+            for (int existing : result) {
+                if (existing == value) {
+                    present = true;
+                    break;
+                }
+            }
+            if (!present) {
+                result = Arrays.copyOf(result, result.length + 1);
+                result[result.length - 1] = value;
+            }
+        }
+        return result;
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    public int getStateCount() {
+        return fail.length;
+    }
+
+    /** 是否使用确定性转移表 */
+    public boolean isDense() {
+        return transitions != null;
+    }
+}
@@ -0,0 +1,143 @@
+package org.moqui.marketplace.tag;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityCondition;
+import org.moqui.entity.EntityFind;
+import org.moqui.entity.EntityListIterator;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * ListingTag 批量补全
+ * 按 listingId 升序分块流式读取供需信息，用 TagDictionary 对标题、描述与品类单次扫描提取标签，
+ * 每块的新 ListingTag 用一次批量插入写入。检查点（lastListingId）与运行记录由 backfill#ListingTags 维护。
+ *
+ * 只补全无标签的信息时经 ListingAndTag 左连接在查询中排除已有标签的信息，每日运行从头开始也只读取仍无标签的信息；
+ * 每块先读取已有标签再提取，已有标签的信息（读取后才被打上标签的）不再经过词典扫描。
+ */
+public final class ListingTagBackfill {
+    private static final Logger logger = LoggerFactory.getLogger(ListingTagBackfill.class);
+
+    private static final String LISTING_TAG_ENTITY = "marketplace.listing.ListingTag";
+    private static final BigDecimal AUTO_WEIGHT = BigDecimal.ONE;
+
+    private final ExecutionContext ec;
+    private final TagDictionary dictionary;
+    private final boolean onlyUntagged;
+    private final String statusFilter;
+
+    private long listingsRead = 0L;
+    private long listingsTagged = 0L;
+    private long tagsCreated = 0L;
+    private String lastListingId = null;
+
+    /**
+     * @param onlyUntagged 为true时跳过已有任何标签的供需信息；为false时只补写尚不存在的供需信息-标签对
+     * @param statusFilter 只处理该状态的供需信息，为空时处理全部
+     */
+    public ListingTagBackfill(ExecutionContext ec, boolean onlyUntagged, String statusFilter) {
+        this.ec = ec;
+        this.dictionary = TagDictionary.get(ec);
+        this.onlyUntagged = onlyUntagged;
+        this.statusFilter = statusFilter != null && !statusFilter.isEmpty() ? statusFilter : null;
+    }
+
+    /**
+     * 处理 afterListingId 之后的最多 limit 条供需信息，返回读取的条数（小于 limit 表示已处理到末尾）
+     */
+    public int processChunk(String afterListingId, int limit) {
+        long startMs = System.currentTimeMillis();
+        // 只补全无标签的信息时左连接 ListingTag，tagId 为空即尚无任何标签，每条信息只有一行
+        EntityFind find = ec.getEntity().find(onlyUntagged ? "marketplace.listing.ListingAndTag" : "marketplace.listing.Listing")
+                .selectField("listingId").selectField("title").selectField("description")
+                .selectField("category").selectField("subCategory")
+                .orderBy("listingId")
+                .limit(Math.max(1, limit));
+        if (onlyUntagged) find.condition("tagId", EntityCondition.IS_NULL, null);
+        if (afterListingId != null) find.condition("listingId", EntityCondition.GREATER_THAN, afterListingId);
+        if (statusFilter != null) find.condition("status", statusFilter);
+        List<EntityValue> listings = new ArrayList<>();
+        try (EntityListIterator rows = find.iterator()) {
+            EntityValue listing;
+            while ((listing = rows.next()) != null) listings.add(listing);
+        }
+        int read = listings.size();
+        listingsRead += read;
+        if (read == 0) return read;
+        lastListingId = listings.get(read - 1).getString("listingId");
+
+        List<String> listingIds = new ArrayList<>(read);
+        for (EntityValue listing : listings) listingIds.add(listing.getString("listingId"));
+        Map<String, Set<String>> existingById = loadExistingTags(listingIds);
+        Timestamp nowTs = ec.getUser().getNowTimestamp();
+        List<EntityValue> creates = new ArrayList<>();
+        for (EntityValue listing : listings) {
+            String listingId = listing.getString("listingId");
+            Set<String> existing = existingById.get(listingId);
+            if (onlyUntagged && existing != null) continue;
+            int before = creates.size();
+            for (String tagId : dictionary.extract(listingText(listing))) {
+                if (existing != null && existing.contains(tagId)) continue;
+                EntityValue listingTag = ec.getEntity().makeValue(LISTING_TAG_ENTITY);
+                listingTag.set("listingId", listingId);
+                listingTag.set("tagId", tagId);
+                listingTag.set("weight", AUTO_WEIGHT);
+                listingTag.set("source", "AUTO");
+                listingTag.set("createdDate", nowTs);
+                creates.add(listingTag);
+            }
+            if (creates.size() > before) listingsTagged++;
+        }
+        if (!creates.isEmpty()) {
+            ec.getEntity().createBulk(creates);
+            tagsCreated += creates.size();
+        }
+        logger.info("Tag backfill chunk after {}: {} listings read, {} tags created in {}ms", afterListingId, read,
+                creates.size(), System.currentTimeMillis() - startMs);
+        return read;
+    }
+
+    private static String listingText(EntityValue listing) {
+        StringBuilder text = new StringBuilder();
+        for (String field : new String[]{"title", "description", "category", "subCategory"}) {
+            String value = listing.getString(field);
+            // 字段之间用换行分隔，避免跨字段拼出词语
+            if (value != null && !value.isEmpty()) text.append(value).append('\n');
+        }
+        return text.toString();
+    }
+
+    private Map<String, Set<String>> loadExistingTags(Collection<String> listingIds) {
+        Map<String, Set<String>> existingById = new HashMap<>();
+        try (EntityListIterator rows = ec.getEntity().find(LISTING_TAG_ENTITY)
+                .condition("listingId", EntityCondition.IN, new ArrayList<>(listingIds))
+                .selectField("listingId").selectField("tagId")
+                .iterator()) {
+            EntityValue row;
+            while ((row = rows.next()) != null) {
+                existingById.computeIfAbsent(row.getString("listingId"), k -> new HashSet<>()).add(row.getString("tagId"));
+            }
+        }
+        return existingById;
+    }
+
+    /** 最后读取的 listingId，作为下一块的检查点 */
+    public String getLastListingId() {
+        return lastListingId;
+    }
+
+    /** 当前累计计数 */
+    public Map<String, Object> getCounts() {
+        Map<String, Object> counts = new LinkedHashMap<>();
+        counts.put("listingsRead", listingsRead);
+        counts.put("listingsTagged", listingsTagged);
+        counts.put("tagsCreated", tagsCreated);
+        counts.put("dictionaryVersion", dictionary.getVersion());
+        return counts;
+    }
+}
@@ -0,0 +1,173 @@
+package org.moqui.marketplace.tag;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * 标签词典：由启用的 Tag（中文标签名）与 TagSynonym（同义词、英文词）编译成 Aho-Corasick 自动机（AhoCorasickAutomaton），
+ * 对文本只扫描一遍即可得到全部命中的标签，结果按标签的 sortOrder 排序。
+ * 新增标签或同义词只需维护数据；修改后调用 reload#TagDictionary，否则最迟 RELOAD_MILLIS 后自动重新编译。
+ * 过期后的自动重新编译只由一个线程执行，等待锁的线程直接使用它编译好的词典。
+ */
+public final class TagDictionary {
+    private static final Logger logger = LoggerFactory.getLogger(TagDictionary.class);
+
+    /** 数据修改后未调用 reload 时的兜底重新编译间隔 */
+    private static final long RELOAD_MILLIS = 5 * 60_000L;
+
+    private static volatile TagDictionary current;
+    private static long versionCounter = 0L;
+
+    private final AhoCorasickAutomaton automaton;
+    private final String[] tagIds;
+    private final Map<String, Integer> indexById;
+    private final List<Map<String, Object>> tagMaps;
+    private final int termCount;
+    private final long version;
+    private final long compiledMillis;
+
+    private TagDictionary(List<Map<String, Object>> tags, Map<String, ? extends Collection<String>> termsByTag, long version) {
+        int size = tags.size();
+        this.tagIds = new String[size];
+        this.indexById = new HashMap<>(size * 2);
+        this.tagMaps = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> tag = tags.get(i);
+            tagIds[i] = (String) tag.get("tagId");
+            indexById.put(tagIds[i], i);
+            tagMaps.add(Collections.unmodifiableMap(new LinkedHashMap<>(tag)));
+        }
+
+        AhoCorasickAutomaton.Builder builder = AhoCorasickAutomaton.builder();
+        int terms = 0;
+        for (Map.Entry<String, ? extends Collection<String>> entry : termsByTag.entrySet()) {
+            Integer tagIndex = indexById.get(entry.getKey());
+            if (tagIndex == null) continue;
+            for (String term : entry.getValue()) {
+                String normalized = normalize(term);
+                if (normalized.isEmpty()) continue;
+                builder.add(normalized, tagIndex);
+                terms++;
+            }
+        }
+        this.termCount = terms;
+        this.automaton = builder.build();
+        this.version = version;
+        this.compiledMillis = System.currentTimeMillis();
+    }
+
+    // ==================== 加载与编译 ====================
+
+    /**
+     * 当前词典，未编译或已超过兜底间隔时从数据库重新编译
+     */
+    public static TagDictionary get(ExecutionContext ec) {
+        TagDictionary dictionary = current;
+        if (isFresh(dictionary)) return dictionary;
+        return reloadIfStale(ec);
+    }
+
+    /**
+     * 从启用的 Tag 与 TagSynonym 重新编译词典（标签或同义词修改后调用，总是重新编译）
+     */
+    public static synchronized TagDictionary reload(ExecutionContext ec) {
+        return load(ec);
+    }
+
+    /** 持锁后再检查一次：等待期间其他线程已重新编译时直接使用其结果 */
+    private static synchronized TagDictionary reloadIfStale(ExecutionContext ec) {
+        TagDictionary dictionary = current;
+        if (isFresh(dictionary)) return dictionary;
+        return load(ec);
+    }
+
+    private static boolean isFresh(TagDictionary dictionary) {
+        return dictionary != null && System.currentTimeMillis() - dictionary.compiledMillis < RELOAD_MILLIS;
+    }
+
+    private static TagDictionary load(ExecutionContext ec) {
+        long startMs = System.currentTimeMillis();
+        List<Map<String, Object>> tags = new ArrayList<>();
+        Map<String, List<String>> termsByTag = new HashMap<>();
+        for (EntityValue tag : ec.getEntity().find("marketplace.tag.Tag")
+                .condition("isActive", "Y")
+                .orderBy("sortOrder").orderBy("tagId")
+                .disableAuthz()
+                .list()) {
+            tags.add(tag.getMap());
+            String tagName = tag.getString("tagName");
+            if (tagName != null) termsByTag.computeIfAbsent(tag.getString("tagId"), k -> new ArrayList<>()).add(tagName);
+        }
+        for (EntityValue synonym : ec.getEntity().find("marketplace.tag.TagSynonym")
+                .selectField("tagId").selectField("synonym")
+                .disableAuthz()
+                .list()) {
+            termsByTag.computeIfAbsent(synonym.getString("tagId"), k -> new ArrayList<>()).add(synonym.getString("synonym"));
+        }
+        TagDictionary dictionary = new TagDictionary(tags, termsByTag, ++versionCounter);
+        current = dictionary;
+        logger.info("Compiled tag dictionary v{}: {} tags, {} terms in {}ms", dictionary.version, tags.size(),
+                dictionary.termCount, System.currentTimeMillis() - startMs);
+        return dictionary;
+    }
+
+    /**
+     * 由给定的标签（按 sortOrder 排好序，需含 tagId）与各标签的词语编译词典，不经过数据库
+     */
+    public static TagDictionary compile(List<Map<String, Object>> tags, Map<String, ? extends Collection<String>> termsByTag) {
+        return new TagDictionary(tags, termsByTag, 0L);
+    }
+
+    public static void invalidate() {
+        current = null;
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // ==================== 匹配 ====================
+
+    /**
+     * 单次扫描文本，返回命中的标签ID（按 sortOrder）；英文不区分大小写
+     */
+    public List<String> extract(String text) {
+        if (text == null || text.isEmpty() || tagIds.length == 0) return new ArrayList<>();
+        BitSet found = new BitSet(tagIds.length);
+        automaton.scan(text, true, found);
+        List<String> result = new ArrayList<>(found.cardinality());
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) result.add(tagIds[i]);
+        return result;
+    }
+
+    /**
+     * 标签记录（Tag 的全部字段），按 sortOrder；不在词典中的ID忽略
+     */
+    public List<Map<String, Object>> tags(Collection<String> tagIdList) {
+        if (tagIdList == null || tagIdList.isEmpty()) return new ArrayList<>();
+        BitSet selected = new BitSet(tagIds.length);
+        for (String tagId : tagIdList) {
+            Integer index = indexById.get(tagId);
+            if (index != null) selected.set(index);
+        }
+        List<Map<String, Object>> result = new ArrayList<>(selected.cardinality());
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) result.add(new LinkedHashMap<>(tagMaps.get(i)));
+        return result;
+    }
+
+    public int getTagCount() {
+        return tagIds.length;
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
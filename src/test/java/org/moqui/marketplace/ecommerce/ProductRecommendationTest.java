@@ -0,0 +1,170 @@
+package org.moqui.marketplace.ecommerce;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.marketplace.matching.InMemoryEntityStore;
+import org.moqui.marketplace.matching.InMemoryExecutionContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 商品推荐按销量、平均评分分页读取的Top-K与逐个商品评分的原算法一致（含同分按商品ID排序、得分为0的商品补足）
+ */
+class ProductRecommendationTest {
+    private static final String[] INTENTS = {"B2B_PURCHASE", "PROJECT_EXPANSION", "SOCIAL_RETAIL", null};
+    private static final String[] CATEGORIES = {"C1", "C2", "C3"};
+    private static final BigDecimal FIVE = new BigDecimal("5");
+
+    @AfterEach
+    void tearDown() {
+        ProductStats.invalidateRecommendations();
+    }
+
+    @Test
+    void pagedTopKEqualsFullScan() {
+        Random random = new Random(29L);
+        for (int round = 0; round < 60; round++) {
+            ProductStats.invalidateRecommendations();
+            InMemoryEntityStore store = new InMemoryEntityStore();
+            List<Map<String, Object>> products = new ArrayList<>();
+            Map<String, long[]> statsById = new HashMap<>();
+            int productCount = random.nextInt(400);
+            for (int i = 0; i < productCount; i++) {
+                Map<String, Object> product = new HashMap<>();
+                String productId = String.format("P%04d", i);
+                product.put("ecommerceProductId", productId);
+                product.put("productName", "商品" + i);
+                product.put("productCategoryId", CATEGORIES[random.nextInt(CATEGORIES.length)]);
+                product.put("price", BigDecimal.valueOf(random.nextInt(1000)));
+                product.put("stockQuantity", (long) random.nextInt(50));
+                product.put("status", random.nextInt(5) == 0 ? "INACTIVE" : "ACTIVE");
+                store.create("marketplace.ecommerce.EcommerceProduct", product);
+                products.add(product);
+                if (random.nextInt(4) == 0) continue;
+
+                // 小取值范围制造大量同分
+                long ratingCount = random.nextInt(3) == 0 ? 0L : 1 + random.nextInt(4);
+                long ratingSum = 0L;
+                for (long r = 0; r < ratingCount; r++) ratingSum += 1 + random.nextInt(5);
+                long soldQuantity = random.nextInt(3) == 0 ? 0L : random.nextInt(round % 2 == 0 ? 10 : 100000);
+                statsById.put(productId, new long[] {ratingSum, ratingCount, soldQuantity});
+                Map<String, Object> stats = new HashMap<>();
+                stats.put("ecommerceProductId", productId);
+                stats.put("ratingSum", ratingSum);
+                stats.put("ratingCount", ratingCount);
+                stats.put("soldQuantity", soldQuantity);
+                stats.put("avgRating", ProductStats.averageRating(ratingSum, ratingCount));
+                store.create("marketplace.ecommerce.EcommerceProductStats", stats);
+                Map<String, Object> joined = new HashMap<>(product);
+                joined.putAll(stats);
+                store.create("marketplace.ecommerce.EcommerceProductAndStats", joined);
+                if (soldQuantity > 0L) {
+                    Map<String, Object> day = new HashMap<>();
+                    day.put("ecommerceProductId", productId);
+                    day.put("salesDate", Date.valueOf(LocalDate.now()));
+                    day.put("soldQuantity", soldQuantity);
+                    store.create("marketplace.ecommerce.EcommerceProductSalesDay", day);
+                }
+            }
+            ExecutionContext ec = InMemoryExecutionContext.create(store);
+
+            String intent = INTENTS[random.nextInt(INTENTS.length)];
+            String categoryId = random.nextBoolean() ? null : CATEGORIES[random.nextInt(CATEGORIES.length)];
+            List<String> expected = expected(products, statsById, intent, categoryId);
+            List<String> actual = new ArrayList<>();
+            for (Map<String, Object> recommendation : ProductStats.recommend(ec, intent, categoryId, 20)) {
+                actual.add(recommendation.get("ecommerceProductId") + "=" + recommendation.get("recommendationScore")
+                        + "/" + recommendation.get("reviewCount") + "/" + recommendation.get("orderCount")
+                        + "/" + recommendation.get("recentOrderCount"));
+            }
+            assertEquals(expected, actual, "round " + round + " intent " + intent + " category " + categoryId);
+        }
+    }
+
+    @Test
+    void readsPastFirstPageForBalancedProducts() {
+        // 评分最高与销量最高的各60个商品只在单项领先，综合得分最高的商品在两个列表中都排在第一页之后
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        for (int i = 0; i < 60; i++) product(store, String.format("R%03d", i), 5L, 1L, 1L);
+        for (int i = 0; i < 60; i++) product(store, String.format("S%03d", i), 0L, 0L, 1000L);
+        product(store, "B000", 9L, 2L, 900L);
+        ExecutionContext ec = InMemoryExecutionContext.create(store);
+
+        List<Map<String, Object>> recommendations = ProductStats.recommend(ec, null, null, 20);
+        assertEquals(20, recommendations.size());
+        assertEquals("B000", recommendations.get(0).get("ecommerceProductId"));
+        assertEquals("R000", recommendations.get(1).get("ecommerceProductId"));
+    }
+
+    private static void product(InMemoryEntityStore store, String productId, long ratingSum, long ratingCount, long soldQuantity) {
+        Map<String, Object> product = new HashMap<>();
+        product.put("ecommerceProductId", productId);
+        product.put("productCategoryId", "C1");
+        product.put("status", "ACTIVE");
+        store.create("marketplace.ecommerce.EcommerceProduct", product);
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("ecommerceProductId", productId);
+        stats.put("ratingSum", ratingSum);
+        stats.put("ratingCount", ratingCount);
+        stats.put("soldQuantity", soldQuantity);
+        stats.put("avgRating", ProductStats.averageRating(ratingSum, ratingCount));
+        store.create("marketplace.ecommerce.EcommerceProductStats", stats);
+        Map<String, Object> joined = new HashMap<>(product);
+        joined.putAll(stats);
+        store.create("marketplace.ecommerce.EcommerceProductAndStats", joined);
+    }
+
+    /** 原脚本：逐个ACTIVE商品评分，按得分降序、商品ID升序取前20 */
+    private static List<String> expected(List<Map<String, Object>> products, Map<String, long[]> statsById, String intent,
+                                         String categoryId) {
+        BigDecimal ratingWeight;
+        BigDecimal salesWeight;
+        if ("B2B_PURCHASE".equals(intent)) {
+            ratingWeight = new BigDecimal("0.4");
+            salesWeight = new BigDecimal("0.6");
+        } else if ("PROJECT_EXPANSION".equals(intent)) {
+            ratingWeight = new BigDecimal("0.6");
+            salesWeight = new BigDecimal("0.4");
+        } else if ("SOCIAL_RETAIL".equals(intent)) {
+            ratingWeight = new BigDecimal("0.7");
+            salesWeight = new BigDecimal("0.3");
+        } else {
+            ratingWeight = new BigDecimal("0.55");
+            salesWeight = new BigDecimal("0.45");
+        }
+        long maxOrderQty = 0L;
+        for (long[] stats : statsById.values()) maxOrderQty = Math.max(maxOrderQty, stats[2]);
+
+        List<Object[]> scored = new ArrayList<>();
+        for (Map<String, Object> product : products) {
+            if (!"ACTIVE".equals(product.get("status"))) continue;
+            if (categoryId != null && !categoryId.equals(product.get("productCategoryId"))) continue;
+            String productId = (String) product.get("ecommerceProductId");
+            long[] stats = statsById.getOrDefault(productId, new long[3]);
+            BigDecimal avgRating = stats[1] != 0L ?
+                    BigDecimal.valueOf(stats[0]).divide(BigDecimal.valueOf(stats[1]), 4, RoundingMode.HALF_UP) : BigDecimal.ZERO;
+            BigDecimal ratingScore = avgRating.signum() > 0 ? avgRating.divide(FIVE, 4, RoundingMode.HALF_UP) : BigDecimal.ZERO;
+            BigDecimal orderScore = maxOrderQty > 0L && stats[2] > 0L ?
+                    BigDecimal.valueOf(stats[2]).divide(BigDecimal.valueOf(maxOrderQty), 4, RoundingMode.HALF_UP) : BigDecimal.ZERO;
+            BigDecimal score = ratingScore.multiply(ratingWeight).add(orderScore.multiply(salesWeight)).setScale(4, RoundingMode.HALF_UP);
+            scored.add(new Object[] {productId, score, stats});
+        }
+        scored.sort((a, b) -> {
+            int cmp = ((BigDecimal) b[1]).compareTo((BigDecimal) a[1]);
+            return cmp != 0 ? cmp : ((String) a[0]).compareTo((String) b[0]);
+        });
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(20, scored.size()); i++) {
+            long[] stats = (long[]) scored.get(i)[2];
+            result.add(scored.get(i)[0] + "=" + scored.get(i)[1] + "/" + stats[1] + "/" + stats[2] + "/" + stats[2]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,78 @@
+package org.moqui.marketplace.hivemind;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * HiveMind 接口熔断器的状态转换：连续失败打开、到期半开只放行一个探测、探测结果决定关闭或重新打开
+ */
+class HiveMindCircuitBreakerTest {
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        HiveMindCircuitBreaker breaker = new HiveMindCircuitBreaker(3, 1000L);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(breaker.tryAcquire(0L));
+            breaker.onFailure(0L);
+        }
+        assertEquals(HiveMindCircuitBreaker.State.CLOSED, breaker.getState());
+        // 成功清零连续失败计数
+        assertTrue(breaker.tryAcquire(0L));
+        breaker.onSuccess();
+        assertEquals(0, breaker.getConsecutiveFailures());
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquire(10L));
+            breaker.onFailure(10L);
+        }
+        assertEquals(HiveMindCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(500L));
+        assertFalse(breaker.tryAcquire(1009L));
+        assertEquals(2L, breaker.getRejectedCount());
+    }
+
+    @Test
+    void halfOpenAllowsSingleProbe() {
+        HiveMindCircuitBreaker breaker = new HiveMindCircuitBreaker(1, 1000L);
+        assertTrue(breaker.tryAcquire(0L));
+        breaker.onFailure(0L);
+        assertEquals(HiveMindCircuitBreaker.State.OPEN, breaker.getState());
+
+        assertTrue(breaker.tryAcquire(1000L));
+        assertEquals(HiveMindCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(1001L));
+
+        // 探测被放弃后允许下一个探测
+        breaker.onAbandon();
+        assertTrue(breaker.tryAcquire(1002L));
+        breaker.onSuccess();
+        assertEquals(HiveMindCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire(1003L));
+        assertTrue(breaker.tryAcquire(1003L));
+    }
+
+    @Test
+    void failedProbeReopensAndRestartsTimer() {
+        HiveMindCircuitBreaker breaker = new HiveMindCircuitBreaker(5, 1000L);
+        for (int i = 0; i < 5; i++) {
+            breaker.tryAcquire(0L);
+            breaker.onFailure(0L);
+        }
+        assertTrue(breaker.tryAcquire(1500L));
+        breaker.onFailure(1500L);
+        assertEquals(HiveMindCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(2400L));
+        assertTrue(breaker.tryAcquire(2500L));
+    }
+
+    @Test
+    void thresholdAndOpenMillisAreClamped() {
+        HiveMindCircuitBreaker breaker = new HiveMindCircuitBreaker(0, -5L);
+        assertTrue(breaker.tryAcquire(0L));
+        breaker.onFailure(0L);
+        assertEquals(HiveMindCircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire(0L));
+        assertEquals(HiveMindCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+}
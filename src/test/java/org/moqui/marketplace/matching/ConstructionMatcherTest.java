@@ -0,0 +1,151 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 建筑工程全量匹配：服务类型分桶与报价区间线段树的剪枝结果与逐对评分的穷举结果一致（含同分排序）
+ */
+class ConstructionMatcherTest {
+    private static final String[] PROJECT_TYPES = {"装修", "维修", "新建", "改造", "其他", null};
+    private static final String[] SERVICE_TYPES = {"全包", "木工", "油漆", "水电", "泥瓦", "防水", "设计", null};
+    private static final String[] URGENCIES = {"紧急", "一般", null};
+    private static final String[] WORKING_HOURS = {"可加班", "工作日", null};
+    private static final Map<String, Set<String>> SERVICES = new HashMap<>();
+    static {
+        SERVICES.put("装修", new HashSet<>(Arrays.asList("全包", "木工", "油漆", "水电", "泥瓦")));
+        SERVICES.put("维修", new HashSet<>(Arrays.asList("水电", "泥瓦", "防水", "全包")));
+        SERVICES.put("新建", new HashSet<>(Arrays.asList("全包", "泥瓦", "水电", "防水")));
+        SERVICES.put("改造", new HashSet<>(Arrays.asList("全包", "木工", "水电", "泥瓦")));
+    }
+
+    @Test
+    void fullMatchEqualsExhaustiveScoring() {
+        Random random = new Random(17L);
+        for (int round = 0; round < 40; round++) {
+            InMemoryEntityStore store = new InMemoryEntityStore();
+            List<Map<String, Object>> demands = new ArrayList<>();
+            List<Map<String, Object>> supplies = new ArrayList<>();
+            int demandCount = 1 + random.nextInt(60);
+            int supplyCount = 1 + random.nextInt(80);
+            for (int i = 0; i < demandCount; i++) {
+                Map<String, Object> demand = new HashMap<>();
+                demand.put("demandId", String.format("D%04d", i));
+                demand.put("projectType", pick(random, PROJECT_TYPES));
+                demand.put("budget", random.nextInt(8) == 0 ? null : BigDecimal.valueOf(random.nextInt(100)));
+                demand.put("urgency", pick(random, URGENCIES));
+                store.create(ConstructionMatcher.DEMAND_ENTITY, demand);
+                demands.add(demand);
+            }
+            for (int i = 0; i < supplyCount; i++) {
+                Map<String, Object> supply = new HashMap<>();
+                int min = random.nextInt(90);
+                supply.put("supplyId", String.format("S%04d", i));
+                supply.put("serviceType", pick(random, SERVICE_TYPES));
+                supply.put("priceRangeMin", random.nextInt(8) == 0 ? null : BigDecimal.valueOf(min));
+                supply.put("priceRangeMax", random.nextInt(8) == 0 ? null : BigDecimal.valueOf(min + random.nextInt(30)));
+                supply.put("experienceYears", random.nextInt(6) == 0 ? null : (long) random.nextInt(9));
+                supply.put("workingHours", pick(random, WORKING_HOURS));
+                store.create(ConstructionMatcher.SUPPLY_ENTITY, supply);
+                supplies.add(supply);
+            }
+            ExecutionContext ec = InMemoryExecutionContext.create(store);
+
+            BigDecimal minScore = BigDecimal.valueOf(random.nextInt(11), 1);
+            int maxResults = 1 + random.nextInt(50);
+            List<Map<String, Object>> actual = ConstructionMatcher.findMatches(ec, null, null, minScore, maxResults);
+            assertEquals(expected(demands, supplies, minScore, maxResults), simplify(actual),
+                    "round " + round + " minScore " + minScore + " maxResults " + maxResults);
+        }
+    }
+
+    @Test
+    void emptyResultsForUnreachableScoreOrNoResults() {
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        Map<String, Object> demand = new HashMap<>();
+        demand.put("demandId", "D1");
+        demand.put("projectType", "装修");
+        demand.put("budget", new BigDecimal("50"));
+        store.create(ConstructionMatcher.DEMAND_ENTITY, demand);
+        Map<String, Object> supply = new HashMap<>();
+        supply.put("supplyId", "S1");
+        supply.put("serviceType", "木工");
+        supply.put("priceRangeMin", new BigDecimal("10"));
+        supply.put("priceRangeMax", new BigDecimal("60"));
+        supply.put("experienceYears", 6L);
+        store.create(ConstructionMatcher.SUPPLY_ENTITY, supply);
+        ExecutionContext ec = InMemoryExecutionContext.create(store);
+
+        List<Map<String, Object>> matches = ConstructionMatcher.findMatches(ec, null, null, BigDecimal.ONE, 10);
+        assertEquals(1, matches.size());
+        assertEquals(0, BigDecimal.ONE.compareTo((BigDecimal) matches.get(0).get("matchScore")));
+        assertTrue(ConstructionMatcher.findMatches(ec, null, null, new BigDecimal("1.01"), 10).isEmpty());
+        assertTrue(ConstructionMatcher.findMatches(ec, null, null, BigDecimal.ZERO, 0).isEmpty());
+    }
+
+    private static List<String> expected(List<Map<String, Object>> demands, List<Map<String, Object>> supplies,
+                                         BigDecimal minScore, int maxResults) {
+        List<Object[]> pairs = new ArrayList<>();
+        for (Map<String, Object> demand : demands) {
+            for (Map<String, Object> supply : supplies) {
+                BigDecimal score = BigDecimal.valueOf(score(demand, supply), 1);
+                if (score.compareTo(minScore) >= 0) pairs.add(new Object[] {demand.get("demandId"), supply.get("supplyId"), score});
+            }
+        }
+        pairs.sort((a, b) -> {
+            int byScore = ((BigDecimal) b[2]).compareTo((BigDecimal) a[2]);
+            if (byScore != 0) return byScore;
+            int byDemand = ((String) a[0]).compareTo((String) b[0]);
+            return byDemand != 0 ? byDemand : ((String) a[1]).compareTo((String) b[1]);
+        });
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(maxResults, pairs.size()); i++) {
+            result.add(pairs.get(i)[0] + "/" + pairs.get(i)[1] + "=" + pairs.get(i)[2]);
+        }
+        return result;
+    }
+
+    /** 原脚本的逐对评分（十分位） */
+    private static int score(Map<String, Object> demand, Map<String, Object> supply) {
+        int score = 0;
+        String projectType = (String) demand.get("projectType");
+        String serviceType = (String) supply.get("serviceType");
+        if ("全包".equals(serviceType) || (projectType != null && SERVICES.containsKey(projectType)
+                && SERVICES.get(projectType).contains(serviceType))) {
+            score += 4;
+        }
+        BigDecimal budget = (BigDecimal) demand.get("budget");
+        BigDecimal min = (BigDecimal) supply.get("priceRangeMin");
+        BigDecimal max = (BigDecimal) supply.get("priceRangeMax");
+        if (nonZero(budget) && nonZero(min) && nonZero(max) && budget.compareTo(min) >= 0 && budget.compareTo(max) <= 0) {
+            score += 3;
+        }
+        Long years = (Long) supply.get("experienceYears");
+        if (years != null && years >= 5) score += 2;
+        else if (years != null && years >= 2) score += 1;
+        String workingHours = (String) supply.get("workingHours");
+        if (!"紧急".equals(demand.get("urgency")) || (workingHours != null && workingHours.contains("加班"))) score += 1;
+        return score;
+    }
+
+    private static boolean nonZero(BigDecimal value) {
+        return value != null && value.signum() != 0;
+    }
+
+    private static List<String> simplify(List<Map<String, Object>> matches) {
+        List<String> result = new ArrayList<>();
+        for (Map<String, Object> match : matches) {
+            result.add(match.get("demandId") + "/" + match.get("supplyId") + "=" + match.get("matchScore"));
+        }
+        return result;
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
@@ -0,0 +1,63 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 候选集批量装载：查询次数与候选数无关（同一IN分批内），findMatchesForListing 不随候选数逐条查询
+ */
+class ListingHydrationTest {
+    private static final long SEED = 20240601L;
+
+    @BeforeEach
+    void setUp() {
+        resetStaticCaches();
+    }
+
+    @AfterEach
+    void tearDown() {
+        resetStaticCaches();
+    }
+
+    private static void resetStaticCaches() {
+        MatchingIndexes.invalidateAll();
+        SmartMatchingEngine.clearCachedConfig();
+    }
+
+    /** 在新生成的合成市场上执行一次操作，返回其查询次数 */
+    private static long queriesFor(int candidateCount, boolean fullMatch) {
+        resetStaticCaches();
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        SyntheticMarketplace market = SyntheticMarketplace.generate(store, candidateCount, SEED);
+        ExecutionContext ec = InMemoryExecutionContext.create(store);
+        long before = store.getQueryCount();
+        if (fullMatch) {
+            new SmartMatchingEngine(ec).findMatchesForListing(SyntheticMarketplace.SOURCE_LISTING_ID, 20, BigDecimal.ZERO);
+        } else {
+            ListingHydration.load(ec, market.getListings());
+        }
+        return store.getQueryCount() - before;
+    }
+
+    @Test
+    void hydrationQueryCountIndependentOfCandidateCount() {
+        // 两种规模（含背景数据）都在单个IN分批（1000）之内：标签、坐标、画像、识别信息各一次
+        long small = queriesFor(50, false);
+        long large = queriesFor(700, false);
+        assertEquals(small, large);
+        assertTrue(small <= 4, "queries " + small);
+    }
+
+    @Test
+    void findMatchesQueryCountIndependentOfCandidateCount() {
+        long small = queriesFor(50, true);
+        long large = queriesFor(700, true);
+        assertEquals(small, large, "findMatchesForListing queries grew with the candidate count");
+    }
+}
@@ -0,0 +1,147 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Listing标签索引的LSH预筛选：高重合度候选必定保留，无共同标签的候选被舍弃，碰撞不足时放宽为共享任一标签，
+ * 未被索引的候选保守保留
+ */
+class ListingTagIndexTest {
+    private static final String LISTING_ENTITY = "marketplace.listing.Listing";
+    private static final String LISTING_TAG_ENTITY = "marketplace.listing.ListingTag";
+
+    private InMemoryEntityStore store;
+    private ExecutionContext ec;
+    private final Map<String, Set<String>> tagsByListing = new LinkedHashMap<>();
+    private final List<EntityValue> candidates = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        ListingTagIndex.invalidateAll();
+        store = new InMemoryEntityStore();
+        ec = InMemoryExecutionContext.create(store);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ListingTagIndex.invalidateAll();
+    }
+
+    private EntityValue listing(String listingId, String status, Collection<String> tagIds) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("listingId", listingId);
+        fields.put("status", status);
+        EntityValue listing = store.create(LISTING_ENTITY, fields);
+        for (String tagId : tagIds) {
+            Map<String, Object> tag = new HashMap<>();
+            tag.put("listingId", listingId);
+            tag.put("tagId", tagId);
+            store.create(LISTING_TAG_ENTITY, tag);
+        }
+        tagsByListing.put(listingId, new HashSet<>(tagIds));
+        return listing;
+    }
+
+    private static List<String> tagRange(String prefix, int from, int to) {
+        List<String> tags = new ArrayList<>();
+        for (int i = from; i < to; i++) tags.add(prefix + i);
+        return tags;
+    }
+
+    private static List<String> ids(List<EntityValue> values) {
+        List<String> ids = new ArrayList<>();
+        for (EntityValue value : values) ids.add(value.getString("listingId"));
+        return ids;
+    }
+
+    @Test
+    void preselectKeepsSimilarAndDropsDisjoint() {
+        Random random = new Random(23L);
+        List<String> sourceTags = tagRange("T", 0, 10);
+        List<String> similar = new ArrayList<>();
+        List<String> disjoint = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String listingId = String.format("L%04d", i);
+            List<String> tags;
+            if (i % 2 == 0) {
+                // 与源相同或只多一个标签：Jaccard ≥ 0.9
+                tags = new ArrayList<>(sourceTags);
+                if (random.nextBoolean()) tags.add("X" + i);
+                similar.add(listingId);
+            } else {
+                tags = tagRange("U" + i + "_", 0, 1 + random.nextInt(6));
+                disjoint.add(listingId);
+            }
+            candidates.add(listing(listingId, "ACTIVE", tags));
+        }
+        ListingTagIndex.ensureLoaded(ec);
+        assertTrue(ListingTagIndex.isLoaded());
+        assertEquals(200, ListingTagIndex.size());
+
+        List<String> kept = ids(ListingTagIndex.preselect(candidates, ListingTagIndex.toSortedCodes(sourceTags), 1));
+        assertTrue(kept.containsAll(similar), "similar candidates dropped");
+        for (String listingId : disjoint) assertFalse(kept.contains(listingId), listingId);
+        // 保持候选原有顺序
+        List<String> inOrder = new ArrayList<>(ids(candidates));
+        inOrder.retainAll(kept);
+        assertEquals(inOrder, kept);
+    }
+
+    @Test
+    void fallsBackToSharedTagWhenTooFewCollisions() {
+        List<String> sourceTags = tagRange("T", 0, 20);
+        for (int i = 0; i < 60; i++) {
+            // 与源共享0～2个标签，另有若干独有标签：重合度都很低
+            List<String> tags = new ArrayList<>(tagRange("T", 0, i % 3));
+            tags.addAll(tagRange("V" + i + "_", 0, 15));
+            candidates.add(listing(String.format("L%04d", i), "ACTIVE", tags));
+        }
+        ListingTagIndex.ensureLoaded(ec);
+
+        List<String> kept = ids(ListingTagIndex.preselect(candidates, ListingTagIndex.toSortedCodes(sourceTags),
+                candidates.size()));
+        List<String> expected = new ArrayList<>();
+        for (EntityValue candidate : candidates) {
+            String listingId = candidate.getString("listingId");
+            if (!Collections.disjoint(tagsByListing.get(listingId), sourceTags)) expected.add(listingId);
+        }
+        assertEquals(expected, kept);
+    }
+
+    @Test
+    void unindexedCandidatesAreKept() {
+        candidates.add(listing("L1", "ACTIVE", tagRange("T", 0, 3)));
+        candidates.add(listing("L2", "ACTIVE", tagRange("W", 0, 3)));
+        candidates.add(listing("L3", "PAUSED", tagRange("W", 0, 3)));
+        int[] sourceCodes = ListingTagIndex.toSortedCodes(tagRange("T", 0, 3));
+
+        // 索引未构建或源无标签时原样返回
+        assertSame(candidates, ListingTagIndex.preselect(candidates, sourceCodes, 1));
+        ListingTagIndex.ensureLoaded(ec);
+        assertSame(candidates, ListingTagIndex.preselect(candidates, ListingTagIndex.EMPTY, 1));
+
+        assertEquals(Arrays.asList("L1", "L3"), ids(ListingTagIndex.preselect(candidates, sourceCodes, 1)));
+        ListingTagIndex.removeListing("L2");
+        assertEquals(Arrays.asList("L1", "L2", "L3"), ids(ListingTagIndex.preselect(candidates, sourceCodes, 1)));
+    }
+
+    @Test
+    void loadTagsPrefersIndexAndFallsBackToQuery() {
+        listing("L1", "ACTIVE", Arrays.asList("B", "A", "B"));
+        listing("L2", "PAUSED", Arrays.asList("C"));
+        ListingTagIndex.ensureLoaded(ec);
+        assertArrayEquals(ListingTagIndex.toSortedCodes(Arrays.asList("A", "B")), ListingTagIndex.loadTags(ec, "L1"));
+        assertArrayEquals(ListingTagIndex.toSortedCodes(Collections.singleton("C")), ListingTagIndex.loadTags(ec, "L2"));
+        assertEquals(Collections.singleton("L1"), ListingTagIndex.findWithAnyTag(Arrays.asList("A", "C")));
+        assertEquals(2, ListingTagIndex.intersectionSize(ListingTagIndex.toSortedCodes(Arrays.asList("A", "B")),
+                ListingTagIndex.toSortedCodes(Arrays.asList("B", "A", "C"))));
+    }
+}
@@ -0,0 +1,109 @@
+package org.moqui.marketplace.matching;
+
+import org.moqui.context.ExecutionContext;
+import org.moqui.entity.EntityValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 定点评分内核与 BigDecimal 实现的等价性：在合成市场数据上对每个供需对比较两者的总分（4位小数逐位一致）
+ */
+class MatchScoringKernelTest {
+    private static final long SEED = 20240601L;
+    private static final int CANDIDATE_COUNT = 2000;
+
+    private ExecutionContext ec;
+    private SmartMatchingEngine engine;
+    private SyntheticMarketplace market;
+
+    @BeforeEach
+    void setUp() {
+        resetStaticCaches();
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        market = SyntheticMarketplace.generate(store, CANDIDATE_COUNT, SEED);
+        ec = InMemoryExecutionContext.create(store);
+        engine = new SmartMatchingEngine(ec);
+    }
+
+    @AfterEach
+    void tearDown() {
+        resetStaticCaches();
+    }
+
+    private static void resetStaticCaches() {
+        MatchingIndexes.invalidateAll();
+        SmartMatchingEngine.clearCachedConfig();
+    }
+
+    @Test
+    void kernelMatchesBigDecimalOnSyntheticCorpus() {
+        MatchScoringKernel kernel = engine.createScoringKernel();
+        assertNotNull(kernel, "configured weights should be representable as fixed point");
+
+        EntityValue source = market.getSource();
+        List<EntityValue> listings = market.getListings();
+        ListingHydration hydration = ListingHydration.load(ec, listings);
+        long nowMillis = System.currentTimeMillis();
+
+        ProjectProfile sourceProfile = engine.extractProjectProfile(source, hydration);
+        MatchFeatures sourceFeatures = MatchFeatures.of(source, sourceProfile, hydration);
+        int compared = 0;
+        for (EntityValue candidate : listings) {
+            if (candidate == source) continue;
+            ProjectProfile candidateProfile = engine.extractProjectProfile(candidate, hydration);
+            MatchFeatures candidateFeatures = MatchFeatures.of(candidate, candidateProfile, hydration);
+            Map<String, Object> expected = engine.calculateMatchScore(source, candidate, sourceProfile, candidateProfile,
+                    hydration, nowMillis);
+            BigDecimal expectedScore = (BigDecimal) expected.get("matchScore");
+            BigDecimal kernelScore = MatchScoringKernel.toScore(kernel.score(sourceFeatures, candidateFeatures, nowMillis));
+            assertEquals(0, expectedScore.compareTo(kernelScore),
+                    () -> candidate.getString("listingId") + ": BigDecimal " + expectedScore + " vs kernel " + kernelScore);
+            // 反方向（候选为源）同样一致
+            BigDecimal reversed = (BigDecimal) engine.calculateMatchScore(candidate, source, candidateProfile, sourceProfile,
+                    hydration, nowMillis).get("matchScore");
+            assertEquals(0, reversed.compareTo(MatchScoringKernel.toScore(
+                    kernel.score(candidateFeatures, sourceFeatures, nowMillis))), candidate.getString("listingId"));
+            compared++;
+        }
+        assertTrue(compared >= CANDIDATE_COUNT);
+    }
+
+    @Test
+    void thresholdScaledKeepsScoresAtOrAboveMinScore() {
+        BigDecimal minScore = new BigDecimal("0.61235");
+        long threshold = MatchScoringKernel.thresholdScaled(minScore);
+        assertEquals(6124L, threshold);
+        assertTrue(MatchScoringKernel.toScore(threshold).compareTo(minScore) >= 0);
+        assertTrue(MatchScoringKernel.toScore(threshold - 1).compareTo(minScore) < 0);
+        assertEquals(Long.MIN_VALUE, MatchScoringKernel.thresholdScaled(null));
+    }
+
+    @Test
+    void round4IsHalfUp() {
+        assertEquals(1235L, MatchScoringKernel.round4(0.12345));
+        assertEquals(1234L, MatchScoringKernel.round4(0.123449));
+        assertEquals(10000L, MatchScoringKernel.round4(1.0));
+        assertEquals(0L, MatchScoringKernel.round4(0.0));
+    }
+
+    @Test
+    void topMatchesFollowBigDecimalRanking() {
+        String sourceId = SyntheticMarketplace.SOURCE_LISTING_ID;
+        BigDecimal minScore = BigDecimal.ZERO;
+        List<Map<String, Object>> matches = engine.findMatchesForListing(sourceId, 20, minScore);
+        assertFalse(matches.isEmpty());
+        List<BigDecimal> scores = new ArrayList<>();
+        for (Map<String, Object> match : matches) scores.add((BigDecimal) match.get("matchScore"));
+        for (int i = 1; i < scores.size(); i++) {
+            assertTrue(scores.get(i - 1).compareTo(scores.get(i)) >= 0, "scores not descending at " + i + ": " + scores);
+        }
+    }
+}
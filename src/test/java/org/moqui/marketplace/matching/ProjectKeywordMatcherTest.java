@@ -0,0 +1,71 @@
+package org.moqui.marketplace.matching;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 项目关键词多模式匹配：命中结果与逐个关键词 String.contains 的原判断一致
+ */
+class ProjectKeywordMatcherTest {
+    private static final String[] WORDS = {"展台", "搭建", "LED", "led屏", "桁架", "Truss", "现代简约", "简约", "科技感",
+            "装修", "展", "工业风", "AI", "ai", "灯光", "灯光音响", "Booth", "BOOTH", "玻璃", "石材"};
+
+    @Test
+    void matchesContainsSemantics() {
+        Random random = new Random(11L);
+        for (int round = 0; round < 100; round++) {
+            LinkedHashMap<String, List<String>> groups = new LinkedHashMap<>();
+            Set<String> caseInsensitive = new HashSet<>();
+            int groupCount = 1 + random.nextInt(4);
+            for (int g = 0; g < groupCount; g++) {
+                List<String> keywords = new ArrayList<>();
+                int keywordCount = random.nextInt(8);
+                for (int k = 0; k < keywordCount; k++) keywords.add(WORDS[random.nextInt(WORDS.length)]);
+                groups.put("group" + g, keywords);
+                if (random.nextBoolean()) caseInsensitive.add("group" + g);
+            }
+            ProjectKeywordMatcher matcher = ProjectKeywordMatcher.compile(round, groups, caseInsensitive);
+
+            StringBuilder text = new StringBuilder();
+            int parts = random.nextInt(10);
+            for (int p = 0; p < parts; p++) {
+                String word = WORDS[random.nextInt(WORDS.length)];
+                text.append(random.nextBoolean() ? word.toUpperCase() : word).append(random.nextBoolean() ? "，" : "");
+            }
+            String value = text.toString();
+            ProjectKeywordMatcher.Hits hits = matcher.scan(value);
+            for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+                List<String> expected = new ArrayList<>();
+                for (String keyword : group.getValue()) {
+                    boolean hit = value.contains(keyword) || (caseInsensitive.contains(group.getKey())
+                            && value.toLowerCase().contains(keyword.toLowerCase()));
+                    if (hit) expected.add(keyword);
+                }
+                assertEquals(expected, hits.matched(group.getKey()), "round " + round + " text " + value);
+                assertEquals(expected.size(), hits.count(group.getKey()));
+            }
+        }
+    }
+
+    @Test
+    void unknownGroupAndEmptyText() {
+        LinkedHashMap<String, List<String>> groups = new LinkedHashMap<>();
+        groups.put("styles", Arrays.asList("现代简约", "工业风"));
+        ProjectKeywordMatcher matcher = ProjectKeywordMatcher.compile(1L, groups, Collections.emptySet());
+        assertEquals(1L, matcher.getConfigVersion());
+        assertEquals(0, matcher.scan("现代简约").count("materials"));
+        assertTrue(matcher.scan("现代简约").matched("materials").isEmpty());
+        assertEquals(0, matcher.scan("").count("styles"));
+        assertEquals(0, matcher.scan(null).count("styles"));
+        assertEquals(Collections.singletonList("工业风"), matcher.scan("偏工业风格").matched("styles"));
+    }
+
+    @Test
+    void hanTokensSplitsOnNonHan() {
+        assertEquals(Arrays.asList("上海", "展台搭建", "平米"), ProjectKeywordMatcher.hanTokens("上海 展台搭建,200平米"));
+        assertTrue(ProjectKeywordMatcher.hanTokens(null).isEmpty());
+    }
+}
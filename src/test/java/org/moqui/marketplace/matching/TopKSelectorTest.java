@@ -0,0 +1,90 @@
+package org.moqui.marketplace.matching;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 有界Top-K选择器：与按分数降序、同分按下标升序的完整排序取前K个一致，合并分段结果后也一致
+ */
+class TopKSelectorTest {
+
+    @Test
+    void matchesStableSortOnRandomScores() {
+        Random random = new Random(42L);
+        for (int round = 0; round < 200; round++) {
+            int count = random.nextInt(300);
+            int capacity = random.nextInt(40);
+            // 分数取值范围小，制造大量同分
+            long[] scores = new long[count];
+            for (int i = 0; i < count; i++) scores[i] = random.nextInt(20);
+
+            TopKSelector selector = new TopKSelector(capacity);
+            for (int i = 0; i < count; i++) selector.offer(scores[i], i);
+
+            int[] expected = expectedTopK(scores, capacity);
+            assertArrayEquals(expected, selector.sortedIndexes(), "round " + round);
+            long[] expectedScores = new long[expected.length];
+            for (int i = 0; i < expected.length; i++) expectedScores[i] = scores[expected[i]];
+            assertArrayEquals(expectedScores, selector.sortedScores(), "round " + round);
+            assertEquals(count, selector.offered());
+            assertEquals(Math.min(count, capacity), selector.size());
+        }
+    }
+
+    @Test
+    void mergeOfSegmentsEqualsSingleSelector() {
+        Random random = new Random(7L);
+        int count = 1000;
+        int capacity = 25;
+        long[] scores = new long[count];
+        for (int i = 0; i < count; i++) scores[i] = random.nextInt(100);
+
+        TopKSelector merged = new TopKSelector(capacity);
+        for (int start = 0; start < count; start += 137) {
+            TopKSelector segment = new TopKSelector(capacity);
+            for (int i = start; i < Math.min(start + 137, count); i++) segment.offer(scores[i], i);
+            merged.merge(segment);
+        }
+        assertArrayEquals(expectedTopK(scores, capacity), merged.sortedIndexes());
+        assertEquals(count, merged.offered());
+    }
+
+    @Test
+    void worstScoreTracksHeapTop() {
+        TopKSelector selector = new TopKSelector(3);
+        assertEquals(Long.MIN_VALUE, selector.worstScore());
+        assertFalse(selector.isFull());
+        selector.offer(5L, 0);
+        selector.offer(9L, 1);
+        selector.offer(7L, 2);
+        assertTrue(selector.isFull());
+        assertEquals(5L, selector.worstScore());
+        selector.offer(6L, 3);
+        assertEquals(6L, selector.worstScore());
+        // 同分时下标较大者不能替换堆顶
+        selector.offer(6L, 4);
+        assertArrayEquals(new int[]{1, 2, 3}, selector.sortedIndexes());
+    }
+
+    @Test
+    void zeroCapacityKeepsNothing() {
+        TopKSelector selector = new TopKSelector(0);
+        selector.offer(1L, 0);
+        assertEquals(0, selector.size());
+        assertEquals(1, selector.offered());
+        assertEquals(0, selector.sortedIndexes().length);
+    }
+
+    private static int[] expectedTopK(long[] scores, int capacity) {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < scores.length; i++) indexes.add(i);
+        indexes.sort((a, b) -> scores[a] != scores[b] ? Long.compare(scores[b], scores[a]) : Integer.compare(a, b));
+        int size = Math.min(capacity, indexes.size());
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) result[i] = indexes.get(i);
+        return result;
+    }
+}
@@ -0,0 +1,33 @@
+package org.moqui.marketplace.notification;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 通知渠道限流令牌桶：初始满桶可突发 capacity 次，之后按每分钟速率补充
+ */
+class TokenBucketTest {
+
+    @Test
+    void burstUpToCapacityThenRejects() {
+        NotificationDispatcher.TokenBucket bucket = new NotificationDispatcher.TokenBucket(1, 5);
+        assertEquals(5, bucket.available());
+        for (int i = 0; i < 5; i++) assertTrue(bucket.tryAcquire(), "acquire " + i);
+        assertFalse(bucket.tryAcquire());
+        assertEquals(0, bucket.available());
+        long wait = bucket.millisUntilAvailable();
+        assertTrue(wait > 0 && wait <= 60_000L, "wait " + wait);
+    }
+
+    @Test
+    void refillsOverTimeWithoutExceedingCapacity() throws InterruptedException {
+        // 每毫秒补充1个令牌
+        NotificationDispatcher.TokenBucket bucket = new NotificationDispatcher.TokenBucket(60_000, 3);
+        while (bucket.tryAcquire()) { }
+        Thread.sleep(50L);
+        assertEquals(0L, bucket.millisUntilAvailable());
+        assertEquals(3, bucket.available());
+        assertTrue(bucket.tryAcquire());
+    }
+}
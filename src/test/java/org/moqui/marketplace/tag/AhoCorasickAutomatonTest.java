@@ -0,0 +1,101 @@
+package org.moqui.marketplace.tag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 共用的 Aho-Corasick 自动机：确定性转移表与稀疏转移两种模式的命中结果都与逐个模式 String.contains 一致
+ */
+class AhoCorasickAutomatonTest {
+
+    @Test
+    void denseTableMatchesContains() {
+        Random random = new Random(3L);
+        String alphabet = "abc展台搭建";
+        for (int round = 0; round < 200; round++) {
+            List<String> patterns = new ArrayList<>();
+            int patternCount = random.nextInt(12);
+            for (int i = 0; i < patternCount; i++) patterns.add(randomText(random, alphabet, 1 + random.nextInt(4)));
+            AhoCorasickAutomaton automaton = build(patterns);
+            assertTrue(automaton.isDense());
+            String text = randomText(random, alphabet, random.nextInt(40));
+            assertEquals(expected(patterns, text), scan(automaton, text, false), "round " + round + " text " + text);
+        }
+    }
+
+    @Test
+    void sparseTransitionsMatchContainsOnLargeAlphabet() {
+        // 3000个不同汉字组成的词典，状态数 × 字母表大小超过确定性转移表上限
+        Random random = new Random(5L);
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            char first = (char) (0x4E00 + i);
+            patterns.add(first + randomText(random, "展台搭建灯光", 1 + random.nextInt(3)));
+        }
+        patterns.add("展台");
+        patterns.add("台搭");
+        AhoCorasickAutomaton automaton = build(patterns);
+        assertFalse(automaton.isDense());
+        assertEquals(patterns.size(), automaton.getPatternCount());
+
+        for (int round = 0; round < 200; round++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(60);
+            for (int i = 0; i < length; i++) {
+                text.append(random.nextInt(3) == 0 ? (char) (0x4E00 + random.nextInt(3000))
+                        : "展台搭建灯光".charAt(random.nextInt(6)));
+            }
+            assertEquals(expected(patterns, text.toString()), scan(automaton, text, false), "round " + round);
+        }
+    }
+
+    @Test
+    void lowerCaseScanAndDuplicateOutputs() {
+        AhoCorasickAutomaton automaton = AhoCorasickAutomaton.builder()
+                .add("led", 0).add("屏幕", 1).add("led屏", 0).add("", 2).add(null, 2)
+                .build();
+        assertEquals(3, automaton.getPatternCount());
+        BitSet found = new BitSet();
+        automaton.scan("大尺寸LED屏幕", true, found);
+        assertEquals(BitSet.valueOf(new long[] {0b11}), found);
+
+        found.clear();
+        automaton.scan("大尺寸LED屏幕", false, found);
+        assertEquals(BitSet.valueOf(new long[] {0b10}), found);
+
+        found.clear();
+        automaton.scan(null, true, found);
+        assertTrue(found.isEmpty());
+        AhoCorasickAutomaton.builder().build().scan("led", true, found);
+        assertTrue(found.isEmpty());
+    }
+
+    private static AhoCorasickAutomaton build(List<String> patterns) {
+        AhoCorasickAutomaton.Builder builder = AhoCorasickAutomaton.builder();
+        for (int i = 0; i < patterns.size(); i++) builder.add(patterns.get(i), i);
+        return builder.build();
+    }
+
+    private static BitSet scan(AhoCorasickAutomaton automaton, CharSequence text, boolean lowerCase) {
+        BitSet found = new BitSet();
+        automaton.scan(text, lowerCase, found);
+        return found;
+    }
+
+    private static BitSet expected(List<String> patterns, String text) {
+        BitSet found = new BitSet();
+        for (int i = 0; i < patterns.size(); i++) {
+            if (text.contains(patterns.get(i))) found.set(i);
+        }
+        return found;
+    }
+
+    private static String randomText(Random random, String alphabet, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return text.toString();
+    }
+}
@@ -0,0 +1,45 @@
+package org.moqui.marketplace.tag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 标签词典：单次扫描按 sortOrder 返回命中的标签，英文不区分大小写，空词与未知标签的词语忽略
+ */
+class TagDictionaryTest {
+
+    @Test
+    void extractsBySortOrderIgnoringCase() {
+        List<Map<String, Object>> tags = new ArrayList<>();
+        tags.add(tag("T_LED"));
+        tags.add(tag("T_TRUSS"));
+        tags.add(tag("T_BOOTH"));
+        Map<String, List<String>> terms = new HashMap<>();
+        terms.put("T_LED", Arrays.asList("LED屏", "  led显示屏 "));
+        terms.put("T_TRUSS", Arrays.asList("桁架", "Truss"));
+        terms.put("T_BOOTH", Arrays.asList("展台", "", "Booth"));
+        terms.put("T_UNKNOWN", Collections.singletonList("展台"));
+        TagDictionary dictionary = TagDictionary.compile(tags, terms);
+
+        assertEquals(3, dictionary.getTagCount());
+        assertEquals(6, dictionary.getTermCount());
+        assertEquals(Arrays.asList("T_LED", "T_BOOTH"), dictionary.extract("特装BOOTH配led屏"));
+        assertEquals(Arrays.asList("T_TRUSS", "T_BOOTH"), dictionary.extract("展台用TRUSS桁架"));
+        assertTrue(dictionary.extract("普通文本").isEmpty());
+        assertTrue(dictionary.extract(null).isEmpty());
+
+        List<Map<String, Object>> selected = dictionary.tags(Arrays.asList("T_BOOTH", "T_LED", "T_NONE"));
+        assertEquals(2, selected.size());
+        assertEquals("T_LED", selected.get(0).get("tagId"));
+        assertEquals("T_BOOTH", selected.get(1).get("tagId"));
+    }
+
+    private static Map<String, Object> tag(String tagId) {
+        Map<String, Object> tag = new LinkedHashMap<>();
+        tag.put("tagId", tagId);
+        return tag;
+    }
+}